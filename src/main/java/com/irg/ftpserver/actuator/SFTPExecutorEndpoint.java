@@ -0,0 +1,59 @@
+package com.irg.ftpserver.actuator;
+
+import com.irg.ftpserver.service.SFTPSubsystemExecutor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Actuator endpoint {@code /actuator/sftpexecutor} summarizing the saturation of the SFTP subsystem executor:
+ * pool and queue counters, rejections, and how long subsystems waited for a worker and then ran.
+ */
+@Component
+@Endpoint(id = "sftpexecutor")
+public class SFTPExecutorEndpoint {
+
+    private final SFTPSubsystemExecutor sftpSubsystemExecutor;
+
+    private final MeterRegistry meterRegistry;
+
+    public SFTPExecutorEndpoint(SFTPSubsystemExecutor sftpSubsystemExecutor, MeterRegistry meterRegistry) {
+        this.sftpSubsystemExecutor = sftpSubsystemExecutor;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @ReadOperation
+    public Map<String, Object> executor() {
+        String mode = sftpSubsystemExecutor.getExecutorMode().name().toLowerCase(Locale.ROOT);
+        Map<String, Object> executor = new LinkedHashMap<>();
+        executor.put("statistics", sftpSubsystemExecutor.getStatistics());
+        executor.put("waitTime", summarize(meterRegistry.find("sftp.executor.wait").tag("mode", mode).timer()));
+        executor.put("runTime", summarize(meterRegistry.find("sftp.executor.run").tag("mode", mode).timer()));
+        return executor;
+    }
+
+    private Map<String, Object> summarize(Timer timer) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        if (timer == null) {
+            return summary;
+        }
+        HistogramSnapshot snapshot = timer.takeSnapshot();
+        summary.put("count", snapshot.count());
+        summary.put("meanMs", snapshot.mean(TimeUnit.MILLISECONDS));
+        summary.put("maxMs", snapshot.max(TimeUnit.MILLISECONDS));
+        for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+            summary.put("p" + Math.round(percentile.percentile() * 100) + "Ms",
+                    percentile.value(TimeUnit.MILLISECONDS));
+        }
+        return summary;
+    }
+}
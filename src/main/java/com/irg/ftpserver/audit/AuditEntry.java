@@ -0,0 +1,66 @@
+package com.irg.ftpserver.audit;
+
+import com.irg.ftpserver.data.AuditEventType;
+
+/**
+ * Preallocated slot of the {@link AuditRingBuffer}. Only holds references to objects the publisher already had;
+ * turning them into text is left to the consumer. Valid only while it is being consumed.
+ */
+public final class AuditEntry {
+
+    long sequence;
+    long timestamp;
+    AuditEventType type;
+    String username;
+    Object remoteAddress;
+    Object path;
+    long size;
+    String detail;
+
+    void set(long timestamp, AuditEventType type, String username, Object remoteAddress, Object path, long size,
+             String detail) {
+        this.timestamp = timestamp;
+        this.type = type;
+        this.username = username;
+        this.remoteAddress = remoteAddress;
+        this.path = path;
+        this.size = size;
+        this.detail = detail;
+    }
+
+    void clear() {
+        set(0, null, null, null, null, 0, null);
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public AuditEventType getType() {
+        return type;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public Object getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    public Object getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getDetail() {
+        return detail;
+    }
+}
@@ -0,0 +1,140 @@
+package com.irg.ftpserver.audit;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Reads and exports the audit journal written by {@link AuditJournalWriter}.
+ * <p>
+ * Segments are read in write order, each up to its first NUL byte, and only complete lines are returned, so the
+ * segment being written can be read safely. Can be run on its own to export a journal directory:
+ * <pre>
+ * java -cp ftpserver.jar com.irg.ftpserver.audit.AuditJournalReader &lt;directory&gt; [from] [to]
+ * </pre>
+ * with {@code from} and {@code to} as ISO-8601 instants, printing the matching JSON lines to standard output.
+ */
+public class AuditJournalReader {
+
+    private static final byte[] TIMESTAMP_FIELD = ",\"ts\":".getBytes(StandardCharsets.US_ASCII);
+
+    private final Path directory;
+
+    public AuditJournalReader(Path directory) {
+        this.directory = directory;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("Usage: AuditJournalReader <directory> [from] [to]");
+            System.exit(2);
+        }
+        Instant from = args.length > 1 ? Instant.parse(args[1]) : null;
+        Instant to = args.length > 2 ? Instant.parse(args[2]) : null;
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        long exported = new AuditJournalReader(Paths.get(args[0])).export(from, to, out);
+        out.flush();
+        System.err.println("Exported " + exported + " audit events");
+    }
+
+    /**
+     * Writes the events within a time range as JSON lines.
+     *
+     * @param from the earliest event time, inclusive, null for no lower bound
+     * @param to   the latest event time, exclusive, null for no upper bound
+     * @param out  where to write the lines
+     * @return the number of events written
+     */
+    public long export(Instant from, Instant to, Writer out) throws IOException {
+        long fromMillis = from == null ? Long.MIN_VALUE : from.toEpochMilli();
+        long toMillis = to == null ? Long.MAX_VALUE : to.toEpochMilli();
+        long exported = 0;
+        for (Path segment : listSegments(directory)) {
+            exported += exportSegment(segment, fromMillis, toMillis, out);
+        }
+        return exported;
+    }
+
+    /**
+     * @return the journal segments of a directory in write order
+     */
+    static List<Path> listSegments(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> {
+                        String name = file.getFileName().toString();
+                        return name.startsWith(AuditJournalWriter.SEGMENT_PREFIX)
+                                && name.endsWith(AuditJournalWriter.SEGMENT_SUFFIX);
+                    })
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private long exportSegment(Path segment, long fromMillis, long toMillis, Writer out) throws IOException {
+        long exported = 0;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int lineStart = 0;
+            for (int i = 0; i < buffer.limit(); i++) {
+                byte b = buffer.get(i);
+                if (b == 0) {
+                    break;
+                }
+                if (b == '\n') {
+                    long timestamp = parseTimestamp(buffer, lineStart, i);
+                    if (timestamp >= fromMillis && timestamp < toMillis) {
+                        byte[] line = new byte[i - lineStart + 1];
+                        buffer.get(lineStart, line);
+                        out.write(new String(line, StandardCharsets.UTF_8));
+                        exported++;
+                    }
+                    lineStart = i + 1;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // Deleted by retention while listing
+        }
+        return exported;
+    }
+
+    private static long parseTimestamp(MappedByteBuffer buffer, int start, int end) {
+        for (int i = start; i + TIMESTAMP_FIELD.length < end; i++) {
+            if (matches(buffer, i, TIMESTAMP_FIELD)) {
+                long value = 0;
+                for (int j = i + TIMESTAMP_FIELD.length; j < end; j++) {
+                    byte b = buffer.get(j);
+                    if (b < '0' || b > '9') {
+                        break;
+                    }
+                    value = value * 10 + (b - '0');
+                }
+                return value;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matches(MappedByteBuffer buffer, int offset, byte[] expected) {
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer.get(offset + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,207 @@
+package com.irg.ftpserver.audit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Writes audit events as JSON lines into memory-mapped, fixed-size journal segments.
+ * <p>
+ * Segments are named {@code audit-<creation epoch ms>-<counter>.jsonl} so they sort in write order. A segment is
+ * mapped at its full size up front and truncated to the bytes written when the next one is started, so the unwritten
+ * tail of the active segment, or of a segment left by a crash, reads as NUL bytes. Only the newest
+ * {@code maxSegments} segments are kept. Not thread-safe, owned by the journal thread.
+ */
+public class AuditJournalWriter implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditJournalWriter.class);
+
+    static final String SEGMENT_PREFIX = "audit-";
+    static final String SEGMENT_SUFFIX = ".jsonl";
+
+    // Fields longer than this are cut, so that one event always fits in a segment
+    private static final int MAX_FIELD_LENGTH = 4096;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+
+    private final StringBuilder line = new StringBuilder(512);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer encoded = ByteBuffer.allocate(2048);
+
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private int segmentCounter;
+    private boolean dirty;
+
+    /**
+     * @param directory   the journal directory, created if missing
+     * @param segmentSize the size of a segment in bytes, at least 1 MB
+     * @param maxSegments the number of segments to keep, at least 1
+     */
+    public AuditJournalWriter(Path directory, int segmentSize, int maxSegments) throws IOException {
+        if (segmentSize < 1 << 20) {
+            throw new IllegalArgumentException("Audit segment size must be at least 1 MB: " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = Math.max(1, maxSegments);
+        Files.createDirectories(directory);
+        startSegment();
+    }
+
+    /**
+     * Appends an event as one JSON line.
+     *
+     * @param entry the event
+     * @throws UncheckedIOException if a new segment could not be started
+     */
+    public void append(AuditEntry entry) {
+        line.setLength(0);
+        line.append("{\"seq\":").append(entry.sequence)
+                .append(",\"ts\":").append(entry.timestamp)
+                .append(",\"time\":\"");
+        DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(entry.timestamp), line);
+        line.append("\",\"type\":\"").append(entry.type.name()).append('"');
+        appendField("user", entry.username);
+        appendField("remote", entry.remoteAddress);
+        appendField("path", entry.path);
+        line.append(",\"size\":").append(entry.size);
+        appendField("detail", entry.detail);
+        line.append("}\n");
+
+        ByteBuffer bytes = encode();
+        // No segment if starting the last one failed
+        if (segment == null || bytes.remaining() > segment.remaining()) {
+            try {
+                finishSegment();
+                startSegment();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to start a new audit journal segment", e);
+            }
+        }
+        segment.put(bytes);
+        dirty = true;
+    }
+
+    /**
+     * Forces what was appended since the last call to disk.
+     */
+    public void force() {
+        if (dirty && segment != null) {
+            segment.force();
+            dirty = false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        finishSegment();
+    }
+
+    private void appendField(String name, Object value) {
+        if (value == null) {
+            return;
+        }
+        line.append(",\"").append(name).append("\":\"");
+        String text = value.toString();
+        int length = Math.min(text.length(), MAX_FIELD_LENGTH);
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"' -> line.append("\\\"");
+                case '\\' -> line.append("\\\\");
+                case '\n' -> line.append("\\n");
+                case '\r' -> line.append("\\r");
+                case '\t' -> line.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        line.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+                }
+            }
+        }
+        line.append('"');
+    }
+
+    private ByteBuffer encode() {
+        CharBuffer chars = CharBuffer.wrap(line);
+        encoded.clear();
+        encoder.reset();
+        while (true) {
+            CoderResult result = encoder.encode(chars, encoded, true);
+            if (result.isUnderflow()) {
+                result = encoder.flush(encoded);
+            }
+            if (result.isUnderflow()) {
+                break;
+            }
+            // Overflow, grow the buffer and encode what is left
+            ByteBuffer larger = ByteBuffer.allocate(encoded.capacity() * 2);
+            encoded.flip();
+            larger.put(encoded);
+            encoded = larger;
+        }
+        encoded.flip();
+        return encoded;
+    }
+
+    private void startSegment() throws IOException {
+        Path file = directory.resolve(String.format("%s%013d-%06d%s", SEGMENT_PREFIX, System.currentTimeMillis(),
+                segmentCounter++ % 1_000_000, SEGMENT_SUFFIX));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        logger.debug("Started audit journal segment: {}", file);
+        deleteOldSegments();
+    }
+
+    private void finishSegment() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        int written = segment.position();
+        segment.force();
+        dirty = false;
+        segment = null;
+        try {
+            channel.truncate(written);
+        } catch (IOException e) {
+            // Some platforms refuse to truncate a mapped file, readers stop at the NUL tail instead
+            logger.warn("Could not truncate audit journal segment to {} bytes: {}", written, e.getMessage());
+        } finally {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void deleteOldSegments() throws IOException {
+        List<Path> segments = AuditJournalReader.listSegments(directory);
+        for (int i = 0; i < segments.size() - maxSegments; i++) {
+            Files.deleteIfExists(segments.get(i));
+            logger.info("Deleted audit journal segment: {}", segments.get(i));
+        }
+    }
+}
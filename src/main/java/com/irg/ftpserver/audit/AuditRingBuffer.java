@@ -0,0 +1,111 @@
+package com.irg.ftpserver.audit;
+
+import com.irg.ftpserver.data.AuditEventType;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Bounded, lock-free multi-producer single-consumer ring of preallocated {@link AuditEntry} slots.
+ * <p>
+ * A producer claims a sequence number with a CAS, fills the slot of that sequence and publishes it by storing the
+ * sequence in the slot's published marker. The consumer takes slots in sequence order as long as they are published.
+ * Publishing never blocks or allocates: when the consumer is a full ring behind, the event is dropped and counted.
+ */
+public class AuditRingBuffer {
+
+    private final AuditEntry[] entries;
+    private final AtomicLongArray published;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    // Next sequence to consume, only written by the consumer
+    private volatile long consumed;
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * @param capacity the number of slots, rounded up to a power of two
+     */
+    public AuditRingBuffer(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Audit ring buffer capacity must be between 1 and 2^30: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        this.entries = new AuditEntry[size];
+        this.published = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            entries[i] = new AuditEntry();
+            published.set(i, -1);
+        }
+    }
+
+    /**
+     * Publishes an event.
+     *
+     * @return false if the ring was full and the event was dropped
+     */
+    public boolean publish(long timestamp, AuditEventType type, String username, Object remoteAddress, Object path,
+                           long size, String detail) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed >= entries.length) {
+                dropped.increment();
+                return false;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        int index = (int) sequence & mask;
+        entries[index].set(timestamp, type, username, remoteAddress, path, size, detail);
+        published.setRelease(index, sequence);
+        return true;
+    }
+
+    /**
+     * Hands published events to the consumer in sequence order. Must only be called by the consumer thread.
+     *
+     * @param consumer receives each event, which must not be kept after it returns
+     * @param max      the maximum number of events to consume
+     * @return the number of events consumed
+     */
+    public int drain(Consumer<AuditEntry> consumer, int max) {
+        long next = consumed;
+        int count = 0;
+        while (count < max) {
+            int index = (int) next & mask;
+            if (published.getAcquire(index) != next) {
+                break;
+            }
+            AuditEntry entry = entries[index];
+            entry.sequence = next;
+            try {
+                consumer.accept(entry);
+            } finally {
+                entry.clear();
+                consumed = ++next;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of events claimed but not yet consumed
+     */
+    public long getBacklog() {
+        return Math.max(0, claimed.get() - consumed);
+    }
+
+    /**
+     * @return the number of events dropped because the ring was full
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public int getCapacity() {
+        return entries.length;
+    }
+}
@@ -7,6 +7,7 @@ import ch.qos.logback.core.Appender;
 import ch.qos.logback.core.ConsoleAppender;
 import ch.qos.logback.core.OutputStreamAppender;
 import ch.qos.logback.core.rolling.RollingFileAppender;
+import com.irg.ftpserver.events.SFTPConfigurationReloadedEvent;
 import com.irg.ftpserver.service.SFTPConfigurationService;
 import jakarta.annotation.PostConstruct;
 import lombok.AllArgsConstructor;
@@ -14,6 +15,7 @@ import org.slf4j.LoggerFactory;
 import org.slf4j.ILoggerFactory;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.event.EventListener;
 
 import java.util.Iterator;
 
@@ -26,6 +28,7 @@ public class LogBackConfig {
 
     @PostConstruct
     public void setupLogging() {
+        String timeZone = sftpConfigurationService.getLatestConfiguration().getTimeZone();
         ILoggerFactory iLoggerFactory = LoggerFactory.getILoggerFactory();
 
         if (!(iLoggerFactory instanceof LoggerContext context)) {
@@ -39,8 +42,8 @@ public class LogBackConfig {
                 if (appender instanceof ConsoleAppender || appender instanceof RollingFileAppender) {
                     PatternLayoutEncoder encoder = new PatternLayoutEncoder();
                     encoder.setContext(context);
-                    encoder.setPattern("%d{yyyy-MM-dd HH:mm:ss.SSS} " + sftpConfigurationService
-                            .getLatestConfiguration().getTimeZone() + " [%thread] %-5level %logger{0} - %msg%n");
+                    encoder.setPattern("%d{yyyy-MM-dd HH:mm:ss.SSS} " + timeZone
+                            + " [%thread] %-5level %logger{0} - %msg%n");
                     encoder.start();
 
                     ((OutputStreamAppender<ILoggingEvent>) appender).setEncoder(encoder);
@@ -49,6 +52,11 @@ public class LogBackConfig {
         });
         context.start();
     }
-}
-
 
+    @EventListener
+    public void handleSFTPConfigurationReloadedEvent(SFTPConfigurationReloadedEvent event) {
+        if (!event.getCurrent().getTimeZone().equals(event.getPrevious().getTimeZone())) {
+            setupLogging();
+        }
+    }
+}
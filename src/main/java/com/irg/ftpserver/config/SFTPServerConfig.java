@@ -1,9 +1,15 @@
 package com.irg.ftpserver.config;
 
+import com.irg.ftpserver.data.ExecutorMode;
+import com.irg.ftpserver.data.FairSchedulingKey;
+import com.irg.ftpserver.model.SFTPUser;
 import com.irg.ftpserver.events.CustomSFTPEventListener;
 import com.irg.ftpserver.events.CustomSFTPSessionListener;
+import com.irg.ftpserver.events.SFTPChecksumEventListener;
+import com.irg.ftpserver.events.SFTPThrottlingEventListener;
 import com.irg.ftpserver.service.*;
 import com.irg.ftpserver.service.SFTPPasswordLoginService;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.sshd.common.PropertyResolverUtils;
 import org.apache.sshd.common.keyprovider.KeyPairProvider;
 import org.apache.sshd.common.util.threads.ThreadUtils;
@@ -11,6 +17,7 @@ import org.apache.sshd.core.CoreModuleProperties;
 import org.apache.sshd.server.SshServer;
 import org.apache.sshd.server.keyprovider.AbstractGeneratorHostKeyProvider;
 import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.session.ServerSession;
 import org.apache.sshd.sftp.SftpModuleProperties;
 import org.apache.sshd.sftp.server.SftpSubsystemFactory;
 import org.slf4j.Logger;
@@ -20,6 +27,7 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.DependsOn;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.function.Function;
 
 @Configuration
 @DependsOn({"SFTPInitialConfigService", "SFTPInitialUserInitService"})
@@ -31,47 +39,98 @@ public class SFTPServerConfig {
 
     private final SFTPConfigurationService sftpConfigurationService;
 
-    public SFTPServerConfig(SFTPConfigurationService sftpConfigurationService) {
+    private final SFTPServerProperties sftpServerProperties;
+
+    private final SFTPUserService sftpUserService;
+
+    public SFTPServerConfig(SFTPConfigurationService sftpConfigurationService,
+                            SFTPServerProperties sftpServerProperties,
+                            SFTPUserService sftpUserService) {
 
         this.sftpConfigurationService = sftpConfigurationService;
+        this.sftpServerProperties = sftpServerProperties;
+        this.sftpUserService = sftpUserService;
     }
 
-    @Bean
-    public SshServer sshServer(CustomSFTPEventListener customSftpEventListener
-            , CustomSFTPSessionListener customSFTPSessionListener,
-                               SFTPPasswordLoginService sftpPasswordLoginService,
-                               SFTPFileSystemService sftpFileSystemService,
-                               SFTPPublicKeyLoginService sftpPublicKeyLoginService){
+    @Bean(destroyMethod = "shutdown")
+    public SFTPSubsystemExecutor sftpSubsystemExecutor(MeterRegistry meterRegistry) {
 
         // Retrieving variables with latest configuration for code clarity
+        ExecutorMode executorMode = this.sftpConfigurationService.getLatestConfiguration().getExecutorMode();
         int corePoolSize = this.sftpConfigurationService.getLatestConfiguration().getCorePoolSize();
         int maxPoolSize = this.sftpConfigurationService.getLatestConfiguration().getMaxPoolSize();
         int keepAliveTime = this.sftpConfigurationService.getLatestConfiguration().getKeepAliveTime();
         int queueCapacity = this.sftpConfigurationService.getLatestConfiguration().getQueueCapacity();
-        int port = this.sftpConfigurationService.getLatestConfiguration().getPort();
-        long maxIdleTime = this.sftpConfigurationService.getLatestConfiguration().getMaxIdleTime();
-        int maxWriteDataPacketLength = this.sftpConfigurationService.getLatestConfiguration()
-                .getMaxWriteDataPacketLength();
+        int maxConcurrentSubsystems = this.sftpConfigurationService.getLatestConfiguration()
+                .getMaxConcurrentSubsystems();
+
+        if (executorMode == ExecutorMode.VIRTUAL) {
+            SFTPVirtualThreadExecutorService virtualThreadExecutorService =
+                    new SFTPVirtualThreadExecutorService(maxConcurrentSubsystems);
+            virtualThreadExecutorService.bindTo(meterRegistry);
+            logger.info("Creating virtual thread executor service with max concurrent subsystems: {}",
+                    maxConcurrentSubsystems);
+            return virtualThreadExecutorService;
+        }
 
-        SFTPExecutorService sftpExecutorService = new SFTPExecutorService(
+        logger.info("Creating custom executor service with core pool size: {}, max pool size: {}, keep alive time: " +
+                        "{}, queue capacity: {}",
+                corePoolSize, maxPoolSize, keepAliveTime, queueCapacity);
+        SFTPExecutorService executorService = new SFTPExecutorService(
                 corePoolSize,
                 maxPoolSize,
                 keepAliveTime,
                 queueCapacity
         );
-        logger.info("Creating custom executor service with core pool size: {}, max pool size: {}, keep alive time: " +
-                        "{}, queue capacity: {}",
-                corePoolSize, maxPoolSize, keepAliveTime, queueCapacity);
+        executorService.bindTo(meterRegistry);
+        return executorService;
+    }
 
+    @Bean
+    public SFTPFairScheduler sftpFairScheduler(SFTPSubsystemExecutor sftpSubsystemExecutor,
+                                               MeterRegistry meterRegistry) {
+        Map<String, Integer> tenantWeights = sftpServerProperties.getTenantWeights();
+        int maxWorkersPerTenant = sftpServerProperties.getMaxWorkersPerTenant();
+        int maxWaitingPerTenant = sftpServerProperties.getMaxWaitingPerTenant();
+
+        SFTPFairScheduler sftpFairScheduler = new SFTPFairScheduler(sftpSubsystemExecutor,
+                tenant -> tenantWeights.getOrDefault(tenant, 1), maxWorkersPerTenant, maxWaitingPerTenant);
+        sftpFairScheduler.bindTo(meterRegistry);
+        logger.info("Creating fair scheduler by: {}, max workers per tenant: {}, max waiting per tenant: {}, tenant"
+                        + " weights: {}", sftpServerProperties.getFairSchedulingKey(), maxWorkersPerTenant,
+                maxWaitingPerTenant, tenantWeights);
+        return sftpFairScheduler;
+    }
 
+    @Bean
+    public SshServer sshServer(CustomSFTPEventListener customSftpEventListener
+            , CustomSFTPSessionListener customSFTPSessionListener,
+                               SFTPPasswordLoginService sftpPasswordLoginService,
+                               SFTPFileSystemService sftpFileSystemService,
+                               SFTPPublicKeyLoginService sftpPublicKeyLoginService,
+                               SFTPSubsystemExecutor sftpSubsystemExecutor,
+                               SFTPFairScheduler sftpFairScheduler,
+                               SFTPThrottlingEventListener sftpThrottlingEventListener,
+                               SFTPChecksumEventListener sftpChecksumEventListener,
+                               SFTPCachingFileSystemAccessor sftpCachingFileSystemAccessor){
 
+        // Retrieving variables with latest configuration for code clarity
+        int port = this.sftpConfigurationService.getLatestConfiguration().getPort();
+        long maxIdleTime = this.sftpConfigurationService.getLatestConfiguration().getMaxIdleTime();
+        int maxWriteDataPacketLength = this.sftpConfigurationService.getLatestConfiguration()
+                .getMaxWriteDataPacketLength();
 
-        // Create custom executor service
-         this.customExecutorService =
-                new SFTPCustomCloseableExecutorService(sftpExecutorService);
+        // Create custom executor service, admitting subsystems through the fair scheduler if enabled
+        if (sftpServerProperties.isFairSchedulingEnabled()) {
+            this.customExecutorService = new SFTPCustomCloseableExecutorService(sftpSubsystemExecutor,
+                    sftpFairScheduler, createTenantResolver());
+        } else {
+            this.customExecutorService = new SFTPCustomCloseableExecutorService(sftpSubsystemExecutor);
+        }
 
         SftpSubsystemFactory sftpSubsystemFactory = new SftpSubsystemFactory.Builder()
                 .withExecutorServiceProvider(() -> ThreadUtils.noClose(customExecutorService))
+                .withFileSystemAccessor(sftpCachingFileSystemAccessor)
                 .build();
 
         //Set SSH Server Properties
@@ -99,12 +158,23 @@ public class SFTPServerConfig {
 
         // Register Event Listener
         sftpSubsystemFactory.addSftpEventListener(customSftpEventListener);
+        sftpSubsystemFactory.addSftpEventListener(sftpThrottlingEventListener);
+        sftpSubsystemFactory.addSftpEventListener(sftpChecksumEventListener);
         sshServer.addSessionListener(customSFTPSessionListener);
         sshServer.setSubsystemFactories(Collections.singletonList(sftpSubsystemFactory));
 
         return sshServer;
     }
 
+    private Function<ServerSession, String> createTenantResolver() {
+        if (sftpServerProperties.getFairSchedulingKey() == FairSchedulingKey.COMPANY) {
+            return session -> sftpUserService.getUserByUserName(session.getUsername())
+                    .map(SFTPUser::getCompanyName)
+                    .orElse(session.getUsername());
+        }
+        return ServerSession::getUsername;
+    }
+
     @Bean
     public KeyPairProvider createKeyPairProvider() {
 
@@ -1,12 +1,19 @@
 package com.irg.ftpserver.config;
 
+import com.irg.ftpserver.data.AuditDurability;
+import com.irg.ftpserver.data.ExecutorMode;
+import com.irg.ftpserver.data.FairSchedulingKey;
+import com.irg.ftpserver.data.HotTierWritePolicy;
+import com.irg.ftpserver.data.TransferOverflowPolicy;
 import com.irg.ftpserver.model.SFTPUser;
 import com.irg.ftpserver.model.User;
 import lombok.*;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Component
 @ConfigurationProperties(prefix = "sftp.server")
@@ -22,12 +29,102 @@ public class SFTPServerProperties {
     private int maxWriteDataPacketLength;
     private int maxLoginAttemptThreshold;
     private int delayBetweenLoginAttempts;
+    private long loginAttemptWindow = 900000;
+    private int maxTrackedHosts = 100000;
+    private long blockedHostRefreshInterval = 60000;
+    //File systems of users without sessions are closed after this many ms
+    private long fileSystemIdleTimeout = 300000;
+    //Disk usage of users is recomputed from their storage every this many ms
+    private long quotaReconcileInterval = 3600000;
+    //Directory listing and file attribute cache, ttl in ms
+    private boolean directoryCacheEnabled = true;
+    private int directoryCacheMaxDirectories = 1000;
+    private int attributeCacheMaxEntries = 250000;
+    private long directoryCacheTtl = 60000;
+    //Download properties
+    private long mappedReadThreshold = 8388608;
+    private long mappedReadWindowSize = 67108864;
+    //Upload properties, for users with the COALESCED upload mode
+    private int writeCoalescingBufferSize = 1048576;
+    private int writeCoalescingMaxPooledBuffers = 64;
+    //S3 storage properties, for users with the S3 storage type, part size in bytes, request timeout in ms
+    private String s3Endpoint = "https://s3.amazonaws.com";
+    private String s3Region = "us-east-1";
+    private String s3Bucket;
+    private String s3AccessKey;
+    private String s3SecretKey;
+    private boolean s3PathStyleAccess = true;
+    private int s3PartSize = 8388608;
+    private long s3RequestTimeout = 60000;
+    //Hot tier properties, a local cache of files on slower storage, sizes in bytes, interval in ms
+    private boolean hotTierEnabled = false;
+    private String hotTierDirectory = "hot-tier";
+    private long hotTierMaxSize = 10737418240L;
+    private long hotTierMaxFileSize = 1073741824L;
+    private HotTierWritePolicy hotTierWritePolicy = HotTierWritePolicy.WRITE_THROUGH;
+    private long hotTierIndexSaveInterval = 60000;
+    //Compression properties, for users with the COMPRESSED storage type, block size in bytes, entropy in bits per byte
+    private int compressionBlockSize = 65536;
+    private int compressionLevel = 1;
+    private double compressionEntropyThreshold = 7.5;
     //Executor properties
     private int corePoolSize;
     private int maxPoolSize;
     private int keepAliveTime;
     private int queueCapacity;
+    private ExecutorMode executorMode = ExecutorMode.PLATFORM;
+    private int maxConcurrentSubsystems;
+    //Fair scheduling properties
+    private boolean fairSchedulingEnabled = false;
+    private FairSchedulingKey fairSchedulingKey = FairSchedulingKey.USER;
+    private int maxWorkersPerTenant = 0;
+    private int maxWaitingPerTenant = 100;
+    private Map<String, Integer> tenantWeights = new HashMap<>();
+    //Bandwidth properties, rate limits in bytes per second, 0 for unlimited
+    private long globalReadRateLimit;
+    private long globalWriteRateLimit;
+    private long rateLimitBurst = 1000;
+    //Transfer record properties, flush and replay intervals in ms
+    private int transferQueueCapacity = 10000;
+    private int transferBatchSize = 500;
+    private long transferFlushInterval = 1000;
+    private long transferReplayInterval = 30000;
+    private TransferOverflowPolicy transferOverflowPolicy = TransferOverflowPolicy.SPILL;
+    private String transferSpillDirectory = "transfer-spill";
+    //Audit journal properties, segment size in bytes, flush interval in ms
+    private boolean auditEnabled = true;
+    private String auditDirectory = "audit";
+    private int auditRingBufferSize = 65536;
+    private int auditSegmentSize = 67108864;
+    private int auditMaxSegments = 100;
+    private AuditDurability auditDurability = AuditDurability.INTERVAL;
+    private long auditFlushInterval = 1000;
+    //Upload checksum properties
+    private boolean checksumEnabled = true;
+    private String checksumAlgorithm = "SHA-256";
+    private int checksumThreads = 1;
+    private int checksumQueueCapacity = 10000;
+    //Deduplication properties, for uploads of local users, size in bytes, sweep interval in ms
+    private boolean dedupEnabled = false;
+    private String dedupDirectory = "dedup";
+    private long dedupMinFileSize = 4096;
+    private long dedupSweepInterval = 3600000;
+    //Post-upload pipeline properties, timeouts, backoff and poll interval in ms
+    private boolean postUploadEnabled = true;
+    private int postUploadThreads = 2;
+    private int postUploadQueueCapacity = 1000;
+    private int postUploadMaxAttempts = 5;
+    private long postUploadRetryBackoff = 1000;
+    private long postUploadStageTimeout = 60000;
+    private Map<String, Long> postUploadStageTimeouts = new HashMap<>();
+    private long postUploadPollInterval = 5000;
     private String timeZone;
+    //Configuration reload interval in ms
+    private long configurationRefreshInterval = 30000;
+    //User cache properties
+    private int userCacheMaxSize = 10000;
+    private long userCacheTtl = 300000;
+    private long userRefreshInterval = 30000;
     private long maxIdleTime;
     //Default value is true
     private boolean initialPasswordChangeRequired = true;
@@ -1,11 +1,19 @@
 package com.irg.ftpserver.config.security;
 
+import com.irg.ftpserver.data.ApiRoutes;
+import com.irg.ftpserver.data.Role;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.security.config.Customizer;
+import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
+import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.web.SecurityFilterChain;
 
 @Configuration
+@EnableWebSecurity
 public class SecurityConfig {
 
     @Bean
@@ -13,4 +21,19 @@ public class SecurityConfig {
         int strength = 12;
         return new BCryptPasswordEncoder(strength);
     }
+
+    /**
+     * The admin API is called by scripts with HTTP Basic credentials of an Admin account, without a session, so it
+     * is exempt from CSRF protection. Every other request requires an authenticated user.
+     */
+    @Bean
+    public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
+        http.authorizeHttpRequests(requests -> requests
+                        .requestMatchers(ApiRoutes.ADMIN + "/**").hasRole(Role.Admin.name())
+                        .anyRequest().authenticated())
+                .httpBasic(Customizer.withDefaults())
+                .csrf(csrf -> csrf.ignoringRequestMatchers(ApiRoutes.ADMIN + "/**"))
+                .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS));
+        return http.build();
+    }
 }
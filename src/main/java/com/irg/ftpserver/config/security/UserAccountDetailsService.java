@@ -0,0 +1,32 @@
+package com.irg.ftpserver.config.security;
+
+import com.irg.ftpserver.model.User;
+import com.irg.ftpserver.repository.UserRepository;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Service;
+
+/**
+ * Authenticates HTTP requests against the accounts of the useraccounts table, with their role as authority.
+ */
+@Service
+public class UserAccountDetailsService implements UserDetailsService {
+
+    private final UserRepository userRepository;
+
+    public UserAccountDetailsService(UserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+
+    @Override
+    public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
+        User user = userRepository.findByUsername(username)
+                .orElseThrow(() -> new UsernameNotFoundException("User not found: " + username));
+        return org.springframework.security.core.userdetails.User.withUsername(user.getUsername())
+                .password(user.getPassword())
+                .roles(user.getRole().name())
+                .disabled(!user.isEnabled())
+                .build();
+    }
+}
@@ -0,0 +1,47 @@
+package com.irg.ftpserver.controller;
+
+import com.irg.ftpserver.audit.AuditJournalReader;
+import com.irg.ftpserver.data.ApiRoutes;
+import com.irg.ftpserver.service.SFTPAuditService;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * Admin API to export the audit journal as JSON lines.
+ */
+@RestController
+@RequestMapping(ApiRoutes.ADMIN + "/audit")
+public class SFTPAuditAdminController {
+
+    private final SFTPAuditService sftpAuditService;
+
+    public SFTPAuditAdminController(SFTPAuditService sftpAuditService) {
+        this.sftpAuditService = sftpAuditService;
+    }
+
+    @GetMapping
+    public ResponseEntity<StreamingResponseBody> export(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to) {
+        AuditJournalReader reader = sftpAuditService.getJournalReader();
+        StreamingResponseBody body = outputStream -> {
+            Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+            reader.export(from, to, writer);
+            writer.flush();
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(body);
+    }
+}
@@ -0,0 +1,46 @@
+package com.irg.ftpserver.controller;
+
+import com.irg.ftpserver.data.ApiRoutes;
+import com.irg.ftpserver.data.ExecutorPoolSizes;
+import com.irg.ftpserver.service.SFTPExecutorResizeService;
+import jakarta.validation.Valid;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.security.Principal;
+
+/**
+ * Admin API to inspect and resize the SFTP subsystem executor at runtime.
+ */
+@RestController
+@RequestMapping(ApiRoutes.ADMIN + "/executor")
+public class SFTPExecutorAdminController {
+
+    private final SFTPExecutorResizeService sftpExecutorResizeService;
+
+    public SFTPExecutorAdminController(SFTPExecutorResizeService sftpExecutorResizeService) {
+        this.sftpExecutorResizeService = sftpExecutorResizeService;
+    }
+
+    @GetMapping
+    public ExecutorPoolSizes getPoolSizes() {
+        return sftpExecutorResizeService.getPoolSizes();
+    }
+
+    @PutMapping
+    public ExecutorPoolSizes updatePoolSizes(@Valid @RequestBody ExecutorPoolSizes poolSizes, Principal principal) {
+        String requestedBy = principal != null ? principal.getName() : "anonymous";
+        return sftpExecutorResizeService.updatePoolSizes(poolSizes, requestedBy);
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> handleIllegalArgumentException(IllegalArgumentException e) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+    }
+}
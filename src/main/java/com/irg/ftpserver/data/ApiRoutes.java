@@ -2,7 +2,7 @@ package com.irg.ftpserver.data;
 
 public class ApiRoutes {
 
-    private static final String BASE_URL = "/api/";
+    private static final String BASE_URL = "/api";
     private static final String VERSION = "/v1";
     public static final String ADMIN = BASE_URL + VERSION + "/admin";
     public static final String USERS = BASE_URL + VERSION + "/user";
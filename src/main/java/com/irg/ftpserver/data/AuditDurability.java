@@ -0,0 +1,11 @@
+package com.irg.ftpserver.data;
+
+/**
+ * When audit journal writes are forced to disk.
+ */
+public enum AuditDurability {
+    // Force every auditFlushInterval ms, a crash of the machine may lose the last interval
+    INTERVAL,
+    // Force after every batch of events, before the next batch is written
+    FSYNC
+}
@@ -0,0 +1,20 @@
+package com.irg.ftpserver.data;
+
+/**
+ * Kinds of events written to the audit journal.
+ */
+public enum AuditEventType {
+    SESSION_CREATED,
+    SESSION_BLOCKED,
+    SESSION_AUTHENTICATED,
+    SESSION_CLOSED,
+    FILE_OPENED,
+    FILE_UPLOADED,
+    FILE_DOWNLOADED,
+    FILE_ACCESSED,
+    REMOVING,
+    REMOVED,
+    REMOVE_FAILED,
+    DIRECTORY_CREATED,
+    DIRECTORY_CREATE_FAILED
+}
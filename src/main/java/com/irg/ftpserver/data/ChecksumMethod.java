@@ -0,0 +1,11 @@
+package com.irg.ftpserver.data;
+
+/**
+ * How the checksum of an uploaded file was computed.
+ */
+public enum ChecksumMethod {
+    // While the upload was written, in order
+    STREAMING,
+    // By reading the file back after an upload with out-of-order writes
+    REHASH
+}
@@ -0,0 +1,5 @@
+package com.irg.ftpserver.data;
+
+public enum ExecutorMode {
+    PLATFORM, VIRTUAL
+}
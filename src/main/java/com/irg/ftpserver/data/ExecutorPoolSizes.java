@@ -0,0 +1,37 @@
+package com.irg.ftpserver.data;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Sizes of the SFTP subsystem executor, as reported and accepted by the executor admin API.
+ * Null fields are left unchanged on update. The limits match those of the server configuration.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ExecutorPoolSizes {
+
+    @Min(1)
+    @Max(256)
+    private Integer corePoolSize;
+
+    @Min(1)
+    @Max(256)
+    private Integer maxPoolSize;
+
+    @Min(1)
+    @Max(60000)
+    private Integer keepAliveTime;
+
+    @Min(1)
+    @Max(256)
+    private Integer queueCapacity;
+
+    @Min(1)
+    @Max(100000)
+    private Integer maxConcurrentSubsystems;
+}
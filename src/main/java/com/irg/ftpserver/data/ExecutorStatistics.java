@@ -0,0 +1,22 @@
+package com.irg.ftpserver.data;
+
+import lombok.Value;
+
+/**
+ * Point-in-time counters of the SFTP subsystem executor.
+ * In VIRTUAL mode there is no pool or queue: the pool size is the number of running subsystems, the maximum pool
+ * size is {@code maxConcurrentSubsystems}, queued subsystems are those waiting for a permit and nothing is ever
+ * rejected.
+ */
+@Value
+public class ExecutorStatistics {
+    ExecutorMode executorMode;
+    int activeCount;
+    int poolSize;
+    int corePoolSize;
+    int maximumPoolSize;
+    int queuedCount;
+    int queueRemainingCapacity;
+    long completedCount;
+    long rejectedCount;
+}
@@ -0,0 +1,9 @@
+package com.irg.ftpserver.data;
+
+/**
+ * What SFTP subsystems are grouped by when they are scheduled fairly.
+ */
+public enum FairSchedulingKey {
+    USER,
+    COMPANY
+}
@@ -0,0 +1,5 @@
+package com.irg.ftpserver.data;
+
+public enum HotTierWritePolicy {
+    WRITE_THROUGH, WRITE_AROUND
+}
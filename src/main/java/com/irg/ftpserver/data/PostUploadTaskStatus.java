@@ -0,0 +1,13 @@
+package com.irg.ftpserver.data;
+
+/**
+ * State of an upload in the post-upload pipeline. Uploads that went through every stage are removed.
+ */
+public enum PostUploadTaskStatus {
+    // Waiting for a worker, possibly until a retry is due
+    PENDING,
+    // Taken by a worker, reset to PENDING on startup
+    RUNNING,
+    // A stage ran out of attempts, kept for inspection
+    FAILED
+}
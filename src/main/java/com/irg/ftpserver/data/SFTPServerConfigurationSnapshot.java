@@ -0,0 +1,67 @@
+package com.irg.ftpserver.data;
+
+import com.irg.ftpserver.model.SFTPServerConfiguration;
+import lombok.Value;
+
+import java.time.Instant;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Immutable copy of an SFTP server configuration row, safe to share between threads and cheap to read.
+ * The row id and {@code modifiedDate} together identify the version of the configuration.
+ */
+@Value
+public class SFTPServerConfigurationSnapshot {
+
+    UUID id;
+    int port;
+    String keyPath;
+    String hostKeyAlgorithm;
+    int maxWriteDataPacketLength;
+    int maxLoginAttemptThreshold;
+    int delayBetweenLoginAttempts;
+    int corePoolSize;
+    int maxPoolSize;
+    int keepAliveTime;
+    int queueCapacity;
+    ExecutorMode executorMode;
+    int maxConcurrentSubsystems;
+    long globalReadRateLimit;
+    long globalWriteRateLimit;
+    String timeZone;
+    long maxIdleTime;
+    Instant createdAt;
+    Instant modifiedDate;
+
+    public SFTPServerConfigurationSnapshot(SFTPServerConfiguration configuration) {
+        this.id = configuration.getId();
+        this.port = configuration.getPort();
+        this.keyPath = configuration.getKeyPath();
+        this.hostKeyAlgorithm = configuration.getHostKeyAlgorithm();
+        this.maxWriteDataPacketLength = configuration.getMaxWriteDataPacketLength();
+        this.maxLoginAttemptThreshold = configuration.getMaxLoginAttemptThreshold();
+        this.delayBetweenLoginAttempts = configuration.getDelayBetweenLoginAttempts();
+        this.corePoolSize = configuration.getCorePoolSize();
+        this.maxPoolSize = configuration.getMaxPoolSize();
+        this.keepAliveTime = configuration.getKeepAliveTime();
+        this.queueCapacity = configuration.getQueueCapacity();
+        this.executorMode = configuration.getExecutorMode();
+        this.maxConcurrentSubsystems = configuration.getMaxConcurrentSubsystems();
+        this.globalReadRateLimit = configuration.getGlobalReadRateLimit();
+        this.globalWriteRateLimit = configuration.getGlobalWriteRateLimit();
+        this.timeZone = configuration.getTimeZone();
+        this.maxIdleTime = configuration.getMaxIdleTime();
+        this.createdAt = configuration.getCreatedAt() == null ? null : configuration.getCreatedAt().toInstant();
+        this.modifiedDate = configuration.getModifiedDate() == null ? null
+                : configuration.getModifiedDate().toInstant();
+    }
+
+    /**
+     * @param other another snapshot
+     * @return true if both snapshots were taken from the same version of the same row
+     */
+    public boolean isSameVersion(SFTPServerConfigurationSnapshot other) {
+        return other != null && Objects.equals(id, other.id) && Objects.equals(modifiedDate, other.modifiedDate);
+    }
+}
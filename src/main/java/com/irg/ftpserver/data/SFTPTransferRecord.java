@@ -0,0 +1,26 @@
+package com.irg.ftpserver.data;
+
+import lombok.Value;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * One direction of a transfer through a single SFTP file handle, as stored in sftp_transfers.
+ */
+@Value
+public class SFTPTransferRecord {
+
+    // Random id of the record, so that inserting it again has no effect
+    UUID id;
+    String username;
+    int companyId;
+    String path;
+    TransferDirection direction;
+    long bytes;
+    long durationMillis;
+    TransferOutcome outcome;
+    String error;
+    Instant startedAt;
+    Instant completedAt;
+}
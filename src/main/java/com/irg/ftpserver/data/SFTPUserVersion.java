@@ -0,0 +1,19 @@
+package com.irg.ftpserver.data;
+
+import lombok.Value;
+
+import java.util.Date;
+
+/**
+ * When a user and its public keys were last modified, as compared by the periodic refresh of the users. Deleting a
+ * key changes the key count even when no modification date moves.
+ */
+@Value
+public class SFTPUserVersion {
+
+    String username;
+    Date modifiedDate;
+    // Null for a user without keys
+    Date keysModifiedDate;
+    long keyCount;
+}
@@ -0,0 +1,9 @@
+package com.irg.ftpserver.data;
+
+/**
+ * Direction of an SFTP transfer, seen from the client.
+ */
+public enum TransferDirection {
+    UPLOAD,
+    DOWNLOAD
+}
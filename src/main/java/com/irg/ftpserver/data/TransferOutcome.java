@@ -0,0 +1,9 @@
+package com.irg.ftpserver.data;
+
+/**
+ * How an SFTP transfer ended.
+ */
+public enum TransferOutcome {
+    COMPLETED,
+    FAILED
+}
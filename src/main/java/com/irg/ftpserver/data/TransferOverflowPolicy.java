@@ -0,0 +1,11 @@
+package com.irg.ftpserver.data;
+
+/**
+ * What happens to transfer records that cannot be written to the database in time.
+ */
+public enum TransferOverflowPolicy {
+    // Discard the records, only counting them
+    DROP,
+    // Append the records to a file and insert them once the database keeps up again
+    SPILL
+}
@@ -1,6 +1,15 @@
 package com.irg.ftpserver.events;
 
+import com.irg.ftpserver.data.AuditEventType;
+import com.irg.ftpserver.data.TransferDirection;
+import com.irg.ftpserver.service.SFTPAuditService;
+import com.irg.ftpserver.service.SFTPPostUploadPipeline;
+import com.irg.ftpserver.service.SFTPQuotaService;
+import com.irg.ftpserver.service.SFTPTransferRecorder;
+import org.apache.sshd.common.AttributeRepository.AttributeKey;
 import org.apache.sshd.server.session.ServerSession;
+import org.apache.sshd.sftp.common.SftpConstants;
+import org.apache.sshd.sftp.common.SftpException;
 import org.apache.sshd.sftp.server.AbstractSftpEventListenerAdapter;
 import org.apache.sshd.sftp.server.FileHandle;
 import org.apache.sshd.sftp.server.Handle;
@@ -9,83 +18,172 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 import java.io.IOException;
+import java.nio.file.CopyOption;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.Set;
 
 @Component
 @Qualifier("customSftpEventListener")
 public class CustomSFTPEventListener extends AbstractSftpEventListenerAdapter {
     private static final Logger logger = LoggerFactory.getLogger(CustomSFTPEventListener.class);
 
-    private final ConcurrentHashMap<String, AtomicLong> fileWriteSizes = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, AtomicLong> fileReadSizes = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Boolean> fileAccessed = new ConcurrentHashMap<>();
+    // Per-handle transfer counters, kept on the handle so the read and write hot paths allocate nothing
+    static final AttributeKey<TransferCounters> TRANSFER_COUNTERS_KEY = new AttributeKey<>();
 
+    // Size of the file being removed or replaced by a rename, operations of a session are handled one at a time
+    static final AttributeKey<Long> FREED_SIZE_KEY = new AttributeKey<>();
+
+    private final SFTPTransferRecorder sftpTransferRecorder;
+
+    private final SFTPAuditService sftpAuditService;
+
+    private final SFTPPostUploadPipeline sftpPostUploadPipeline;
+
+    private final SFTPQuotaService sftpQuotaService;
+
+    public CustomSFTPEventListener(SFTPTransferRecorder sftpTransferRecorder, SFTPAuditService sftpAuditService,
+                                   SFTPPostUploadPipeline sftpPostUploadPipeline,
+                                   SFTPQuotaService sftpQuotaService) {
+        this.sftpTransferRecorder = sftpTransferRecorder;
+        this.sftpAuditService = sftpAuditService;
+        this.sftpPostUploadPipeline = sftpPostUploadPipeline;
+        this.sftpQuotaService = sftpQuotaService;
+    }
+
+    @Override
+    public void opening(ServerSession session, String remoteHandle, Handle localHandle) throws IOException {
+        if (localHandle instanceof FileHandle fileHandle) {
+            TransferCounters counters = new TransferCounters();
+            if (isWrite(fileHandle.getOpenOptions())) {
+                // Taken before the file is opened, which may truncate it, as the usage still counts the old size
+                counters.size = sizeOf(localHandle.getFile());
+                counters.usage = sftpQuotaService.getUsage(session.getUsername());
+            }
+            localHandle.setAttribute(TRANSFER_COUNTERS_KEY, counters);
+        }
+    }
 
     @Override
     public void open(ServerSession session, String remoteHandle, Handle localHandle) {
         Path path = localHandle.getFile();
-        logger.info(String.format("SFTPUser: %s from: %s, accessed file or directory: %s",
-                session.getUsername(), session.getIoSession().getRemoteAddress(), path));
+        if (!sftpAuditService.audit(AuditEventType.FILE_OPENED, session.getUsername(),
+                session.getIoSession().getRemoteAddress(), path, 0, null)) {
+            logger.info("SFTPUser: {} from: {}, accessed file or directory: {}",
+                    session.getUsername(), session.getIoSession().getRemoteAddress(), path);
+        }
     }
 
     @Override
     public void writing(ServerSession session, String remoteHandle, FileHandle localHandle, long offset, byte[] data
-            , int dataOffset, int dataLen) {
-        Path path = localHandle.getFile();
-        String filePath = getKey(session, path);
-        fileWriteSizes.computeIfAbsent(filePath, k -> new AtomicLong(0)).addAndGet(dataLen);
-        fileAccessed.put(filePath, true);
+            , int dataOffset, int dataLen) throws IOException {
+        TransferCounters counters = getTransferCounters(localHandle);
+        long end = offset + dataLen;
+        if (end > counters.size && counters.usage != null) {
+            if (!counters.usage.tryGrow(end - counters.size)) {
+                sftpQuotaService.recordRejectedWrite();
+                throw new SftpException(SftpConstants.SSH_FX_QUOTA_EXCEEDED, "Disk quota of "
+                        + counters.usage.getQuota() + " bytes exceeded");
+            }
+            counters.size = end;
+        }
+        counters.written += dataLen;
+        counters.accessed = true;
+    }
+
+    @Override
+    public void written(ServerSession session, String remoteHandle, FileHandle localHandle, long offset, byte[] data
+            , int dataOffset, int dataLen, Throwable thrown) {
+        if (thrown != null) {
+            getTransferCounters(localHandle).failure = thrown;
+        }
     }
 
     @Override
     public void read(ServerSession session, String remoteHandle, FileHandle localHandle, long offset, byte[] data
             , int dataOffset, int dataLen, int readLen, Throwable thrown) {
-        Path path = localHandle.getFile();
-        String filePath = getKey(session, path);
-        fileReadSizes.computeIfAbsent(filePath, k -> new AtomicLong(0)).addAndGet(readLen);
-        fileAccessed.put(filePath, true);
+        TransferCounters counters = getTransferCounters(localHandle);
+        if (readLen > 0) {
+            counters.read += readLen;
+        }
+        if (thrown != null) {
+            counters.failure = thrown;
+        }
+        counters.accessed = true;
     }
 
     @Override
     public void closed(ServerSession session, String remoteHandle, Handle localHandle, Throwable thrown) throws
             IOException {
+        TransferCounters counters = localHandle.removeAttribute(TRANSFER_COUNTERS_KEY);
+        if (counters != null && counters.usage != null) {
+            // Corrects for truncation and for writes that did not end up extending the file
+            counters.usage.adjust(sizeOf(localHandle.getFile()) - counters.size);
+        }
+        if (counters == null || !counters.accessed) {
+            return;
+        }
         Path path = localHandle.getFile();
-        String filePath = getKey(session, path);
-        AtomicLong totalWriteSize = fileWriteSizes.remove(filePath);
-        AtomicLong totalReadSize = fileReadSizes.remove(filePath);
-        Boolean accessed = fileAccessed.remove(filePath);
+        recordTransfers(session, path, counters, thrown);
         long fileSize = Files.size(path);
+        boolean audited = auditTransfer(session, path, counters, thrown);
+        if (counters.written > 0 && thrown == null && counters.failure == null) {
+            sftpPostUploadPipeline.submit(session.getUsername(), path, fileSize);
+        }
 
-        if (totalWriteSize != null && totalWriteSize.get() > 0) {
+        if (audited) {
+            return;
+        }
+        if (counters.written > 0) {
             logger.info("SFTPUser: {}, from: {}, wrote to file: {}, total data length: {}, file size: {}"
-                    , session.getUsername(),session.getIoSession().getRemoteAddress(),path, totalWriteSize.get()
+                    , session.getUsername(),session.getIoSession().getRemoteAddress(),path, counters.written
                     , fileSize);
-        } else if (totalReadSize != null && totalReadSize.get() > 0) {
+        } else if (counters.read > 0) {
             logger.info("SFTPUser: {}, from {}, read from file: {}, total data length: {}, file size: {}"
-                    , session.getUsername(), session.getIoSession().getRemoteAddress(), path, totalReadSize.get()
+                    , session.getUsername(), session.getIoSession().getRemoteAddress(), path, counters.read
                     , fileSize);
-        } else if (accessed != null && accessed) {
+        } else {
             logger.info("SFTPUser: {}, from {}, accessed file: {} but did not read or write any data, file size: {}"
-                    , session.getIoSession().getRemoteAddress(), session.getUsername(), path, fileSize);
+                    , session.getUsername(), session.getIoSession().getRemoteAddress(), path, fileSize);
         }
     }
 
     @Override
     public void removing(ServerSession session, Path path, boolean isDirectory) throws IOException {
         long fileSize = Files.size(path);
-        logger.info("SFTPUser: {}, from: {}, is deleting {}: {}, file size: {}", session.getUsername()
-                , session.getIoSession().getRemoteAddress(), isDirectory ? "directory" : "file", path, fileSize);
-
+        if (!isDirectory) {
+            session.setAttribute(FREED_SIZE_KEY, fileSize);
+        }
+        if (!sftpAuditService.audit(AuditEventType.REMOVING, session.getUsername(),
+                session.getIoSession().getRemoteAddress(), path, fileSize, isDirectory ? "directory" : "file")) {
+            logger.info("SFTPUser: {}, from: {}, is deleting {}: {}, file size: {}", session.getUsername()
+                    , session.getIoSession().getRemoteAddress(), isDirectory ? "directory" : "file", path, fileSize);
+        }
     }
 
     @Override
     public void removed(ServerSession session, Path path, boolean isDirectory, Throwable thrown) throws IOException {
-        long fileSize = Files.size(path);
+        // Gone now if it was removed
+        Long removedSize = session.removeAttribute(FREED_SIZE_KEY);
+        long fileSize = removedSize == null ? 0 : removedSize;
+        if (thrown == null && !isDirectory) {
+            sftpQuotaService.getUsage(session.getUsername()).adjust(-fileSize);
+        }
+        boolean audited = sftpAuditService.audit(thrown == null ? AuditEventType.REMOVED
+                        : AuditEventType.REMOVE_FAILED, session.getUsername(),
+                session.getIoSession().getRemoteAddress(), path, fileSize, thrown == null ? null : thrown.getMessage());
+        // Failures are rare and keep their stack trace in the log
         if (thrown == null) {
+            if (audited) {
+                return;
+            }
             logger.info("SFTPUser: {}, from: {}, successfully deleted {}: {}, file size: {}", session.getUsername()
                     , session.getIoSession().getRemoteAddress(), isDirectory ? "directory" : "file", path, fileSize);
         } else {
@@ -95,9 +193,33 @@ public class CustomSFTPEventListener extends AbstractSftpEventListenerAdapter {
         }
     }
 
+    @Override
+    public void moving(ServerSession session, Path srcPath, Path dstPath, Collection<CopyOption> opts)
+            throws IOException {
+        if (Files.isRegularFile(dstPath)) {
+            session.setAttribute(FREED_SIZE_KEY, Files.size(dstPath));
+        }
+    }
+
+    @Override
+    public void moved(ServerSession session, Path srcPath, Path dstPath, Collection<CopyOption> opts,
+                      Throwable thrown) {
+        // A file replaced by the rename no longer counts
+        Long replacedSize = session.removeAttribute(FREED_SIZE_KEY);
+        if (thrown == null && replacedSize != null) {
+            sftpQuotaService.getUsage(session.getUsername()).adjust(-replacedSize);
+        }
+    }
+
     @Override
     public void created(ServerSession session, Path path, Map<String, ?> attrs, Throwable thrown) {
+        boolean audited = sftpAuditService.audit(thrown == null ? AuditEventType.DIRECTORY_CREATED
+                        : AuditEventType.DIRECTORY_CREATE_FAILED, session.getUsername(),
+                session.getIoSession().getRemoteAddress(), path, 0, thrown == null ? null : thrown.getMessage());
         if (thrown == null) {
+            if (audited) {
+                return;
+            }
             logger.info("SFTPUser: {}, from: {}, successfully created directory: {}", session.getUsername()
                     , session.getIoSession().getRemoteAddress(), path);
         } else {
@@ -107,7 +229,75 @@ public class CustomSFTPEventListener extends AbstractSftpEventListenerAdapter {
     }
 
 
-    private String getKey(ServerSession session, Path path) {
-        return session.getUsername() + "-" + path.toString();
+    private void recordTransfers(ServerSession session, Path path, TransferCounters counters, Throwable thrown) {
+        Duration duration = Duration.ofNanos(System.nanoTime() - counters.openedNanos);
+        Throwable failure = thrown != null ? thrown : counters.failure;
+        if (counters.written > 0) {
+            sftpTransferRecorder.record(session.getUsername(), path.toString(), TransferDirection.UPLOAD,
+                    counters.written, counters.openedAt, duration, failure);
+        }
+        if (counters.read > 0) {
+            sftpTransferRecorder.record(session.getUsername(), path.toString(), TransferDirection.DOWNLOAD,
+                    counters.read, counters.openedAt, duration, failure);
+        }
+    }
+
+    /**
+     * @return whether the audit journal took the events over, logging them too
+     */
+    private boolean auditTransfer(ServerSession session, Path path, TransferCounters counters, Throwable thrown) {
+        String detail = thrown != null ? thrown.getMessage()
+                : counters.failure != null ? counters.failure.getMessage() : null;
+        boolean audited = true;
+        if (counters.written > 0) {
+            audited = sftpAuditService.audit(AuditEventType.FILE_UPLOADED, session.getUsername(),
+                    session.getIoSession().getRemoteAddress(), path, counters.written, detail);
+        }
+        if (counters.read > 0) {
+            audited &= sftpAuditService.audit(AuditEventType.FILE_DOWNLOADED, session.getUsername(),
+                    session.getIoSession().getRemoteAddress(), path, counters.read, detail);
+        }
+        if (counters.written == 0 && counters.read == 0) {
+            audited = sftpAuditService.audit(AuditEventType.FILE_ACCESSED, session.getUsername(),
+                    session.getIoSession().getRemoteAddress(), path, 0, detail);
+        }
+        return audited;
+    }
+
+    private static boolean isWrite(Set<? extends OpenOption> options) {
+        return options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND);
+    }
+
+    private static long sizeOf(Path path) throws IOException {
+        try {
+            return Files.size(path);
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    private static TransferCounters getTransferCounters(FileHandle localHandle) {
+        TransferCounters counters = localHandle.getAttribute(TRANSFER_COUNTERS_KEY);
+        if (counters == null) {
+            // Opening of the handle was not observed
+            counters = localHandle.computeAttributeIfAbsent(TRANSFER_COUNTERS_KEY, key -> new TransferCounters());
+        }
+        return counters;
+    }
+
+    /**
+     * Bytes transferred through one file handle. A handle is only used by the subsystem thread of its channel,
+     * so plain fields are enough.
+     */
+    static final class TransferCounters {
+        final Instant openedAt = Instant.now();
+        final long openedNanos = System.nanoTime();
+        long written;
+        long read;
+        boolean accessed;
+        Throwable failure;
+        // Size of the file as counted in the usage of the user, which is null for handles opened for reading
+        long size;
+        SFTPQuotaService.Usage usage;
     }
 }
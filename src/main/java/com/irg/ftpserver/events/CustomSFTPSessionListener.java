@@ -1,6 +1,8 @@
 package com.irg.ftpserver.events;
 
+import com.irg.ftpserver.data.AuditEventType;
 import com.irg.ftpserver.service.BlockedHostService;
+import com.irg.ftpserver.service.SFTPAuditService;
 import lombok.Data;
 import org.apache.sshd.common.kex.KexProposalOption;
 import org.apache.sshd.common.session.Session;
@@ -24,16 +26,22 @@ public class CustomSFTPSessionListener implements SessionListener {
 
     private static final Logger log = LoggerFactory.getLogger(CustomSFTPSessionListener.class);
     private final BlockedHostService blockedHostService;
+    private final SFTPAuditService sftpAuditService;
     private final Map<Session, Boolean> sessionClosedFlags = new ConcurrentHashMap<>();
     private long maxIdleTime;
 
     @Override
     public void sessionCreated(Session session) {
         String host = ((InetSocketAddress)session.getIoSession().getRemoteAddress()).getAddress().getHostAddress();
-        log.info("Session established: {}", session);
         if (blockedHostService.isBlocked(host)){
-            log.info("Blocked Host: {} tried to connect", host);
+            if (!sftpAuditService.audit(AuditEventType.SESSION_BLOCKED, null,
+                    session.getIoSession().getRemoteAddress(), null, 0, null)) {
+                log.info("Blocked Host: {} tried to connect", host);
+            }
             session.close(false);
+        } else if (!sftpAuditService.audit(AuditEventType.SESSION_CREATED, null,
+                session.getIoSession().getRemoteAddress(), null, 0, null)) {
+            log.info("Session established: {}", session);
         }
     }
 
@@ -46,6 +54,9 @@ public class CustomSFTPSessionListener implements SessionListener {
                 String algo = serverSession.getNegotiatedKexParameter(KexProposalOption.ALGORITHMS);
                 String clientIp = serverSession.getIoSession().getRemoteAddress().toString();
                 String clientVersion = serverSession.getClientVersion();
+                // The journal records the client version, the negotiated algorithms are only logged
+                sftpAuditService.audit(AuditEventType.SESSION_AUTHENTICATED, session.getUsername(),
+                        serverSession.getIoSession().getRemoteAddress(), null, 0, clientVersion);
 
                 log.info("Session Authenticated: {}, by SFTPUser: {}, from IP: {}, with Client Version: {}, with Cipher: {}" +
                                 ", MAC: {}, Algo: {}",
@@ -61,17 +72,21 @@ public class CustomSFTPSessionListener implements SessionListener {
             log.debug("Entering sessionClosed method for session: {}", session);
 
             String username = session.getUsername();
-            if (username == null) {
-                log.info("Session closed: {} To Host: {}", session, session.getIoSession().getRemoteAddress());
-            } else {
-                log.info("Session closed: {} by SFTPUser: {}, To Host: {}", session, session.getUsername()
-                        , session.getIoSession().getRemoteAddress());
+            if (!sftpAuditService.audit(AuditEventType.SESSION_CLOSED, username,
+                    session.getIoSession().getRemoteAddress(), null, 0, null)) {
+                if (username == null) {
+                    log.info("Session closed: {} To Host: {}", session, session.getIoSession().getRemoteAddress());
+                } else {
+                    log.info("Session closed: {} by SFTPUser: {}, To Host: {}", session, session.getUsername()
+                            , session.getIoSession().getRemoteAddress());
+                }
             }
             log.debug("Exiting sessionClosed method for session: {}", session);
         }
     }
 
-    public CustomSFTPSessionListener(BlockedHostService blockedHostService) {
+    public CustomSFTPSessionListener(BlockedHostService blockedHostService, SFTPAuditService sftpAuditService) {
         this.blockedHostService = blockedHostService;
+        this.sftpAuditService = sftpAuditService;
     }
 }
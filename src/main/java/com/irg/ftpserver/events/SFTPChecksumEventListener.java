@@ -0,0 +1,129 @@
+package com.irg.ftpserver.events;
+
+import com.irg.ftpserver.service.SFTPChecksumService;
+import org.apache.sshd.common.AttributeRepository.AttributeKey;
+import org.apache.sshd.server.session.ServerSession;
+import org.apache.sshd.sftp.server.AbstractSftpEventListenerAdapter;
+import org.apache.sshd.sftp.server.FileHandle;
+import org.apache.sshd.sftp.server.Handle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.Set;
+
+/**
+ * Computes the checksum of uploads while they are written.
+ * <p>
+ * As long as a client writes a file in order from the start, each write is added to a running digest, and the
+ * checksum is ready when the handle is closed. Once a write skips ahead or goes back, as clients with parallel
+ * requests do, or fails, the file is re-read in the background after close instead.
+ */
+@Component
+public class SFTPChecksumEventListener extends AbstractSftpEventListenerAdapter {
+
+    private static final Logger logger = LoggerFactory.getLogger(SFTPChecksumEventListener.class);
+
+    static final AttributeKey<UploadDigest> UPLOAD_DIGEST_KEY = new AttributeKey<>();
+
+    private final SFTPChecksumService sftpChecksumService;
+
+    public SFTPChecksumEventListener(SFTPChecksumService sftpChecksumService) {
+        this.sftpChecksumService = sftpChecksumService;
+    }
+
+    @Override
+    public void open(ServerSession session, String remoteHandle, Handle localHandle) {
+        if (sftpChecksumService.isEnabled() && localHandle instanceof FileHandle fileHandle
+                && isWrite(fileHandle.getOpenOptions())) {
+            fileHandle.setAttribute(UPLOAD_DIGEST_KEY, new UploadDigest(sftpChecksumService.newDigest()));
+        }
+    }
+
+    @Override
+    public void writing(ServerSession session, String remoteHandle, FileHandle localHandle, long offset, byte[] data
+            , int dataOffset, int dataLen) {
+        UploadDigest uploadDigest = localHandle.getAttribute(UPLOAD_DIGEST_KEY);
+        if (uploadDigest == null) {
+            return;
+        }
+        uploadDigest.written = true;
+        if (!uploadDigest.sequential) {
+            return;
+        }
+        if (offset != uploadDigest.nextOffset) {
+            // Out of order, the running digest is of no use anymore
+            uploadDigest.sequential = false;
+            logger.debug("Write at offset: {} instead of: {} to: {}, checksum will be computed after close", offset,
+                    uploadDigest.nextOffset, localHandle.getFile());
+            return;
+        }
+        long start = System.nanoTime();
+        uploadDigest.digest.update(data, dataOffset, dataLen);
+        sftpChecksumService.recordStreamingDigest(dataLen, System.nanoTime() - start);
+        uploadDigest.nextOffset += dataLen;
+    }
+
+    @Override
+    public void written(ServerSession session, String remoteHandle, FileHandle localHandle, long offset, byte[] data
+            , int dataOffset, int dataLen, Throwable thrown) {
+        if (thrown != null) {
+            UploadDigest uploadDigest = localHandle.getAttribute(UPLOAD_DIGEST_KEY);
+            if (uploadDigest != null) {
+                // Digested, but maybe not written
+                uploadDigest.sequential = false;
+            }
+        }
+    }
+
+    @Override
+    public void closed(ServerSession session, String remoteHandle, Handle localHandle, Throwable thrown) {
+        if (!(localHandle instanceof FileHandle)) {
+            return;
+        }
+        UploadDigest uploadDigest = localHandle.removeAttribute(UPLOAD_DIGEST_KEY);
+        if (uploadDigest == null || !uploadDigest.written) {
+            return;
+        }
+        String username = session.getUsername();
+        Path file = localHandle.getFile();
+        if (uploadDigest.sequential && thrown == null) {
+            try {
+                // Also catches files that were not truncated on open and are longer than what was written
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                if (attributes.size() == uploadDigest.nextOffset) {
+                    sftpChecksumService.completeStreaming(username, file, attributes.size(),
+                            attributes.lastModifiedTime(), uploadDigest.digest);
+                    return;
+                }
+            } catch (IOException e) {
+                logger.warn("Could not read attributes of: {}: {}", file, e.getMessage());
+            }
+        }
+        sftpChecksumService.rehash(username, file);
+    }
+
+    private static boolean isWrite(Set<StandardOpenOption> openOptions) {
+        return openOptions.contains(StandardOpenOption.WRITE) || openOptions.contains(StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Running digest of an upload. Only touched by the thread serving the handle.
+     */
+    static final class UploadDigest {
+        final MessageDigest digest;
+        long nextOffset;
+        boolean sequential = true;
+        boolean written;
+
+        UploadDigest(MessageDigest digest) {
+            this.digest = digest;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.irg.ftpserver.events;
+
+import com.irg.ftpserver.data.SFTPServerConfigurationSnapshot;
+import lombok.Data;
+
+/**
+ * Published when a new version of the SFTP server configuration has been loaded.
+ */
+@Data
+public class SFTPConfigurationReloadedEvent {
+    private final SFTPServerConfigurationSnapshot previous;
+    private final SFTPServerConfigurationSnapshot current;
+}
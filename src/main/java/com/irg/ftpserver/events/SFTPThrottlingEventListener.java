@@ -0,0 +1,37 @@
+package com.irg.ftpserver.events;
+
+import com.irg.ftpserver.service.SFTPBandwidthThrottleService;
+import org.apache.sshd.server.session.ServerSession;
+import org.apache.sshd.sftp.server.AbstractSftpEventListenerAdapter;
+import org.apache.sshd.sftp.server.FileHandle;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Holds back SFTP reads and writes that exceed the bandwidth limits of the session.
+ * Writes are throttled before the data is written, reads once the number of bytes actually read is known.
+ */
+@Component
+public class SFTPThrottlingEventListener extends AbstractSftpEventListenerAdapter {
+
+    private final SFTPBandwidthThrottleService sftpBandwidthThrottleService;
+
+    public SFTPThrottlingEventListener(SFTPBandwidthThrottleService sftpBandwidthThrottleService) {
+        this.sftpBandwidthThrottleService = sftpBandwidthThrottleService;
+    }
+
+    @Override
+    public void writing(ServerSession session, String remoteHandle, FileHandle localHandle, long offset, byte[] data
+            , int dataOffset, int dataLen) throws IOException {
+        sftpBandwidthThrottleService.throttleWrite(session, dataLen);
+    }
+
+    @Override
+    public void read(ServerSession session, String remoteHandle, FileHandle localHandle, long offset, byte[] data
+            , int dataOffset, int dataLen, int readLen, Throwable thrown) throws IOException {
+        if (thrown == null && readLen > 0) {
+            sftpBandwidthThrottleService.throttleRead(session, readLen);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.irg.ftpserver.events;
+
+import com.irg.ftpserver.pipeline.PostUpload;
+import lombok.Data;
+
+/**
+ * Published by the post-upload pipeline once an upload went through the stages before the notification stage.
+ */
+@Data
+public class SFTPUploadCompletedEvent {
+    private final PostUpload upload;
+}
@@ -0,0 +1,11 @@
+package com.irg.ftpserver.events;
+
+import lombok.Data;
+
+/**
+ * Published when an SFTP user or one of its public keys was created, updated or removed.
+ */
+@Data
+public class SFTPUserChangedEvent {
+    private final String username;
+}
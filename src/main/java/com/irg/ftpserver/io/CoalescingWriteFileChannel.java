@@ -0,0 +1,244 @@
+package com.irg.ftpserver.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A file channel for uploads that gathers contiguous writes in a direct buffer and writes them to the file in one go.
+ * <p>
+ * SFTP clients send an upload as many pipelined writes of a few hundred KB at most, each of which would otherwise be
+ * a write system call. Here a write continuing the buffered data is appended to the buffer, and the buffer is written
+ * out when it is full, when a write does not continue it, and before anything that reads or syncs the file. Writes at
+ * least as large as the buffer bypass it. Without a buffer pool every write goes to the file right away, which is
+ * how uploads are counted when they are not coalesced.
+ * <p>
+ * This is write-behind: a buffered write is acknowledged to the client before it is on disk, so durability is traded
+ * for fewer system calls. An error writing buffered data can only be reported by a later call, at the latest by close,
+ * and it fails the channel for good: the data stays in the buffer and every later call fails with that error, so a
+ * client can never carry on past a hole in its upload and has to start it again. Clients that need to know their
+ * data is on disk sync the file, which writes out the buffer first.
+ */
+public class CoalescingWriteFileChannel extends FileChannel {
+
+    private final FileChannel channel;
+
+    private final DirectBufferPool bufferPool;
+
+    private final WriteStatistics statistics;
+
+    private ByteBuffer buffer;
+
+    // File offset of the first buffered byte
+    private long bufferStart;
+
+    private long position;
+
+    // Error writing out the buffer, which failed the channel
+    private IOException failure;
+
+    /**
+     * @param channel    the channel to write, closed with this channel
+     * @param bufferPool the pool to take the buffer from, null to write through
+     * @param statistics counts write requests and the writes issued for them
+     */
+    public CoalescingWriteFileChannel(FileChannel channel, DirectBufferPool bufferPool, WriteStatistics statistics) {
+        this.channel = channel;
+        this.bufferPool = bufferPool;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src) throws IOException {
+        int written = write(src, position);
+        position += written;
+        return written;
+    }
+
+    @Override
+    public synchronized long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            total += write(srcs[i]);
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src, long position) throws IOException {
+        ensureOpen();
+        ensureNotFailed();
+        statistics.requests.increment();
+        int length = src.remaining();
+        if (length == 0) {
+            return 0;
+        }
+        if (buffer != null && buffer.position() > 0
+                && (position != bufferStart + buffer.position() || length > buffer.remaining())) {
+            flush();
+        }
+        if (bufferPool == null || length >= bufferPool.getBufferSize()) {
+            writeFully(src, position);
+        } else {
+            if (buffer == null) {
+                buffer = bufferPool.acquire();
+            }
+            if (buffer.position() == 0) {
+                bufferStart = position;
+            }
+            buffer.put(src);
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+        }
+        return length;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        flush();
+        int read = channel.read(dst, position);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public synchronized long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        flush();
+        channel.position(position);
+        long read = channel.read(dsts, offset, length);
+        position = channel.position();
+        return read;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst, long position) throws IOException {
+        flush();
+        return channel.read(dst, position);
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized FileChannel position(long newPosition) throws IOException {
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position: " + newPosition);
+        }
+        ensureOpen();
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public synchronized long size() throws IOException {
+        ensureOpen();
+        long buffered = buffer == null ? 0 : bufferStart + buffer.position();
+        return Math.max(channel.size(), buffered);
+    }
+
+    @Override
+    public synchronized FileChannel truncate(long size) throws IOException {
+        flush();
+        channel.truncate(size);
+        position = Math.min(position, size);
+        return this;
+    }
+
+    @Override
+    public synchronized void force(boolean metaData) throws IOException {
+        flush();
+        channel.force(metaData);
+    }
+
+    @Override
+    public synchronized long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        flush();
+        return channel.transferTo(position, count, target);
+    }
+
+    @Override
+    public synchronized long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+        flush();
+        return channel.transferFrom(src, position, count);
+    }
+
+    @Override
+    public synchronized MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+        flush();
+        return channel.map(mode, position, size);
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) throws IOException {
+        return channel.lock(position, size, shared);
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+        return channel.tryLock(position, size, shared);
+    }
+
+    @Override
+    protected synchronized void implCloseChannel() throws IOException {
+        try {
+            ensureNotFailed();
+            flush();
+        } finally {
+            if (buffer != null) {
+                bufferPool.release(buffer);
+                buffer = null;
+            }
+            channel.close();
+        }
+    }
+
+    private void flush() throws IOException {
+        ensureNotFailed();
+        if (buffer == null || buffer.position() == 0) {
+            return;
+        }
+        int length = buffer.position();
+        buffer.flip();
+        try {
+            writeFully(buffer, bufferStart);
+        } catch (IOException e) {
+            // Keeps the data buffered, and no call gets past it
+            buffer.limit(buffer.capacity()).position(length);
+            failure = e;
+            throw e;
+        }
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer src, long position) throws IOException {
+        long start = System.nanoTime();
+        long written = 0;
+        while (src.hasRemaining()) {
+            written += channel.write(src, position + written);
+        }
+        statistics.recordWrite(written, start);
+    }
+
+    private void ensureNotFailed() throws IOException {
+        if (failure != null) {
+            throw new IOException("An earlier write of the file failed", failure);
+        }
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+}
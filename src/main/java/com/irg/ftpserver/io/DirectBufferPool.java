@@ -0,0 +1,62 @@
+package com.irg.ftpserver.io;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct buffers of one size.
+ * <p>
+ * Direct buffers are only freed by the garbage collector, so buffers of short-lived handles are kept for reuse
+ * instead of being allocated again. At most {@code maxPooled} released buffers are kept, more are left to the
+ * garbage collector.
+ */
+public class DirectBufferPool {
+
+    private final int bufferSize;
+
+    private final int maxPooled;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> pooled = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    public DirectBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * @return a cleared buffer of the pool's buffer size
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = pooled.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        size.decrementAndGet();
+        return buffer.clear();
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must no longer be used by the caller.
+     */
+    public void release(ByteBuffer buffer) {
+        if (size.incrementAndGet() <= maxPooled) {
+            pooled.offer(buffer);
+        } else {
+            size.decrementAndGet();
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return the number of buffers waiting to be reused
+     */
+    public int getPooledCount() {
+        return size.get();
+    }
+}
@@ -0,0 +1,215 @@
+package com.irg.ftpserver.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A file channel that serves reads from memory-mapped windows of the file.
+ * <p>
+ * Reading a {@link FileChannel} into a heap buffer costs a system call and a copy through a temporary direct buffer
+ * per read. Here data is copied straight from the page cache, one window of {@code windowSize} bytes being mapped at
+ * a time and moved along as the file is read. Only the part of the file that existed when a window was mapped is
+ * read from it, reads beyond it fall back to the underlying channel. A file truncated by someone else while mapped
+ * reads as zeros up to the end of its last page, past which reads fall back as well. Everything else is delegated
+ * to the underlying channel.
+ */
+public class MappedReadFileChannel extends FileChannel {
+
+    private final FileChannel channel;
+
+    private final long windowSize;
+
+    private final LongAdder mappedBytes;
+
+    private long position;
+
+    private MappedByteBuffer window;
+
+    private long windowStart;
+
+    /**
+     * @param channel     the channel to read, closed with this channel
+     * @param windowSize  the number of bytes to map at a time, at most {@link Integer#MAX_VALUE}
+     * @param mappedBytes counts the bytes read from mapped windows
+     */
+    public MappedReadFileChannel(FileChannel channel, long windowSize, LongAdder mappedBytes) {
+        if (windowSize <= 0 || windowSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid window size: " + windowSize);
+        }
+        this.channel = channel;
+        this.windowSize = windowSize;
+        this.mappedBytes = mappedBytes;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        int read = read(dst, position);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public synchronized long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (!dsts[i].hasRemaining()) {
+                continue;
+            }
+            int read = read(dsts[i]);
+            if (read < 0) {
+                return total == 0 ? -1 : total;
+            }
+            total += read;
+            if (dsts[i].hasRemaining()) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst, long position) throws IOException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        MappedByteBuffer mapped = map(position);
+        if (mapped == null) {
+            return channel.read(dst, position);
+        }
+        int offset = (int) (position - windowStart);
+        int length = Math.min(dst.remaining(), mapped.limit() - offset);
+        try {
+            dst.put(dst.position(), mapped, offset, length);
+        } catch (InternalError e) {
+            // The file was truncated after it was mapped, the underlying channel knows what is left of it
+            window = null;
+            return channel.read(dst, position);
+        }
+        dst.position(dst.position() + length);
+        mappedBytes.add(length);
+        return length;
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src) throws IOException {
+        channel.position(position);
+        int written = channel.write(src);
+        position = channel.position();
+        window = null;
+        return written;
+    }
+
+    @Override
+    public synchronized long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        channel.position(position);
+        long written = channel.write(srcs, offset, length);
+        position = channel.position();
+        window = null;
+        return written;
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src, long position) throws IOException {
+        window = null;
+        return channel.write(src, position);
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+        return position;
+    }
+
+    @Override
+    public synchronized FileChannel position(long newPosition) throws IOException {
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position: " + newPosition);
+        }
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public synchronized FileChannel truncate(long size) throws IOException {
+        channel.truncate(size);
+        position = Math.min(position, size);
+        window = null;
+        return this;
+    }
+
+    @Override
+    public void force(boolean metaData) throws IOException {
+        channel.force(metaData);
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        return channel.transferTo(position, count, target);
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+        return channel.transferFrom(src, position, count);
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+        return channel.map(mode, position, size);
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) throws IOException {
+        return channel.lock(position, size, shared);
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+        return channel.tryLock(position, size, shared);
+    }
+
+    @Override
+    protected synchronized void implCloseChannel() throws IOException {
+        // Unmapped once no longer referenced
+        window = null;
+        channel.close();
+    }
+
+    /**
+     * @return the window holding the byte at the position, or null if it is beyond the end of the file
+     */
+    private MappedByteBuffer map(long position) throws IOException {
+        if (window != null && position >= windowStart && position < windowStart + window.limit()) {
+            return window;
+        }
+        long start = position - position % windowSize;
+        long size = Math.min(windowSize, channel.size() - start);
+        if (position >= start + size) {
+            return null;
+        }
+        window = channel.map(MapMode.READ_ONLY, start, size);
+        windowStart = start;
+        return window;
+    }
+}
@@ -0,0 +1,52 @@
+package com.irg.ftpserver.io;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the write requests of upload handles against the writes issued to the file, and the time those took.
+ * Shared by all handles of one upload mode.
+ */
+public class WriteStatistics {
+
+    final LongAdder requests = new LongAdder();
+
+    final LongAdder writes = new LongAdder();
+
+    final LongAdder bytes = new LongAdder();
+
+    final LongAdder nanos = new LongAdder();
+
+    /**
+     * @return the number of write requests made to handles
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * @return the number of writes issued to files, each one system call
+     */
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    /**
+     * @return the number of bytes written to files
+     */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * @return the time spent writing to files in seconds
+     */
+    public double getSeconds() {
+        return nanos.sum() / 1e9;
+    }
+
+    void recordWrite(long written, long startNanos) {
+        writes.increment();
+        bytes.add(written);
+        nanos.add(System.nanoTime() - startNanos);
+    }
+}
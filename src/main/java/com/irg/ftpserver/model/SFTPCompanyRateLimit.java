@@ -0,0 +1,39 @@
+package com.irg.ftpserver.model;
+
+import jakarta.persistence.*;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+/**
+ * Bandwidth limits shared by every SFTP user of a company, in bytes per second, 0 for unlimited.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "sftp_company_rate_limits", schema = "ftpserver")
+public class SFTPCompanyRateLimit {
+
+    @Id
+    @Column(nullable = false, name = "company_id")
+    @Min(1)
+    @Max(99999)
+    private int companyId;
+
+    @Column(nullable = false, name = "read_rate_limit")
+    @Min(0)
+    private long readRateLimit;
+
+    @Column(nullable = false, name = "write_rate_limit")
+    @Min(0)
+    private long writeRateLimit;
+
+    @Column(nullable = false, name = "modified_date")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date modifiedDate;
+}
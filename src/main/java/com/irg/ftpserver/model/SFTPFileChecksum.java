@@ -0,0 +1,49 @@
+package com.irg.ftpserver.model;
+
+import com.irg.ftpserver.data.ChecksumMethod;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Checksum of an uploaded file, for reconciliation with partners.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "sftp_file_checksums", schema = "ftpserver")
+public class SFTPFileChecksum {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private UUID id;
+
+    @Column(nullable = false, name = "username")
+    private String username;
+
+    @Column(nullable = false, name = "path", length = 4096)
+    private String path;
+
+    @Column(nullable = false, name = "size")
+    private long size;
+
+    @Column(nullable = false, name = "algorithm")
+    private String algorithm;
+
+    // Lower case hex
+    @Column(nullable = false, name = "checksum")
+    private String checksum;
+
+    @Column(nullable = false, name = "method")
+    @Enumerated(EnumType.STRING)
+    private ChecksumMethod method;
+
+    @Column(nullable = false, name = "computed_at")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date computedAt;
+}
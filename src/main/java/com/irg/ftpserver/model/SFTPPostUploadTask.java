@@ -0,0 +1,59 @@
+package com.irg.ftpserver.model;
+
+import com.irg.ftpserver.data.PostUploadTaskStatus;
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * An upload waiting for, or going through, the post-upload pipeline.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@Table(name = "sftp_post_upload_tasks", schema = "ftpserver")
+public class SFTPPostUploadTask {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private UUID id;
+
+    @Column(nullable = false, name = "username")
+    private String username;
+
+    // As seen by the user
+    @Column(nullable = false, name = "path", length = 4096)
+    private String path;
+
+    @Column(nullable = false, name = "local_path", length = 4096)
+    private String localPath;
+
+    @Column(nullable = false, name = "size")
+    private long size;
+
+    // Next stage to run, null to start with the first
+    @Column(name = "stage", length = 100)
+    private String stage;
+
+    // Failed attempts of the current stage
+    @Column(nullable = false, name = "attempts")
+    private int attempts;
+
+    @Column(nullable = false, name = "status")
+    @Enumerated(EnumType.STRING)
+    private PostUploadTaskStatus status;
+
+    @Column(name = "last_error", length = 1024)
+    private String lastError;
+
+    @Column(nullable = false, name = "created_at")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date createdAt;
+
+    @Column(nullable = false, name = "next_attempt_at")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date nextAttemptAt;
+}
@@ -1,5 +1,6 @@
 package com.irg.ftpserver.model;
 
+import com.irg.ftpserver.data.ExecutorMode;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
@@ -82,6 +83,26 @@ public class SFTPServerConfiguration {
     @Max(256)
     private int queueCapacity;
 
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, name = "executor_mode")
+    @NotNull
+    private ExecutorMode executorMode = ExecutorMode.PLATFORM;
+
+    @Column(nullable = false, name = "max_concurrent_subsystems")
+    @NotNull
+    @Min(1)
+    @Max(100000)
+    private int maxConcurrentSubsystems;
+
+    // Bandwidth limits of the whole server in bytes per second, 0 for unlimited
+    @Column(nullable = false, name = "global_read_rate_limit")
+    @Min(0)
+    private long globalReadRateLimit;
+
+    @Column(nullable = false, name = "global_write_rate_limit")
+    @Min(0)
+    private long globalWriteRateLimit;
+
     @Column(nullable = false, name = "time_zone")
     @NotNull
     @Size(max=64)
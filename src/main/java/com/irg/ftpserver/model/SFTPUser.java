@@ -1,10 +1,14 @@
 package com.irg.ftpserver.model;
 
+import com.irg.ftpserver.data.StorageType;
+import com.irg.ftpserver.data.UploadMode;
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Id;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
 import jakarta.persistence.Table;
 import jakarta.persistence.Column;
 import jakarta.persistence.Temporal;
@@ -48,8 +52,14 @@ public class SFTPUser {
     @Size(min = 60, max = 100)
     private String password;
 
+    // Directory on the local disk, or key prefix in object storage
     private String directory;
 
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, name = "storage_type")
+    @NotNull
+    private StorageType storageType = StorageType.LOCAL;
+
     @Column(nullable = false, name="created_at")
     @Temporal(TemporalType.TIMESTAMP)
     @NotNull(message = "Created Date is required")
@@ -93,10 +103,77 @@ public class SFTPUser {
     @Temporal(TemporalType.TIMESTAMP)
     private Date lastPasswordChange;
 
+    // Bandwidth limits in bytes per second, 0 for unlimited
+    @Column(nullable = false, name = "read_rate_limit")
+    @Min(0)
+    private long readRateLimit;
+
+    @Column(nullable = false, name = "write_rate_limit")
+    @Min(0)
+    private long writeRateLimit;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, name = "upload_mode")
+    @NotNull
+    private UploadMode uploadMode = UploadMode.DIRECT;
+
+    // Disk quota in bytes, 0 for unlimited
+    @Column(nullable = false, name = "quota_bytes")
+    @Min(0)
+    private long quotaBytes;
+
+    // Usage found by the last reconciliation, kept up to date in memory in between
+    @Column(nullable = false, name = "used_bytes")
+    @Min(0)
+    private long usedBytes;
+
     @Column(nullable = false, name = "modified_date")
     @Temporal(TemporalType.TIMESTAMP)
     private Date modifiedDate;
 
     @Transient
     private List<String> publicKeysFromConfig = new ArrayList<>();
+
+    /**
+     * @return a copy of the user and its public keys, sharing nothing mutable with this one
+     */
+    public SFTPUser copy() {
+        SFTPUser copy = new SFTPUser();
+        copy.id = id;
+        copy.username = username;
+        copy.password = password;
+        copy.directory = directory;
+        copy.storageType = storageType;
+        copy.createdDate = copy(createdDate);
+        copy.companyId = companyId;
+        copy.companyName = companyName;
+        copy.ticketUrl = ticketUrl;
+        copy.enabled = enabled;
+        copy.lastLoginDate = copy(lastLoginDate);
+        copy.passwordLoginEnabled = passwordLoginEnabled;
+        copy.publicKeyLoginEnabled = publicKeyLoginEnabled;
+        copy.lastPasswordChange = copy(lastPasswordChange);
+        copy.readRateLimit = readRateLimit;
+        copy.writeRateLimit = writeRateLimit;
+        copy.uploadMode = uploadMode;
+        copy.quotaBytes = quotaBytes;
+        copy.usedBytes = usedBytes;
+        copy.modifiedDate = copy(modifiedDate);
+        copy.publicKeysFromConfig = new ArrayList<>(publicKeysFromConfig);
+        for (SFTPPublicKey key : SFTPPublicKeys) {
+            SFTPPublicKey keyCopy = new SFTPPublicKey();
+            keyCopy.setId(key.getId());
+            keyCopy.setPublicKey(key.getPublicKey());
+            keyCopy.setSftpUser(copy);
+            keyCopy.setEnabled(key.isEnabled());
+            keyCopy.setCreatedDate(copy(key.getCreatedDate()));
+            keyCopy.setModifiedDate(copy(key.getModifiedDate()));
+            copy.SFTPPublicKeys.add(keyCopy);
+        }
+        return copy;
+    }
+
+    private static Date copy(Date date) {
+        return date == null ? null : new Date(date.getTime());
+    }
 }
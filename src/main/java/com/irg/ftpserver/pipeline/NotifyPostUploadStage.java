@@ -0,0 +1,36 @@
+package com.irg.ftpserver.pipeline;
+
+import com.irg.ftpserver.events.SFTPUploadCompletedEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Last stage of the post-upload pipeline, publishing an {@link SFTPUploadCompletedEvent} for downstream listeners.
+ */
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE)
+public class NotifyPostUploadStage implements PostUploadStage {
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    public NotifyPostUploadStage(ApplicationEventPublisher eventPublisher) {
+        this.eventPublisher = eventPublisher;
+    }
+
+    @Override
+    public String getName() {
+        return "notify";
+    }
+
+    @Override
+    public void process(PostUpload upload) {
+        eventPublisher.publishEvent(new SFTPUploadCompletedEvent(upload));
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+}
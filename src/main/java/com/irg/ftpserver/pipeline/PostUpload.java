@@ -0,0 +1,22 @@
+package com.irg.ftpserver.pipeline;
+
+import lombok.Value;
+
+import java.nio.file.Path;
+import java.util.UUID;
+
+/**
+ * A completed upload passed to the stages of the post-upload pipeline.
+ */
+@Value
+public class PostUpload {
+    UUID id;
+    String username;
+    // As seen by the user
+    String path;
+    // On the local disk
+    Path localPath;
+    long size;
+    // 1 on the first attempt of the current stage
+    int attempt;
+}
@@ -0,0 +1,36 @@
+package com.irg.ftpserver.pipeline;
+
+/**
+ * A step of the post-upload pipeline, such as moving, decompressing or announcing an upload.
+ * <p>
+ * Stages are Spring beans, run in {@link org.springframework.core.annotation.Order} for every completed upload on the
+ * pipeline's own workers. A stage that throws is retried with backoff, a stage that exceeds its timeout is
+ * interrupted, so stages should stop when interrupted. As a stage may run again after a retry or a restart, it must
+ * be idempotent.
+ * <p>
+ * Unless a stage declares itself read-only, the pipeline gives it a private copy of an upload whose content is
+ * shared by deduplication, and keeps the upload from being deduplicated while the stage runs, so that the stage may
+ * write to it in place.
+ */
+public interface PostUploadStage {
+
+    /**
+     * @return the name of the stage, used to resume uploads after a restart and to configure its timeout
+     */
+    String getName();
+
+    /**
+     * Processes an upload.
+     *
+     * @param upload the upload
+     * @throws Exception to have the stage retried
+     */
+    void process(PostUpload upload) throws Exception;
+
+    /**
+     * @return true if the stage never writes to the upload or changes its attributes
+     */
+    default boolean isReadOnly() {
+        return false;
+    }
+}
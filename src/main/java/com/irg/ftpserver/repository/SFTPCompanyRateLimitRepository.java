@@ -0,0 +1,9 @@
+package com.irg.ftpserver.repository;
+
+import com.irg.ftpserver.model.SFTPCompanyRateLimit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface SFTPCompanyRateLimitRepository extends JpaRepository<SFTPCompanyRateLimit, Integer> {
+}
@@ -0,0 +1,11 @@
+package com.irg.ftpserver.repository;
+
+import com.irg.ftpserver.model.SFTPFileChecksum;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.UUID;
+
+@Repository
+public interface SFTPFileChecksumRepository extends JpaRepository<SFTPFileChecksum, UUID> {
+}
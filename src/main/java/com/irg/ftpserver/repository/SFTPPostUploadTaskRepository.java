@@ -0,0 +1,27 @@
+package com.irg.ftpserver.repository;
+
+import com.irg.ftpserver.data.PostUploadTaskStatus;
+import com.irg.ftpserver.model.SFTPPostUploadTask;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface SFTPPostUploadTaskRepository extends JpaRepository<SFTPPostUploadTask, UUID> {
+
+    List<SFTPPostUploadTask> findByStatusAndNextAttemptAtLessThanEqualOrderByNextAttemptAt(
+            PostUploadTaskStatus status, Date nextAttemptAt, Pageable pageable);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE SFTPPostUploadTask t SET t.status = :to WHERE t.status = :from")
+    int updateStatus(@Param("from") PostUploadTaskStatus from, @Param("to") PostUploadTaskStatus to);
+}
@@ -1,10 +1,21 @@
 package com.irg.ftpserver.repository;
 
 import com.irg.ftpserver.model.SFTPServerConfiguration;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import java.util.List;
 import java.util.UUID;
 
 @Repository
 public interface SFTPServerConfigurationRepository extends JpaRepository<SFTPServerConfiguration, UUID>{
+
+    /**
+     * Returns the configurations newest first: by modified date, then creation date, then id, so that the latest
+     * configuration is the same on every call even when rows share a timestamp.
+     */
+    @Query("SELECT c FROM SFTPServerConfiguration c " +
+            "ORDER BY c.modifiedDate DESC NULLS LAST, c.createdAt DESC NULLS LAST, c.id DESC")
+    List<SFTPServerConfiguration> findLatest(Pageable pageable);
 }
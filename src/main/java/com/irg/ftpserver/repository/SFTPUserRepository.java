@@ -1,8 +1,15 @@
 package com.irg.ftpserver.repository;
 
+import com.irg.ftpserver.data.SFTPUserVersion;
 import com.irg.ftpserver.model.SFTPUser;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -10,4 +17,12 @@ import java.util.UUID;
 public interface SFTPUserRepository extends JpaRepository<SFTPUser, UUID> {
     Optional<SFTPUser> findByUsername(String username);
 
+    @Query("SELECT new com.irg.ftpserver.data.SFTPUserVersion(u.username, u.modifiedDate, MAX(k.modifiedDate), COUNT(k)) "
+            + "FROM SFTPUser u LEFT JOIN u.SFTPPublicKeys k GROUP BY u.username, u.modifiedDate")
+    List<SFTPUserVersion> findVersions();
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE SFTPUser u SET u.usedBytes = :usedBytes WHERE u.username = :username")
+    int updateUsedBytes(@Param("username") String username, @Param("usedBytes") long usedBytes);
 }
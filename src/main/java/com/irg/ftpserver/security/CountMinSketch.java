@@ -0,0 +1,115 @@
+package com.irg.ftpserver.security;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Fixed-size Count-Min sketch of string keys. Counts never underestimate; collisions can only make them larger.
+ * Memory is {@code depth * width} ints regardless of how many distinct keys are counted.
+ * <p>
+ * Every key is hashed once to 64 bits, with a seed chosen per sketch so that clients cannot craft colliding keys,
+ * and the row indexes are derived from the two halves of that hash by double hashing. Keys colliding in one row are
+ * thus unlikely to collide in the others, which a single {@link String#hashCode()} for every row could not give.
+ */
+public class CountMinSketch {
+
+    private final int depth;
+    private final int widthMask;
+    private final long seed = ThreadLocalRandom.current().nextLong();
+    private final AtomicIntegerArray counters;
+
+    /**
+     * @param depth number of hash rows
+     * @param width counters per row, rounded up to a power of two
+     */
+    public CountMinSketch(int depth, int width) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Sketch depth must be at least 1");
+        }
+        int roundedWidth = Integer.highestOneBit(Math.max(2, width));
+        if (roundedWidth < width) {
+            roundedWidth <<= 1;
+        }
+        this.depth = depth;
+        this.widthMask = roundedWidth - 1;
+        this.counters = new AtomicIntegerArray(depth * roundedWidth);
+    }
+
+    /**
+     * Increments the key and returns its new estimated count.
+     *
+     * @param key the key
+     * @return the estimated count, including this increment
+     */
+    public int increment(String key) {
+        long hash = hash(key);
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int count = counters.incrementAndGet(index(row, hash));
+            estimate = Math.min(estimate, count);
+        }
+        return estimate;
+    }
+
+    /**
+     * @param key the key
+     * @return the estimated count of the key
+     */
+    public int estimate(String key) {
+        return estimate(hash(key));
+    }
+
+    private int estimate(long hash) {
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters.get(index(row, hash)));
+        }
+        return estimate;
+    }
+
+    /**
+     * Takes the estimated count of the key off its counters, so that the key estimates zero afterwards. Keys
+     * colliding with it may be underestimated by up to that count until they are incremented again.
+     *
+     * @param key the key
+     */
+    public void remove(String key) {
+        long hash = hash(key);
+        int estimate = estimate(hash);
+        if (estimate == 0) {
+            return;
+        }
+        for (int row = 0; row < depth; row++) {
+            counters.updateAndGet(index(row, hash), count -> Math.max(0, count - estimate));
+        }
+    }
+
+    /**
+     * Halves every counter, so that old counts fade out instead of accumulating forever.
+     */
+    public void decay() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.updateAndGet(i, count -> count >>> 1);
+        }
+    }
+
+    private int index(int row, long hash) {
+        // Double hashing, the step is odd so that it cycles through the whole power-of-two row
+        int h = (int) hash + row * ((int) (hash >>> 32) | 1);
+        return row * (widthMask + 1) + (h & widthMask);
+    }
+
+    private long hash(String key) {
+        long h = seed ^ key.length();
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001B3L;
+        }
+        // Finalizer of MurmurHash3, so that every bit of the key affects both halves
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB93FE53A87C5L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
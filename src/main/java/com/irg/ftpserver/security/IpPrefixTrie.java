@@ -0,0 +1,215 @@
+package com.irg.ftpserver.security;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Maps IP addresses and prefixes to values and looks up the longest prefix matching an address.
+ * <p>
+ * Entries are written as an address ({@code 192.0.2.7}, {@code 2001:db8::1}) or in CIDR notation
+ * ({@code 192.0.2.0/24}, {@code 2001:db8:0:1::/64}). IPv4 and IPv6 have separate roots, and IPv4-mapped IPv6
+ * addresses are matched as IPv4. Full-length entries are kept in a hash map, so blocking many single hosts costs one
+ * map entry each; shorter prefixes are kept in a binary trie walked bit by bit.
+ * <p>
+ * Lookups take no lock and can run concurrently with writes, which are serialized.
+ *
+ * @param <V> the type of the values
+ */
+public class IpPrefixTrie<V> {
+
+    // Only literals are parsed, so InetAddress never falls back to a DNS lookup
+    private static final Pattern IPV4_LITERAL = Pattern.compile(
+            "^(?:(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)$");
+    private static final Pattern IPV6_LITERAL = Pattern.compile("^[0-9a-fA-F:.]*:[0-9a-fA-F:.]*$");
+
+    private final Map<InetAddress, V> addresses = new ConcurrentHashMap<>();
+    private final Node<V> ipv4Root = new Node<>();
+    private final Node<V> ipv6Root = new Node<>();
+    private volatile int prefixCount;
+
+    /**
+     * Adds or replaces an entry.
+     *
+     * @param prefix an address or a prefix in CIDR notation
+     * @param value  the value
+     * @return the value previously stored for the same prefix, or null
+     * @throws IllegalArgumentException if the prefix is not a valid address or CIDR prefix
+     */
+    public synchronized V put(String prefix, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value must not be null");
+        }
+        Prefix parsed = parsePrefix(prefix);
+        if (parsed.isFullLength()) {
+            return addresses.put(parsed.address(), value);
+        }
+
+        byte[] bytes = parsed.address().getAddress();
+        Node<V> node = root(bytes);
+        for (int bit = 0; bit < parsed.length(); bit++) {
+            Node<V> child = node.child(bitAt(bytes, bit));
+            if (child == null) {
+                child = new Node<>();
+                node.setChild(bitAt(bytes, bit), child);
+            }
+            node = child;
+        }
+        V previous = node.value;
+        node.value = value;
+        if (previous == null) {
+            prefixCount++;
+        }
+        return previous;
+    }
+
+    /**
+     * Removes an entry. Only the exact prefix is removed; longer or shorter prefixes are kept.
+     *
+     * @param prefix an address or a prefix in CIDR notation
+     * @return the removed value, or null if there was no entry for the prefix
+     * @throws IllegalArgumentException if the prefix is not a valid address or CIDR prefix
+     */
+    public synchronized V remove(String prefix) {
+        Prefix parsed = parsePrefix(prefix);
+        if (parsed.isFullLength()) {
+            return addresses.remove(parsed.address());
+        }
+
+        byte[] bytes = parsed.address().getAddress();
+        Node<V> node = root(bytes);
+        for (int bit = 0; bit < parsed.length() && node != null; bit++) {
+            node = node.child(bitAt(bytes, bit));
+        }
+        if (node == null || node.value == null) {
+            return null;
+        }
+        V previous = node.value;
+        node.value = null;
+        prefixCount--;
+        return previous;
+    }
+
+    /**
+     * Finds the value of the longest entry containing the address.
+     *
+     * @param address the address
+     * @return the value of the most specific matching entry, or null if no entry matches
+     * @throws IllegalArgumentException if the address is not a valid IP address
+     */
+    public V longestMatch(String address) {
+        InetAddress inetAddress = parseAddress(address);
+        V exact = addresses.get(inetAddress);
+        if (exact != null || prefixCount == 0) {
+            return exact;
+        }
+
+        byte[] bytes = inetAddress.getAddress();
+        Node<V> node = root(bytes);
+        V match = node.value;
+        for (int bit = 0; bit < bytes.length * 8; bit++) {
+            node = node.child(bitAt(bytes, bit));
+            if (node == null) {
+                break;
+            }
+            V value = node.value;
+            if (value != null) {
+                match = value;
+            }
+        }
+        return match;
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public synchronized void clear() {
+        addresses.clear();
+        ipv4Root.clear();
+        ipv6Root.clear();
+        prefixCount = 0;
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int size() {
+        return addresses.size() + prefixCount;
+    }
+
+    private Node<V> root(byte[] bytes) {
+        return bytes.length == 4 ? ipv4Root : ipv6Root;
+    }
+
+    private static int bitAt(byte[] bytes, int bit) {
+        return (bytes[bit >>> 3] >>> (7 - (bit & 7))) & 1;
+    }
+
+    private static Prefix parsePrefix(String prefix) {
+        if (prefix == null) {
+            throw new IllegalArgumentException("Prefix must not be null");
+        }
+        int slash = prefix.indexOf('/');
+        if (slash < 0) {
+            InetAddress address = parseAddress(prefix);
+            return new Prefix(address, address.getAddress().length * 8);
+        }
+
+        InetAddress address = parseAddress(prefix.substring(0, slash));
+        int maxLength = address.getAddress().length * 8;
+        int length;
+        try {
+            length = Integer.parseInt(prefix.substring(slash + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid prefix length: " + prefix);
+        }
+        if (length < 0 || length > maxLength) {
+            throw new IllegalArgumentException("Prefix length out of range: " + prefix);
+        }
+        return new Prefix(address, length);
+    }
+
+    private static InetAddress parseAddress(String address) {
+        if (address == null
+                || !(IPV4_LITERAL.matcher(address).matches() || IPV6_LITERAL.matcher(address).matches())) {
+            throw new IllegalArgumentException("Invalid IP address: " + address);
+        }
+        try {
+            return InetAddress.getByName(address);
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Invalid IP address: " + address, e);
+        }
+    }
+
+    private record Prefix(InetAddress address, int length) {
+        boolean isFullLength() {
+            return length == address.getAddress().length * 8;
+        }
+    }
+
+    private static final class Node<V> {
+        private volatile Node<V> zero;
+        private volatile Node<V> one;
+        private volatile V value;
+
+        Node<V> child(int bit) {
+            return bit == 0 ? zero : one;
+        }
+
+        void setChild(int bit, Node<V> child) {
+            if (bit == 0) {
+                zero = child;
+            } else {
+                one = child;
+            }
+        }
+
+        void clear() {
+            zero = null;
+            one = null;
+            value = null;
+        }
+    }
+}
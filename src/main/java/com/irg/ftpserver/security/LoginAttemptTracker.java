@@ -0,0 +1,193 @@
+package com.irg.ftpserver.security;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Counts failed login attempts per key (usually an IP address) over a sliding time window without locking.
+ * <p>
+ * Each tracked key holds a single {@link AtomicLong} packing the current window index with the attempt counts of
+ * the current and previous window; the estimate weights the previous window by how much of it still overlaps the
+ * sliding window. Keys whose windows have both passed are removed by {@link #evictExpired()}.
+ * <p>
+ * At most {@code maxTrackedKeys} keys are tracked exactly. Once that many are tracked, for example during a scan
+ * from many source addresses, new keys are counted in a fixed-size {@link CountMinSketch} instead, which keeps
+ * heap usage bounded at the cost of occasionally overestimating a key. Callers can tell exact counts from estimates
+ * with {@link #hasAttempts(String)}.
+ */
+public class LoginAttemptTracker {
+    private static final Logger logger = LoggerFactory.getLogger(LoginAttemptTracker.class);
+
+    private static final int COUNT_BITS = 16;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH = 1 << 16;
+
+    private final String name;
+    private final long windowNanos;
+    private final int maxTrackedKeys;
+    private final LongSupplier nanoClock;
+    private final long startNanos;
+
+    private final ConcurrentHashMap<String, AtomicLong> windows = new ConcurrentHashMap<>();
+    private final CountMinSketch overflowSketch = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH);
+    private final AtomicLong overflowWindowIndex = new AtomicLong();
+    private final AtomicBoolean overflowing = new AtomicBoolean();
+
+    public LoginAttemptTracker(String name, Duration window, int maxTrackedKeys) {
+        this(name, window, maxTrackedKeys, System::nanoTime);
+    }
+
+    LoginAttemptTracker(String name, Duration window, int maxTrackedKeys, LongSupplier nanoClock) {
+        this.name = name;
+        this.windowNanos = window.toNanos();
+        this.maxTrackedKeys = maxTrackedKeys;
+        this.nanoClock = nanoClock;
+        this.startNanos = nanoClock.getAsLong();
+    }
+
+    /**
+     * Records a failed attempt.
+     *
+     * @param key the key, usually an IP address
+     * @return the estimated number of failed attempts of the key within the sliding window
+     */
+    public int recordFailure(String key) {
+        long elapsed = nanoClock.getAsLong() - startNanos;
+        long windowIndex = elapsed / windowNanos;
+
+        AtomicLong window = windows.get(key);
+        if (window == null) {
+            if (windows.mappingCount() >= maxTrackedKeys) {
+                return recordOverflow(key, windowIndex);
+            }
+            window = windows.computeIfAbsent(key, k -> new AtomicLong(pack(windowIndex, 0, 0)));
+        }
+
+        long state;
+        long next;
+        do {
+            state = window.get();
+            next = increment(roll(state, windowIndex));
+        } while (!window.compareAndSet(state, next));
+
+        return estimate(next, elapsed);
+    }
+
+    /**
+     * @param key the key
+     * @return the estimated number of failed attempts of the key within the sliding window
+     */
+    public int getAttempts(String key) {
+        AtomicLong window = windows.get(key);
+        if (window == null) {
+            return 0;
+        }
+        long elapsed = nanoClock.getAsLong() - startNanos;
+        return estimate(roll(window.get(), elapsed / windowNanos), elapsed);
+    }
+
+    /**
+     * @param key the key
+     * @return true if failed attempts of the key are being tracked exactly, false if they are not tracked or only
+     * estimated by the overflow sketch
+     */
+    public boolean hasAttempts(String key) {
+        return windows.containsKey(key);
+    }
+
+    /**
+     * Forgets the failed attempts of a key, both when tracked exactly and when counted in the overflow sketch.
+     *
+     * @param key the key
+     */
+    public void clear(String key) {
+        windows.remove(key);
+        overflowSketch.remove(key);
+    }
+
+    /**
+     * Removes keys without attempts in the current or previous window and decays the overflow sketch.
+     * Meant to be called periodically, roughly once per window.
+     */
+    public void evictExpired() {
+        long windowIndex = (nanoClock.getAsLong() - startNanos) / windowNanos;
+        windows.values().removeIf(window -> windowIndex - unpackIndex(window.get()) > 1);
+        rotateOverflow(windowIndex);
+        if (overflowing.get() && windows.mappingCount() < maxTrackedKeys) {
+            overflowing.set(false);
+            logger.info("{} - Tracking failed attempts exactly again, tracked keys: {}", name,
+                    windows.mappingCount());
+        }
+    }
+
+    /**
+     * @return the number of keys tracked exactly
+     */
+    public long size() {
+        return windows.mappingCount();
+    }
+
+    private int recordOverflow(String key, long windowIndex) {
+        if (overflowing.compareAndSet(false, true)) {
+            logger.warn("{} - Tracking {} keys, counting failed attempts of new keys approximately", name,
+                    maxTrackedKeys);
+        }
+        rotateOverflow(windowIndex);
+        return overflowSketch.increment(key);
+    }
+
+    private void rotateOverflow(long windowIndex) {
+        long current = overflowWindowIndex.get();
+        if (windowIndex > current && overflowWindowIndex.compareAndSet(current, windowIndex)) {
+            overflowSketch.decay();
+        }
+    }
+
+    private int estimate(long state, long elapsed) {
+        double windowFraction = (double) (elapsed % windowNanos) / windowNanos;
+        return (int) Math.ceil(unpackPrevious(state) * (1 - windowFraction)) + unpackCurrent(state);
+    }
+
+    private static long roll(long state, long windowIndex) {
+        long index = unpackIndex(state);
+        if (windowIndex <= index) {
+            return state;
+        }
+        if (windowIndex == index + 1) {
+            return pack(windowIndex, unpackCurrent(state), 0);
+        }
+        return pack(windowIndex, 0, 0);
+    }
+
+    private static long increment(long state) {
+        int current = unpackCurrent(state);
+        if (current == COUNT_MASK) {
+            return state;
+        }
+        return pack(unpackIndex(state), unpackPrevious(state), current + 1);
+    }
+
+    // Layout: window index (32 bits) | previous window count (16 bits) | current window count (16 bits)
+    private static long pack(long windowIndex, int previous, int current) {
+        return (windowIndex << (2 * COUNT_BITS)) | ((long) previous << COUNT_BITS) | current;
+    }
+
+    private static long unpackIndex(long state) {
+        return state >>> (2 * COUNT_BITS);
+    }
+
+    private static int unpackPrevious(long state) {
+        return (int) ((state >>> COUNT_BITS) & COUNT_MASK);
+    }
+
+    private static int unpackCurrent(long state) {
+        return (int) (state & COUNT_MASK);
+    }
+}
@@ -1,23 +1,37 @@
 package com.irg.ftpserver.service;
 
+import com.irg.ftpserver.config.SFTPServerProperties;
 import com.irg.ftpserver.model.SFTPBlockedHost;
 import com.irg.ftpserver.repository.SFTPBlockedHostsRepository;
 import com.irg.ftpserver.events.HostBlockedEvent;
+import com.irg.ftpserver.events.SFTPConfigurationReloadedEvent;
+import com.irg.ftpserver.security.IpPrefixTrie;
+import com.irg.ftpserver.security.LoginAttemptTracker;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.Data;
 import lombok.NonNull;
+import org.apache.sshd.server.auth.AsyncAuthException;
 import org.apache.sshd.server.session.ServerSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.ApplicationEventPublisherAware;
 import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Service for managing blocked hosts.
@@ -35,18 +49,41 @@ public class BlockedHostService implements ApplicationEventPublisherAware {
 
     private final SFTPConfigurationService sftpConfigurationService;
 
-    private final Map<String, Integer> userLookupAttempts = new ConcurrentHashMap<>();
+    private final LoginAttemptTracker userLookupAttempts;
 
-    private final Map<String, Integer> passwordAttempts = new ConcurrentHashMap<>();
+    private final LoginAttemptTracker passwordAttempts;
 
-    private int maxLoginAttempts;
+    // Address or CIDR prefix -> allow flag of every sftp_blocked_hosts row, so connections are checked in memory
+    private volatile IpPrefixTrie<Boolean> blockedHosts = new IpPrefixTrie<>();
 
-    private int delayBetweenAttempts;
+    // Entries indexed while the blocklist is reloaded, so they are not lost with the blocklist being replaced
+    private Map<String, Boolean> indexedDuringReload;
+
+    // Hosts currently being written to the blocklist, so concurrent failures block a host only once
+    private final Set<String> hostsBeingBlocked = ConcurrentHashMap.newKeySet();
+
+    private volatile int maxLoginAttempts;
+
+    private volatile int delayBetweenAttempts;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "SFTP-Blocked-Host-Scheduler-Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public BlockedHostService(SFTPBlockedHostsRepository sftpBlockedHostsRepository,
-                              SFTPConfigurationService sftpConfigurationService) {
+                              SFTPConfigurationService sftpConfigurationService,
+                              SFTPServerProperties sftpServerProperties) {
         this.sftpBlockedHostsRepository = sftpBlockedHostsRepository;
         this.sftpConfigurationService = sftpConfigurationService;
+
+        Duration window = Duration.ofMillis(sftpServerProperties.getLoginAttemptWindow());
+        int maxTrackedHosts = sftpServerProperties.getMaxTrackedHosts();
+        this.userLookupAttempts = new LoginAttemptTracker("User lookup attempts", window, maxTrackedHosts);
+        this.passwordAttempts = new LoginAttemptTracker("Password attempts", window, maxTrackedHosts);
+        scheduler.scheduleWithFixedDelay(this::evictExpiredAttempts, window.toMillis(), window.toMillis(),
+                TimeUnit.MILLISECONDS);
     }
 
     @PostConstruct
@@ -59,6 +96,76 @@ public class BlockedHostService implements ApplicationEventPublisherAware {
         } else {
             logger.error("SFTPConfigurationService is null. Initialization failed.");
         }
+        loadBlockedHosts();
+    }
+
+    /**
+     * Loads every sftp_blocked_hosts row into a new in-memory blocklist, which then replaces the current one.
+     * Rows are kept up to date by {@link #blockHost}; rows changed directly in the database are picked up by the
+     * next reload, every {@code blockedHostRefreshInterval} ms.
+     */
+    private void loadBlockedHosts() {
+        synchronized (this) {
+            indexedDuringReload = new HashMap<>();
+        }
+        IpPrefixTrie<Boolean> loaded = new IpPrefixTrie<>();
+        try {
+            sftpBlockedHostsRepository.findAll().forEach(blockedHost -> indexBlockedHost(loaded, blockedHost));
+        } finally {
+            synchronized (this) {
+                indexedDuringReload.forEach(loaded::put);
+                indexedDuringReload = null;
+            }
+        }
+        int previous = blockedHosts.size();
+        blockedHosts = loaded;
+        if (previous != loaded.size()) {
+            logger.info("Loaded {} blocked host entries", loaded.size());
+        }
+    }
+
+    @Scheduled(initialDelayString = "${sftp.server.blockedHostRefreshInterval:60000}",
+            fixedDelayString = "${sftp.server.blockedHostRefreshInterval:60000}")
+    public void reloadBlockedHosts() {
+        try {
+            loadBlockedHosts();
+        } catch (RuntimeException e) {
+            logger.error("Failed to reload the blocked hosts, keeping the current blocklist", e);
+        }
+    }
+
+    private synchronized void indexBlockedHost(SFTPBlockedHost blockedHost) {
+        if (indexBlockedHost(blockedHosts, blockedHost) && indexedDuringReload != null) {
+            indexedDuringReload.put(blockedHost.getIpAddress(), blockedHost.isAllow());
+        }
+    }
+
+    private boolean indexBlockedHost(IpPrefixTrie<Boolean> trie, SFTPBlockedHost blockedHost) {
+        try {
+            trie.put(blockedHost.getIpAddress(), blockedHost.isAllow());
+            return true;
+        } catch (IllegalArgumentException e) {
+            logger.error("Skipping invalid blocked host entry: {}: {}", blockedHost.getIpAddress(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Applies the login attempt threshold and delay of a reloaded configuration.
+     *
+     * @param event the reload event
+     */
+    @EventListener
+    public void handleSFTPConfigurationReloadedEvent(SFTPConfigurationReloadedEvent event) {
+        maxLoginAttempts = event.getCurrent().getMaxLoginAttemptThreshold();
+        delayBetweenAttempts = event.getCurrent().getDelayBetweenLoginAttempts();
+        logger.info("Updated BlockedHostService with maxLoginAttempts: {} and delayBetweenAttempts: {}",
+                maxLoginAttempts, delayBetweenAttempts);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        scheduler.shutdownNow();
     }
 
     @Override
@@ -74,19 +181,15 @@ public class BlockedHostService implements ApplicationEventPublisherAware {
      * @param callingMethod the method calling this function
      * @param session       the server session
      */
-    public synchronized void recordFailedUserAttempt(String ipAddress, String reason, String callingMethod,
+    public void recordFailedUserAttempt(String ipAddress, String reason, String callingMethod,
                                         ServerSession session) {
-        int attemptCount = userLookupAttempts.getOrDefault(ipAddress, 0) + 1;
-        userLookupAttempts.put(ipAddress, attemptCount);
+        int attemptCount = userLookupAttempts.recordFailure(ipAddress);
         logger.info("{} - Recorded failed user lookup attempt from IP Address: {}, Attempt count: {} Reason {}",
                 callingMethod, ipAddress, attemptCount, reason);
 
         if (attemptCount >= maxLoginAttempts) {
-            blockHost(ipAddress, reason, callingMethod, session);
+            rejectHost(userLookupAttempts, ipAddress, reason, callingMethod, session);
         }
-
-        // Apply delay between attempts
-        applyDelayBetweenAttempts();
     }
 
     /**
@@ -97,19 +200,38 @@ public class BlockedHostService implements ApplicationEventPublisherAware {
      * @param callingMethod the method calling this function
      * @param session       the server session
      */
-    public synchronized void recordFailedPasswordAttempt(String ipAddress, String reason, String callingMethod,
+    public void recordFailedPasswordAttempt(String ipAddress, String reason, String callingMethod,
                                             ServerSession session) {
-        int attemptCount = passwordAttempts.getOrDefault(ipAddress, 0) + 1;
-        passwordAttempts.put(ipAddress, attemptCount);
+        int attemptCount = passwordAttempts.recordFailure(ipAddress);
         logger.info("{} - Recorded failed password attempt from IP Address: {}, Attempt count: {} Reason: {}",
                 callingMethod, ipAddress, attemptCount, reason);
 
         if (attemptCount >= maxLoginAttempts) {
-            blockHost(ipAddress, reason, callingMethod, session);
+            rejectHost(passwordAttempts, ipAddress, reason, callingMethod, session);
         }
+    }
 
-        // Apply delay between attempts
-        applyDelayBetweenAttempts();
+    /**
+     * Rejects a host that reached the maximum login attempts. The host is only blocked permanently if its attempts
+     * are counted exactly; attempts estimated while too many hosts are tracked may include attempts of other hosts,
+     * so only the session of this attempt is closed.
+     *
+     * @param attempts      the tracker that counted the attempt
+     * @param ipAddress     the IP address of the host
+     * @param reason        the reason for the block
+     * @param callingMethod the method calling this function
+     * @param session       the server session
+     */
+    private void rejectHost(LoginAttemptTracker attempts, String ipAddress, String reason, String callingMethod,
+                            ServerSession session) {
+        if (attempts.hasAttempts(ipAddress)) {
+            blockHost(ipAddress, reason, callingMethod, session);
+            return;
+        }
+        logger.warn("{} - Closing session of IP Address: {} due to estimated exceeded maximum login attempts: {}, not"
+                + " blocking it as its attempts are not counted exactly, Reason: {}", callingMethod, ipAddress,
+                maxLoginAttempts, reason);
+        eventPublisher.publishEvent(new HostBlockedEvent(session, ipAddress));
     }
 
     /**
@@ -120,11 +242,22 @@ public class BlockedHostService implements ApplicationEventPublisherAware {
      * @param callingMethod the method calling this function
      * @param session       the server session
      */
-    private synchronized void blockHost(String ipAddress, String reason, String callingMethod, ServerSession session) {
+    private void blockHost(String ipAddress, String reason, String callingMethod, ServerSession session) {
+        if (hostsBeingBlocked.add(ipAddress)) {
+            try {
+                saveBlockedHost(ipAddress, reason, callingMethod);
+            } finally {
+                hostsBeingBlocked.remove(ipAddress);
+            }
+        }
+        eventPublisher.publishEvent(new HostBlockedEvent(session, ipAddress)); // Publish event with session
+    }
+
+    private void saveBlockedHost(String ipAddress, String reason, String callingMethod) {
         logger.warn("{} - Blocking IP Address: {} due to exceeded maximum login attempts: {}, Reason: {}",
                 callingMethod, ipAddress, maxLoginAttempts, reason);
-        userLookupAttempts.remove(ipAddress);
-        passwordAttempts.remove(ipAddress);
+        userLookupAttempts.clear(ipAddress);
+        passwordAttempts.clear(ipAddress);
 
         Date blockedAt = new Date();
         boolean notAllow = false;
@@ -140,7 +273,7 @@ public class BlockedHostService implements ApplicationEventPublisherAware {
                 .orElseGet(() -> new SFTPBlockedHost(null, ipAddress, reason, blockedAt, notAllow));
 
         sftpBlockedHostsRepository.save(blockedHost);
-        eventPublisher.publishEvent(new HostBlockedEvent(session, ipAddress)); // Publish event with session
+        indexBlockedHost(blockedHost);
     }
 
     /**
@@ -149,36 +282,54 @@ public class BlockedHostService implements ApplicationEventPublisherAware {
      * @param ipAddress     the IP address of the host
      * @param callingMethod the method calling this function
      */
-    public synchronized void clearAttempts(String ipAddress, String callingMethod) {
-        userLookupAttempts.remove(ipAddress);
-        passwordAttempts.remove(ipAddress);
+    public void clearAttempts(String ipAddress, String callingMethod) {
+        userLookupAttempts.clear(ipAddress);
+        passwordAttempts.clear(ipAddress);
         logger.info("{} - Cleared attempts for host: {}", callingMethod, ipAddress);
     }
 
     /**
-     * Checks if a given IP address is blocked.
+     * Checks if a given IP address is blocked, against the in-memory blocklist.
+     * The most specific matching entry wins, so an allowed address inside a blocked range is not blocked.
      *
      * @param ipAddress the IP address of the host
      * @return true if the host is blocked, false otherwise
      */
-    public synchronized boolean isBlocked(String ipAddress) {
-        Optional<SFTPBlockedHost> blockedHost = sftpBlockedHostsRepository.findByIpAddress(ipAddress);
-        return blockedHost.isPresent() && !blockedHost.get().isAllow();
+    public boolean isBlocked(String ipAddress) {
+        try {
+            Boolean allow = blockedHosts.longestMatch(ipAddress);
+            return allow != null && !allow;
+        } catch (IllegalArgumentException e) {
+            logger.warn("Cannot check blocklist for invalid IP Address: {}", ipAddress);
+            return false;
+        }
     }
 
     /**
-     * Applies a delay between login attempts.
+     * Creates the failed result of an authentication attempt, completed after the delay between attempts.
+     * Authenticators throw it instead of returning false, so the SSHD thread is released immediately and the
+     * client only receives the failure once the delay has passed.
+     *
+     * @return the pending authentication result
      */
-    private void applyDelayBetweenAttempts() {
-        try {
-            Thread.sleep(delayBetweenAttempts);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            logger.error("Interrupted while delaying between attempts", e);
-        }
+    public AsyncAuthException delayedRejection() {
+        AsyncAuthException rejection = new AsyncAuthException();
+        scheduler.schedule(() -> rejection.setAuthed(false), delayBetweenAttempts, TimeUnit.MILLISECONDS);
+        return rejection;
+    }
+
+    public boolean hasAttempts(String ipAddress) {
+        return userLookupAttempts.hasAttempts(ipAddress) || passwordAttempts.hasAttempts(ipAddress);
     }
-    public synchronized boolean hasAttempts(String ipAddress) {
-        return userLookupAttempts.containsKey(ipAddress) || passwordAttempts.containsKey(ipAddress);
+
+    /**
+     * Drops attempt counters whose sliding window has passed.
+     */
+    private void evictExpiredAttempts() {
+        userLookupAttempts.evictExpired();
+        passwordAttempts.evictExpired();
+        logger.debug("Tracking failed user lookup attempts of {} hosts and failed password attempts of {} hosts",
+                userLookupAttempts.size(), passwordAttempts.size());
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,228 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.audit.AuditEntry;
+import com.irg.ftpserver.audit.AuditJournalReader;
+import com.irg.ftpserver.audit.AuditJournalWriter;
+import com.irg.ftpserver.audit.AuditRingBuffer;
+import com.irg.ftpserver.config.SFTPServerProperties;
+import com.irg.ftpserver.data.AuditDurability;
+import com.irg.ftpserver.data.AuditEventType;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Structured, append-only audit journal of SFTP sessions and file operations.
+ * <p>
+ * Listeners publish events into a preallocated {@link AuditRingBuffer}, which neither blocks nor formats on the
+ * SFTP threads. A single journal thread drains the ring and writes the events through an {@link AuditJournalWriter}.
+ * The journal thread also logs a line for every event, so listeners leave logging to it while the journal is enabled
+ * and neither format log messages nor wait on appenders on the SFTP threads. Its logger level controls those lines.
+ * With {@link AuditDurability#INTERVAL} the journal is forced to disk every {@code auditFlushInterval} ms, with
+ * {@link AuditDurability#FSYNC} after every batch. Events published while the ring is full are dropped and counted.
+ * <p>
+ * When the ring is empty the journal thread parks until a listener publishes an event and unparks it, or until
+ * events written since the last force are due to be forced to disk.
+ */
+@Service
+public class SFTPAuditService implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(SFTPAuditService.class);
+
+    private static final int MAX_BATCH = 1024;
+
+    private final boolean enabled;
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final int maxSegments;
+
+    private final AuditDurability durability;
+
+    private final long flushIntervalNanos;
+
+    private final AuditRingBuffer ringBuffer;
+
+    private final Thread journalThread;
+
+    private final LongAdder written = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private final Consumer<AuditEntry> journalAppender = this::appendToJournal;
+
+    private volatile boolean running = true;
+
+    // Set by the journal thread before it parks on an empty ring, so publishers know to unpark it
+    private volatile boolean idle;
+
+    private AuditJournalWriter journalWriter;
+
+    public SFTPAuditService(SFTPServerProperties sftpServerProperties) {
+        this.enabled = sftpServerProperties.isAuditEnabled();
+        this.directory = Paths.get(sftpServerProperties.getAuditDirectory());
+        this.segmentSize = sftpServerProperties.getAuditSegmentSize();
+        this.maxSegments = sftpServerProperties.getAuditMaxSegments();
+        this.durability = sftpServerProperties.getAuditDurability();
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(sftpServerProperties.getAuditFlushInterval());
+        this.ringBuffer = new AuditRingBuffer(sftpServerProperties.getAuditRingBufferSize());
+        this.journalThread = new Thread(this::journalLoop, "SFTP-Audit-Journal-Thread");
+        this.journalThread.setDaemon(true);
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            logger.info("Audit journal is disabled");
+            return;
+        }
+        journalWriter = new AuditJournalWriter(directory, segmentSize, maxSegments);
+        journalThread.start();
+        logger.info("Initialized audit journal in: {} with ring buffer size: {}, segment size: {}, max segments: {}, "
+                        + "durability: {}", directory.toAbsolutePath(), ringBuffer.getCapacity(), segmentSize,
+                maxSegments, durability);
+    }
+
+    @PreDestroy
+    public void destroy() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(journalThread);
+        try {
+            journalThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("Stopped audit journal, written: {}, dropped: {}, failed: {}", written.sum(),
+                ringBuffer.getDroppedCount(), failed.sum());
+    }
+
+    /**
+     * Publishes an event to the journal, which also logs it. Never blocks.
+     *
+     * @param type          the event type
+     * @param username      the user, may be null
+     * @param remoteAddress the client address, may be null
+     * @param path          the file or directory, may be null
+     * @param size          a size in bytes, 0 if not applicable
+     * @param detail        free text, may be null
+     * @return false if the journal is disabled, in which case the caller logs the event itself
+     */
+    public boolean audit(AuditEventType type, String username, SocketAddress remoteAddress, Object path, long size,
+                      String detail) {
+        if (!enabled) {
+            return false;
+        }
+        if (ringBuffer.publish(System.currentTimeMillis(), type, username, remoteAddress, path, size, detail)
+                && idle) {
+            LockSupport.unpark(journalThread);
+        }
+        return true;
+    }
+
+    /**
+     * @return a reader of the journal directory
+     */
+    public AuditJournalReader getJournalReader() {
+        return new AuditJournalReader(directory);
+    }
+
+    @Override
+    public void bindTo(@NotNull MeterRegistry registry) {
+        Gauge.builder("sftp.audit.backlog", ringBuffer, AuditRingBuffer::getBacklog)
+                .description("Audit events waiting to be written to the journal")
+                .register(registry);
+        FunctionCounter.builder("sftp.audit.written", written, LongAdder::sum)
+                .description("Audit events written to the journal")
+                .register(registry);
+        FunctionCounter.builder("sftp.audit.dropped", ringBuffer, AuditRingBuffer::getDroppedCount)
+                .description("Audit events dropped because the ring buffer was full")
+                .register(registry);
+        FunctionCounter.builder("sftp.audit.failed", failed, LongAdder::sum)
+                .description("Audit events that could not be written to the journal")
+                .register(registry);
+    }
+
+    private void journalLoop() {
+        long lastForce = System.nanoTime();
+        boolean unforced = false;
+        while (true) {
+            boolean stopping = !running;
+            int drained;
+            try {
+                drained = ringBuffer.drain(journalAppender, MAX_BATCH);
+            } catch (RuntimeException e) {
+                failed.increment();
+                logger.error("Failed to write audit event to the journal", e);
+                continue;
+            }
+
+            unforced |= drained > 0;
+            long sinceForce = System.nanoTime() - lastForce;
+            if (unforced && (durability == AuditDurability.FSYNC || sinceForce >= flushIntervalNanos)) {
+                force();
+                lastForce = System.nanoTime();
+                unforced = false;
+                sinceForce = 0;
+            }
+            if (drained == 0) {
+                if (stopping) {
+                    break;
+                }
+                // Announce the park before checking the ring again, so an event published in between unparks us
+                idle = true;
+                if (running && ringBuffer.getBacklog() == 0) {
+                    if (unforced) {
+                        LockSupport.parkNanos(this, flushIntervalNanos - sinceForce);
+                    } else {
+                        LockSupport.park(this);
+                    }
+                }
+                idle = false;
+            }
+        }
+        try {
+            journalWriter.close();
+        } catch (IOException e) {
+            logger.error("Failed to close the audit journal", e);
+        }
+    }
+
+    private void appendToJournal(AuditEntry entry) {
+        journalWriter.append(entry);
+        written.increment();
+        if (logger.isInfoEnabled()) {
+            logger.info("Audit event: {}, SFTPUser: {}, from: {}, path: {}, size: {}, detail: {}", entry.getType(),
+                    entry.getUsername(), entry.getRemoteAddress(), entry.getPath(), entry.getSize(),
+                    entry.getDetail());
+        }
+    }
+
+    private void force() {
+        try {
+            journalWriter.force();
+        } catch (RuntimeException e) {
+            logger.error("Failed to force the audit journal to disk", e);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.config.SFTPServerProperties;
+import com.irg.ftpserver.events.SFTPConfigurationReloadedEvent;
+import com.irg.ftpserver.events.SFTPUserChangedEvent;
+import com.irg.ftpserver.model.SFTPCompanyRateLimit;
+import com.irg.ftpserver.model.SFTPUser;
+import com.irg.ftpserver.repository.SFTPCompanyRateLimitRepository;
+import com.irg.ftpserver.throttle.TokenBucket;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import org.apache.sshd.common.AttributeRepository.AttributeKey;
+import org.apache.sshd.server.session.ServerSession;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Limits SFTP read and write bandwidth per user, per company and for the whole server with token buckets.
+ * <p>
+ * A transfer has to fit in all three buckets; the subsystem thread of the channel sleeps for the longest delay any
+ * of them asks for, which slows down that channel only. The buckets of a session are resolved once and kept on the
+ * session, and limits are changed in place, so new limits apply to sessions already transferring.
+ * User limits follow {@link SFTPUserChangedEvent}, the global limits follow configuration reloads and company
+ * limits are reloaded every {@code configurationRefreshInterval} ms.
+ */
+@Service
+@DependsOn({"SFTPInitialConfigService", "SFTPInitialUserInitService"})
+public class SFTPBandwidthThrottleService implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(SFTPBandwidthThrottleService.class);
+
+    private static final AttributeKey<SessionBuckets> SESSION_BUCKETS_KEY = new AttributeKey<>();
+
+    private final SFTPUserService sftpUserService;
+
+    private final SFTPCompanyRateLimitRepository sftpCompanyRateLimitRepository;
+
+    private final SFTPConfigurationService sftpConfigurationService;
+
+    private final long burstMillis;
+
+    private final RateLimit globalLimit;
+
+    private final Map<String, RateLimit> userLimits = new ConcurrentHashMap<>();
+
+    private final Map<Integer, RateLimit> companyLimits = new ConcurrentHashMap<>();
+
+    private final LongAdder throttledReadBytes = new LongAdder();
+
+    private final LongAdder throttledWriteBytes = new LongAdder();
+
+    private final LongAdder throttledReadNanos = new LongAdder();
+
+    private final LongAdder throttledWriteNanos = new LongAdder();
+
+    public SFTPBandwidthThrottleService(SFTPUserService sftpUserService,
+                                        SFTPCompanyRateLimitRepository sftpCompanyRateLimitRepository,
+                                        SFTPConfigurationService sftpConfigurationService,
+                                        SFTPServerProperties sftpServerProperties) {
+        this.sftpUserService = sftpUserService;
+        this.sftpCompanyRateLimitRepository = sftpCompanyRateLimitRepository;
+        this.sftpConfigurationService = sftpConfigurationService;
+        this.burstMillis = sftpServerProperties.getRateLimitBurst();
+        this.globalLimit = new RateLimit(0, 0, burstMillis);
+    }
+
+    @PostConstruct
+    public void init() {
+        globalLimit.update(sftpConfigurationService.getLatestConfiguration().getGlobalReadRateLimit(),
+                sftpConfigurationService.getLatestConfiguration().getGlobalWriteRateLimit());
+        refreshCompanyLimits();
+        logger.info("Initialized bandwidth limits, global read: {} B/s, global write: {} B/s, companies: {}",
+                globalLimit.read.getBytesPerSecond(), globalLimit.write.getBytesPerSecond(), companyLimits.size());
+    }
+
+    /**
+     * Waits until the bytes about to be read fit within the read limits of the session.
+     *
+     * @param session the server session
+     * @param bytes   the number of bytes
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public void throttleRead(ServerSession session, int bytes) throws IOException {
+        SessionBuckets buckets = getSessionBuckets(session);
+        long delay = Math.max(buckets.user.read.reserve(bytes),
+                Math.max(buckets.company.read.reserve(bytes), globalLimit.read.reserve(bytes)));
+        if (delay > 0) {
+            throttledReadBytes.add(bytes);
+            throttledReadNanos.add(delay);
+            sleep(delay);
+        }
+    }
+
+    /**
+     * Waits until the bytes about to be written fit within the write limits of the session.
+     *
+     * @param session the server session
+     * @param bytes   the number of bytes
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public void throttleWrite(ServerSession session, int bytes) throws IOException {
+        SessionBuckets buckets = getSessionBuckets(session);
+        long delay = Math.max(buckets.user.write.reserve(bytes),
+                Math.max(buckets.company.write.reserve(bytes), globalLimit.write.reserve(bytes)));
+        if (delay > 0) {
+            throttledWriteBytes.add(bytes);
+            throttledWriteNanos.add(delay);
+            sleep(delay);
+        }
+    }
+
+    /**
+     * Applies the new limits of a changed user to its running sessions.
+     *
+     * @param event the change event
+     */
+    @EventListener
+    public void handleSFTPUserChangedEvent(SFTPUserChangedEvent event) {
+        RateLimit rateLimit = userLimits.get(event.getUsername());
+        if (rateLimit == null) {
+            return;
+        }
+        Optional<SFTPUser> sftpUser = sftpUserService.getUserByUserName(event.getUsername());
+        rateLimit.update(sftpUser.map(SFTPUser::getReadRateLimit).orElse(0L),
+                sftpUser.map(SFTPUser::getWriteRateLimit).orElse(0L));
+        logger.debug("Updated bandwidth limits of user: {}", event.getUsername());
+    }
+
+    /**
+     * Applies the global limits of a reloaded configuration.
+     *
+     * @param event the reload event
+     */
+    @EventListener
+    public void handleSFTPConfigurationReloadedEvent(SFTPConfigurationReloadedEvent event) {
+        globalLimit.update(event.getCurrent().getGlobalReadRateLimit(), event.getCurrent().getGlobalWriteRateLimit());
+        logger.info("Updated global bandwidth limits, read: {} B/s, write: {} B/s",
+                globalLimit.read.getBytesPerSecond(), globalLimit.write.getBytesPerSecond());
+    }
+
+    /**
+     * Reloads the company limits. Companies whose row was removed become unlimited.
+     */
+    @Scheduled(initialDelayString = "${sftp.server.configurationRefreshInterval:30000}",
+            fixedDelayString = "${sftp.server.configurationRefreshInterval:30000}")
+    public void refreshCompanyLimits() {
+        try {
+            Map<Integer, SFTPCompanyRateLimit> rows = sftpCompanyRateLimitRepository.findAll().stream()
+                    .collect(Collectors.toMap(SFTPCompanyRateLimit::getCompanyId, row -> row));
+            rows.values().forEach(row -> companyLimits
+                    .computeIfAbsent(row.getCompanyId(), companyId -> new RateLimit(0, 0, burstMillis))
+                    .update(row.getReadRateLimit(), row.getWriteRateLimit()));
+            Set<Integer> removed = companyLimits.keySet().stream()
+                    .filter(companyId -> !rows.containsKey(companyId))
+                    .collect(Collectors.toSet());
+            removed.forEach(companyId -> companyLimits.get(companyId).update(0, 0));
+        } catch (RuntimeException e) {
+            logger.error("Failed to refresh company bandwidth limits, keeping the current limits", e);
+        }
+    }
+
+    @Override
+    public void bindTo(@NotNull MeterRegistry registry) {
+        FunctionCounter.builder("sftp.throttle.bytes", throttledReadBytes, LongAdder::sum)
+                .description("Bytes delayed by a bandwidth limit")
+                .baseUnit("bytes")
+                .tag("direction", "read")
+                .register(registry);
+        FunctionCounter.builder("sftp.throttle.bytes", throttledWriteBytes, LongAdder::sum)
+                .description("Bytes delayed by a bandwidth limit")
+                .baseUnit("bytes")
+                .tag("direction", "write")
+                .register(registry);
+        FunctionCounter.builder("sftp.throttle.delay", throttledReadNanos, nanos -> nanos.sum() / 1e9)
+                .description("Time channels slept to stay within a bandwidth limit")
+                .baseUnit("seconds")
+                .tag("direction", "read")
+                .register(registry);
+        FunctionCounter.builder("sftp.throttle.delay", throttledWriteNanos, nanos -> nanos.sum() / 1e9)
+                .description("Time channels slept to stay within a bandwidth limit")
+                .baseUnit("seconds")
+                .tag("direction", "write")
+                .register(registry);
+    }
+
+    private SessionBuckets getSessionBuckets(ServerSession session) {
+        SessionBuckets buckets = session.getAttribute(SESSION_BUCKETS_KEY);
+        if (buckets == null) {
+            buckets = session.computeAttributeIfAbsent(SESSION_BUCKETS_KEY, key -> resolveSessionBuckets(session));
+        }
+        return buckets;
+    }
+
+    private SessionBuckets resolveSessionBuckets(ServerSession session) {
+        Optional<SFTPUser> sftpUser = sftpUserService.getUserByUserName(session.getUsername());
+        RateLimit user = userLimits.computeIfAbsent(session.getUsername(), username -> new RateLimit(
+                sftpUser.map(SFTPUser::getReadRateLimit).orElse(0L),
+                sftpUser.map(SFTPUser::getWriteRateLimit).orElse(0L),
+                burstMillis));
+        RateLimit company = companyLimits.computeIfAbsent(sftpUser.map(SFTPUser::getCompanyId).orElse(0),
+                companyId -> new RateLimit(0, 0, burstMillis));
+        return new SessionBuckets(user, company);
+    }
+
+    private void sleep(long nanos) throws InterruptedIOException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttling transfer");
+        }
+    }
+
+    /**
+     * Read and write bucket of one user, company or the whole server.
+     */
+    private static class RateLimit {
+        private final TokenBucket read;
+        private final TokenBucket write;
+
+        RateLimit(long readBytesPerSecond, long writeBytesPerSecond, long burstMillis) {
+            this.read = new TokenBucket(readBytesPerSecond, burstMillis);
+            this.write = new TokenBucket(writeBytesPerSecond, burstMillis);
+        }
+
+        void update(long readBytesPerSecond, long writeBytesPerSecond) {
+            read.setBytesPerSecond(readBytesPerSecond);
+            write.setBytesPerSecond(writeBytesPerSecond);
+        }
+    }
+
+    private record SessionBuckets(RateLimit user, RateLimit company) {
+    }
+}
@@ -0,0 +1,570 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.cache.ExpiringLruCache;
+import com.irg.ftpserver.config.SFTPServerProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.sshd.common.util.io.IoUtils;
+import org.apache.sshd.sftp.server.DirectoryHandle;
+import org.apache.sshd.sftp.server.FileHandle;
+import org.apache.sshd.sftp.server.SftpFileSystemAccessor;
+import org.apache.sshd.sftp.server.SftpSubsystemProxy;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.channels.Channel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.Principal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * SFTP file system accessor that caches directory listings and file attributes.
+ * <p>
+ * A directory listing is read once and then served from a size-bounded LRU cache, as are the attributes a client
+ * stats for every entry of a listing. Entries are keyed by their local path, so users sharing a directory share its
+ * cache. Our own SFTP mutations invalidate the affected entries and their parent directory, and a {@link WatchService}
+ * on every cached directory invalidates them on external changes. Attributes of files open for writing are never
+ * cached, and all entries expire after {@code directoryCacheTtl} ms as a safety net for file systems that do not
+ * report changes.
+ * <p>
+ * Files opened for reading are handed to {@link SFTPMappedReadService} and files opened for writing to
+ * {@link SFTPWriteCoalescingService}, which choose the channel they are read or written through.
+ * <p>
+ * Files whose content is shared by {@link SFTPDeduplicationService} get a private copy before they are written or
+ * their attributes changed, and server-side copies become references to the content where possible.
+ */
+@Service
+public class SFTPCachingFileSystemAccessor implements SftpFileSystemAccessor, MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(SFTPCachingFileSystemAccessor.class);
+
+    // Loads racing with invalidations are detected per stripe of paths
+    private static final int GENERATION_STRIPES = 1024;
+
+    private static final long WATCH_POLL_MILLIS = 1000;
+
+    private final boolean enabled;
+
+    private final long ttlMillis;
+
+    private final ExpiringLruCache<Path, List<String>> listings;
+
+    private final ExpiringLruCache<AttributesKey, Map<String, ?>> attributes;
+
+    // Attribute views read so far, with or without following links, to invalidate all cached views of a path
+    private final Set<String> views = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    // Files open for writing, by number of handles
+    private final Map<Path, Integer> writing = new ConcurrentHashMap<>();
+
+    // Watched directories, by the time something under them was last cached
+    private final Map<Path, Watch> watches = new ConcurrentHashMap<>();
+
+    private final Thread watchThread;
+
+    private WatchService watchService;
+
+    private final SFTPDeduplicationService sftpDeduplicationService;
+
+    private final SFTPMappedReadService sftpMappedReadService;
+
+    private final SFTPWriteCoalescingService sftpWriteCoalescingService;
+
+    public SFTPCachingFileSystemAccessor(SFTPServerProperties sftpServerProperties,
+                                         SFTPDeduplicationService sftpDeduplicationService,
+                                         SFTPMappedReadService sftpMappedReadService,
+                                         SFTPWriteCoalescingService sftpWriteCoalescingService) {
+        this.sftpDeduplicationService = sftpDeduplicationService;
+        this.sftpMappedReadService = sftpMappedReadService;
+        this.sftpWriteCoalescingService = sftpWriteCoalescingService;
+        this.enabled = sftpServerProperties.isDirectoryCacheEnabled();
+        this.ttlMillis = sftpServerProperties.getDirectoryCacheTtl();
+        Duration ttl = Duration.ofMillis(ttlMillis);
+        this.listings = new ExpiringLruCache<>(sftpServerProperties.getDirectoryCacheMaxDirectories(), ttl);
+        this.attributes = new ExpiringLruCache<>(sftpServerProperties.getAttributeCacheMaxEntries(), ttl);
+        this.watchThread = new Thread(this::watchLoop, "SFTP-Directory-Watch-Thread");
+        this.watchThread.setDaemon(true);
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            logger.info("Directory cache is disabled");
+            return;
+        }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            watchThread.start();
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.warn("Cannot watch directories, cached entries only expire after {} ms: {}", ttlMillis,
+                    e.getMessage());
+        }
+        logger.info("Initialized directory cache with ttl: {} ms", ttlMillis);
+    }
+
+    @PreDestroy
+    public void destroy() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    @Override
+    public DirectoryStream<Path> openDirectory(SftpSubsystemProxy subsystem, DirectoryHandle dirHandle, Path dir,
+                                               String handle, LinkOption... linkOptions) throws IOException {
+        if (!enabled) {
+            return SftpFileSystemAccessor.super.openDirectory(subsystem, dirHandle, dir, handle, linkOptions);
+        }
+        Path local = SFTPFileSystemService.toLocalPath(dir);
+        List<String> names = listings.get(local);
+        if (names == null) {
+            // Watched before reading, so that no change after the read goes unnoticed
+            watch(local);
+            long generation = generation(local);
+            names = new ArrayList<>();
+            try (DirectoryStream<Path> entries = SftpFileSystemAccessor.super.openDirectory(subsystem, dirHandle, dir,
+                    handle, linkOptions)) {
+                for (Path entry : entries) {
+                    names.add(entry.getFileName().toString());
+                }
+            }
+            names = Collections.unmodifiableList(names);
+            if (generation == generation(local)) {
+                listings.put(local, names);
+            }
+        }
+        return new CachedDirectoryStream(dir, names);
+    }
+
+    @Override
+    public Map<String, ?> readFileAttributes(SftpSubsystemProxy subsystem, Path file, String view,
+                                             LinkOption... options) throws IOException {
+        if (!enabled) {
+            return SftpFileSystemAccessor.super.readFileAttributes(subsystem, file, view, options);
+        }
+        Path local = SFTPFileSystemService.toLocalPath(file);
+        if (writing.containsKey(local)) {
+            return SftpFileSystemAccessor.super.readFileAttributes(subsystem, file, view, options);
+        }
+        String viewKey = IoUtils.followLinks(options) ? view : view + ":nofollow";
+        AttributesKey key = new AttributesKey(local, viewKey);
+        Map<String, ?> cached = attributes.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        Path parent = local.getParent();
+        if (parent != null) {
+            watch(parent);
+        }
+        views.add(viewKey);
+        long generation = generation(local);
+        Map<String, ?> read = SftpFileSystemAccessor.super.readFileAttributes(subsystem, file, view, options);
+        if (generation == generation(local) && !writing.containsKey(local)) {
+            attributes.put(key, Collections.unmodifiableMap(new HashMap<>(read)));
+        }
+        return read;
+    }
+
+    @Override
+    public SeekableByteChannel openFile(SftpSubsystemProxy subsystem, FileHandle fileHandle, Path file,
+                                        String handle, Set<? extends OpenOption> options,
+                                        FileAttribute<?>... attrs) throws IOException {
+        if (!isWrite(options)) {
+            return sftpMappedReadService.mapLargeFile(open(subsystem, fileHandle, file, handle, options, attrs));
+        }
+        Path local = SFTPFileSystemService.toLocalPath(file);
+        String username = subsystem.getServerSession().getUsername();
+        sftpDeduplicationService.openingForWrite(username, local,
+                options.contains(StandardOpenOption.TRUNCATE_EXISTING));
+        writing.merge(local, 1, Integer::sum);
+        try {
+            return sftpWriteCoalescingService.openForWrite(username, local, attrs,
+                    fileAttributes -> open(subsystem, fileHandle, file, handle, options, fileAttributes));
+        } catch (IOException | RuntimeException e) {
+            writing.computeIfPresent(local, (path, count) -> count == 1 ? null : count - 1);
+            sftpDeduplicationService.closedForWrite(local);
+            throw e;
+        } finally {
+            invalidateEntry(local);
+        }
+    }
+
+    @Override
+    public void closeFile(SftpSubsystemProxy subsystem, FileHandle fileHandle, Path file, String handle,
+                          Channel channel, Set<? extends OpenOption> options) throws IOException {
+        try {
+            SftpFileSystemAccessor.super.closeFile(subsystem, fileHandle, file, handle, channel, options);
+        } finally {
+            if (isWrite(options)) {
+                Path local = SFTPFileSystemService.toLocalPath(file);
+                writing.computeIfPresent(local, (path, count) -> count == 1 ? null : count - 1);
+                sftpDeduplicationService.closedForWrite(local);
+                invalidateEntry(local);
+            }
+        }
+    }
+
+    @Override
+    public void setFileAttribute(SftpSubsystemProxy subsystem, Path file, String view, String attribute,
+                                 Object value, LinkOption... options) throws IOException {
+        unshare(subsystem, file);
+        try {
+            SftpFileSystemAccessor.super.setFileAttribute(subsystem, file, view, attribute, value, options);
+        } finally {
+            invalidateAttributes(SFTPFileSystemService.toLocalPath(file));
+        }
+    }
+
+    @Override
+    public void applyExtensionFileAttributes(SftpSubsystemProxy subsystem, Path file, Map<String, byte[]> extensions,
+                                             LinkOption... options) throws IOException {
+        unshare(subsystem, file);
+        try {
+            SftpFileSystemAccessor.super.applyExtensionFileAttributes(subsystem, file, extensions, options);
+        } finally {
+            invalidateAttributes(SFTPFileSystemService.toLocalPath(file));
+        }
+    }
+
+    @Override
+    public void setFileOwner(SftpSubsystemProxy subsystem, Path file, Principal value, LinkOption... options)
+            throws IOException {
+        unshare(subsystem, file);
+        try {
+            SftpFileSystemAccessor.super.setFileOwner(subsystem, file, value, options);
+        } finally {
+            invalidateAttributes(SFTPFileSystemService.toLocalPath(file));
+        }
+    }
+
+    @Override
+    public void setGroupOwner(SftpSubsystemProxy subsystem, Path file, Principal value, LinkOption... options)
+            throws IOException {
+        unshare(subsystem, file);
+        try {
+            SftpFileSystemAccessor.super.setGroupOwner(subsystem, file, value, options);
+        } finally {
+            invalidateAttributes(SFTPFileSystemService.toLocalPath(file));
+        }
+    }
+
+    @Override
+    public void setFilePermissions(SftpSubsystemProxy subsystem, Path file, Set<PosixFilePermission> perms,
+                                   LinkOption... options) throws IOException {
+        unshare(subsystem, file);
+        try {
+            SftpFileSystemAccessor.super.setFilePermissions(subsystem, file, perms, options);
+        } finally {
+            invalidateAttributes(SFTPFileSystemService.toLocalPath(file));
+        }
+    }
+
+    @Override
+    public void setFileAccessControl(SftpSubsystemProxy subsystem, Path file, List<AclEntry> acl,
+                                     LinkOption... options) throws IOException {
+        unshare(subsystem, file);
+        try {
+            SftpFileSystemAccessor.super.setFileAccessControl(subsystem, file, acl, options);
+        } finally {
+            invalidateAttributes(SFTPFileSystemService.toLocalPath(file));
+        }
+    }
+
+    @Override
+    public void createDirectory(SftpSubsystemProxy subsystem, Path path) throws IOException {
+        try {
+            SftpFileSystemAccessor.super.createDirectory(subsystem, path);
+        } finally {
+            invalidateEntry(SFTPFileSystemService.toLocalPath(path));
+        }
+    }
+
+    @Override
+    public void createLink(SftpSubsystemProxy subsystem, Path link, Path existing, boolean symLink)
+            throws IOException {
+        try {
+            SftpFileSystemAccessor.super.createLink(subsystem, link, existing, symLink);
+        } finally {
+            invalidateEntry(SFTPFileSystemService.toLocalPath(link));
+        }
+    }
+
+    @Override
+    public void renameFile(SftpSubsystemProxy subsystem, Path oldPath, Path newPath, Collection<CopyOption> opts)
+            throws IOException {
+        try {
+            SftpFileSystemAccessor.super.renameFile(subsystem, oldPath, newPath, opts);
+        } finally {
+            Path oldLocal = SFTPFileSystemService.toLocalPath(oldPath);
+            Path newLocal = SFTPFileSystemService.toLocalPath(newPath);
+            if (Files.isDirectory(newLocal, LinkOption.NOFOLLOW_LINKS)) {
+                // A renamed directory takes its subdirectories along
+                invalidateTree(oldLocal);
+            }
+            invalidateEntry(oldLocal);
+            invalidateEntry(newLocal);
+        }
+    }
+
+    @Override
+    public void copyFile(SftpSubsystemProxy subsystem, Path src, Path dst, Collection<CopyOption> opts)
+            throws IOException {
+        try {
+            if (!sftpDeduplicationService.copy(subsystem.getServerSession().getUsername(),
+                    SFTPFileSystemService.toLocalPath(src), SFTPFileSystemService.toLocalPath(dst), opts)) {
+                SftpFileSystemAccessor.super.copyFile(subsystem, src, dst, opts);
+            }
+        } finally {
+            invalidateEntry(SFTPFileSystemService.toLocalPath(dst));
+        }
+    }
+
+    @Override
+    public void removeFile(SftpSubsystemProxy subsystem, Path path, boolean isDirectory) throws IOException {
+        try {
+            SftpFileSystemAccessor.super.removeFile(subsystem, path, isDirectory);
+        } finally {
+            Path local = SFTPFileSystemService.toLocalPath(path);
+            if (isDirectory) {
+                invalidateListing(local);
+            }
+            invalidateEntry(local);
+        }
+    }
+
+    @Override
+    public void bindTo(@NotNull MeterRegistry registry) {
+        listings.bindTo(registry, "sftpDirectoryListings");
+        attributes.bindTo(registry, "sftpFileAttributes");
+        Gauge.builder("sftp.directory.cache.watched", watches, Map::size)
+                .description("Directories watched for external changes to cached entries")
+                .register(registry);
+    }
+
+    private SeekableByteChannel open(SftpSubsystemProxy subsystem, FileHandle fileHandle, Path file, String handle,
+                                     Set<? extends OpenOption> options, FileAttribute<?>... attrs)
+            throws IOException {
+        // Only files on the local disk are file channels, other storage provides byte channels
+        if (SFTPFileSystemService.toLocalPath(file).getFileSystem() != FileSystems.getDefault()) {
+            return Files.newByteChannel(file, options, attrs);
+        }
+        return SftpFileSystemAccessor.super.openFile(subsystem, fileHandle, file, handle, options, attrs);
+    }
+
+    private void unshare(SftpSubsystemProxy subsystem, Path file) throws IOException {
+        if (sftpDeduplicationService.isEnabled()) {
+            sftpDeduplicationService.unshare(subsystem.getServerSession().getUsername(),
+                    SFTPFileSystemService.toLocalPath(file));
+        }
+    }
+
+    /**
+     * Drops the cached attributes of a file or directory, and the listing and attributes of its parent directory.
+     */
+    void invalidateEntry(Path local) {
+        invalidateAttributes(local);
+        Path parent = local.getParent();
+        if (parent != null) {
+            invalidateListing(parent);
+            invalidateAttributes(parent);
+        }
+    }
+
+    private void invalidateAttributes(Path local) {
+        bumpGeneration(local);
+        for (String view : views) {
+            attributes.invalidate(new AttributesKey(local, view));
+        }
+    }
+
+    private void invalidateListing(Path local) {
+        bumpGeneration(local);
+        listings.invalidate(local);
+    }
+
+    private void invalidateTree(Path local) {
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            generations.incrementAndGet(i);
+        }
+        listings.invalidateIf((path, names) -> path.startsWith(local));
+        attributes.invalidateIf((key, value) -> key.path().startsWith(local));
+    }
+
+    private long generation(Path local) {
+        return generations.get(stripe(local));
+    }
+
+    private void bumpGeneration(Path local) {
+        generations.incrementAndGet(stripe(local));
+    }
+
+    private static int stripe(Path local) {
+        return (local.hashCode() & 0x7fffffff) % GENERATION_STRIPES;
+    }
+
+    private static boolean isWrite(Set<? extends OpenOption> options) {
+        return options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND);
+    }
+
+    private void watch(Path directory) {
+        // Only the local disk can be watched, object storage entries expire with the ttl
+        if (watchService == null || directory.getFileSystem() != FileSystems.getDefault()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Watch existing = watches.get(directory);
+        if (existing != null) {
+            existing.lastUsed = now;
+            return;
+        }
+        try {
+            WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            watches.put(directory, new Watch(key, now));
+        } catch (IOException | ClosedWatchServiceException | UnsupportedOperationException e) {
+            // Entries still expire with the ttl
+            logger.debug("Cannot watch directory: {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private void watchLoop() {
+        long lastSweep = System.currentTimeMillis();
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.poll(WATCH_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            if (key != null) {
+                handleWatchKey(key);
+            }
+            long now = System.currentTimeMillis();
+            if (now - lastSweep >= ttlMillis) {
+                cancelUnusedWatches(now);
+                lastSweep = now;
+            }
+        }
+    }
+
+    private void handleWatchKey(WatchKey key) {
+        Path directory = (Path) key.watchable();
+        invalidateAttributes(directory);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                invalidateTree(directory);
+                continue;
+            }
+            Path child = directory.resolve((Path) event.context());
+            invalidateAttributes(child);
+            if (event.kind() != StandardWatchEventKinds.ENTRY_MODIFY) {
+                invalidateListing(directory);
+            }
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                invalidateListing(child);
+            }
+        }
+        if (!key.reset()) {
+            watches.remove(directory);
+            invalidateTree(directory);
+        }
+    }
+
+    private void cancelUnusedWatches(long now) {
+        // Whatever was cached under these directories has expired
+        Iterator<Map.Entry<Path, Watch>> iterator = watches.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Watch watch = iterator.next().getValue();
+            if (now - watch.lastUsed > ttlMillis) {
+                watch.key.cancel();
+                iterator.remove();
+            }
+        }
+    }
+
+    private record AttributesKey(Path path, String view) {
+    }
+
+    private static final class Watch {
+        final WatchKey key;
+        volatile long lastUsed;
+
+        Watch(WatchKey key, long lastUsed) {
+            this.key = key;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    /**
+     * Directory stream over a cached listing, resolving the names against the directory the client opened.
+     */
+    private static final class CachedDirectoryStream implements DirectoryStream<Path> {
+        private final Path dir;
+        private final List<String> names;
+        private boolean iterated;
+
+        CachedDirectoryStream(Path dir, List<String> names) {
+            this.dir = dir;
+            this.names = names;
+        }
+
+        @Override
+        public Iterator<Path> iterator() {
+            if (iterated) {
+                throw new IllegalStateException("Iterator already obtained");
+            }
+            iterated = true;
+            Iterator<String> iterator = names.iterator();
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Path next() {
+                    return dir.resolve(iterator.next());
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
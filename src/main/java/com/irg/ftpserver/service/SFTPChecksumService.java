@@ -0,0 +1,236 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.config.SFTPServerProperties;
+import com.irg.ftpserver.data.ChecksumMethod;
+import com.irg.ftpserver.model.SFTPFileChecksum;
+import com.irg.ftpserver.repository.SFTPFileChecksumRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Computes and stores the checksums of uploaded files in sftp_file_checksums.
+ * <p>
+ * Uploads written in order are digested as they are written, so the file never has to be read back; see
+ * {@code SFTPChecksumEventListener}. Uploads with out-of-order writes are re-read and digested on a background pool
+ * after the handle is closed. Checksums are saved on that pool too, never on SFTP threads, and the uploads then handed
+ * to {@link SFTPDeduplicationService}.
+ */
+@Service
+public class SFTPChecksumService implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(SFTPChecksumService.class);
+
+    private static final int REHASH_BUFFER_SIZE = 1 << 20;
+
+    private final SFTPFileChecksumRepository sftpFileChecksumRepository;
+
+    private final SFTPDeduplicationService sftpDeduplicationService;
+
+    private final boolean enabled;
+
+    private final String algorithm;
+
+    private final ThreadPoolExecutor executor;
+
+    private final LongAdder streamingFiles = new LongAdder();
+
+    private final LongAdder rehashFiles = new LongAdder();
+
+    private final LongAdder streamingBytes = new LongAdder();
+
+    private final LongAdder rehashBytes = new LongAdder();
+
+    private final LongAdder streamingNanos = new LongAdder();
+
+    private final LongAdder rehashNanos = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    public SFTPChecksumService(SFTPFileChecksumRepository sftpFileChecksumRepository,
+                               SFTPServerProperties sftpServerProperties,
+                               SFTPDeduplicationService sftpDeduplicationService) {
+        this.sftpFileChecksumRepository = sftpFileChecksumRepository;
+        this.sftpDeduplicationService = sftpDeduplicationService;
+        this.enabled = sftpServerProperties.isChecksumEnabled();
+        this.algorithm = sftpServerProperties.getChecksumAlgorithm();
+        try {
+            MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported checksum algorithm: " + algorithm, e);
+        }
+        int threads = Math.max(1, sftpServerProperties.getChecksumThreads());
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(sftpServerProperties.getChecksumQueueCapacity()), runnable -> {
+                    Thread thread = new Thread(runnable, "SFTP-Checksum-Thread-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        logger.info("Initialized checksum service, enabled: {}, algorithm: {}, threads: {}", enabled, algorithm,
+                threads);
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+            logger.warn("Checksum tasks still running at shutdown: {}", executor.getActiveCount()
+                    + executor.getQueue().size());
+            executor.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return a new digest of the configured algorithm
+     */
+    public MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            // Checked in the constructor
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Accounts for digesting written bytes on an SFTP thread.
+     *
+     * @param bytes the bytes digested
+     * @param nanos the time it took
+     */
+    public void recordStreamingDigest(int bytes, long nanos) {
+        streamingBytes.add(bytes);
+        streamingNanos.add(nanos);
+    }
+
+    /**
+     * Stores the checksum of an upload that was digested while it was written.
+     *
+     * @param username the user
+     * @param path     the file as seen by the user
+     * @param size     the size of the file
+     * @param modified the modification time of the file
+     * @param digest   the digest of the whole file
+     */
+    public void completeStreaming(String username, Path path, long size, FileTime modified, MessageDigest digest) {
+        streamingFiles.increment();
+        String checksum = HexFormat.of().formatHex(digest.digest());
+        submit(path, () -> {
+            save(username, path.toString(), size, checksum, ChecksumMethod.STREAMING);
+            sftpDeduplicationService.deduplicate(username, SFTPFileSystemService.toLocalPath(path), size, modified,
+                    checksum);
+        });
+    }
+
+    /**
+     * Reads an upload back on the background pool and stores its checksum.
+     *
+     * @param username the user
+     * @param path     the file as seen by the user
+     */
+    public void rehash(String username, Path path) {
+        rehashFiles.increment();
+        Path localPath = SFTPFileSystemService.toLocalPath(path);
+        submit(path, () -> {
+            long start = System.nanoTime();
+            MessageDigest digest = newDigest();
+            long size = 0;
+            FileTime modified;
+            try (SeekableByteChannel channel = Files.newByteChannel(localPath)) {
+                // Taken before reading, so that deduplication notices changes made while reading
+                modified = Files.readAttributes(localPath, BasicFileAttributes.class).lastModifiedTime();
+                ByteBuffer buffer = ByteBuffer.allocate(REHASH_BUFFER_SIZE);
+                while (channel.read(buffer) >= 0) {
+                    buffer.flip();
+                    size += buffer.remaining();
+                    digest.update(buffer);
+                    buffer.clear();
+                }
+            } catch (IOException e) {
+                failures.increment();
+                logger.error("Failed to compute checksum of: {} for user: {}", path, username, e);
+                return;
+            }
+            rehashBytes.add(size);
+            rehashNanos.add(System.nanoTime() - start);
+            String checksum = HexFormat.of().formatHex(digest.digest());
+            save(username, path.toString(), size, checksum, ChecksumMethod.REHASH);
+            sftpDeduplicationService.deduplicate(username, localPath, size, modified, checksum);
+        });
+    }
+
+    @Override
+    public void bindTo(@NotNull MeterRegistry registry) {
+        bindMethod(registry, "streaming", streamingFiles, streamingBytes, streamingNanos);
+        bindMethod(registry, "rehash", rehashFiles, rehashBytes, rehashNanos);
+        FunctionCounter.builder("sftp.checksum.failures", failures, LongAdder::sum)
+                .description("Uploads whose checksum could not be computed or stored")
+                .register(registry);
+    }
+
+    private void bindMethod(MeterRegistry registry, String method, LongAdder files, LongAdder bytes,
+                            LongAdder nanos) {
+        FunctionCounter.builder("sftp.checksum.files", files, LongAdder::sum)
+                .description("Uploads checksummed, streaming while written or by re-reading them")
+                .tag("method", method)
+                .register(registry);
+        FunctionCounter.builder("sftp.checksum.bytes", bytes, LongAdder::sum)
+                .description("Bytes digested")
+                .baseUnit("bytes")
+                .tag("method", method)
+                .register(registry);
+        FunctionCounter.builder("sftp.checksum.time", nanos, adder -> adder.sum() / 1e9)
+                .description("Time spent digesting")
+                .baseUnit("seconds")
+                .tag("method", method)
+                .register(registry);
+    }
+
+    private void submit(Path path, Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            failures.increment();
+            logger.error("Checksum queue is full, skipping checksum of: {}", path);
+        }
+    }
+
+    private void save(String username, String path, long size, String checksum, ChecksumMethod method) {
+        try {
+            sftpFileChecksumRepository.save(new SFTPFileChecksum(null, username, path, size, algorithm, checksum,
+                    method, new Date()));
+            logger.debug("Stored {} checksum of: {} for user: {}", method, path, username);
+        } catch (RuntimeException e) {
+            failures.increment();
+            logger.error("Failed to store checksum of: {} for user: {}", path, username, e);
+        }
+    }
+}
@@ -1,19 +1,27 @@
 package com.irg.ftpserver.service;
 
+import com.irg.ftpserver.data.SFTPServerConfigurationSnapshot;
+import com.irg.ftpserver.events.SFTPConfigurationReloadedEvent;
 import com.irg.ftpserver.model.SFTPServerConfiguration;
 import com.irg.ftpserver.repository.SFTPServerConfigurationRepository;
-import lombok.AllArgsConstructor;
-import lombok.Data;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.DependsOn;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
 
+/**
+ * Holds the latest SFTP server configuration as an immutable snapshot.
+ * Reads never touch the database. The snapshot is refreshed every {@code configurationRefreshInterval} ms, or
+ * immediately through {@link #refresh()}, and an {@link SFTPConfigurationReloadedEvent} is published whenever a new
+ * version is loaded.
+ */
 @Service
-@Data
-@AllArgsConstructor
 @DependsOn({"SFTPInitialConfigService", "SFTPInitialUserInitService"})
 public class SFTPConfigurationService{
 
@@ -21,12 +29,73 @@ public class SFTPConfigurationService{
 
     private final SFTPServerConfigurationRepository sftpServerConfigurationRepository;
 
-    public SFTPServerConfiguration getLatestConfiguration() {
-        List<SFTPServerConfiguration> sftpServerConfigurations = sftpServerConfigurationRepository.findAll();
-        if (sftpServerConfigurations.isEmpty()) {
+    private final ApplicationEventPublisher eventPublisher;
+
+    private volatile SFTPServerConfigurationSnapshot latestConfiguration;
+
+    public SFTPConfigurationService(SFTPServerConfigurationRepository sftpServerConfigurationRepository,
+                                    ApplicationEventPublisher eventPublisher) {
+        this.sftpServerConfigurationRepository = sftpServerConfigurationRepository;
+        this.eventPublisher = eventPublisher;
+    }
+
+    @PostConstruct
+    public void init() {
+        refresh();
+    }
+
+    /**
+     * @return the latest loaded configuration
+     */
+    public SFTPServerConfigurationSnapshot getLatestConfiguration() {
+        SFTPServerConfigurationSnapshot configuration = latestConfiguration;
+        if (configuration == null) {
             logger.info("No configuration found in the database");
             throw new RuntimeException("SFTP Server configuration not found");
         }
-        return sftpServerConfigurations.getLast();
+        return configuration;
+    }
+
+    /**
+     * Loads the latest configuration from the database and publishes an {@link SFTPConfigurationReloadedEvent} if it
+     * is a different version than the current snapshot. Call it after changing the configuration to apply the change
+     * without waiting for the next poll.
+     *
+     * @return the latest configuration
+     */
+    public synchronized SFTPServerConfigurationSnapshot refresh() {
+        List<SFTPServerConfiguration> sftpServerConfigurations =
+                sftpServerConfigurationRepository.findLatest(PageRequest.of(0, 1));
+        if (sftpServerConfigurations.isEmpty()) {
+            return getLatestConfiguration();
+        }
+
+        SFTPServerConfigurationSnapshot previous = latestConfiguration;
+        SFTPServerConfigurationSnapshot current =
+                new SFTPServerConfigurationSnapshot(sftpServerConfigurations.getFirst());
+        if (current.isSameVersion(previous)) {
+            return previous;
+        }
+
+        latestConfiguration = current;
+        if (previous == null) {
+            logger.info("Loaded SFTP Server configuration: {} modified at: {}", current.getId(),
+                    current.getModifiedDate());
+        } else {
+            logger.info("Reloaded SFTP Server configuration: {} modified at: {}", current.getId(),
+                    current.getModifiedDate());
+            eventPublisher.publishEvent(new SFTPConfigurationReloadedEvent(previous, current));
+        }
+        return current;
+    }
+
+    @Scheduled(initialDelayString = "${sftp.server.configurationRefreshInterval:30000}",
+            fixedDelayString = "${sftp.server.configurationRefreshInterval:30000}")
+    public void pollConfiguration() {
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            logger.error("Failed to refresh the SFTP Server configuration, keeping the current snapshot", e);
+        }
     }
 }
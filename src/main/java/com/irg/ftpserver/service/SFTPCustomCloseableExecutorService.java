@@ -4,19 +4,39 @@ import org.apache.sshd.common.future.CloseFuture;
 import org.apache.sshd.common.future.DefaultCloseFuture;
 import org.apache.sshd.common.future.SshFutureListener;
 import org.apache.sshd.common.util.threads.CloseableExecutorService;
+import org.apache.sshd.server.session.ServerSession;
+import org.apache.sshd.sftp.server.SftpSubsystem;
 import org.jetbrains.annotations.NotNull;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.AbstractExecutorService;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RunnableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
+/**
+ * Executor service handed to the SFTP subsystem factory.
+ * When a fair scheduler is set, subsystems are tagged with the tenant of their session and admitted through it;
+ * any other task goes straight to the subsystem executor.
+ */
 public class SFTPCustomCloseableExecutorService extends AbstractExecutorService implements CloseableExecutorService {
-    private final SFTPExecutorService delegate;
+    private final SFTPSubsystemExecutor delegate;
+    private final SFTPFairScheduler fairScheduler;
+    private final Function<ServerSession, String> tenantResolver;
     private final List<SshFutureListener<CloseFuture>> listeners = new CopyOnWriteArrayList<>();
     private final DefaultCloseFuture closeFuture;
 
-    public SFTPCustomCloseableExecutorService(SFTPExecutorService delegate) {
+    public SFTPCustomCloseableExecutorService(SFTPSubsystemExecutor delegate) {
+        this(delegate, null, null);
+    }
+
+    public SFTPCustomCloseableExecutorService(SFTPSubsystemExecutor delegate, SFTPFairScheduler fairScheduler,
+                                              Function<ServerSession, String> tenantResolver) {
         this.delegate = delegate;
+        this.fairScheduler = fairScheduler;
+        this.tenantResolver = tenantResolver;
         closeFuture = new DefaultCloseFuture(null,false);
     }
 
@@ -27,35 +47,53 @@ public class SFTPCustomCloseableExecutorService extends AbstractExecutorService
 
     @Override
     public @NotNull List<Runnable> shutdownNow() {
-        return delegate.getThreadPoolExecutor().shutdownNow();
+        List<Runnable> neverStarted = new ArrayList<>();
+        if (fairScheduler != null) {
+            neverStarted.addAll(fairScheduler.drainWaiting());
+        }
+        neverStarted.addAll(delegate.getExecutorService().shutdownNow());
+        return neverStarted;
     }
 
     @Override
     public boolean isShutdown() {
-        return delegate.getThreadPoolExecutor().isShutdown();
+        return delegate.getExecutorService().isShutdown();
     }
 
     @Override
     public boolean isTerminated() {
-        return delegate.getThreadPoolExecutor().isTerminated();
+        return delegate.getExecutorService().isTerminated();
     }
 
     @Override
     public boolean awaitTermination(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
-        return delegate.getThreadPoolExecutor().awaitTermination(timeout, unit);
+        return delegate.getExecutorService().awaitTermination(timeout, unit);
     }
 
     @Override
     public void execute(@NotNull Runnable command) {
-        delegate.getThreadPoolExecutor().execute(command);
+        if (command instanceof TenantTask<?> tenantTask) {
+            fairScheduler.execute(tenantTask.tenant, tenantTask);
+        } else {
+            delegate.getExecutorService().execute(command);
+        }
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        if (fairScheduler != null && runnable instanceof SftpSubsystem subsystem
+                && subsystem.getServerSession() != null) {
+            return new TenantTask<>(runnable, value, tenantResolver.apply(subsystem.getServerSession()));
+        }
+        return super.newTaskFor(runnable, value);
     }
 
     @Override
     public CloseFuture close(boolean immediately) {
         if(immediately){
-            delegate.getThreadPoolExecutor().shutdownNow();
+            shutdownNow();
         }else{
-            delegate.getThreadPoolExecutor().shutdown();
+            delegate.getExecutorService().shutdown();
         }
         listeners.forEach(listener -> listener.operationComplete(closeFuture));
         closeFuture.setClosed();
@@ -81,4 +119,25 @@ public class SFTPCustomCloseableExecutorService extends AbstractExecutorService
     public boolean isClosing() {
         return !closeFuture.isDone(); // Check if the future is not yet done
     }
+
+    /**
+     * Subsystem task tagged with the tenant it is scheduled for, leaving its tenant's queue when cancelled.
+     */
+    private class TenantTask<T> extends FutureTask<T> {
+        private final String tenant;
+
+        TenantTask(Runnable runnable, T value, String tenant) {
+            super(runnable, value);
+            this.tenant = tenant;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                fairScheduler.remove(tenant, this);
+            }
+            return cancelled;
+        }
+    }
 }
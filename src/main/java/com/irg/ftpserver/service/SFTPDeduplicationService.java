@@ -0,0 +1,456 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.config.SFTPServerProperties;
+import com.irg.ftpserver.model.SFTPUser;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.CopyOption;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stores identical uploads of local users once, in a content-addressed store under {@code dedupDirectory}.
+ * <p>
+ * Once the checksum of an upload is known, see {@link SFTPChecksumService}, the file is looked up in the store by
+ * its checksum and permissions. The first upload of some content becomes the stored copy, later ones are replaced
+ * by a hard link to it, so user paths are references to the stored content and downloads read it like any other
+ * file. As a hard link shares the inode, references share the content and every attribute of the stored copy:
+ * only uploads with the same permissions share content, and references report the modification time of the first
+ * upload.
+ * <p>
+ * Content is only shared while nobody modifies it. Within the server this holds by construction: a reference
+ * opened for writing or whose attributes are changed through SFTP is replaced by a private copy first, post-upload
+ * stages that are not read-only get a private copy before they run, and a server-side copy of a file becomes
+ * another reference instead of a copy. Anything else that modifies files in the home directories must call
+ * {@link #unshare} first, or replace files by renaming a new file over them, never write to them or change their
+ * attributes in place, as that would change every reference at once. Stored content without references is removed
+ * every {@code dedupSweepInterval} ms.
+ * <p>
+ * The store must be on the same file system as the home directories, and the checksum algorithm collision resistant,
+ * as equal checksums are taken for equal content. Storage saved and writes saved are reported per company.
+ */
+@Service
+public class SFTPDeduplicationService implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(SFTPDeduplicationService.class);
+
+    // Writers and deduplication of the same path are serialized per stripe of paths
+    private static final int LOCK_STRIPES = 256;
+
+    // Digest length in bytes of the weakest checksum algorithm accepted, that of SHA-256
+    private static final int MIN_DIGEST_LENGTH = 32;
+
+    private static final String UNKNOWN_COMPANY = "unknown";
+
+    private final SFTPUserService sftpUserService;
+
+    private final boolean enabled;
+
+    private final Path store;
+
+    private final long minFileSize;
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    // Files open for writing, by number of handles, never deduplicated
+    private final Map<Path, Integer> writers = new ConcurrentHashMap<>();
+
+    private final Map<String, CompanySavings> savings = new ConcurrentHashMap<>();
+
+    private final LongAdder stale = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private volatile MeterRegistry registry;
+
+    private volatile StoreStatistics storeStatistics = new StoreStatistics(0, 0, 0);
+
+    public SFTPDeduplicationService(SFTPServerProperties sftpServerProperties, SFTPUserService sftpUserService) {
+        this.sftpUserService = sftpUserService;
+        this.minFileSize = Math.max(1, sftpServerProperties.getDedupMinFileSize());
+        String algorithm = sftpServerProperties.getChecksumAlgorithm();
+        this.store = Paths.get(sftpServerProperties.getDedupDirectory()).toAbsolutePath().resolve(algorithm);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        boolean enabled = sftpServerProperties.isDedupEnabled();
+        if (enabled && !sftpServerProperties.isChecksumEnabled()) {
+            logger.warn("Deduplication needs the checksums of uploads, disabled as checksums are");
+            enabled = false;
+        }
+        if (enabled) {
+            try {
+                if (MessageDigest.getInstance(algorithm).getDigestLength() < MIN_DIGEST_LENGTH) {
+                    throw new IllegalArgumentException("Checksum algorithm: " + algorithm
+                            + " is too weak to deduplicate uploads by");
+                }
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException("Unsupported checksum algorithm: " + algorithm, e);
+            }
+        }
+        this.enabled = enabled;
+        logger.info("Initialized deduplication, enabled: {}, store: {}", enabled, store);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Shares the content of an upload with identical uploads. Runs after the checksum of the upload was computed,
+     * the upload is left as it is if it changed since.
+     *
+     * @param username the user
+     * @param local    the uploaded file on local disk
+     * @param size     the size of the file when its checksum was computed
+     * @param modified the modification time of the file when its checksum was computed
+     * @param checksum the checksum of the file
+     */
+    public void deduplicate(String username, Path local, long size, FileTime modified, String checksum) {
+        if (!enabled || size < minFileSize || local.getFileSystem() != FileSystems.getDefault()) {
+            return;
+        }
+        synchronized (lock(local)) {
+            try {
+                PosixFileAttributes attributes = Files.readAttributes(local, PosixFileAttributes.class,
+                        LinkOption.NOFOLLOW_LINKS);
+                // References share the permissions of the stored copy, so only uploads with equal ones share it
+                Path stored = store.resolve(checksum.substring(0, 2))
+                        .resolve(checksum + "." + PosixFilePermissions.toString(attributes.permissions()));
+                if (writers.containsKey(local) || !attributes.isRegularFile() || attributes.size() != size
+                        || !attributes.lastModifiedTime().equals(modified)) {
+                    stale.increment();
+                    logger.debug("Not deduplicating: {}, it changed since its checksum was computed", local);
+                    return;
+                }
+                Files.createDirectories(stored.getParent());
+                try {
+                    // The first upload of the content becomes the stored copy
+                    Files.createLink(stored, local);
+                    logger.debug("Stored content of: {} as: {}", local, stored);
+                    return;
+                } catch (FileAlreadyExistsException e) {
+                    // Stored by an earlier upload
+                }
+                BasicFileAttributes storedAttributes = Files.readAttributes(stored, BasicFileAttributes.class);
+                if (Objects.equals(storedAttributes.fileKey(), attributes.fileKey())) {
+                    return;
+                }
+                if (storedAttributes.size() != size) {
+                    failures.increment();
+                    logger.error("Stored content: {} has {} bytes, not the {} bytes of: {}", stored,
+                            storedAttributes.size(), size, local);
+                    return;
+                }
+                replace(local, stored);
+                getSavings(username).storage.add(size);
+                logger.debug("Deduplicated: {} of user: {} against: {}", local, username, stored);
+            } catch (IOException | RuntimeException e) {
+                failures.increment();
+                logger.error("Failed to deduplicate: {} of user: {}", local, username, e);
+            }
+        }
+    }
+
+    /**
+     * Registers a file about to be opened for writing, replacing it by a private copy if its content is shared.
+     *
+     * @param username the user
+     * @param local    the file on local disk
+     * @param truncate whether the file is truncated when opened, so that its content need not be copied
+     */
+    public void openingForWrite(String username, Path local, boolean truncate) throws IOException {
+        if (!enabled) {
+            return;
+        }
+        synchronized (lock(local)) {
+            writers.merge(local, 1, Integer::sum);
+            try {
+                unshare(username, local, truncate);
+            } catch (IOException | RuntimeException e) {
+                writers.computeIfPresent(local, (path, count) -> count == 1 ? null : count - 1);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Unregisters a file opened for writing by {@link #openingForWrite}.
+     */
+    public void closedForWrite(Path local) {
+        if (!enabled) {
+            return;
+        }
+        writers.computeIfPresent(local, (path, count) -> count == 1 ? null : count - 1);
+    }
+
+    /**
+     * Replaces a file by a private copy if its content is shared, before it or its attributes are changed.
+     *
+     * @param username the user
+     * @param local    the file on local disk
+     */
+    public void unshare(String username, Path local) throws IOException {
+        if (!enabled) {
+            return;
+        }
+        synchronized (lock(local)) {
+            unshare(username, local, false);
+        }
+    }
+
+    /**
+     * Copies a file by making the copy another reference to its content.
+     *
+     * @param username the user
+     * @param source   the file to copy on local disk
+     * @param target   the copy on local disk
+     * @param options  the options of the copy
+     * @return whether the copy was made, false if it has to be copied the usual way
+     */
+    public boolean copy(String username, Path source, Path target, Collection<CopyOption> options)
+            throws IOException {
+        if (!enabled || source.getFileSystem() != FileSystems.getDefault()
+                || target.getFileSystem() != FileSystems.getDefault()) {
+            return false;
+        }
+        int sourceStripe = stripe(source);
+        int targetStripe = stripe(target);
+        // Locked in stripe order, so that opposite copies cannot deadlock
+        synchronized (locks[Math.min(sourceStripe, targetStripe)]) {
+            synchronized (locks[Math.max(sourceStripe, targetStripe)]) {
+                BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class,
+                        LinkOption.NOFOLLOW_LINKS);
+                if (!attributes.isRegularFile() || attributes.size() < minFileSize || writers.containsKey(source)
+                        || writers.containsKey(target)) {
+                    return false;
+                }
+                if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+                    if (!options.contains(StandardCopyOption.REPLACE_EXISTING)) {
+                        throw new FileAlreadyExistsException(target.toString());
+                    }
+                    BasicFileAttributes targetAttributes = Files.readAttributes(target, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                    if (targetAttributes.isDirectory()) {
+                        return false;
+                    }
+                    if (Objects.equals(targetAttributes.fileKey(), attributes.fileKey())) {
+                        return true;
+                    }
+                }
+                replace(target, source);
+                CompanySavings companySavings = getSavings(username);
+                companySavings.storage.add(attributes.size());
+                companySavings.writes.add(attributes.size());
+                logger.debug("Copied: {} of user: {} to: {} as a reference", source, username, target);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Removes stored content no upload refers to anymore, and counts what the store holds.
+     */
+    @Scheduled(initialDelayString = "${sftp.server.dedupSweepInterval:3600000}",
+            fixedDelayString = "${sftp.server.dedupSweepInterval:3600000}")
+    public void sweep() {
+        if (!enabled || !Files.isDirectory(store)) {
+            return;
+        }
+        long[] counts = new long[4];
+        try {
+            Files.walkFileTree(store, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                    if (!attributes.isRegularFile()) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    int links = linkCount(file);
+                    if (links <= 1) {
+                        // A reference created from here on gets stored anew
+                        Files.deleteIfExists(file);
+                        counts[3]++;
+                        return FileVisitResult.CONTINUE;
+                    }
+                    counts[0]++;
+                    counts[1] += attributes.size();
+                    // Every reference but the first would be a copy of its own
+                    counts[2] += (links - 2) * attributes.size();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    logger.warn("Cannot sweep stored content: {}: {}", file, e.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            logger.error("Failed to sweep the deduplication store: {}", store, e);
+            return;
+        }
+        storeStatistics = new StoreStatistics(counts[0], counts[1], counts[2]);
+        logger.info("Swept the deduplication store, removed: {} unreferenced files, stored: {} files of {} bytes, "
+                + "saving {} bytes", counts[3], counts[0], counts[1], counts[2]);
+    }
+
+    @Override
+    public void bindTo(@NotNull MeterRegistry registry) {
+        this.registry = registry;
+        Gauge.builder("sftp.dedup.store.files", this, service -> service.storeStatistics.files())
+                .description("Distinct contents in the deduplication store, as of the last sweep")
+                .register(registry);
+        Gauge.builder("sftp.dedup.store.bytes", this, service -> service.storeStatistics.bytes())
+                .description("Bytes of the distinct contents in the deduplication store, as of the last sweep")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("sftp.dedup.store.saved", this, service -> service.storeStatistics.saved())
+                .description("Bytes the references to stored contents would take as copies, as of the last sweep")
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("sftp.dedup.stale", stale, LongAdder::sum)
+                .description("Uploads not deduplicated because they changed after their checksum was computed")
+                .register(registry);
+        FunctionCounter.builder("sftp.dedup.failures", failures, LongAdder::sum)
+                .description("Uploads that could not be deduplicated")
+                .register(registry);
+        savings.forEach((company, companySavings) -> companySavings.bindTo(registry, company));
+    }
+
+    private void unshare(String username, Path local, boolean truncate) throws IOException {
+        if (local.getFileSystem() != FileSystems.getDefault() || linkCount(local) <= 1) {
+            return;
+        }
+        Path copy = temporarySibling(local);
+        try {
+            if (truncate) {
+                Files.createFile(copy);
+                Files.setPosixFilePermissions(copy, Files.getPosixFilePermissions(local));
+            } else {
+                Files.copy(local, copy, StandardCopyOption.COPY_ATTRIBUTES);
+            }
+            Files.move(copy, local, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(copy);
+            throw e;
+        }
+        if (!truncate) {
+            getSavings(username).unshared.add(Files.size(local));
+        }
+        logger.debug("Replaced shared: {} of user: {} by a private copy", local, username);
+    }
+
+    /**
+     * Atomically replaces a file by a reference to the content of another one.
+     */
+    private static void replace(Path file, Path content) throws IOException {
+        Path link = temporarySibling(file);
+        Files.createLink(link, content);
+        try {
+            Files.move(link, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(link);
+            throw e;
+        }
+    }
+
+    private static Path temporarySibling(Path file) {
+        return file.resolveSibling("." + file.getFileName() + "." + UUID.randomUUID() + ".dedup");
+    }
+
+    /**
+     * @return the number of hard links to a file, 0 if it does not exist or the file system does not tell
+     */
+    private static int linkCount(Path file) throws IOException {
+        try {
+            return (Integer) Files.getAttribute(file, "unix:nlink", LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException | UnsupportedOperationException e) {
+            return 0;
+        }
+    }
+
+    private CompanySavings getSavings(String username) {
+        String company = sftpUserService.getUserByUserName(username)
+                .map(SFTPUser::getCompanyName)
+                .orElse(UNKNOWN_COMPANY);
+        CompanySavings companySavings = savings.get(company);
+        if (companySavings == null) {
+            companySavings = savings.computeIfAbsent(company, name -> new CompanySavings());
+            MeterRegistry meterRegistry = registry;
+            if (meterRegistry != null) {
+                companySavings.bindTo(meterRegistry, company);
+            }
+        }
+        return companySavings;
+    }
+
+    private Object lock(Path local) {
+        return locks[stripe(local)];
+    }
+
+    private static int stripe(Path local) {
+        return (local.hashCode() & 0x7fffffff) % LOCK_STRIPES;
+    }
+
+    private record StoreStatistics(long files, long bytes, long saved) {
+    }
+
+    /**
+     * Bytes saved by the uploads of a company since startup.
+     */
+    private static final class CompanySavings {
+        // Bytes of copies replaced by references
+        final LongAdder storage = new LongAdder();
+        // Bytes not written by server-side copies
+        final LongAdder writes = new LongAdder();
+        // Bytes of references turned back into copies when written to
+        final LongAdder unshared = new LongAdder();
+
+        void bindTo(MeterRegistry registry, String company) {
+            FunctionCounter.builder("sftp.dedup.storage.saved", storage, LongAdder::sum)
+                    .description("Bytes of uploads and copies stored as references to identical content")
+                    .baseUnit("bytes")
+                    .tag("company", company)
+                    .register(registry);
+            FunctionCounter.builder("sftp.dedup.writes.saved", writes, LongAdder::sum)
+                    .description("Bytes not written because server-side copies became references")
+                    .baseUnit("bytes")
+                    .tag("company", company)
+                    .register(registry);
+            FunctionCounter.builder("sftp.dedup.unshared", unshared, LongAdder::sum)
+                    .description("Bytes copied to give references that were written to their own content")
+                    .baseUnit("bytes")
+                    .tag("company", company)
+                    .register(registry);
+        }
+    }
+}
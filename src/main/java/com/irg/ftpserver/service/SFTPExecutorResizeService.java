@@ -0,0 +1,128 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.data.ExecutorPoolSizes;
+import com.irg.ftpserver.data.SFTPServerConfigurationSnapshot;
+import com.irg.ftpserver.events.SFTPConfigurationReloadedEvent;
+import com.irg.ftpserver.model.SFTPServerConfiguration;
+import com.irg.ftpserver.repository.SFTPServerConfigurationRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+
+/**
+ * Applies executor sizes from the server configuration to the running SFTP subsystem executor.
+ * Sizes change either when an updated configuration row is reloaded or through {@link #updatePoolSizes}, which
+ * stores them in the configuration so they survive a restart. Every resize is written to the audit log.
+ */
+@Service
+public class SFTPExecutorResizeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SFTPExecutorResizeService.class);
+    private static final Logger auditLogger = LoggerFactory.getLogger("com.irg.ftpserver.audit");
+
+    private final SFTPSubsystemExecutor sftpSubsystemExecutor;
+
+    private final SFTPConfigurationService sftpConfigurationService;
+
+    private final SFTPServerConfigurationRepository sftpServerConfigurationRepository;
+
+    public SFTPExecutorResizeService(SFTPSubsystemExecutor sftpSubsystemExecutor,
+                                     SFTPConfigurationService sftpConfigurationService,
+                                     SFTPServerConfigurationRepository sftpServerConfigurationRepository) {
+        this.sftpSubsystemExecutor = sftpSubsystemExecutor;
+        this.sftpConfigurationService = sftpConfigurationService;
+        this.sftpServerConfigurationRepository = sftpServerConfigurationRepository;
+    }
+
+    /**
+     * @return the executor sizes of the current configuration
+     */
+    public ExecutorPoolSizes getPoolSizes() {
+        return toPoolSizes(sftpConfigurationService.getLatestConfiguration());
+    }
+
+    /**
+     * Stores new executor sizes in the server configuration and applies them immediately.
+     *
+     * @param poolSizes   the sizes to change, null fields are left unchanged
+     * @param requestedBy the user requesting the change
+     * @return the executor sizes now in effect
+     * @throws IllegalArgumentException if the core pool size would exceed the max pool size
+     */
+    public ExecutorPoolSizes updatePoolSizes(ExecutorPoolSizes poolSizes, String requestedBy) {
+        SFTPServerConfiguration configuration = sftpServerConfigurationRepository.findLatest(PageRequest.of(0, 1))
+                .stream()
+                .findFirst()
+                .orElseThrow(() -> new RuntimeException("SFTP Server configuration not found"));
+
+        if (poolSizes.getCorePoolSize() != null) {
+            configuration.setCorePoolSize(poolSizes.getCorePoolSize());
+        }
+        if (poolSizes.getMaxPoolSize() != null) {
+            configuration.setMaxPoolSize(poolSizes.getMaxPoolSize());
+        }
+        if (poolSizes.getKeepAliveTime() != null) {
+            configuration.setKeepAliveTime(poolSizes.getKeepAliveTime());
+        }
+        if (poolSizes.getQueueCapacity() != null) {
+            configuration.setQueueCapacity(poolSizes.getQueueCapacity());
+        }
+        if (poolSizes.getMaxConcurrentSubsystems() != null) {
+            configuration.setMaxConcurrentSubsystems(poolSizes.getMaxConcurrentSubsystems());
+        }
+        if (configuration.getCorePoolSize() > configuration.getMaxPoolSize()) {
+            throw new IllegalArgumentException("Core pool size: " + configuration.getCorePoolSize()
+                    + " is greater than max pool size: " + configuration.getMaxPoolSize());
+        }
+
+        configuration.setModifiedDate(new Date());
+        sftpServerConfigurationRepository.save(configuration);
+        auditLogger.info("Executor resize requested by: {}, requested sizes: {}", requestedBy, poolSizes);
+
+        // Publishes the reload event, which applies the sizes below
+        return toPoolSizes(sftpConfigurationService.refresh());
+    }
+
+    /**
+     * Resizes the executor when a reloaded configuration changes its sizes.
+     *
+     * @param event the reload event
+     */
+    @EventListener
+    public void handleSFTPConfigurationReloadedEvent(SFTPConfigurationReloadedEvent event) {
+        ExecutorPoolSizes previous = toPoolSizes(event.getPrevious());
+        ExecutorPoolSizes current = toPoolSizes(event.getCurrent());
+
+        if (event.getCurrent().getExecutorMode() != sftpSubsystemExecutor.getExecutorMode()) {
+            logger.warn("Executor mode changed to: {}, running in: {} until restart",
+                    event.getCurrent().getExecutorMode(), sftpSubsystemExecutor.getExecutorMode());
+        }
+        if (previous.equals(current)) {
+            return;
+        }
+
+        try {
+            sftpSubsystemExecutor.resize(event.getCurrent());
+            auditLogger.info("Resized {} executor from: {} to: {}, configuration: {}",
+                    sftpSubsystemExecutor.getExecutorMode(), previous, current, event.getCurrent().getId());
+        } catch (IllegalArgumentException e) {
+            auditLogger.warn("Rejected {} executor resize from: {} to: {}, configuration: {}: {}",
+                    sftpSubsystemExecutor.getExecutorMode(), previous, current, event.getCurrent().getId(),
+                    e.getMessage());
+        }
+    }
+
+    private ExecutorPoolSizes toPoolSizes(SFTPServerConfigurationSnapshot configuration) {
+        return new ExecutorPoolSizes(
+                configuration.getCorePoolSize(),
+                configuration.getMaxPoolSize(),
+                configuration.getKeepAliveTime(),
+                configuration.getQueueCapacity(),
+                configuration.getMaxConcurrentSubsystems()
+        );
+    }
+}
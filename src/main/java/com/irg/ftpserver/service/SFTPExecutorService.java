@@ -1,42 +1,172 @@
 package com.irg.ftpserver.service;
 
-import lombok.Data;
+import com.irg.ftpserver.data.ExecutorMode;
+import com.irg.ftpserver.data.ExecutorStatistics;
+import com.irg.ftpserver.data.SFTPServerConfigurationSnapshot;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.Getter;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
-@Data
-public class SFTPExecutorService {
+/**
+ * Runs SFTP subsystems on a bounded platform thread pool.
+ * Once the pool and its queue are full, new subsystems run on the submitting thread. Every such rejection is
+ * counted, and the time subsystems wait for a worker and then run is recorded, so that a saturated pool shows up in
+ * the metrics before clients notice.
+ */
+@Getter
+public class SFTPExecutorService implements SFTPSubsystemExecutor, MeterBinder {
     private final Logger logger = LoggerFactory.getLogger(SFTPExecutorService.class);
-    private final int corePoolSize;
-    private final int maximumPoolSize;
-    private final long keepAliveTime;
-    private final int queueCapacity;
+    private final ResizableBlockingQueue<Runnable> workQueue;
     private final ThreadPoolExecutor threadPoolExecutor;
+    private final LongAdder rejectedTasks = new LongAdder();
 
-    public SFTPExecutorService(int corePoolSize, int maximumPoolSize, long keepAliveTime, int queueCapacity) {
-        this.corePoolSize = corePoolSize;
-        this.maximumPoolSize = maximumPoolSize;
-        this.keepAliveTime = keepAliveTime;
-        this.queueCapacity = queueCapacity;
+    // Registered by bindTo, tasks run before that are not timed
+    private volatile Timer waitTimer;
+    private volatile Timer runTimer;
 
-        BlockingQueue<Runnable> workQueue = new ArrayBlockingQueue<> (this.queueCapacity);
+    public SFTPExecutorService(int corePoolSize, int maximumPoolSize, long keepAliveTime, int queueCapacity) {
+        this.workQueue = new ResizableBlockingQueue<>(queueCapacity);
         ThreadFactory threadFactory = new CustomThreadFactory();
-        RejectedExecutionHandler handler = new ThreadPoolExecutor.CallerRunsPolicy();
+        RejectedExecutionHandler handler = new CountingCallerRunsPolicy();
 
-        this.threadPoolExecutor = new ThreadPoolExecutor(
-                this.corePoolSize,
-                this.maximumPoolSize,
-                this.keepAliveTime,
+        this.threadPoolExecutor = new InstrumentedThreadPoolExecutor(
+                corePoolSize,
+                maximumPoolSize,
+                keepAliveTime,
                 TimeUnit.SECONDS,
-                workQueue,
+                this.workQueue,
                 threadFactory,
                 handler
         );
     }
 
+    @Override
+    public ExecutorService getExecutorService() {
+        return this.threadPoolExecutor;
+    }
+
+    @Override
+    public ExecutorMode getExecutorMode() {
+        return ExecutorMode.PLATFORM;
+    }
+
+    /**
+     * The pool only starts threads beyond its core size once its queue is full, so subsystems beyond the core size
+     * wait in the queue.
+     */
+    @Override
+    public int getMaxConcurrency() {
+        return this.threadPoolExecutor.getCorePoolSize();
+    }
+
+    public int getCorePoolSize() {
+        return this.threadPoolExecutor.getCorePoolSize();
+    }
+
+    public int getMaximumPoolSize() {
+        return this.threadPoolExecutor.getMaximumPoolSize();
+    }
+
+    public long getKeepAliveTime() {
+        return this.threadPoolExecutor.getKeepAliveTime(TimeUnit.SECONDS);
+    }
+
+    public int getQueueCapacity() {
+        return this.workQueue.getCapacity();
+    }
+
+    /**
+     * Applies the pool sizes, keep alive time and queue capacity of the configuration.
+     * Extra threads exit once idle after a shrink, and queued subsystems are kept if the queue shrinks below its
+     * current size.
+     *
+     * @param configuration the configuration to apply
+     */
+    @Override
+    public synchronized void resize(SFTPServerConfigurationSnapshot configuration) {
+        int corePoolSize = configuration.getCorePoolSize();
+        int maximumPoolSize = configuration.getMaxPoolSize();
+        if (corePoolSize > maximumPoolSize) {
+            throw new IllegalArgumentException("Core pool size: " + corePoolSize
+                    + " is greater than max pool size: " + maximumPoolSize);
+        }
+
+        // ThreadPoolExecutor rejects a core size above the current maximum and a maximum below the current core
+        if (corePoolSize > this.threadPoolExecutor.getMaximumPoolSize()) {
+            this.threadPoolExecutor.setMaximumPoolSize(maximumPoolSize);
+            this.threadPoolExecutor.setCorePoolSize(corePoolSize);
+        } else {
+            this.threadPoolExecutor.setCorePoolSize(corePoolSize);
+            this.threadPoolExecutor.setMaximumPoolSize(maximumPoolSize);
+        }
+        this.threadPoolExecutor.setKeepAliveTime(configuration.getKeepAliveTime(), TimeUnit.SECONDS);
+        this.workQueue.setCapacity(configuration.getQueueCapacity());
+    }
+
+    @Override
+    public ExecutorStatistics getStatistics() {
+        return new ExecutorStatistics(
+                ExecutorMode.PLATFORM,
+                this.threadPoolExecutor.getActiveCount(),
+                this.threadPoolExecutor.getPoolSize(),
+                this.threadPoolExecutor.getCorePoolSize(),
+                this.threadPoolExecutor.getMaximumPoolSize(),
+                this.workQueue.size(),
+                this.workQueue.remainingCapacity(),
+                this.threadPoolExecutor.getCompletedTaskCount(),
+                this.rejectedTasks.sum()
+        );
+    }
+
+    @Override
+    public void bindTo(@NotNull MeterRegistry registry) {
+        Gauge.builder("sftp.executor.active", threadPoolExecutor, ThreadPoolExecutor::getActiveCount)
+                .description("Subsystems currently running on a worker thread")
+                .tag("mode", "platform")
+                .register(registry);
+        Gauge.builder("sftp.executor.pool.size", threadPoolExecutor, ThreadPoolExecutor::getPoolSize)
+                .description("Worker threads in the pool")
+                .tag("mode", "platform")
+                .register(registry);
+        Gauge.builder("sftp.executor.pool.core", threadPoolExecutor, ThreadPoolExecutor::getCorePoolSize)
+                .description("Core size of the pool")
+                .tag("mode", "platform")
+                .register(registry);
+        Gauge.builder("sftp.executor.pool.max", threadPoolExecutor, ThreadPoolExecutor::getMaximumPoolSize)
+                .description("Maximum size of the pool")
+                .tag("mode", "platform")
+                .register(registry);
+        Gauge.builder("sftp.executor.waiting", workQueue, ResizableBlockingQueue::size)
+                .description("Subsystems waiting in the queue for a worker thread")
+                .tag("mode", "platform")
+                .register(registry);
+        Gauge.builder("sftp.executor.queue.remaining", workQueue, ResizableBlockingQueue::remainingCapacity)
+                .description("Subsystems that can still be queued before new ones run on the caller thread")
+                .tag("mode", "platform")
+                .register(registry);
+        FunctionCounter.builder("sftp.executor.completed", threadPoolExecutor,
+                        ThreadPoolExecutor::getCompletedTaskCount)
+                .description("Subsystems completed on a worker thread since startup")
+                .tag("mode", "platform")
+                .register(registry);
+        FunctionCounter.builder("sftp.executor.rejected", rejectedTasks, LongAdder::sum)
+                .description("Subsystems run on the caller thread because the pool and queue were full")
+                .tag("mode", "platform")
+                .register(registry);
+        this.waitTimer = SFTPExecutorTimers.waitTimer(registry, "platform");
+        this.runTimer = SFTPExecutorTimers.runTimer(registry, "platform");
+    }
+
+    @Override
     public void shutdown() {
         try{
             logger.info("Shutting down the SFTP Executor service: {}", this.threadPoolExecutor);
@@ -53,6 +183,64 @@ public class SFTPExecutorService {
         }
     }
 
+    /**
+     * Times each task from submission to start and from start to completion.
+     */
+    private class InstrumentedThreadPoolExecutor extends ThreadPoolExecutor {
+
+        InstrumentedThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
+                                       BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory,
+                                       RejectedExecutionHandler handler) {
+            super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler);
+        }
+
+        @Override
+        public void execute(@NotNull Runnable command) {
+            super.execute(new TimedTask(command, System.nanoTime()));
+        }
+    }
+
+    private class TimedTask implements Runnable {
+        private final Runnable command;
+        private final long submittedAt;
+
+        TimedTask(Runnable command, long submittedAt) {
+            this.command = command;
+            this.submittedAt = submittedAt;
+        }
+
+        @Override
+        public void run() {
+            long startedAt = System.nanoTime();
+            Timer wait = waitTimer;
+            if (wait != null) {
+                wait.record(startedAt - submittedAt, TimeUnit.NANOSECONDS);
+            }
+            try {
+                command.run();
+            } finally {
+                Timer run = runTimer;
+                if (run != null) {
+                    run.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts rejections before running the task on the caller thread.
+     */
+    private class CountingCallerRunsPolicy extends ThreadPoolExecutor.CallerRunsPolicy {
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            rejectedTasks.increment();
+            logger.debug("SFTP Executor saturated, running subsystem on caller thread: {}",
+                    Thread.currentThread().getName());
+            super.rejectedExecution(r, executor);
+        }
+    }
+
     private static class CustomThreadFactory implements ThreadFactory {
         private static final Logger logger = LoggerFactory.getLogger(CustomThreadFactory.class);
         private static final String THREAD_NAME_PREFIX = "SFTP-Executor-Service-Thread-";
@@ -0,0 +1,41 @@
+package com.irg.ftpserver.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Timers shared by the SFTP subsystem executors, so that both modes report the same meters.
+ */
+final class SFTPExecutorTimers {
+
+    private SFTPExecutorTimers() {
+    }
+
+    /**
+     * @param registry the registry
+     * @param mode     the executor mode tag
+     * @return the timer of the time subsystems wait before they start running
+     */
+    static Timer waitTimer(MeterRegistry registry, String mode) {
+        return Timer.builder("sftp.executor.wait")
+                .description("Time subsystems waited for a worker before running")
+                .tag("mode", mode)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * @param registry the registry
+     * @param mode     the executor mode tag
+     * @return the timer of the time subsystems run, i.e. the lifetime of their channel
+     */
+    static Timer runTimer(MeterRegistry registry, String mode) {
+        return Timer.builder("sftp.executor.run")
+                .description("Time subsystems ran on a worker")
+                .tag("mode", mode)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+}
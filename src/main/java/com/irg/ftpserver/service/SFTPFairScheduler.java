@@ -0,0 +1,293 @@
+package com.irg.ftpserver.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
+
+/**
+ * Admits SFTP subsystems to the subsystem executor fairly across tenants (users or companies).
+ * <p>
+ * Each tenant has its own FIFO queue. Subsystems are handed to the executor only while fewer than
+ * {@link SFTPSubsystemExecutor#getMaxConcurrency()} are in flight, which for a thread pool is its core size, so the
+ * executor's own FIFO queue never decides who goes next. Tenants with waiting subsystems are served round-robin, a
+ * tenant with weight {@code n} being admitted up to {@code n} subsystems per turn, and a tenant never has more than
+ * {@code maxWorkersPerTenant} subsystems in flight. A tenant with {@code maxWaitingPerTenant} subsystems waiting has
+ * further subsystems rejected, and cancelled subsystems are removed from their tenant's queue.
+ */
+public class SFTPFairScheduler implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(SFTPFairScheduler.class);
+
+    private final SFTPSubsystemExecutor sftpSubsystemExecutor;
+    private final ToIntFunction<String> tenantWeights;
+    private final int maxWorkersPerTenant;
+    private final int maxWaitingPerTenant;
+    private final LongAdder rejectedTasks = new LongAdder();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, TenantQueue> tenants = new HashMap<>();
+    // Tenants with waiting subsystems that may be admitted, in round-robin order
+    private final ArrayDeque<TenantQueue> ready = new ArrayDeque<>();
+    private int inFlight;
+    private int waiting;
+
+    /**
+     * @param sftpSubsystemExecutor the executor subsystems are admitted to
+     * @param tenantWeights         weight of each tenant, at least 1
+     * @param maxWorkersPerTenant   maximum subsystems in flight per tenant, 0 for no limit
+     * @param maxWaitingPerTenant   maximum subsystems waiting per tenant, 0 for no limit
+     */
+    public SFTPFairScheduler(SFTPSubsystemExecutor sftpSubsystemExecutor, ToIntFunction<String> tenantWeights,
+                             int maxWorkersPerTenant, int maxWaitingPerTenant) {
+        this.sftpSubsystemExecutor = sftpSubsystemExecutor;
+        this.tenantWeights = tenantWeights;
+        this.maxWorkersPerTenant = maxWorkersPerTenant;
+        this.maxWaitingPerTenant = maxWaitingPerTenant;
+    }
+
+    /**
+     * Queues a subsystem for a tenant and admits as many waiting subsystems as the executor can take.
+     *
+     * @param tenant the tenant
+     * @param task   the subsystem task
+     * @throws RejectedExecutionException if the executor has been shut down or the tenant has the maximum
+     *                                    subsystems waiting
+     */
+    public void execute(String tenant, Runnable task) {
+        if (sftpSubsystemExecutor.getExecutorService().isShutdown()) {
+            throw new RejectedExecutionException("SFTP subsystem executor has been shut down");
+        }
+        List<Runnable> admitted;
+        lock.lock();
+        try {
+            TenantQueue tenantQueue = tenants.computeIfAbsent(tenant, TenantQueue::new);
+            if (maxWaitingPerTenant > 0 && tenantQueue.pending.size() >= maxWaitingPerTenant) {
+                rejectedTasks.increment();
+                throw new RejectedExecutionException("Too many SFTP subsystems waiting for tenant: " + tenant);
+            }
+            tenantQueue.pending.addLast(task);
+            waiting++;
+            markReady(tenantQueue);
+            admitted = admit();
+        } finally {
+            lock.unlock();
+        }
+        dispatch(admitted);
+    }
+
+    /**
+     * Removes a waiting subsystem, e.g. once it was cancelled.
+     *
+     * @return false if the subsystem is not waiting, having been admitted already
+     */
+    public boolean remove(String tenant, Runnable task) {
+        lock.lock();
+        try {
+            TenantQueue tenantQueue = tenants.get(tenant);
+            if (tenantQueue == null || !tenantQueue.pending.remove(task)) {
+                return false;
+            }
+            waiting--;
+            if (tenantQueue.pending.isEmpty()) {
+                if (tenantQueue.ready) {
+                    ready.remove(tenantQueue);
+                    tenantQueue.ready = false;
+                }
+                tenantQueue.credits = 0;
+                if (tenantQueue.running == 0) {
+                    tenants.remove(tenant);
+                }
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes every waiting subsystem.
+     *
+     * @return the subsystems that were never admitted
+     */
+    public List<Runnable> drainWaiting() {
+        List<Runnable> drained = new ArrayList<>();
+        lock.lock();
+        try {
+            tenants.values().forEach(tenantQueue -> {
+                drained.addAll(tenantQueue.pending);
+                tenantQueue.pending.clear();
+            });
+            ready.clear();
+            tenants.values().removeIf(tenantQueue -> tenantQueue.running == 0);
+            waiting = 0;
+        } finally {
+            lock.unlock();
+        }
+        return drained;
+    }
+
+    /**
+     * @return the number of subsystems waiting to be admitted
+     */
+    public int getWaitingCount() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of tenants with subsystems waiting or in flight
+     */
+    public int getTenantCount() {
+        lock.lock();
+        try {
+            return tenants.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void bindTo(@NotNull MeterRegistry registry) {
+        Gauge.builder("sftp.executor.fair.waiting", this, SFTPFairScheduler::getWaitingCount)
+                .description("Subsystems waiting for their tenant's turn before reaching the executor")
+                .register(registry);
+        Gauge.builder("sftp.executor.fair.tenants", this, SFTPFairScheduler::getTenantCount)
+                .description("Tenants with subsystems waiting or in flight")
+                .register(registry);
+        FunctionCounter.builder("sftp.executor.fair.rejected", rejectedTasks, LongAdder::sum)
+                .description("Subsystems rejected because their tenant had the maximum subsystems waiting")
+                .register(registry);
+    }
+
+    // Must hold the lock
+    private List<Runnable> admit() {
+        List<Runnable> admitted = new ArrayList<>();
+        int maxConcurrency = sftpSubsystemExecutor.getMaxConcurrency();
+        while (inFlight < maxConcurrency && !ready.isEmpty()) {
+            TenantQueue tenantQueue = ready.pollFirst();
+            tenantQueue.ready = false;
+            if (tenantQueue.credits == 0) {
+                tenantQueue.credits = Math.max(1, tenantWeights.applyAsInt(tenantQueue.tenant));
+            }
+
+            Runnable task = tenantQueue.pending.pollFirst();
+            waiting--;
+            tenantQueue.running++;
+            tenantQueue.credits--;
+            inFlight++;
+            admitted.add(new AdmittedTask(tenantQueue, task));
+
+            if (isEligible(tenantQueue)) {
+                tenantQueue.ready = true;
+                if (tenantQueue.credits > 0) {
+                    ready.addFirst(tenantQueue);
+                } else {
+                    ready.addLast(tenantQueue);
+                }
+            } else {
+                tenantQueue.credits = 0;
+            }
+        }
+        return admitted;
+    }
+
+    private void dispatch(List<Runnable> admitted) {
+        for (Runnable task : admitted) {
+            try {
+                sftpSubsystemExecutor.getExecutorService().execute(task);
+            } catch (RejectedExecutionException e) {
+                AdmittedTask admittedTask = (AdmittedTask) task;
+                logger.warn("SFTP subsystem executor rejected a subsystem of tenant: {}",
+                        admittedTask.tenantQueue.tenant, e);
+                if (admittedTask.task instanceof Future<?> future) {
+                    future.cancel(false);
+                }
+                complete(admittedTask.tenantQueue);
+            }
+        }
+    }
+
+    private void complete(TenantQueue tenantQueue) {
+        List<Runnable> admitted;
+        lock.lock();
+        try {
+            tenantQueue.running--;
+            inFlight--;
+            if (tenantQueue.running == 0 && tenantQueue.pending.isEmpty()) {
+                tenants.remove(tenantQueue.tenant);
+            } else {
+                markReady(tenantQueue);
+            }
+            admitted = admit();
+        } finally {
+            lock.unlock();
+        }
+        dispatch(admitted);
+    }
+
+    // Must hold the lock
+    private void markReady(TenantQueue tenantQueue) {
+        if (!tenantQueue.ready && isEligible(tenantQueue)) {
+            tenantQueue.ready = true;
+            ready.addLast(tenantQueue);
+        }
+    }
+
+    private boolean isEligible(TenantQueue tenantQueue) {
+        return !tenantQueue.pending.isEmpty()
+                && (maxWorkersPerTenant <= 0 || tenantQueue.running < maxWorkersPerTenant);
+    }
+
+    private static class TenantQueue {
+        private final String tenant;
+        private final ArrayDeque<Runnable> pending = new ArrayDeque<>();
+        private int running;
+        private int credits;
+        private boolean ready;
+
+        TenantQueue(String tenant) {
+            this.tenant = tenant;
+        }
+    }
+
+    /**
+     * Releases the tenant's slot and admits the next subsystem once the task completes.
+     */
+    private class AdmittedTask implements Runnable {
+        private final TenantQueue tenantQueue;
+        private final Runnable task;
+
+        AdmittedTask(TenantQueue tenantQueue, Runnable task) {
+            this.tenantQueue = tenantQueue;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } finally {
+                complete(tenantQueue);
+            }
+        }
+    }
+}
@@ -1,59 +1,386 @@
 package com.irg.ftpserver.service;
 
+import com.irg.ftpserver.config.SFTPServerProperties;
+import com.irg.ftpserver.data.StorageType;
+import com.irg.ftpserver.events.SFTPUserChangedEvent;
 import com.irg.ftpserver.model.SFTPUser;
 import com.irg.ftpserver.repository.SFTPUserRepository;
-import lombok.AllArgsConstructor;
-import org.apache.sshd.common.file.root.RootedFileSystemProvider;
+import com.irg.ftpserver.storage.StorageBackend;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.sshd.common.file.root.RootedFileSystem;
 import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
 import org.apache.sshd.common.session.SessionContext;
+import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import java.io.IOException;
 import java.nio.file.*;
-import java.util.Collections;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Provides the file system of a user's home directory to SFTP sessions.
+ * <p>
+ * The file system comes from the {@link StorageBackend} of the user's storage type, a directory rooted at the user's
+ * home on the local disk or the user's key prefix in object storage.
+ * <p>
+ * One file system is kept per user and shared by all of the user's sessions, each session getting a lease whose
+ * close releases it. File systems without sessions are closed after {@code fileSystemIdleTimeout} ms. When a user
+ * is saved, the home directory is created and the user's file system is replaced, so new sessions see a changed
+ * directory or storage type right away while running sessions keep their old one until they end. Homes are checked
+ * against the user's row again once older than {@code userCacheTtl} ms, so a change whose event was missed is picked
+ * up by the next session after that.
+ */
 @Service
-@AllArgsConstructor
-public class SFTPFileSystemService extends VirtualFileSystemFactory{
+public class SFTPFileSystemService extends VirtualFileSystemFactory implements MeterBinder {
     private static final Logger logger = LoggerFactory.getLogger(SFTPFileSystemService.class);
 
     private final SFTPUserRepository sftpUserRepository;
 
-    private final Map<String, Path> homeDirs = new ConcurrentHashMap<>();
+    private final long idleTimeout;
+
+    private final long homeTtlNanos;
+
+    private final Map<StorageType, StorageBackend> storageBackends = new EnumMap<>(StorageType.class);
+
+    // Home directories that are known to exist, with when they were last checked against the user's row
+    private final Map<String, CheckedHome> homes = new ConcurrentHashMap<>();
+
+    private final Map<String, SharedFileSystem> fileSystems = new ConcurrentHashMap<>();
+
+    public SFTPFileSystemService(SFTPUserRepository sftpUserRepository, SFTPServerProperties sftpServerProperties,
+                                 List<StorageBackend> storageBackends) {
+        this.sftpUserRepository = sftpUserRepository;
+        this.idleTimeout = sftpServerProperties.getFileSystemIdleTimeout();
+        this.homeTtlNanos = TimeUnit.MILLISECONDS.toNanos(sftpServerProperties.getUserCacheTtl());
+        for (StorageBackend storageBackend : storageBackends) {
+            this.storageBackends.put(storageBackend.getType(), storageBackend);
+        }
+    }
 
     @Override
     public FileSystem createFileSystem(SessionContext session) throws IOException {
+        return acquire(session.getUsername(), getHome(session.getUsername()));
+    }
 
-        Path dir = getUserHomeDir(session);
+    /**
+     * @return the home directory of a user stored on the local disk, null for other storage types
+     */
+    @Override
+    public Path getUserHomeDir(SessionContext session) throws IOException{
+        Home home = getHome(session.getUsername());
+        return home.type() == StorageType.LOCAL ? Paths.get(home.directory()) : null;
+    }
 
-        if (dir == null) {
-            throw new InvalidPathException(session.getUsername(), "Cannot resolve home directory");
+    private Home getHome(String username) throws IOException {
+        CheckedHome checked = homes.get(username);
+        long now = System.nanoTime();
+        if (checked != null && now - checked.checkedAt() < homeTtlNanos) {
+            return checked.home();
         }
 
-        return new RootedFileSystemProvider().newFileSystem(dir, Collections.emptyMap());
+        SFTPUser user = sftpUserRepository.findByUsername(username)
+                .orElseThrow(() -> new RuntimeException("User not found: " + username));
+        Home home;
+        if (checked != null && checked.home().equals(Home.of(user))) {
+            home = checked.home();
+        } else {
+            if (checked != null) {
+                logger.info("Home directory of user: {} changed from: {} to: {} without a change event", username,
+                        checked.home(), Home.of(user));
+            }
+            // Normally created when the user was saved
+            home = createHome(user);
+        }
+        homes.put(username, new CheckedHome(home, now));
+        return home;
+    }
+
+    /**
+     * Creates the home directory of a saved user and replaces the user's file system if the directory or storage
+     * type changed.
+     */
+    @EventListener
+    public void handleSFTPUserChangedEvent(SFTPUserChangedEvent event) {
+        String username = event.getUsername();
+        Optional<SFTPUser> user = sftpUserRepository.findByUsername(username);
+        Home home = null;
+        if (user.isPresent()) {
+            try {
+                home = createHome(user.get());
+                homes.put(username, new CheckedHome(home, System.nanoTime()));
+            } catch (IOException | InvalidPathException e) {
+                logger.error("Failed to create home directory: {} for user: {}", user.get().getDirectory(), username,
+                        e);
+            }
+        }
+        if (home == null) {
+            homes.remove(username);
+        }
+        SharedFileSystem shared = fileSystems.get(username);
+        if (shared != null && !shared.home.equals(home) && fileSystems.remove(username, shared)) {
+            shared.retire();
+            logger.info("Replaced file system of user: {}, home directory: {} is now: {}", username,
+                    shared.home, home);
+        }
+    }
+
+    /**
+     * Closes the file systems no session has used for the idle timeout.
+     */
+    @Scheduled(initialDelayString = "${sftp.server.fileSystemIdleTimeout:300000}",
+            fixedDelayString = "${sftp.server.fileSystemIdleTimeout:300000}")
+    public void evictIdleFileSystems() {
+        long idleSince = System.currentTimeMillis() - idleTimeout;
+        fileSystems.forEach((username, shared) -> {
+            if (shared.retireIfIdleSince(idleSince)) {
+                fileSystems.remove(username, shared);
+                logger.debug("Closed idle file system of user: {}", username);
+            }
+        });
+    }
+
+    /**
+     * Adds up the sizes of all files of a user in the user's storage, visiting every file.
+     */
+    public long computeUsage(String username) throws IOException {
+        Home home = getHome(username);
+        return getStorageBackend(home.type()).computeUsage(home.directory());
+    }
+
+    /**
+     * @return the number of user file systems currently cached
+     */
+    public int getCachedFileSystemCount() {
+        return fileSystems.size();
     }
+
     @Override
-    public Path getUserHomeDir(SessionContext session) throws IOException{
+    public void bindTo(@NotNull MeterRegistry registry) {
+        Gauge.builder("sftp.filesystems.cached", this, SFTPFileSystemService::getCachedFileSystemCount)
+                .description("User file systems shared by the sessions of a user")
+                .register(registry);
+    }
+
+    /**
+     * Resolves a path of a user's rooted file system to the path on the local disk, which identifies a file across
+     * users and stays valid after the user's sessions have ended.
+     */
+    public static Path toLocalPath(Path path) {
+        if (path.getFileSystem() instanceof RootedFileSystem rootedFileSystem) {
+            Path root = rootedFileSystem.getRoot();
+            Path local = root;
+            for (Path name : path.toAbsolutePath().normalize()) {
+                local = local.resolve(name.toString());
+            }
+            return local;
+        }
+        return path;
+    }
+
+    private FileSystem acquire(String username, Home home) throws IOException {
+        while (true) {
+            SharedFileSystem shared = fileSystems.get(username);
+            if (shared == null || !shared.home.equals(home)) {
+                FileSystem fileSystem = getStorageBackend(home.type()).createFileSystem(username, home.directory());
+                SharedFileSystem created = new SharedFileSystem(home, fileSystem);
+                boolean installed = shared == null ? fileSystems.putIfAbsent(username, created) == null
+                        : fileSystems.replace(username, shared, created);
+                if (!installed) {
+                    // Lost a race with another session of the user
+                    created.retire();
+                    continue;
+                }
+                if (shared != null) {
+                    shared.retire();
+                }
+                shared = created;
+            }
+            if (shared.retain()) {
+                return new FileSystemLease(shared);
+            }
+            // Retired after it was looked up
+            fileSystems.remove(username, shared);
+        }
+    }
+
+    private Home createHome(SFTPUser user) throws IOException {
+        if (user.getDirectory() == null) {
+            throw new InvalidPathException(user.getUsername(), "Cannot resolve home directory");
+        }
+        Home home = Home.of(user);
+        getStorageBackend(home.type()).createHome(home.directory());
+        return home;
+    }
+
+    private StorageBackend getStorageBackend(StorageType type) throws IOException {
+        StorageBackend storageBackend = storageBackends.get(type);
+        if (storageBackend == null) {
+            throw new IOException("No storage backend for storage type: " + type);
+        }
+        return storageBackend;
+    }
+
+    /**
+     * Where the files of a user are stored.
+     */
+    private record Home(StorageType type, String directory) {
+        static Home of(SFTPUser user) {
+            return new Home(user.getStorageType() == null ? StorageType.LOCAL : user.getStorageType(),
+                    user.getDirectory());
+        }
 
-        String username = session.getUsername();
-        Path homeDir = homeDirs.get(username);
+        @Override
+        public String toString() {
+            return type + ":" + directory;
+        }
+    }
+
+    /**
+     * A home with the {@link System#nanoTime()} it was last checked against the user's row.
+     */
+    private record CheckedHome(Home home, long checkedAt) {
+    }
+
+    /**
+     * A user's file system with the number of sessions using it. Closed once retired and no longer used.
+     */
+    private static final class SharedFileSystem {
+        final Home home;
+        final FileSystem fileSystem;
+        private int references;
+        private long idleSince = System.currentTimeMillis();
+        private boolean retired;
+
+        SharedFileSystem(Home home, FileSystem fileSystem) {
+            this.home = home;
+            this.fileSystem = fileSystem;
+        }
+
+        synchronized boolean retain() {
+            if (retired) {
+                return false;
+            }
+            references++;
+            return true;
+        }
 
-        if (homeDir == null) {
-            SFTPUser user = sftpUserRepository.findByUsername(username)
-                    .orElseThrow(() -> new RuntimeException("User not found: " + username));
+        synchronized void release() {
+            references--;
+            idleSince = System.currentTimeMillis();
+            if (references == 0 && retired) {
+                close();
+            }
+        }
 
-            homeDir = Paths.get(user.getDirectory());
-            if (!Files.exists(homeDir)) {
-                Files.createDirectories(homeDir);
-                logger.info("Home directory created: {} For user: {}", homeDir, username);
+        synchronized void retire() {
+            retired = true;
+            if (references == 0) {
+                close();
+            }
+        }
+
+        synchronized boolean retireIfIdleSince(long time) {
+            if (references > 0 || idleSince > time) {
+                return false;
+            }
+            retire();
+            return true;
+        }
+
+        private void close() {
+            try {
+                fileSystem.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close file system of: {}: {}", home, e.getMessage());
             }
-            homeDirs.put(username, homeDir);
         }
-        return homeDir;
     }
 
+    /**
+     * The view of a session on a shared file system. Closing it only releases the shared file system.
+     */
+    private static final class FileSystemLease extends FileSystem {
+        private final SharedFileSystem shared;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        FileSystemLease(SharedFileSystem shared) {
+            this.shared = shared;
+        }
+
+        @Override
+        public FileSystemProvider provider() {
+            return shared.fileSystem.provider();
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                shared.release();
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !closed.get() && shared.fileSystem.isOpen();
+        }
+
+        @Override
+        public boolean isReadOnly() {
+            return shared.fileSystem.isReadOnly();
+        }
+
+        @Override
+        public String getSeparator() {
+            return shared.fileSystem.getSeparator();
+        }
+
+        @Override
+        public Iterable<Path> getRootDirectories() {
+            return shared.fileSystem.getRootDirectories();
+        }
+
+        @Override
+        public Iterable<FileStore> getFileStores() {
+            return shared.fileSystem.getFileStores();
+        }
+
+        @Override
+        public Set<String> supportedFileAttributeViews() {
+            return shared.fileSystem.supportedFileAttributeViews();
+        }
+
+        @Override
+        public Path getPath(String first, String... more) {
+            return shared.fileSystem.getPath(first, more);
+        }
+
+        @Override
+        public PathMatcher getPathMatcher(String syntaxAndPattern) {
+            return shared.fileSystem.getPathMatcher(syntaxAndPattern);
+        }
+
+        @Override
+        public UserPrincipalLookupService getUserPrincipalLookupService() {
+            return shared.fileSystem.getUserPrincipalLookupService();
+        }
+
+        @Override
+        public WatchService newWatchService() throws IOException {
+            return shared.fileSystem.newWatchService();
+        }
+    }
 }
@@ -38,6 +38,10 @@ public class SFTPInitialConfigService {
             sftpServerConfiguration.setMaxPoolSize(sftpServerProperties.getMaxPoolSize());
             sftpServerConfiguration.setKeepAliveTime(sftpServerProperties.getKeepAliveTime());
             sftpServerConfiguration.setQueueCapacity(sftpServerProperties.getQueueCapacity());
+            sftpServerConfiguration.setExecutorMode(sftpServerProperties.getExecutorMode());
+            sftpServerConfiguration.setMaxConcurrentSubsystems(sftpServerProperties.getMaxConcurrentSubsystems());
+            sftpServerConfiguration.setGlobalReadRateLimit(sftpServerProperties.getGlobalReadRateLimit());
+            sftpServerConfiguration.setGlobalWriteRateLimit(sftpServerProperties.getGlobalWriteRateLimit());
             sftpServerConfiguration.setTimeZone(sftpServerProperties.getTimeZone());
             sftpServerConfiguration.setMaxIdleTime(sftpServerProperties.getMaxIdleTime());
             sftpServerConfiguration.setCreatedAt(new Date());
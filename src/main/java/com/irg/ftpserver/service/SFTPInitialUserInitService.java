@@ -2,6 +2,7 @@ package com.irg.ftpserver.service;
 
 import com.irg.ftpserver.config.SFTPServerProperties;
 import com.irg.ftpserver.data.Role;
+import com.irg.ftpserver.events.SFTPUserChangedEvent;
 import com.irg.ftpserver.model.SFTPPublicKey;
 import com.irg.ftpserver.model.SFTPUser;
 import com.irg.ftpserver.model.User;
@@ -12,6 +13,7 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import java.util.ArrayList;
@@ -32,6 +34,8 @@ public class SFTPInitialUserInitService {
     private PasswordEncoder passwordEncoder;
     
     private SFTPServerProperties sftpServerProperties;
+
+    private ApplicationEventPublisher eventPublisher;
     
     @PostConstruct
     public void initializeDefaultUsers() {
@@ -47,11 +51,16 @@ public class SFTPInitialUserInitService {
                 String password = sftpUserConfig.getPassword();
                 user.setPassword(passwordEncoder.encode(password));
                 user.setDirectory(sftpUserConfig.getDirectory());
+                user.setStorageType(sftpUserConfig.getStorageType());
                 user.setCreatedDate(new Date());
                 user.setCompanyId(sftpUserConfig.getCompanyId());
                 user.setCompanyName(sftpUserConfig.getCompanyName());
                 user.setTicketUrl(sftpUserConfig.getTicketUrl());
                 user.setPasswordLoginEnabled(sftpUserConfig.isPasswordLoginEnabled());
+                user.setReadRateLimit(sftpUserConfig.getReadRateLimit());
+                user.setWriteRateLimit(sftpUserConfig.getWriteRateLimit());
+                user.setUploadMode(sftpUserConfig.getUploadMode());
+                user.setQuotaBytes(sftpUserConfig.getQuotaBytes());
                 user.setEnabled(true);
                 user.setModifiedDate(new Date());
 
@@ -68,6 +77,7 @@ public class SFTPInitialUserInitService {
                 }
                 user.setSFTPPublicKeys(SFTPPublicKeys);
                 sftpUserRepository.save(user);
+                eventPublisher.publishEvent(new SFTPUserChangedEvent(user.getUsername()));
                 logger.info("User {} created successfully consider loading and creating SFTP Users through the UI",
                         user.getUsername());
                 logger.info("Password match result: {}", passwordEncoder
@@ -86,12 +96,14 @@ public class SFTPInitialUserInitService {
                 admin.setPassword(passwordEncoder.encode(password));
                 admin.setCreatedDate(new Date());
                 admin.setRole(Role.Admin);
+                // The password comes from the configuration, so the account stays disabled until an operator has
+                // changed the password and enabled it
+                admin.setEnabled(false);
                 admin.setCompanyName(sftpServerProperties.getUsers().getFirst().getCompanyName());
                 admin.setModifiedDate(new Date());
                 userRepository.save(admin);
-                logger.info("User {} created successfully with password: {}", admin.getUsername(), password);
-                logger.info("Verifying passwords match for user: admin: {}",
-                        passwordEncoder.matches(password, admin.getPassword()) ? "Match" : "No Match");
+                logger.warn("User {} created disabled, change its password and enable it to use the admin API",
+                        admin.getUsername());
 
             } else {
                 logger.info("User Admin already exists, skipping creation.");
@@ -44,7 +44,7 @@ public class SFTPPasswordLoginService implements PasswordAuthenticator {
      * @param session  the server session
      * @return true if authentication succeeds, false otherwise
      * @throws PasswordChangeRequiredException if a password change is required
-     * @throws AsyncAuthException if an asynchronous authentication error occurs
+     * @throws AsyncAuthException the failed result, completed after the delay between login attempts
      */
     @Override
     public boolean authenticate(String username, String password, ServerSession session)
@@ -67,7 +67,7 @@ public class SFTPPasswordLoginService implements PasswordAuthenticator {
             logger.info("Thread ID: {}, Session ID: {}, User not found: {}", threadId, sessionId, username);
             blockedHostService.recordFailedUserAttempt(ipAddress, "User not found",
                     "SFTPPasswordLoginService", session);
-            return false;
+            throw blockedHostService.delayedRejection();
         }
 
         SFTPUser user = sftpUser.get();
@@ -78,7 +78,7 @@ public class SFTPPasswordLoginService implements PasswordAuthenticator {
                     sessionId, username, ipAddress);
             blockedHostService.recordFailedPasswordAttempt(ipAddress, "Incorrect password",
                     "SFTPPasswordLoginService", session);
-            return false;
+            throw blockedHostService.delayedRejection();
         } else {
             logger.info("Thread ID: {}, Session ID: {}, Authentication succeeded for user: {} From: {}", threadId,
                     sessionId, username, ipAddress);
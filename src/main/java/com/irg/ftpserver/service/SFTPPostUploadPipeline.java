@@ -0,0 +1,455 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.config.SFTPServerProperties;
+import com.irg.ftpserver.data.PostUploadTaskStatus;
+import com.irg.ftpserver.model.SFTPPostUploadTask;
+import com.irg.ftpserver.pipeline.PostUpload;
+import com.irg.ftpserver.pipeline.PostUploadStage;
+import com.irg.ftpserver.repository.SFTPPostUploadTaskRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs completed uploads through the ordered {@link PostUploadStage} beans.
+ * <p>
+ * Every upload is first stored in sftp_post_upload_tasks, which is the durable queue of the pipeline, and then
+ * handed to a bounded pool of pipeline workers, separate from the SFTP executor. Uploads are stored by an intake
+ * thread, so SFTP threads only wait for the database while more than {@code postUploadQueueCapacity} uploads are
+ * waiting to be stored. When the pool is saturated the upload just stays pending in the table until the poller
+ * dispatches it, so SFTP threads never wait for the stages.
+ * Progress is saved after every stage, uploads left running by a shutdown are resumed at their stage on startup.
+ * <p>
+ * A stage is interrupted after {@code postUploadStageTimeout} ms, or its entry in {@code postUploadStageTimeouts}.
+ * A failed stage is retried with exponential backoff from {@code postUploadRetryBackoff} ms, up to
+ * {@code postUploadMaxAttempts} attempts, after which the upload is marked FAILED.
+ * <p>
+ * Stages work on files of the local disk, uploads of users stored on S3 or compressed homes are not submitted.
+ * Stages that are not read-only get a private copy of uploads shared by {@link SFTPDeduplicationService} first.
+ */
+@Service
+public class SFTPPostUploadPipeline implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(SFTPPostUploadPipeline.class);
+
+    private static final int MAX_ERROR_LENGTH = 1024;
+
+    private final SFTPPostUploadTaskRepository sftpPostUploadTaskRepository;
+
+    private final SFTPDeduplicationService sftpDeduplicationService;
+
+    private final List<PostUploadStage> stages;
+
+    private final boolean enabled;
+
+    private final int queueCapacity;
+
+    private final int maxAttempts;
+
+    private final long retryBackoff;
+
+    private final long stageTimeout;
+
+    private final Map<String, Long> stageTimeouts;
+
+    private final ThreadPoolExecutor intake;
+
+    private final ThreadPoolExecutor executor;
+
+    private final ScheduledExecutorService watchdog;
+
+    // Uploads handed to the workers, so the poller does not dispatch them twice
+    private final Set<UUID> inFlight = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder completed = new LongAdder();
+
+    private final LongAdder retried = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private final LongAdder timedOut = new LongAdder();
+
+    private final LongAdder deferred = new LongAdder();
+
+    private final LongAdder skipped = new LongAdder();
+
+    public SFTPPostUploadPipeline(SFTPPostUploadTaskRepository sftpPostUploadTaskRepository,
+                                  SFTPDeduplicationService sftpDeduplicationService,
+                                  List<PostUploadStage> stages, SFTPServerProperties sftpServerProperties) {
+        this.sftpPostUploadTaskRepository = sftpPostUploadTaskRepository;
+        this.sftpDeduplicationService = sftpDeduplicationService;
+        this.stages = List.copyOf(stages);
+        this.enabled = sftpServerProperties.isPostUploadEnabled() && !stages.isEmpty();
+        this.queueCapacity = sftpServerProperties.getPostUploadQueueCapacity();
+        this.maxAttempts = Math.max(1, sftpServerProperties.getPostUploadMaxAttempts());
+        this.retryBackoff = sftpServerProperties.getPostUploadRetryBackoff();
+        this.stageTimeout = sftpServerProperties.getPostUploadStageTimeout();
+        this.stageTimeouts = Map.copyOf(sftpServerProperties.getPostUploadStageTimeouts());
+        int threads = Math.max(1, sftpServerProperties.getPostUploadThreads());
+        // Runs on the submitting thread once full, which slows uploads down rather than losing them
+        this.intake = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "SFTP-Post-Upload-Intake-Thread");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "SFTP-Post-Upload-Thread-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SFTP-Post-Upload-Watchdog-Thread");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            logger.info("Post-upload pipeline is disabled or has no stages");
+            return;
+        }
+        try {
+            int resumed = sftpPostUploadTaskRepository.updateStatus(PostUploadTaskStatus.RUNNING,
+                    PostUploadTaskStatus.PENDING);
+            if (resumed > 0) {
+                logger.info("Resuming {} uploads interrupted by the last shutdown", resumed);
+            }
+        } catch (RuntimeException e) {
+            logger.error("Failed to resume interrupted uploads, they stay running until the next restart", e);
+        }
+        logger.info("Initialized post-upload pipeline with stages: {}, workers: {}, queue capacity: {}",
+                stages.stream().map(PostUploadStage::getName).toList(), executor.getCorePoolSize(), queueCapacity);
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        // Uploads already submitted are stored before the workers stop, the poller picks them up after a restart
+        intake.shutdown();
+        if (!intake.awaitTermination(10, TimeUnit.SECONDS)) {
+            logger.warn("Dropping {} uploads not yet stored for the post-upload pipeline", intake.getQueue().size());
+            intake.shutdownNow();
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            // Interrupted stages are resumed on the next startup
+            logger.warn("Interrupting post-upload stages still running at shutdown");
+            executor.shutdownNow();
+        }
+        watchdog.shutdownNow();
+    }
+
+    /**
+     * Queues a completed upload for the pipeline. Returns without waiting for the upload to be stored or for any
+     * stage.
+     *
+     * @param username the user
+     * @param path     the uploaded file
+     * @param size     the size of the file
+     */
+    public void submit(String username, Path path, long size) {
+        if (!enabled) {
+            return;
+        }
+        // The stored local path is resolved on the default file system, an S3 or compressed path would name the wrong file
+        Path localPath = SFTPFileSystemService.toLocalPath(path);
+        if (localPath.getFileSystem() != FileSystems.getDefault()) {
+            skipped.increment();
+            logger.debug("Skipping post-upload pipeline for upload: {} of user: {}, not on the local disk", path, username);
+            return;
+        }
+        Date now = new Date();
+        SFTPPostUploadTask task = new SFTPPostUploadTask();
+        task.setUsername(username);
+        task.setPath(path.toString());
+        task.setLocalPath(localPath.toString());
+        task.setSize(size);
+        task.setStage(stages.get(0).getName());
+        task.setStatus(PostUploadTaskStatus.PENDING);
+        task.setCreatedAt(now);
+        task.setNextAttemptAt(now);
+        try {
+            intake.execute(() -> store(task));
+        } catch (RejectedExecutionException e) {
+            failed.increment();
+            logger.error("Post-upload pipeline is shut down, dropping upload: {} of user: {}", path, username);
+        }
+    }
+
+    /**
+     * Dispatches pending uploads that are due, as far as the workers have room for them.
+     */
+    @Scheduled(initialDelayString = "${sftp.server.postUploadPollInterval:5000}",
+            fixedDelayString = "${sftp.server.postUploadPollInterval:5000}")
+    public void pollPending() {
+        if (!enabled) {
+            return;
+        }
+        int room = queueCapacity - executor.getQueue().size();
+        if (room <= 0) {
+            return;
+        }
+        try {
+            List<SFTPPostUploadTask> due = sftpPostUploadTaskRepository
+                    .findByStatusAndNextAttemptAtLessThanEqualOrderByNextAttemptAt(PostUploadTaskStatus.PENDING,
+                            new Date(), PageRequest.of(0, room));
+            for (SFTPPostUploadTask task : due) {
+                dispatch(task.getId());
+            }
+        } catch (RuntimeException e) {
+            logger.error("Failed to poll pending uploads of the post-upload pipeline", e);
+        }
+    }
+
+    @Override
+    public void bindTo(@NotNull MeterRegistry registry) {
+        Gauge.builder("sftp.pipeline.intake.queued", intake, pool -> pool.getQueue().size())
+                .description("Uploads waiting to be stored for the post-upload pipeline")
+                .register(registry);
+        Gauge.builder("sftp.pipeline.in.flight", inFlight, Set::size)
+                .description("Uploads queued for or running on the post-upload workers")
+                .register(registry);
+        FunctionCounter.builder("sftp.pipeline.completed", completed, LongAdder::sum)
+                .description("Uploads that went through every post-upload stage")
+                .register(registry);
+        FunctionCounter.builder("sftp.pipeline.retried", retried, LongAdder::sum)
+                .description("Post-upload stages scheduled for another attempt")
+                .register(registry);
+        FunctionCounter.builder("sftp.pipeline.failed", failed, LongAdder::sum)
+                .description("Uploads that ran out of attempts or could not be queued")
+                .register(registry);
+        FunctionCounter.builder("sftp.pipeline.timed.out", timedOut, LongAdder::sum)
+                .description("Post-upload stages interrupted after their timeout")
+                .register(registry);
+        FunctionCounter.builder("sftp.pipeline.deferred", deferred, LongAdder::sum)
+                .description("Uploads left pending because the post-upload workers were saturated")
+                .register(registry);
+        FunctionCounter.builder("sftp.pipeline.skipped", skipped, LongAdder::sum)
+                .description("Uploads not submitted because they are not stored on the local disk")
+                .register(registry);
+    }
+
+    private void store(SFTPPostUploadTask task) {
+        SFTPPostUploadTask stored;
+        try {
+            stored = sftpPostUploadTaskRepository.save(task);
+        } catch (RuntimeException e) {
+            failed.increment();
+            logger.error("Failed to queue upload: {} of user: {} for the post-upload pipeline", task.getPath(),
+                    task.getUsername(), e);
+            return;
+        }
+        dispatch(stored.getId());
+    }
+
+    private void dispatch(UUID id) {
+        if (!inFlight.add(id)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    process(id);
+                } finally {
+                    inFlight.remove(id);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(id);
+            deferred.increment();
+            logger.debug("Post-upload workers are saturated, upload: {} stays pending", id);
+        }
+    }
+
+    private void process(UUID id) {
+        SFTPPostUploadTask task;
+        try {
+            // Reloaded, the poller may have seen the upload before it was completed or marked for retry
+            Optional<SFTPPostUploadTask> found = sftpPostUploadTaskRepository.findById(id);
+            if (found.isEmpty() || found.get().getStatus() != PostUploadTaskStatus.PENDING) {
+                return;
+            }
+            task = found.get();
+            task.setStatus(PostUploadTaskStatus.RUNNING);
+            task = sftpPostUploadTaskRepository.save(task);
+        } catch (RuntimeException e) {
+            logger.error("Failed to start post-upload processing of: {}", id, e);
+            return;
+        }
+
+        try {
+            for (int index = stageIndex(task.getStage()); index < stages.size(); index++) {
+                PostUploadStage stage = stages.get(index);
+                task.setStage(stage.getName());
+                try {
+                    runStage(stage, task);
+                } catch (Exception e) {
+                    retryOrFail(task, stage, e);
+                    return;
+                }
+                if (index + 1 < stages.size()) {
+                    task.setStage(stages.get(index + 1).getName());
+                    task.setAttempts(0);
+                    task.setLastError(null);
+                    task = sftpPostUploadTaskRepository.save(task);
+                }
+            }
+            sftpPostUploadTaskRepository.delete(task);
+            completed.increment();
+            logger.debug("Upload: {} of user: {} went through the post-upload pipeline", task.getPath(),
+                    task.getUsername());
+        } catch (RuntimeException e) {
+            // The upload stays running and is resumed at its last saved stage on the next startup
+            logger.error("Failed to save post-upload progress of: {}", task.getPath(), e);
+        }
+    }
+
+    private void runStage(PostUploadStage stage, SFTPPostUploadTask task) throws Exception {
+        PostUpload upload = new PostUpload(task.getId(), task.getUsername(), task.getPath(),
+                Paths.get(task.getLocalPath()), task.getSize(), task.getAttempts() + 1);
+        // The stage may write to the upload in place, which must not change the content of other references
+        boolean writing = !stage.isReadOnly() && sftpDeduplicationService.isEnabled();
+        if (writing) {
+            sftpDeduplicationService.openingForWrite(upload.getUsername(), upload.getLocalPath(), false);
+        }
+        try {
+            runStage(stage, upload);
+        } finally {
+            if (writing) {
+                sftpDeduplicationService.closedForWrite(upload.getLocalPath());
+            }
+        }
+    }
+
+    private void runStage(PostUploadStage stage, PostUpload upload) throws Exception {
+        long timeout = stageTimeouts.getOrDefault(stage.getName(), stageTimeout);
+        if (timeout <= 0) {
+            stage.process(upload);
+            return;
+        }
+        StageDeadline deadline = new StageDeadline(Thread.currentThread());
+        ScheduledFuture<?> interrupter = watchdog.schedule(deadline, timeout, TimeUnit.MILLISECONDS);
+        Exception failure = null;
+        try {
+            stage.process(upload);
+        } catch (Exception e) {
+            failure = e;
+        }
+        interrupter.cancel(false);
+        boolean expired = deadline.finish();
+        if (expired) {
+            // Clear the interrupt, so it does not hit the next stage
+            Thread.interrupted();
+        }
+        if (failure == null) {
+            return;
+        }
+        if (expired) {
+            timedOut.increment();
+            TimeoutException timeoutException = new TimeoutException("Stage " + stage.getName() + " timed out after "
+                    + timeout + " ms");
+            timeoutException.initCause(failure);
+            throw timeoutException;
+        }
+        throw failure;
+    }
+
+    private void retryOrFail(SFTPPostUploadTask task, PostUploadStage stage, Exception e) {
+        int attempts = task.getAttempts() + 1;
+        task.setAttempts(attempts);
+        task.setLastError(truncate(e.toString()));
+        if (attempts >= maxAttempts) {
+            task.setStatus(PostUploadTaskStatus.FAILED);
+            failed.increment();
+            logger.error("Post-upload stage: {} failed {} times for upload: {} of user: {}, giving up",
+                    stage.getName(), attempts, task.getPath(), task.getUsername(), e);
+        } else {
+            long backoff = retryBackoff << Math.min(attempts - 1, 20);
+            task.setStatus(PostUploadTaskStatus.PENDING);
+            task.setNextAttemptAt(new Date(System.currentTimeMillis() + backoff));
+            retried.increment();
+            logger.warn("Post-upload stage: {} failed for upload: {} of user: {}, retrying in {} ms: {}",
+                    stage.getName(), task.getPath(), task.getUsername(), backoff, e.toString());
+        }
+        sftpPostUploadTaskRepository.save(task);
+    }
+
+    private int stageIndex(String name) {
+        for (int i = 0; i < stages.size(); i++) {
+            if (stages.get(i).getName().equals(name)) {
+                return i;
+            }
+        }
+        logger.warn("Unknown post-upload stage: {}, starting over with the first stage", name);
+        return 0;
+    }
+
+    private static String truncate(String text) {
+        return text.length() <= MAX_ERROR_LENGTH ? text : text.substring(0, MAX_ERROR_LENGTH);
+    }
+
+    /**
+     * Interrupts a worker whose stage is still running when the deadline passes.
+     */
+    private static final class StageDeadline implements Runnable {
+        private final Thread worker;
+        private boolean finished;
+        private boolean expired;
+
+        StageDeadline(Thread worker) {
+            this.worker = worker;
+        }
+
+        @Override
+        public synchronized void run() {
+            if (!finished) {
+                expired = true;
+                worker.interrupt();
+            }
+        }
+
+        /**
+         * Ends the deadline, no interrupt is sent afterwards.
+         *
+         * @return whether the worker was interrupted
+         */
+        synchronized boolean finish() {
+            finished = true;
+            return expired;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.events.SFTPUserChangedEvent;
+import com.irg.ftpserver.model.SFTPPublicKey;
+import com.irg.ftpserver.model.SFTPUser;
+import com.irg.ftpserver.repository.SFTPUserRepository;
+import jakarta.annotation.PostConstruct;
+import org.apache.sshd.common.config.keys.AuthorizedKeyEntry;
+import org.apache.sshd.common.config.keys.KeyUtils;
+import org.apache.sshd.common.config.keys.PublicKeyEntryResolver;
+import org.apache.sshd.common.digest.BuiltinDigests;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the enabled SFTP user public keys, keyed by SHA-256 fingerprint.
+ * Keys are decoded once, when they are loaded at startup or when their user changes, so that authentication only
+ * has to fingerprint the offered key and do a single lookup. Any key type supported by SSHD is accepted
+ * (ssh-rsa, ecdsa-sha2-nistp*, ssh-ed25519).
+ * <p>
+ * Logins are answered from the index alone. It is kept up to date by {@link SFTPUserChangedEvent}, published when a
+ * user or key is saved and by the periodic {@link SFTPUserService#refreshUsers()} for changes made in the database,
+ * so a key revoked in the database stops authenticating within {@code userRefreshInterval} ms.
+ */
+@Service
+@DependsOn({"SFTPInitialConfigService", "SFTPInitialUserInitService"})
+public class SFTPPublicKeyIndexService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SFTPPublicKeyIndexService.class);
+
+    private final SFTPUserRepository sftpUserRepository;
+
+    // Fingerprint -> username -> decoded key. The same key may be registered for several users.
+    private final Map<String, Map<String, PublicKey>> keysByFingerprint = new ConcurrentHashMap<>();
+
+    // Username -> fingerprints currently indexed for that user, used to drop stale keys on reindex
+    private final Map<String, Set<String>> fingerprintsByUser = new ConcurrentHashMap<>();
+
+    public SFTPPublicKeyIndexService(SFTPUserRepository sftpUserRepository) {
+        this.sftpUserRepository = sftpUserRepository;
+    }
+
+    @PostConstruct
+    public void loadKeys() {
+        sftpUserRepository.findAll().forEach(this::indexUser);
+        logger.info("Indexed {} public keys for {} users", keysByFingerprint.size(), fingerprintsByUser.size());
+    }
+
+    /**
+     * Checks whether the key is an enabled public key of the user.
+     *
+     * @param username the username of the user
+     * @param key      the public key offered by the client
+     * @return true if the key is registered and enabled for the user
+     */
+    public boolean matches(String username, PublicKey key) {
+        return isIndexed(username, key);
+    }
+
+    /**
+     * Reindexes the keys of a user after it, or one of its keys, changed.
+     *
+     * @param event the change event
+     */
+    @EventListener
+    public void handleSFTPUserChangedEvent(SFTPUserChangedEvent event) {
+        String username = event.getUsername();
+        sftpUserRepository.findByUsername(username)
+                .ifPresentOrElse(this::indexUser, () -> removeUser(username));
+    }
+
+    /**
+     * Replaces the indexed keys of a user with its current enabled keys.
+     *
+     * @param sftpUser the user
+     */
+    public synchronized void indexUser(SFTPUser sftpUser) {
+        String username = sftpUser.getUsername();
+        Set<String> fingerprints = ConcurrentHashMap.newKeySet();
+
+        for (SFTPPublicKey sftpPublicKey : sftpUser.getSFTPPublicKeys()) {
+            if (!sftpPublicKey.isEnabled()) {
+                continue;
+            }
+            try {
+                PublicKey publicKey = decode(sftpPublicKey.getPublicKey());
+                String fingerprint = fingerprint(publicKey);
+                keysByFingerprint.computeIfAbsent(fingerprint, k -> new ConcurrentHashMap<>())
+                        .put(username, publicKey);
+                fingerprints.add(fingerprint);
+            } catch (IOException | GeneralSecurityException | IllegalArgumentException e) {
+                logger.error("Skipping invalid public key: {} for user: {}: {}", sftpPublicKey.getId(), username,
+                        e.getMessage());
+            }
+        }
+
+        Set<String> previous = fingerprintsByUser.put(username, fingerprints);
+        if (previous != null) {
+            previous.stream()
+                    .filter(fingerprint -> !fingerprints.contains(fingerprint))
+                    .forEach(fingerprint -> unindex(fingerprint, username));
+        }
+        logger.debug("Indexed {} public keys for user: {}", fingerprints.size(), username);
+    }
+
+    /**
+     * Removes every indexed key of a user.
+     *
+     * @param username the username of the user
+     */
+    public synchronized void removeUser(String username) {
+        Set<String> previous = fingerprintsByUser.remove(username);
+        if (previous != null) {
+            previous.forEach(fingerprint -> unindex(fingerprint, username));
+            logger.debug("Removed public keys of user: {} from the index", username);
+        }
+    }
+
+    private boolean isIndexed(String username, PublicKey key) {
+        Map<String, PublicKey> owners = keysByFingerprint.get(fingerprint(key));
+        if (owners == null) {
+            return false;
+        }
+        PublicKey indexedKey = owners.get(username);
+        return indexedKey != null && KeyUtils.compareKeys(indexedKey, key);
+    }
+
+    private void unindex(String fingerprint, String username) {
+        keysByFingerprint.computeIfPresent(fingerprint, (k, owners) -> {
+            owners.remove(username);
+            return owners.isEmpty() ? null : owners;
+        });
+    }
+
+    /**
+     * Decodes a public key in authorized_keys format, e.g. {@code ssh-ed25519 AAAA... comment}.
+     *
+     * @param publicKeyString the public key string
+     * @return the decoded public key
+     */
+    private PublicKey decode(String publicKeyString) throws IOException, GeneralSecurityException {
+        AuthorizedKeyEntry entry = AuthorizedKeyEntry.parseAuthorizedKeyEntry(publicKeyString);
+        if (entry == null) {
+            throw new IllegalArgumentException("Invalid public key format");
+        }
+        return entry.resolvePublicKey(null, PublicKeyEntryResolver.FAILING);
+    }
+
+    private String fingerprint(PublicKey publicKey) {
+        return KeyUtils.getFingerPrint(BuiltinDigests.sha256, publicKey);
+    }
+}
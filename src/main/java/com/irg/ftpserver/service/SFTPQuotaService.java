@@ -0,0 +1,254 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.config.SFTPServerProperties;
+import com.irg.ftpserver.events.SFTPUserChangedEvent;
+import com.irg.ftpserver.model.SFTPUser;
+import com.irg.ftpserver.repository.SFTPUserRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps a ledger of the disk usage of every user in memory and enforces the user's quota on uploads.
+ * <p>
+ * The usage of a user with a quota is computed from the user's storage when the user is first loaded, the usage of
+ * other users starts from the {@code used_bytes} stored by the last reconciliation. Both are kept up to date
+ * from SFTP events: uploads add what they grow files by, removals and renames over existing files subtract what
+ * they free. Growing a file is checked against the quota with a compare-and-set on the user's counter, so the check
+ * costs the same however many files a user has. Every {@code quotaReconcileInterval} ms the usage of each user in
+ * the ledger is recomputed from the user's storage, correcting what the events missed, e.g. changes made outside of
+ * SFTP, and stored. The quota is read from the user's row again at the same time, in case a change event was missed.
+ */
+@Service
+public class SFTPQuotaService implements MeterBinder {
+    private static final Logger logger = LoggerFactory.getLogger(SFTPQuotaService.class);
+
+    private final SFTPUserService sftpUserService;
+
+    private final SFTPUserRepository sftpUserRepository;
+
+    private final SFTPFileSystemService sftpFileSystemService;
+
+    private final Map<String, Usage> ledger = new ConcurrentHashMap<>();
+
+    private final LongAdder rejectedWrites = new LongAdder();
+
+    private final LongAdder reconciliations = new LongAdder();
+
+    public SFTPQuotaService(SFTPUserService sftpUserService, SFTPUserRepository sftpUserRepository,
+                            SFTPFileSystemService sftpFileSystemService) {
+        this.sftpUserService = sftpUserService;
+        this.sftpUserRepository = sftpUserRepository;
+        this.sftpFileSystemService = sftpFileSystemService;
+    }
+
+    /**
+     * @return the usage of a user, to be kept for the duration of a transfer
+     */
+    public Usage getUsage(String username) {
+        Usage usage = ledger.get(username);
+        if (usage == null) {
+            // Loaded outside of the map, computing the usage visits the user's storage
+            Usage loaded = load(username);
+            usage = ledger.putIfAbsent(username, loaded);
+            if (usage == null) {
+                usage = loaded;
+            }
+        }
+        return usage;
+    }
+
+    /**
+     * Loads the usage of a user. For a user with a quota it is computed from the user's storage, as the stored
+     * {@code used_bytes} may be from long ago or never reconciled at all, and enforcing the quota from it would let
+     * the user exceed it until the next reconciliation.
+     */
+    private Usage load(String username) {
+        Optional<SFTPUser> sftpUser = sftpUserService.getUserByUserName(username);
+        long quota = sftpUser.map(SFTPUser::getQuotaBytes).orElse(0L);
+        long used = sftpUser.map(SFTPUser::getUsedBytes).orElse(0L);
+        if (quota > 0) {
+            try {
+                used = sftpFileSystemService.computeUsage(username);
+                reconciliations.increment();
+            } catch (IOException | RuntimeException e) {
+                logger.error("Failed to compute the disk usage of user: {}, starting from the stored: {} bytes",
+                        username, used, e);
+            }
+        }
+        return new Usage(quota, used);
+    }
+
+    /**
+     * Applies the new quota of a changed user, and drops the usage of a removed one.
+     */
+    @EventListener
+    public void handleSFTPUserChangedEvent(SFTPUserChangedEvent event) {
+        Usage usage = ledger.get(event.getUsername());
+        if (usage == null) {
+            return;
+        }
+        Optional<SFTPUser> sftpUser = sftpUserService.getUserByUserName(event.getUsername());
+        if (sftpUser.isEmpty()) {
+            ledger.remove(event.getUsername(), usage);
+            return;
+        }
+        usage.quota = sftpUser.get().getQuotaBytes();
+        logger.debug("Updated quota of user: {} to: {} bytes", event.getUsername(), usage.quota);
+    }
+
+    /**
+     * Recomputes the usage of the users in the ledger from their storage and stores it.
+     */
+    @Scheduled(initialDelayString = "${sftp.server.quotaReconcileInterval:3600000}",
+            fixedDelayString = "${sftp.server.quotaReconcileInterval:3600000}")
+    public void reconcile() {
+        ledger.forEach(this::reconcile);
+    }
+
+    /**
+     * Reloads the quota of a user and recomputes the usage from its storage. Changes counted while the storage is
+     * visited are kept on top of what was found, as the visit may or may not have seen them.
+     */
+    public void reconcile(String username, Usage usage) {
+        try {
+            Optional<SFTPUser> sftpUser = sftpUserRepository.findByUsername(username);
+            if (sftpUser.isEmpty()) {
+                ledger.remove(username, usage);
+                return;
+            }
+            if (usage.quota != sftpUser.get().getQuotaBytes()) {
+                usage.quota = sftpUser.get().getQuotaBytes();
+                logger.info("Reloaded quota of user: {} as: {} bytes", username, usage.quota);
+            }
+        } catch (RuntimeException e) {
+            logger.error("Failed to reload the quota of user: {}, keeping: {} bytes", username, usage.quota, e);
+        }
+        long since = usage.startReconcile();
+        long used;
+        try {
+            used = sftpFileSystemService.computeUsage(username);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to compute the disk usage of user: {}", username, e);
+            return;
+        }
+        long previous = usage.finishReconcile(since, used);
+        reconciliations.increment();
+        if (previous != usage.get()) {
+            logger.info("Reconciled disk usage of user: {} from: {} to: {} bytes", username, previous, usage.get());
+        }
+        try {
+            sftpUserRepository.updateUsedBytes(username, usage.get());
+        } catch (RuntimeException e) {
+            logger.error("Failed to store the disk usage of user: {}", username, e);
+        }
+    }
+
+    /**
+     * Counts a write rejected because it would have exceeded the quota.
+     */
+    public void recordRejectedWrite() {
+        rejectedWrites.increment();
+    }
+
+    @Override
+    public void bindTo(@NotNull MeterRegistry registry) {
+        Gauge.builder("sftp.quota.users", ledger, Map::size)
+                .description("Users whose disk usage is tracked")
+                .register(registry);
+        Gauge.builder("sftp.quota.used", ledger,
+                        users -> users.values().stream().mapToLong(Usage::get).sum())
+                .description("Bytes stored by the users whose disk usage is tracked")
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("sftp.quota.rejected.writes", rejectedWrites, LongAdder::sum)
+                .description("Writes rejected because they would have exceeded the user's quota")
+                .register(registry);
+        FunctionCounter.builder("sftp.quota.reconciliations", reconciliations, LongAdder::sum)
+                .description("Disk usages recomputed from storage")
+                .register(registry);
+    }
+
+    /**
+     * The disk usage and quota of one user.
+     */
+    public static final class Usage {
+        private final AtomicLong used;
+
+        // Changes counted since the last reconciliation started
+        private final AtomicLong changes = new AtomicLong();
+
+        private volatile long quota;
+
+        public Usage(long quota, long used) {
+            this.quota = quota;
+            this.used = new AtomicLong(used);
+        }
+
+        /**
+         * Adds bytes to the usage unless that exceeds the quota.
+         *
+         * @return false if the bytes would exceed the quota, nothing is added then
+         */
+        public boolean tryGrow(long bytes) {
+            long limit = quota;
+            while (true) {
+                long current = used.get();
+                if (limit > 0 && current + bytes > limit) {
+                    return false;
+                }
+                if (used.compareAndSet(current, current + bytes)) {
+                    changes.addAndGet(bytes);
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Adds bytes to or, when negative, removes bytes from the usage regardless of the quota.
+         */
+        public void adjust(long bytes) {
+            used.addAndGet(bytes);
+            changes.addAndGet(bytes);
+        }
+
+        public long get() {
+            return used.get();
+        }
+
+        public long getQuota() {
+            return quota;
+        }
+
+        private long startReconcile() {
+            return changes.get();
+        }
+
+        /**
+         * @return the usage before the reconciliation
+         */
+        private long finishReconcile(long since, long found) {
+            while (true) {
+                long current = used.get();
+                long changed = changes.get() - since;
+                if (used.compareAndSet(current, Math.max(0, found + changed))) {
+                    return current;
+                }
+            }
+        }
+    }
+}
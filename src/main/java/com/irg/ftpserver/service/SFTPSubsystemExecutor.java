@@ -0,0 +1,47 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.data.ExecutorMode;
+import com.irg.ftpserver.data.ExecutorStatistics;
+import com.irg.ftpserver.data.SFTPServerConfigurationSnapshot;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Executor the SFTP subsystems run on. Each subsystem occupies one task for the whole life of its channel.
+ */
+public interface SFTPSubsystemExecutor {
+
+    /**
+     * @return the executor the subsystems are submitted to
+     */
+    ExecutorService getExecutorService();
+
+    /**
+     * @return the mode this executor runs subsystems in
+     */
+    ExecutorMode getExecutorMode();
+
+    /**
+     * @return the number of subsystems that start running as soon as they are submitted, without waiting in a queue
+     * of the executor
+     */
+    int getMaxConcurrency();
+
+    /**
+     * Applies the sizes of a configuration to the running executor. Running subsystems are not interrupted.
+     * The executor mode itself cannot be changed at runtime.
+     *
+     * @param configuration the configuration to apply
+     */
+    void resize(SFTPServerConfigurationSnapshot configuration);
+
+    /**
+     * @return the current counters of the executor
+     */
+    ExecutorStatistics getStatistics();
+
+    /**
+     * Shuts the executor down, waiting for running subsystems before forcing termination.
+     */
+    void shutdown();
+}
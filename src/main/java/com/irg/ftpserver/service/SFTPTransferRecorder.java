@@ -0,0 +1,413 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.config.SFTPServerProperties;
+import com.irg.ftpserver.data.SFTPTransferRecord;
+import com.irg.ftpserver.data.TransferDirection;
+import com.irg.ftpserver.data.TransferOutcome;
+import com.irg.ftpserver.data.TransferOverflowPolicy;
+import com.irg.ftpserver.model.SFTPUser;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Persists completed SFTP transfers to sftp_transfers without blocking SFTP threads on the database.
+ * <p>
+ * Records are put on a bounded queue and written by a single writer thread with JDBC batch inserts, as soon as
+ * {@code transferBatchSize} records are waiting or {@code transferFlushInterval} ms after the first one arrived.
+ * Records that do not fit in the queue, or whose batch fails to insert, are handled by the
+ * {@link TransferOverflowPolicy}: dropped, or spilled to a file that is inserted once the database is back. Spilled
+ * records are replayed after every successful insert, and every {@code transferReplayInterval} ms while the writer is
+ * idle, so they are not left behind when no new transfers arrive.
+ * <p>
+ * Every record carries a random id, inserted with {@code ON CONFLICT DO NOTHING}, so records whose batch was partly
+ * inserted before it failed, or whose replay was interrupted, are not inserted twice.
+ */
+@Service
+@DependsOn({"SFTPInitialConfigService", "SFTPInitialUserInitService"})
+public class SFTPTransferRecorder implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(SFTPTransferRecorder.class);
+
+    private static final String INSERT_SQL = "INSERT INTO ftpserver.sftp_transfers (record_id, username, company_id, "
+            + "path, direction, bytes, duration_ms, outcome, error, started_at, completed_at) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT (record_id) DO NOTHING";
+
+    private static final int MAX_ERROR_LENGTH = 1024;
+
+    private static final int SPILLED_FIELDS = 11;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final SFTPUserService sftpUserService;
+
+    private final BlockingQueue<SFTPTransferRecord> queue;
+
+    private final int batchSize;
+
+    private final long flushIntervalNanos;
+
+    private final long replayIntervalNanos;
+
+    private final TransferOverflowPolicy overflowPolicy;
+
+    private final Path spillFile;
+
+    private final Path replayFile;
+
+    // Guards the spill file, appended to by SFTP threads and the writer thread
+    private final Object spillLock = new Object();
+
+    private final Thread writerThread;
+
+    private volatile boolean running = true;
+
+    // Whether the last insert succeeded, spilled records are replayed on every idle poll while it does
+    private volatile boolean databaseAvailable = true;
+
+    // When spilled records were last replayed, only used by the writer thread
+    private long lastReplayNanos = System.nanoTime();
+
+    private final LongAdder recorded = new LongAdder();
+
+    private final LongAdder spilled = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    public SFTPTransferRecorder(JdbcTemplate jdbcTemplate,
+                                SFTPUserService sftpUserService,
+                                SFTPServerProperties sftpServerProperties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.sftpUserService = sftpUserService;
+        this.queue = new ArrayBlockingQueue<>(sftpServerProperties.getTransferQueueCapacity());
+        this.batchSize = sftpServerProperties.getTransferBatchSize();
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(sftpServerProperties.getTransferFlushInterval());
+        this.replayIntervalNanos = TimeUnit.MILLISECONDS.toNanos(sftpServerProperties.getTransferReplayInterval());
+        this.overflowPolicy = sftpServerProperties.getTransferOverflowPolicy();
+        Path spillDirectory = Paths.get(sftpServerProperties.getTransferSpillDirectory());
+        this.spillFile = spillDirectory.resolve("sftp-transfers.spill");
+        this.replayFile = spillDirectory.resolve("sftp-transfers.replay");
+        this.writerThread = new Thread(this::writeLoop, "SFTP-Transfer-Writer-Thread");
+        this.writerThread.setDaemon(true);
+    }
+
+    @PostConstruct
+    public void init() {
+        writerThread.start();
+        logger.info("Initialized transfer recorder with queue capacity: {}, batch size: {}, flush interval: {} ms, "
+                        + "overflow policy: {}", queue.remainingCapacity(), batchSize,
+                TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos), overflowPolicy);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        running = false;
+        writerThread.interrupt();
+        try {
+            writerThread.join(TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos) + 5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Whatever the writer thread did not get to
+        List<SFTPTransferRecord> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            write(remaining);
+        }
+        logger.info("Stopped transfer recorder, recorded: {}, spilled: {}, dropped: {}", recorded.sum(),
+                spilled.sum(), dropped.sum());
+    }
+
+    /**
+     * Queues a transfer to be persisted. Never blocks on the database.
+     *
+     * @param username    the user
+     * @param path        the transferred file
+     * @param direction   upload or download
+     * @param bytes       the number of bytes transferred
+     * @param startedAt   when the file handle was opened
+     * @param duration    how long the file handle was open
+     * @param thrown      the failure of the transfer, null if it completed
+     */
+    public void record(String username, String path, TransferDirection direction, long bytes, Instant startedAt,
+                       Duration duration, Throwable thrown) {
+        int companyId = sftpUserService.getUserByUserName(username).map(SFTPUser::getCompanyId).orElse(0);
+        String error = thrown == null ? null : truncate(String.valueOf(thrown.getMessage()));
+        SFTPTransferRecord record = new SFTPTransferRecord(UUID.randomUUID(), username, companyId, path, direction,
+                bytes, duration.toMillis(), thrown == null ? TransferOutcome.COMPLETED : TransferOutcome.FAILED, error,
+                startedAt, startedAt.plus(duration));
+        if (!queue.offer(record)) {
+            overflow(List.of(record));
+        }
+    }
+
+    /**
+     * @return the number of records waiting to be written
+     */
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    @Override
+    public void bindTo(@NotNull MeterRegistry registry) {
+        Gauge.builder("sftp.transfers.queued", this, SFTPTransferRecorder::getQueuedCount)
+                .description("Transfer records waiting to be written to the database")
+                .register(registry);
+        FunctionCounter.builder("sftp.transfers.recorded", recorded, LongAdder::sum)
+                .description("Transfer records written to the database")
+                .register(registry);
+        FunctionCounter.builder("sftp.transfers.spilled", spilled, LongAdder::sum)
+                .description("Transfer records spilled to disk because the database did not keep up")
+                .register(registry);
+        FunctionCounter.builder("sftp.transfers.dropped", dropped, LongAdder::sum)
+                .description("Transfer records lost because the database did not keep up")
+                .register(registry);
+    }
+
+    private void writeLoop() {
+        List<SFTPTransferRecord> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                SFTPTransferRecord first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    // Retries a database that failed every replay interval, as no new insert tells it is back
+                    if (databaseAvailable || System.nanoTime() - lastReplayNanos >= replayIntervalNanos) {
+                        replaySpilled();
+                    }
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    SFTPTransferRecord next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                write(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                // Shutting down, destroy() writes what is still queued
+                if (!batch.isEmpty()) {
+                    write(batch);
+                }
+                return;
+            } catch (RuntimeException e) {
+                logger.error("Unexpected error writing transfer records", e);
+                overflow(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<SFTPTransferRecord> batch) {
+        if (insert(batch)) {
+            replaySpilled();
+        } else {
+            overflow(batch);
+        }
+    }
+
+    private boolean insert(List<SFTPTransferRecord> batch) {
+        try {
+            jdbcTemplate.batchUpdate(INSERT_SQL, batch, batch.size(), (ps, record) -> {
+                ps.setObject(1, record.getId());
+                ps.setString(2, record.getUsername());
+                ps.setInt(3, record.getCompanyId());
+                ps.setString(4, record.getPath());
+                ps.setString(5, record.getDirection().name());
+                ps.setLong(6, record.getBytes());
+                ps.setLong(7, record.getDurationMillis());
+                ps.setString(8, record.getOutcome().name());
+                ps.setString(9, record.getError());
+                ps.setTimestamp(10, Timestamp.from(record.getStartedAt()));
+                ps.setTimestamp(11, Timestamp.from(record.getCompletedAt()));
+            });
+            recorded.add(batch.size());
+            databaseAvailable = true;
+            return true;
+        } catch (DataAccessException e) {
+            if (databaseAvailable) {
+                logger.error("Failed to write {} transfer records, applying overflow policy: {}", batch.size(),
+                        overflowPolicy, e);
+            }
+            databaseAvailable = false;
+            return false;
+        }
+    }
+
+    private void overflow(List<SFTPTransferRecord> records) {
+        if (overflowPolicy == TransferOverflowPolicy.SPILL && spill(records)) {
+            spilled.add(records.size());
+        } else {
+            dropped.add(records.size());
+            logger.warn("Dropped {} transfer records", records.size());
+        }
+    }
+
+    private boolean spill(List<SFTPTransferRecord> records) {
+        synchronized (spillLock) {
+            try {
+                Files.createDirectories(spillFile.getParent());
+                try (BufferedWriter writer = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    for (SFTPTransferRecord record : records) {
+                        writer.write(encode(record));
+                        writer.newLine();
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                logger.error("Failed to spill {} transfer records to: {}", records.size(), spillFile, e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Inserts spilled records. Only called by the writer thread, or by destroy() once it has stopped.
+     */
+    private void replaySpilled() {
+        lastReplayNanos = System.nanoTime();
+        try {
+            synchronized (spillLock) {
+                // A replay file left by a crash is replayed before taking the next spill file
+                if (!Files.exists(replayFile)) {
+                    if (!Files.exists(spillFile)) {
+                        return;
+                    }
+                    Files.move(spillFile, replayFile, StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+            int replayed = 0;
+            boolean failed = false;
+            try (BufferedReader reader = Files.newBufferedReader(replayFile, StandardCharsets.UTF_8)) {
+                List<SFTPTransferRecord> batch = new ArrayList<>(batchSize);
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    SFTPTransferRecord record = decode(line);
+                    if (record != null) {
+                        batch.add(record);
+                    }
+                    if (batch.size() == batchSize) {
+                        if (!failed && insert(batch)) {
+                            replayed += batch.size();
+                        } else {
+                            // Once an insert failed the rest goes back to the spill file
+                            failed = true;
+                            respill(batch);
+                        }
+                        batch.clear();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    if (!failed && insert(batch)) {
+                        replayed += batch.size();
+                    } else {
+                        respill(batch);
+                    }
+                }
+            }
+            Files.delete(replayFile);
+            if (replayed > 0) {
+                logger.info("Replayed {} spilled transfer records", replayed);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to replay spilled transfer records from: {}", replayFile, e);
+        }
+    }
+
+    private void respill(List<SFTPTransferRecord> records) {
+        if (!spill(records)) {
+            dropped.add(records.size());
+        }
+    }
+
+    private static String encode(SFTPTransferRecord record) {
+        return String.join("\t",
+                record.getId().toString(),
+                escape(record.getUsername()),
+                String.valueOf(record.getCompanyId()),
+                escape(record.getPath()),
+                record.getDirection().name(),
+                String.valueOf(record.getBytes()),
+                String.valueOf(record.getDurationMillis()),
+                record.getOutcome().name(),
+                record.getError() == null ? "" : escape(record.getError()),
+                record.getStartedAt().toString(),
+                record.getCompletedAt().toString());
+    }
+
+    private static SFTPTransferRecord decode(String line) {
+        String[] fields = line.split("\t", -1);
+        try {
+            // Records spilled before they carried an id get a new one
+            int offset = fields.length == SPILLED_FIELDS ? 1 : 0;
+            return new SFTPTransferRecord(
+                    offset == 1 ? UUID.fromString(fields[0]) : UUID.randomUUID(),
+                    unescape(fields[offset]),
+                    Integer.parseInt(fields[offset + 1]),
+                    unescape(fields[offset + 2]),
+                    TransferDirection.valueOf(fields[offset + 3]),
+                    Long.parseLong(fields[offset + 4]),
+                    Long.parseLong(fields[offset + 5]),
+                    TransferOutcome.valueOf(fields[offset + 6]),
+                    fields[offset + 7].isEmpty() ? null : unescape(fields[offset + 7]),
+                    Instant.parse(fields[offset + 8]),
+                    Instant.parse(fields[offset + 9]));
+        } catch (RuntimeException e) {
+            logger.error("Skipping malformed spilled transfer record: {}", line);
+            return null;
+        }
+    }
+
+    private static String escape(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String unescape(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String truncate(String value) {
+        return value.length() <= MAX_ERROR_LENGTH ? value : value.substring(0, MAX_ERROR_LENGTH);
+    }
+}
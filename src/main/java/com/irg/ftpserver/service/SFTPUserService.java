@@ -1,32 +1,203 @@
 package com.irg.ftpserver.service;
 
+import com.irg.ftpserver.cache.ExpiringLruCache;
+import com.irg.ftpserver.config.SFTPServerProperties;
+import com.irg.ftpserver.data.SFTPUserVersion;
+import com.irg.ftpserver.events.SFTPUserChangedEvent;
+import com.irg.ftpserver.model.SFTPPublicKey;
 import com.irg.ftpserver.model.SFTPUser;
+import com.irg.ftpserver.repository.PublicKeyRepository;
 import com.irg.ftpserver.repository.SFTPUserRepository;
-import lombok.AllArgsConstructor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import org.jetbrains.annotations.NotNull;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 
+/**
+ * Service for looking up and changing SFTP users.
+ * Users are kept in a bounded, TTL-evicting cache so that authentication does not query the database on every
+ * connection. Every lookup gets its own copy of the cached user, so sessions share nothing mutable; changes go through
+ * {@link #saveUser(SFTPUser)} or {@link #savePublicKey(SFTPPublicKey)}, which update the cache and announce the
+ * change once the transaction has committed, so a rolled back change is never seen.
+ * <p>
+ * Users are also edited directly in the database. Every {@code userRefreshInterval} ms the modification dates and key
+ * counts of the users are compared with those found before, and an {@link SFTPUserChangedEvent} is published for
+ * every user that was created, changed or removed, so that everything kept per user follows such changes too. Only
+ * these versions are loaded, not the users, so direct edits must move the {@code modified_date} of the user or key.
+ */
 @Service
-@AllArgsConstructor
 @DependsOn({"SFTPInitialConfigService", "SFTPInitialUserInitService"})
-public class SFTPUserService {
+public class SFTPUserService implements MeterBinder {
 
     private static final Logger logger = LoggerFactory.getLogger(SFTPUserService.class);
 
     private final SFTPUserRepository sftpUserRepository;
 
+    private final PublicKeyRepository publicKeyRepository;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final ExpiringLruCache<String, SFTPUser> userCache;
+
+    // Username -> version of the user found by the last refresh, null before the first
+    private Map<String, SFTPUserVersion> versions;
+
+    public SFTPUserService(SFTPUserRepository sftpUserRepository,
+                           PublicKeyRepository publicKeyRepository,
+                           ApplicationEventPublisher eventPublisher,
+                           SFTPServerProperties sftpServerProperties) {
+        this.sftpUserRepository = sftpUserRepository;
+        this.publicKeyRepository = publicKeyRepository;
+        this.eventPublisher = eventPublisher;
+        this.userCache = new ExpiringLruCache<>(sftpServerProperties.getUserCacheMaxSize(),
+                Duration.ofMillis(sftpServerProperties.getUserCacheTtl()));
+        logger.info("Initialized SFTP user cache with max size: {} and ttl: {} ms",
+                sftpServerProperties.getUserCacheMaxSize(), sftpServerProperties.getUserCacheTtl());
+    }
+
+    @PostConstruct
+    public void init() {
+        refreshUsers();
+    }
+
     public Optional<SFTPUser> getUserByUserName(String userName) {
 
-        Optional<SFTPUser> sftpUser = sftpUserRepository.findByUsername(userName);
+        Optional<SFTPUser> sftpUser = Optional.ofNullable(userCache.get(userName,
+                name -> sftpUserRepository.findByUsername(name).orElse(null)));
         if(sftpUser.isEmpty()){
             logger.error("User not found in repository with username: " + userName);
             return Optional.empty();
         }
-        return sftpUser;
+        return sftpUser.map(SFTPUser::copy);
     }
 
+    /**
+     * Saves the user and its public keys, replacing the cached copy once the transaction has committed.
+     *
+     * @param sftpUser the user to save
+     * @return the saved user
+     */
+    @Transactional
+    public SFTPUser saveUser(SFTPUser sftpUser) {
+        SFTPUser saved = sftpUserRepository.save(sftpUser);
+        afterCommit(() -> {
+            SFTPUser cached = saved.copy();
+            // A renamed user is still cached under the old name
+            userCache.invalidateIf((name, user) -> user.getId().equals(cached.getId()));
+            eventPublisher.publishEvent(new SFTPUserChangedEvent(cached.getUsername()));
+            userCache.put(cached.getUsername(), cached);
+        });
+        logger.info("Saved SFTP user: {}", saved.getUsername());
+        return saved;
+    }
+
+    /**
+     * Saves a single public key and drops the owning user from the cache once the transaction has committed.
+     *
+     * @param sftpPublicKey the key to save
+     * @return the saved key
+     */
+    @Transactional
+    public SFTPPublicKey savePublicKey(SFTPPublicKey sftpPublicKey) {
+        SFTPPublicKey saved = publicKeyRepository.save(sftpPublicKey);
+        String username = saved.getSftpUser().getUsername();
+        afterCommit(() -> eventPublisher.publishEvent(new SFTPUserChangedEvent(username)));
+        logger.info("Saved public key: {} for SFTP user: {}", saved.getId(), username);
+        return saved;
+    }
+
+    /**
+     * Drops a user from the cache so the next lookup reads it from the database. Listens for
+     * {@link SFTPUserChangedEvent} so that changes made elsewhere invalidate the cache as well.
+     *
+     * @param event the change event
+     */
+    @EventListener
+    public void handleSFTPUserChangedEvent(SFTPUserChangedEvent event) {
+        userCache.invalidate(event.getUsername());
+        logger.debug("Invalidated cached SFTP user: {}", event.getUsername());
+    }
+
+    /**
+     * Loads the versions of all users and publishes an {@link SFTPUserChangedEvent} for every user that was created,
+     * changed or removed since the last refresh.
+     *
+     * @return the number of changed users
+     */
+    public synchronized int refreshUsers() {
+        Map<String, SFTPUserVersion> current = new HashMap<>();
+        for (SFTPUserVersion version : sftpUserRepository.findVersions()) {
+            current.put(version.getUsername(), version);
+        }
+        Map<String, SFTPUserVersion> previous = versions;
+        versions = current;
+        if (previous == null) {
+            logger.info("Loaded {} SFTP users", current.size());
+            return 0;
+        }
+
+        int changed = 0;
+        for (Map.Entry<String, SFTPUserVersion> entry : current.entrySet()) {
+            if (!entry.getValue().equals(previous.get(entry.getKey()))) {
+                eventPublisher.publishEvent(new SFTPUserChangedEvent(entry.getKey()));
+                changed++;
+            }
+        }
+        for (String username : previous.keySet()) {
+            if (!current.containsKey(username)) {
+                eventPublisher.publishEvent(new SFTPUserChangedEvent(username));
+                changed++;
+            }
+        }
+        if (changed > 0) {
+            logger.info("Found {} SFTP users changed in the database", changed);
+        }
+        return changed;
+    }
+
+    @Scheduled(initialDelayString = "${sftp.server.userRefreshInterval:30000}",
+            fixedDelayString = "${sftp.server.userRefreshInterval:30000}")
+    public void pollUsers() {
+        try {
+            refreshUsers();
+        } catch (RuntimeException e) {
+            logger.error("Failed to refresh the SFTP users, keeping the cached users", e);
+        }
+    }
+
+    @Override
+    public void bindTo(@NotNull MeterRegistry registry) {
+        userCache.bindTo(registry, "sftpUsers");
+    }
+
+    /**
+     * Runs an action once the current transaction has committed, or right away outside of a transaction.
+     */
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
 }
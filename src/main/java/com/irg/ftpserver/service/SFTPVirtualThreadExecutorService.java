@@ -0,0 +1,236 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.data.ExecutorMode;
+import com.irg.ftpserver.data.ExecutorStatistics;
+import com.irg.ftpserver.data.SFTPServerConfigurationSnapshot;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs every SFTP subsystem on its own virtual thread.
+ * A subsystem keeps its thread for the whole life of the channel, so there is no pool to size: the only limit is
+ * {@code maxConcurrentSubsystems}. Subsystems over the limit park their virtual thread on a semaphore instead of
+ * sitting in a work queue, and are never pushed back onto the calling NIO thread.
+ */
+public class SFTPVirtualThreadExecutorService implements SFTPSubsystemExecutor, MeterBinder {
+    private static final Logger logger = LoggerFactory.getLogger(SFTPVirtualThreadExecutorService.class);
+    private static final String THREAD_NAME_PREFIX = "SFTP-Virtual-Thread-";
+
+    @Getter
+    private volatile int maxConcurrentSubsystems;
+    private final ResizableSemaphore permits;
+    private final ExecutorService virtualThreadExecutor;
+    private final ExecutorService executorService;
+
+    private final AtomicInteger activeSubsystems = new AtomicInteger();
+    private final AtomicInteger waitingSubsystems = new AtomicInteger();
+    private final LongAdder startedSubsystems = new LongAdder();
+    private final LongAdder completedSubsystems = new LongAdder();
+
+    // Registered by bindTo, subsystems started before that are not timed
+    private volatile Timer waitTimer;
+    private volatile Timer runTimer;
+
+    public SFTPVirtualThreadExecutorService(int maxConcurrentSubsystems) {
+        this.maxConcurrentSubsystems = maxConcurrentSubsystems;
+        this.permits = new ResizableSemaphore(maxConcurrentSubsystems);
+        this.virtualThreadExecutor = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name(THREAD_NAME_PREFIX, 0).factory());
+        this.executorService = new PermitExecutorService();
+    }
+
+    @Override
+    public ExecutorService getExecutorService() {
+        return this.executorService;
+    }
+
+    @Override
+    public ExecutorMode getExecutorMode() {
+        return ExecutorMode.VIRTUAL;
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        return this.maxConcurrentSubsystems;
+    }
+
+    /**
+     * Applies {@code maxConcurrentSubsystems} of the configuration. When the cap is lowered, running subsystems
+     * keep their permits and new subsystems wait until enough of them have completed.
+     *
+     * @param configuration the configuration to apply
+     */
+    @Override
+    public synchronized void resize(SFTPServerConfigurationSnapshot configuration) {
+        int newMaxConcurrentSubsystems = configuration.getMaxConcurrentSubsystems();
+        if (newMaxConcurrentSubsystems < 1) {
+            throw new IllegalArgumentException("Max concurrent subsystems must be at least 1");
+        }
+        int delta = newMaxConcurrentSubsystems - this.maxConcurrentSubsystems;
+        if (delta > 0) {
+            this.permits.release(delta);
+        } else if (delta < 0) {
+            this.permits.reducePermits(-delta);
+        }
+        this.maxConcurrentSubsystems = newMaxConcurrentSubsystems;
+    }
+
+    @Override
+    public ExecutorStatistics getStatistics() {
+        int active = activeSubsystems.get();
+        return new ExecutorStatistics(
+                ExecutorMode.VIRTUAL,
+                active,
+                active,
+                0,
+                maxConcurrentSubsystems,
+                waitingSubsystems.get(),
+                Math.max(0, permits.availablePermits()),
+                completedSubsystems.sum(),
+                0
+        );
+    }
+
+    @Override
+    public void shutdown() {
+        try {
+            logger.info("Shutting down the SFTP virtual thread executor, active subsystems: {}",
+                    activeSubsystems.get());
+            this.virtualThreadExecutor.shutdown();
+            if (!this.virtualThreadExecutor.awaitTermination(60, TimeUnit.SECONDS)) {
+                logger.info("Shutting down the SFTP virtual thread executor forcefully");
+                this.virtualThreadExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            logger.error("Error while shutting down the SFTP virtual thread executor", e);
+            this.virtualThreadExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void bindTo(@NotNull MeterRegistry registry) {
+        Gauge.builder("sftp.executor.active", activeSubsystems, AtomicInteger::get)
+                .description("Subsystems currently running")
+                .tag("mode", "virtual")
+                .register(registry);
+        Gauge.builder("sftp.executor.waiting", waitingSubsystems, AtomicInteger::get)
+                .description("Subsystems waiting for a concurrency permit")
+                .tag("mode", "virtual")
+                .register(registry);
+        Gauge.builder("sftp.executor.permits.available", permits, Semaphore::availablePermits)
+                .description("Subsystems that can still start before the concurrency cap is reached")
+                .tag("mode", "virtual")
+                .register(registry);
+        FunctionCounter.builder("sftp.executor.started", startedSubsystems, LongAdder::sum)
+                .description("Subsystems started since startup")
+                .tag("mode", "virtual")
+                .register(registry);
+        FunctionCounter.builder("sftp.executor.completed", completedSubsystems, LongAdder::sum)
+                .description("Subsystems completed since startup")
+                .tag("mode", "virtual")
+                .register(registry);
+        this.waitTimer = SFTPExecutorTimers.waitTimer(registry, "virtual");
+        this.runTimer = SFTPExecutorTimers.runTimer(registry, "virtual");
+    }
+
+    private void runWithPermit(Runnable command, long submittedAt) {
+        waitingSubsystems.incrementAndGet();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while waiting for a subsystem permit", e);
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            waitingSubsystems.decrementAndGet();
+        }
+
+        long startedAt = System.nanoTime();
+        Timer wait = waitTimer;
+        if (wait != null) {
+            wait.record(startedAt - submittedAt, TimeUnit.NANOSECONDS);
+        }
+        activeSubsystems.incrementAndGet();
+        startedSubsystems.increment();
+        try {
+            command.run();
+        } finally {
+            Timer run = runTimer;
+            if (run != null) {
+                run.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+            }
+            activeSubsystems.decrementAndGet();
+            completedSubsystems.increment();
+            permits.release();
+        }
+    }
+
+    /**
+     * Semaphore whose number of permits can be lowered without waiting for them to be released.
+     */
+    private static class ResizableSemaphore extends Semaphore {
+
+        ResizableSemaphore(int permits) {
+            super(permits, true);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+
+    /**
+     * Starts a virtual thread per task; the thread waits for a permit before running the task.
+     */
+    private class PermitExecutorService extends AbstractExecutorService {
+
+        @Override
+        public void execute(@NotNull Runnable command) {
+            long submittedAt = System.nanoTime();
+            virtualThreadExecutor.execute(() -> runWithPermit(command, submittedAt));
+        }
+
+        @Override
+        public void shutdown() {
+            virtualThreadExecutor.shutdown();
+        }
+
+        @Override
+        public @NotNull List<Runnable> shutdownNow() {
+            return virtualThreadExecutor.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return virtualThreadExecutor.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return virtualThreadExecutor.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+            return virtualThreadExecutor.awaitTermination(timeout, unit);
+        }
+    }
+}
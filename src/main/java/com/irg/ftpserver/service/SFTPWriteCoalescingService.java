@@ -0,0 +1,138 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.config.SFTPServerProperties;
+import com.irg.ftpserver.data.UploadMode;
+import com.irg.ftpserver.io.CoalescingWriteFileChannel;
+import com.irg.ftpserver.io.DirectBufferPool;
+import com.irg.ftpserver.io.WriteStatistics;
+import com.irg.ftpserver.model.SFTPUser;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.sshd.sftp.common.SftpConstants;
+import org.apache.sshd.sftp.common.SftpException;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Opens files for writing in the {@link UploadMode} of the uploading user.
+ * <p>
+ * Files opened for writing count their write requests and writes per upload mode. Users uploading
+ * {@link UploadMode#COALESCED} have contiguous writes gathered into buffers of {@code writeCoalescingBufferSize} bytes,
+ * and uploads refused up front when the size announced on open does not fit on the disk.
+ */
+@Service
+public class SFTPWriteCoalescingService implements MeterBinder {
+
+    private final SFTPUserService sftpUserService;
+
+    private final DirectBufferPool writeBufferPool;
+
+    private final Map<UploadMode, WriteStatistics> writeStatistics = new EnumMap<>(UploadMode.class);
+
+    public SFTPWriteCoalescingService(SFTPServerProperties sftpServerProperties, SFTPUserService sftpUserService) {
+        this.sftpUserService = sftpUserService;
+        this.writeBufferPool = new DirectBufferPool(sftpServerProperties.getWriteCoalescingBufferSize(),
+                sftpServerProperties.getWriteCoalescingMaxPooledBuffers());
+        for (UploadMode mode : UploadMode.values()) {
+            writeStatistics.put(mode, new WriteStatistics());
+        }
+    }
+
+    /**
+     * Opens a file for writing in the upload mode of a user.
+     *
+     * @param username the uploading user
+     * @param local    the file on the local disk, to check the space for the announced size
+     * @param attrs    the attributes the file is opened with, including the size a client may announce
+     * @param opener   opens the file with the attributes left once the announced size is taken out
+     * @return the channel to write to
+     */
+    public SeekableByteChannel openForWrite(String username, Path local, FileAttribute<?>[] attrs,
+                                            ChannelOpener opener) throws IOException {
+        UploadMode mode = sftpUserService.getUserByUserName(username)
+                .map(SFTPUser::getUploadMode)
+                .orElse(UploadMode.DIRECT);
+        // The size a client may announce on open is checked against the free space
+        long announcedSize = -1;
+        List<FileAttribute<?>> fileAttributes = new ArrayList<>(attrs.length);
+        for (FileAttribute<?> attr : attrs) {
+            if (mode == UploadMode.COALESCED && "size".equals(attr.name()) && attr.value() instanceof Number size) {
+                announcedSize = size.longValue();
+            } else {
+                fileAttributes.add(attr);
+            }
+        }
+        SeekableByteChannel channel = opener.open(fileAttributes.toArray(new FileAttribute<?>[0]));
+        return channel instanceof FileChannel fileChannel
+                ? coalesceWrites(fileChannel, local, mode, announcedSize) : channel;
+    }
+
+    @Override
+    public void bindTo(@NotNull MeterRegistry registry) {
+        writeStatistics.forEach((mode, statistics) -> {
+            String tag = mode.name().toLowerCase();
+            FunctionCounter.builder("sftp.upload.requests", statistics, WriteStatistics::getRequests)
+                    .description("SFTP write requests to files opened for writing")
+                    .tag("mode", tag)
+                    .register(registry);
+            FunctionCounter.builder("sftp.upload.writes", statistics, WriteStatistics::getWrites)
+                    .description("Write system calls issued for the write requests")
+                    .tag("mode", tag)
+                    .register(registry);
+            FunctionCounter.builder("sftp.upload.bytes", statistics, WriteStatistics::getBytes)
+                    .description("Bytes written to files opened for writing")
+                    .baseUnit("bytes")
+                    .tag("mode", tag)
+                    .register(registry);
+            FunctionCounter.builder("sftp.upload.write.time", statistics, WriteStatistics::getSeconds)
+                    .description("Time spent in write system calls")
+                    .baseUnit("seconds")
+                    .tag("mode", tag)
+                    .register(registry);
+        });
+        Gauge.builder("sftp.upload.buffers.pooled", writeBufferPool, DirectBufferPool::getPooledCount)
+                .description("Direct buffers of closed upload handles kept for reuse")
+                .register(registry);
+    }
+
+    private FileChannel coalesceWrites(FileChannel fileChannel, Path local, UploadMode mode, long announcedSize)
+            throws IOException {
+        CoalescingWriteFileChannel channel = new CoalescingWriteFileChannel(fileChannel,
+                mode == UploadMode.COALESCED ? writeBufferPool : null, writeStatistics.get(mode));
+        if (announcedSize <= 0) {
+            return channel;
+        }
+        try {
+            long missing = announcedSize - fileChannel.size();
+            if (missing > 0 && Files.getFileStore(local).getUsableSpace() < missing) {
+                throw new SftpException(SftpConstants.SSH_FX_NO_SPACE_ON_FILESYSTEM,
+                        "Not enough space for " + announcedSize + " bytes");
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Opens a file with the given attributes.
+     */
+    @FunctionalInterface
+    public interface ChannelOpener {
+        SeekableByteChannel open(FileAttribute<?>... attrs) throws IOException;
+    }
+}
@@ -0,0 +1,174 @@
+package com.irg.ftpserver.storage;
+
+import com.irg.ftpserver.config.SFTPServerProperties;
+import com.irg.ftpserver.data.StorageType;
+import com.irg.ftpserver.storage.compressed.CompressedFileFormat;
+import com.irg.ftpserver.storage.compressed.CompressedFileSystem;
+import com.irg.ftpserver.storage.compressed.CompressedFileSystemProvider;
+import com.irg.ftpserver.storage.compressed.CompressionSettings;
+import com.irg.ftpserver.storage.compressed.CompressionStatistics;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+
+/**
+ * Stores the files of a user compressed in the user's directory on the local disk.
+ * <p>
+ * Files are deflated in independent blocks of {@code compressionBlockSize} bytes when written, so reads at any offset
+ * only inflate the block they fall in. Files that look incompressible by the entropy of samples of their content are
+ * stored as they are. Files written before a user was switched to compressed storage are served as they are.
+ */
+@Component
+public class CompressedStorageBackend implements StorageBackend, MeterBinder {
+    private static final Logger logger = LoggerFactory.getLogger(CompressedStorageBackend.class);
+
+    private final CompressedFileSystemProvider provider = new CompressedFileSystemProvider();
+
+    private final CompressionSettings settings;
+
+    private final Map<String, CompressionStatistics> statistics = new ConcurrentHashMap<>();
+
+    private volatile MeterRegistry registry;
+
+    public CompressedStorageBackend(SFTPServerProperties sftpServerProperties) {
+        int blockSize = sftpServerProperties.getCompressionBlockSize();
+        int level = sftpServerProperties.getCompressionLevel();
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Invalid compression block size: " + blockSize);
+        }
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        this.settings = new CompressionSettings(blockSize, level,
+                sftpServerProperties.getCompressionEntropyThreshold());
+        logger.info("Initialized compressed storage, block size: {}, level: {}, entropy threshold: {}", blockSize,
+                level, settings.entropyThreshold());
+    }
+
+    @Override
+    public StorageType getType() {
+        return StorageType.COMPRESSED;
+    }
+
+    @Override
+    public void createHome(String directory) throws IOException {
+        Path homeDir = Paths.get(directory);
+        if (!Files.exists(homeDir)) {
+            Files.createDirectories(homeDir);
+            logger.info("Home directory created: {}", homeDir);
+        }
+    }
+
+    @Override
+    public FileSystem createFileSystem(String username, String directory) {
+        return new CompressedFileSystem(provider, Paths.get(directory), settings, getStatistics(username));
+    }
+
+    /**
+     * Adds up the sizes of the contents of all files of a user, which is what quotas are kept in.
+     */
+    @Override
+    public long computeUsage(String directory) throws IOException {
+        Path homeDir = Paths.get(directory);
+        if (!Files.exists(homeDir)) {
+            return 0;
+        }
+        long[] usage = new long[1];
+        Files.walkFileTree(homeDir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isRegularFile() && !CompressedFileSystemProvider.isTemporary(file)) {
+                    usage[0] += CompressedFileFormat.contentSize(file, attrs.size());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // Deleted while walking
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return usage[0];
+    }
+
+    @Override
+    public void bindTo(@NotNull MeterRegistry registry) {
+        this.registry = registry;
+        statistics.forEach((username, userStatistics) -> bindTo(registry, username, userStatistics));
+    }
+
+    private CompressionStatistics getStatistics(String username) {
+        CompressionStatistics userStatistics = statistics.get(username);
+        if (userStatistics == null) {
+            userStatistics = statistics.computeIfAbsent(username, name -> new CompressionStatistics());
+            MeterRegistry meterRegistry = registry;
+            if (meterRegistry != null) {
+                bindTo(meterRegistry, username, userStatistics);
+            }
+        }
+        return userStatistics;
+    }
+
+    private static void bindTo(MeterRegistry registry, String username, CompressionStatistics userStatistics) {
+        FunctionCounter.builder("sftp.compression.files", userStatistics, CompressionStatistics::getCompressedFiles)
+                .description("Files written compressed")
+                .tag("user", username)
+                .tag("result", "compressed")
+                .register(registry);
+        FunctionCounter.builder("sftp.compression.files", userStatistics, CompressionStatistics::getStoredFiles)
+                .description("Files written as they are, as they looked incompressible or did not get smaller")
+                .tag("user", username)
+                .tag("result", "stored")
+                .register(registry);
+        FunctionCounter.builder("sftp.compression.raw.bytes", userStatistics, CompressionStatistics::getRawBytes)
+                .description("Bytes of the contents of files written")
+                .baseUnit("bytes")
+                .tag("user", username)
+                .register(registry);
+        FunctionCounter.builder("sftp.compression.stored.bytes", userStatistics, CompressionStatistics::getStoredBytes)
+                .description("Bytes stored on disk for files written")
+                .baseUnit("bytes")
+                .tag("user", username)
+                .register(registry);
+        Gauge.builder("sftp.compression.ratio", userStatistics, CompressionStatistics::getRatio)
+                .description("Bytes of the contents of files written by the bytes stored for them")
+                .tag("user", username)
+                .register(registry);
+        FunctionCounter.builder("sftp.compression.time", userStatistics, CompressionStatistics::getCompressSeconds)
+                .description("Time spent sampling and compressing files written")
+                .baseUnit("seconds")
+                .tag("user", username)
+                .tag("operation", "compress")
+                .register(registry);
+        FunctionCounter.builder("sftp.compression.time", userStatistics, CompressionStatistics::getDecompressSeconds)
+                .description("Time spent decompressing files read")
+                .baseUnit("seconds")
+                .tag("user", username)
+                .tag("operation", "decompress")
+                .register(registry);
+        FunctionCounter.builder("sftp.compression.decompressed.bytes", userStatistics,
+                        CompressionStatistics::getDecompressedBytes)
+                .description("Bytes decompressed for files read")
+                .baseUnit("bytes")
+                .tag("user", username)
+                .register(registry);
+    }
+}
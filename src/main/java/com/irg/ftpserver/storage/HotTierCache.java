@@ -0,0 +1,441 @@
+package com.irg.ftpserver.storage;
+
+import com.irg.ftpserver.config.SFTPServerProperties;
+import com.irg.ftpserver.data.HotTierWritePolicy;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A size-bounded cache of whole files on fast local disk, in front of slower backing storage.
+ * <p>
+ * Files are cached under a key naming them in the backing storage together with the version, e.g. the ETag, they
+ * were cached at, so a file that changed is never served from the cache. A file is cached once it was read from
+ * start to end and, with the {@link HotTierWritePolicy#WRITE_THROUGH} policy, when it is uploaded. Files larger than
+ * {@code hotTierMaxFileSize} bytes are not cached and the least recently used files are evicted once the cache holds
+ * more than {@code hotTierMaxSize} bytes.
+ * <p>
+ * The cached files and the order they were used in are saved to an index in the cache directory every
+ * {@code hotTierIndexSaveInterval} ms and on shutdown, so the cache is still warm after a restart. Files the index
+ * does not know are deleted on startup.
+ */
+@Component
+public class HotTierCache implements MeterBinder {
+    private static final Logger logger = LoggerFactory.getLogger(HotTierCache.class);
+
+    private static final String INDEX_FILE = "index";
+
+    private static final String FILL_DIRECTORY = "fill";
+
+    private final boolean enabled;
+
+    private final Path directory;
+
+    private final long maxSize;
+
+    private final long maxFileSize;
+
+    private final HotTierWritePolicy writePolicy;
+
+    // Access ordered, the least recently used entry first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long size;
+
+    private boolean indexChanged;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private final LongAdder filledBytes = new LongAdder();
+
+    public HotTierCache(SFTPServerProperties sftpServerProperties) {
+        this.directory = Paths.get(sftpServerProperties.getHotTierDirectory());
+        this.maxSize = sftpServerProperties.getHotTierMaxSize();
+        this.maxFileSize = Math.min(sftpServerProperties.getHotTierMaxFileSize(), maxSize);
+        this.writePolicy = sftpServerProperties.getHotTierWritePolicy();
+        boolean enabled = sftpServerProperties.isHotTierEnabled();
+        if (enabled) {
+            try {
+                load();
+                logger.info("Hot tier in: {} holds {} files, {} bytes", directory, entries.size(), size);
+            } catch (IOException e) {
+                logger.error("Failed to open the hot tier in: {}, files are served from their storage", directory, e);
+                enabled = false;
+            }
+        }
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public HotTierWritePolicy getWritePolicy() {
+        return writePolicy;
+    }
+
+    /**
+     * @param key     names the file in its storage
+     * @param version the version of the file in its storage
+     * @return a channel reading the cached file, or null if this version of it is not cached
+     */
+    public SeekableByteChannel open(String key, String version) {
+        if (!enabled || version == null) {
+            return null;
+        }
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.version().equals(version)) {
+                try {
+                    // Opened under the lock, so that it cannot be evicted in between. Evicting it later only
+                    // unlinks it.
+                    FileChannel channel = FileChannel.open(directory.resolve(entry.file()), StandardOpenOption.READ);
+                    hits.increment();
+                    indexChanged = true;
+                    return channel;
+                } catch (IOException e) {
+                    logger.warn("Failed to open cached file: {} of: {}: {}", entry.file(), key, e.getMessage());
+                    remove(key);
+                }
+            }
+            misses.increment();
+            return null;
+        }
+    }
+
+    /**
+     * Starts caching a file that is being read or written from its start.
+     *
+     * @param key  names the file in its storage
+     * @param size the size of the file, -1 if not known yet
+     * @return the fill to write the content of the file to, or null if the file is not to be cached
+     */
+    public Fill fill(String key, long size) {
+        if (!enabled || size > maxFileSize || size == 0) {
+            return null;
+        }
+        Path file = directory.resolve(FILL_DIRECTORY).resolve(UUID.randomUUID().toString());
+        try {
+            return new Fill(key, file, FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE));
+        } catch (IOException e) {
+            logger.warn("Failed to cache: {}: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Drops a file that was deleted or replaced in its storage.
+     */
+    public void invalidate(String key) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (entries) {
+            remove(key);
+        }
+    }
+
+    public int getFileCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the number of bytes of the cached files
+     */
+    public long size() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    /**
+     * @return the share of reads of a file in its current version that were served from the cache
+     */
+    public double getHitRatio() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Scheduled(initialDelayString = "${sftp.server.hotTierIndexSaveInterval:60000}",
+            fixedDelayString = "${sftp.server.hotTierIndexSaveInterval:60000}")
+    public void saveIndex() {
+        if (!enabled) {
+            return;
+        }
+        List<String> lines = new ArrayList<>();
+        synchronized (entries) {
+            if (!indexChanged) {
+                return;
+            }
+            indexChanged = false;
+            entries.forEach((key, entry) -> lines.add(entry.file() + "\t" + entry.size() + "\t"
+                    + URLEncoder.encode(entry.version(), StandardCharsets.UTF_8) + "\t"
+                    + URLEncoder.encode(key, StandardCharsets.UTF_8)));
+        }
+        Path index = directory.resolve(INDEX_FILE);
+        Path temporary = directory.resolve(INDEX_FILE + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                for (String line : lines) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+            }
+            Files.move(temporary, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Failed to save the hot tier index: {}", index, e);
+            synchronized (entries) {
+                indexChanged = true;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        saveIndex();
+    }
+
+    @Override
+    public void bindTo(@NotNull MeterRegistry registry) {
+        Gauge.builder("cache.size", this, HotTierCache::getFileCount)
+                .description("Number of files in the hot tier")
+                .tag("cache", "hotTier")
+                .register(registry);
+        FunctionCounter.builder("cache.gets", hits, LongAdder::sum)
+                .description("Reads of a file served from the hot tier")
+                .tags("cache", "hotTier", "result", "hit")
+                .register(registry);
+        FunctionCounter.builder("cache.gets", misses, LongAdder::sum)
+                .description("Reads of a file served from its storage")
+                .tags("cache", "hotTier", "result", "miss")
+                .register(registry);
+        FunctionCounter.builder("cache.evictions", evictions, LongAdder::sum)
+                .description("Files evicted from the hot tier because it was full")
+                .tag("cache", "hotTier")
+                .register(registry);
+        Gauge.builder("sftp.hottier.hit.ratio", this, HotTierCache::getHitRatio)
+                .description("Share of file reads served from the hot tier")
+                .register(registry);
+        Gauge.builder("sftp.hottier.bytes", this, HotTierCache::size)
+                .description("Bytes of the files in the hot tier")
+                .register(registry);
+        FunctionCounter.builder("sftp.hottier.filled.bytes", filledBytes, LongAdder::sum)
+                .description("Bytes of files added to the hot tier")
+                .register(registry);
+    }
+
+    private void load() throws IOException {
+        Path fillDirectory = directory.resolve(FILL_DIRECTORY);
+        Files.createDirectories(fillDirectory);
+        // Fills are lost with a restart
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(fillDirectory)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Path index = directory.resolve(INDEX_FILE);
+        if (Files.exists(index)) {
+            for (String line : Files.readAllLines(index, StandardCharsets.UTF_8)) {
+                String[] fields = line.split("\t", 4);
+                if (fields.length != 4) {
+                    continue;
+                }
+                long fileSize = Long.parseLong(fields[1]);
+                Path file = directory.resolve(fields[0]);
+                if (Files.isRegularFile(file) && Files.size(file) == fileSize) {
+                    String key = URLDecoder.decode(fields[3], StandardCharsets.UTF_8);
+                    put(key, new Entry(fields[0], fileSize, URLDecoder.decode(fields[2], StandardCharsets.UTF_8)));
+                }
+            }
+        }
+        Set<String> known = new HashSet<>();
+        entries.values().forEach(entry -> known.add(entry.file()));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, Files::isRegularFile)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (!known.contains(name) && !name.startsWith(INDEX_FILE)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        evict();
+        indexChanged = true;
+    }
+
+    private void commit(Fill fill, String version) {
+        String name = fill.file.getFileName().toString();
+        synchronized (entries) {
+            try {
+                Files.move(fill.file, directory.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                logger.warn("Failed to cache: {}: {}", fill.key, e.getMessage());
+                deleteQuietly(fill.file);
+                return;
+            }
+            put(fill.key, new Entry(name, fill.size, version));
+            evict();
+            indexChanged = true;
+        }
+        filledBytes.add(fill.size);
+    }
+
+    private void put(String key, Entry entry) {
+        remove(key);
+        entries.put(key, entry);
+        size += entry.size();
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            size -= entry.size();
+            deleteQuietly(directory.resolve(entry.file()));
+            indexChanged = true;
+        }
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            size -= entry.size();
+            deleteQuietly(directory.resolve(entry.file()));
+            evictions.increment();
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Failed to delete cached file: {}: {}", file, e.getMessage());
+        }
+    }
+
+    private record Entry(String file, long size, String version) {
+    }
+
+    /**
+     * A file being added to the cache. Its content is written in order as it passes by, and it is only cached once
+     * committed with the version the content belongs to. Failures only keep the file out of the cache.
+     */
+    public final class Fill {
+        private final String key;
+        private final Path file;
+        private FileChannel channel;
+        private long size;
+
+        private Fill(String key, Path file, FileChannel channel) {
+            this.key = key;
+            this.file = file;
+            this.channel = channel;
+        }
+
+        /**
+         * @return the number of bytes written so far
+         */
+        public long size() {
+            return size;
+        }
+
+        /**
+         * Appends the remaining bytes of a buffer, leaving the buffer as it is.
+         */
+        public void write(ByteBuffer src) {
+            if (channel == null) {
+                return;
+            }
+            if (size + src.remaining() > maxFileSize) {
+                abort();
+                return;
+            }
+            ByteBuffer copy = src.duplicate();
+            try {
+                while (copy.hasRemaining()) {
+                    size += channel.write(copy);
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to cache: {}: {}", key, e.getMessage());
+                abort();
+            }
+        }
+
+        /**
+         * Caches the content written as the given version of the file.
+         */
+        public void commit(String version) {
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Failed to cache: {}: {}", key, e.getMessage());
+                abort();
+                return;
+            }
+            channel = null;
+            if (version == null || size == 0) {
+                deleteQuietly(file);
+                return;
+            }
+            HotTierCache.this.commit(this, version);
+        }
+
+        /**
+         * Drops the content written, e.g. when the file was not read to its end.
+         */
+        public void abort() {
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Deleted anyway
+            }
+            channel = null;
+            deleteQuietly(file);
+        }
+    }
+}
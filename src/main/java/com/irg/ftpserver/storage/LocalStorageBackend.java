@@ -0,0 +1,69 @@
+package com.irg.ftpserver.storage;
+
+import com.irg.ftpserver.data.StorageType;
+import org.apache.sshd.common.file.root.RootedFileSystemProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+
+/**
+ * Stores the files of a user in the user's directory on the local disk.
+ */
+@Component
+public class LocalStorageBackend implements StorageBackend {
+    private static final Logger logger = LoggerFactory.getLogger(LocalStorageBackend.class);
+
+    @Override
+    public StorageType getType() {
+        return StorageType.LOCAL;
+    }
+
+    @Override
+    public void createHome(String directory) throws IOException {
+        Path homeDir = Paths.get(directory);
+        if (!Files.exists(homeDir)) {
+            Files.createDirectories(homeDir);
+            logger.info("Home directory created: {}", homeDir);
+        }
+    }
+
+    @Override
+    public FileSystem createFileSystem(String username, String directory) throws IOException {
+        return new RootedFileSystemProvider().newFileSystem(Paths.get(directory), Collections.emptyMap());
+    }
+
+    @Override
+    public long computeUsage(String directory) throws IOException {
+        Path homeDir = Paths.get(directory);
+        if (!Files.exists(homeDir)) {
+            return 0;
+        }
+        long[] usage = new long[1];
+        Files.walkFileTree(homeDir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    usage[0] += attrs.size();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // Deleted while walking
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return usage[0];
+    }
+}
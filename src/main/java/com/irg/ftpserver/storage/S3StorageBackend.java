@@ -0,0 +1,98 @@
+package com.irg.ftpserver.storage;
+
+import com.irg.ftpserver.config.SFTPServerProperties;
+import com.irg.ftpserver.data.StorageType;
+import com.irg.ftpserver.storage.s3.S3Client;
+import com.irg.ftpserver.storage.s3.S3FileSystem;
+import com.irg.ftpserver.storage.s3.S3FileSystemProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.time.Duration;
+
+/**
+ * Stores the files of a user in the configured S3 bucket, under the user's directory as key prefix.
+ * <p>
+ * Uploads are streamed to the bucket in parts of {@code s3PartSize} bytes and downloads are served with ranged GETs,
+ * so no file has to be kept on the local disk. Recently used files are served from the {@link HotTierCache} if it is
+ * enabled. Without an {@code s3Bucket} users cannot be stored in S3.
+ */
+@Component
+public class S3StorageBackend implements StorageBackend {
+    private static final Logger logger = LoggerFactory.getLogger(S3StorageBackend.class);
+
+    private final S3FileSystemProvider provider = new S3FileSystemProvider();
+
+    private final S3Client client;
+
+    private final int partSize;
+
+    private final HotTierCache hotTier;
+
+    public S3StorageBackend(SFTPServerProperties sftpServerProperties, HotTierCache hotTier) {
+        this.partSize = sftpServerProperties.getS3PartSize();
+        this.hotTier = hotTier;
+        String bucket = sftpServerProperties.getS3Bucket();
+        if (bucket == null || bucket.isBlank()) {
+            this.client = null;
+            return;
+        }
+        this.client = new S3Client(URI.create(sftpServerProperties.getS3Endpoint()),
+                sftpServerProperties.getS3Region(), bucket, sftpServerProperties.getS3AccessKey(),
+                sftpServerProperties.getS3SecretKey(), sftpServerProperties.isS3PathStyleAccess(),
+                Duration.ofMillis(sftpServerProperties.getS3RequestTimeout()));
+        logger.info("Initialized S3 storage in bucket: {} at: {}", bucket, sftpServerProperties.getS3Endpoint());
+    }
+
+    @Override
+    public StorageType getType() {
+        return StorageType.S3;
+    }
+
+    @Override
+    public void createHome(String directory) throws IOException {
+        String prefix = toPrefix(directory);
+        if (!prefix.isEmpty() && getClient().headObject(prefix).isEmpty()) {
+            getClient().putObject(prefix, new byte[0], 0, 0);
+            logger.info("Home directory created: {} in bucket: {}", prefix, client.getBucket());
+        }
+    }
+
+    @Override
+    public FileSystem createFileSystem(String username, String directory) throws IOException {
+        return new S3FileSystem(provider, getClient(), toPrefix(directory), partSize, hotTier);
+    }
+
+    @Override
+    public long computeUsage(String directory) throws IOException {
+        long usage = 0;
+        String continuationToken = null;
+        do {
+            S3Client.ListResult page = getClient().listObjects(toPrefix(directory), null, 1000, continuationToken);
+            for (S3Client.ObjectInfo object : page.objects()) {
+                usage += object.size();
+            }
+            continuationToken = page.continuationToken();
+        } while (continuationToken != null);
+        return usage;
+    }
+
+    private S3Client getClient() throws IOException {
+        if (client == null) {
+            throw new IOException("S3 storage is not configured, set sftp.server.s3Bucket");
+        }
+        return client;
+    }
+
+    /**
+     * @return the key prefix of a directory, empty or ending with a slash
+     */
+    private static String toPrefix(String directory) {
+        String prefix = directory == null ? "" : directory.replaceAll("^/+|/+$", "");
+        return prefix.isEmpty() ? "" : prefix + "/";
+    }
+}
@@ -0,0 +1,40 @@
+package com.irg.ftpserver.storage;
+
+import com.irg.ftpserver.data.StorageType;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+
+/**
+ * Where the files of SFTP users are stored, selected per user by its {@link StorageType}.
+ * <p>
+ * A backend roots a user at the user's directory, whose meaning is up to the backend: a directory on the local disk,
+ * a key prefix in an object store.
+ */
+public interface StorageBackend {
+
+    StorageType getType();
+
+    /**
+     * Creates the home of a user if it does not exist yet.
+     *
+     * @param directory the directory of the user
+     */
+    void createHome(String directory) throws IOException;
+
+    /**
+     * Creates a file system rooted at the home of a user. Closing it releases what the backend holds for it.
+     *
+     * @param username  the user
+     * @param directory the directory of the user
+     */
+    FileSystem createFileSystem(String username, String directory) throws IOException;
+
+    /**
+     * Adds up the sizes of all files of a user. Slow, as it visits every file.
+     *
+     * @param directory the directory of the user
+     * @return the bytes stored by the user
+     */
+    long computeUsage(String directory) throws IOException;
+}
@@ -0,0 +1,78 @@
+package com.irg.ftpserver.storage.compressed;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Set;
+
+/**
+ * Attributes of a file on disk with the size of its content. Posix attributes are only there if the file system
+ * of the disk has them.
+ */
+record CompressedFileAttributes(BasicFileAttributes attributes, long size) implements PosixFileAttributes {
+
+    @Override
+    public FileTime lastModifiedTime() {
+        return attributes.lastModifiedTime();
+    }
+
+    @Override
+    public FileTime lastAccessTime() {
+        return attributes.lastAccessTime();
+    }
+
+    @Override
+    public FileTime creationTime() {
+        return attributes.creationTime();
+    }
+
+    @Override
+    public boolean isRegularFile() {
+        return attributes.isRegularFile();
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return attributes.isDirectory();
+    }
+
+    @Override
+    public boolean isSymbolicLink() {
+        return attributes.isSymbolicLink();
+    }
+
+    @Override
+    public boolean isOther() {
+        return attributes.isOther();
+    }
+
+    @Override
+    public Object fileKey() {
+        return attributes.fileKey();
+    }
+
+    @Override
+    public UserPrincipal owner() {
+        return posix().owner();
+    }
+
+    @Override
+    public GroupPrincipal group() {
+        return posix().group();
+    }
+
+    @Override
+    public Set<PosixFilePermission> permissions() {
+        return posix().permissions();
+    }
+
+    private PosixFileAttributes posix() {
+        if (attributes instanceof PosixFileAttributes posixAttributes) {
+            return posixAttributes;
+        }
+        throw new UnsupportedOperationException("No posix attributes");
+    }
+}
@@ -0,0 +1,282 @@
+package com.irg.ftpserver.storage.compressed;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Deflater;
+
+/**
+ * The layout of a file of a {@link CompressedFileSystem} on disk.
+ * <p>
+ * A header of {@link #HEADER_SIZE} bytes, holding a magic number, the method, the block size, the size of the
+ * content and the offset of the index, is followed by the content. {@link #STORED} content follows as it is.
+ * {@link #DEFLATED} content is cut into blocks of the block size, each deflated on its own, followed by an index of
+ * the offsets of the blocks and of the end of the last one. Reading at an offset only inflates the block holding it.
+ * <p>
+ * Files without a valid header, e.g. written before the user's storage type was changed, are plain files.
+ */
+public final class CompressedFileFormat {
+
+    public static final int HEADER_SIZE = 32;
+
+    static final int STORED = 0;
+
+    static final int DEFLATED = 1;
+
+    // "SFTPCMP" and the version of the layout
+    private static final long MAGIC = 0x53465450434d5001L;
+
+    // Bytes of a file read to estimate its entropy, in samples spread evenly over the file
+    private static final int SAMPLES = 16;
+
+    private static final int SAMPLE_SIZE = 4096;
+
+    private static final double LOG_2 = Math.log(2);
+
+    private CompressedFileFormat() {
+    }
+
+    /**
+     * The header of a file.
+     *
+     * @param method      {@link #STORED} or {@link #DEFLATED}
+     * @param blockSize   the size of the blocks before compression
+     * @param size        the size of the content
+     * @param indexOffset the offset of the index of deflated content
+     */
+    record Header(int method, int blockSize, long size, long indexOffset) {
+
+        int blockCount() {
+            return (int) ((size + blockSize - 1) / blockSize);
+        }
+    }
+
+    /**
+     * @return the header of a file, null if it is a plain file
+     */
+    static Header readHeader(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, buffer, 0);
+        buffer.flip();
+        if (buffer.getLong() != MAGIC) {
+            return null;
+        }
+        Header header = new Header(buffer.getInt(), buffer.getInt(), buffer.getLong(), buffer.getLong());
+        if (header.blockSize() <= 0 || header.size() < 0) {
+            return null;
+        }
+        if (header.method() == STORED) {
+            return fileSize == HEADER_SIZE + header.size() ? header : null;
+        }
+        if (header.method() == DEFLATED && header.indexOffset() >= HEADER_SIZE) {
+            long indexSize = (header.blockCount() + 1L) * Long.BYTES;
+            return fileSize == header.indexOffset() + indexSize ? header : null;
+        }
+        return null;
+    }
+
+    /**
+     * @param file the file on disk
+     * @param size the size of the file on disk
+     * @return the size of the content of a regular file
+     */
+    public static long contentSize(Path file, long size) throws IOException {
+        if (size < HEADER_SIZE) {
+            return size;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Header header = readHeader(channel);
+            return header == null ? size : header.size();
+        }
+    }
+
+    /**
+     * Writes an empty file.
+     */
+    static void writeEmpty(FileChannel target, int blockSize) throws IOException {
+        writeHeader(target, new Header(STORED, blockSize, 0, 0));
+    }
+
+    /**
+     * Writes the content of a file, compressed unless it looks incompressible or does not get smaller.
+     *
+     * @param source     the content
+     * @param target     the file to write, empty
+     * @param settings   how to compress
+     * @param statistics where to account for the file
+     */
+    static void write(FileChannel source, FileChannel target, CompressionSettings settings,
+                      CompressionStatistics statistics) throws IOException {
+        long start = System.nanoTime();
+        long size = source.size();
+        boolean compressed = size > HEADER_SIZE && sampleEntropy(source, size) <= settings.entropyThreshold()
+                && deflate(source, size, target, settings);
+        if (!compressed) {
+            target.truncate(0);
+            writeHeader(target, new Header(STORED, settings.blockSize(), size, 0));
+            long position = 0;
+            while (position < size) {
+                position += source.transferTo(position, size - position, target.position(HEADER_SIZE + position));
+            }
+        }
+        statistics.recordWrite(size, target.size(), compressed, System.nanoTime() - start);
+    }
+
+    /**
+     * Reads the index of deflated content.
+     *
+     * @return the offsets of the blocks, followed by the end of the last one
+     */
+    static long[] readIndex(FileChannel channel, Header header) throws IOException {
+        long[] index = new long[header.blockCount() + 1];
+        ByteBuffer buffer = ByteBuffer.allocate(index.length * Long.BYTES);
+        readFully(channel, buffer, header.indexOffset());
+        buffer.flip();
+        buffer.asLongBuffer().get(index);
+        return index;
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of compressed file");
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Deflates the content block by block.
+     *
+     * @return whether the content got smaller
+     */
+    private static boolean deflate(FileChannel source, long size, FileChannel target, CompressionSettings settings)
+            throws IOException {
+        int blockSize = settings.blockSize();
+        Header header = new Header(DEFLATED, blockSize, size, 0);
+        long[] index = new long[header.blockCount() + 1];
+        ByteBuffer input = ByteBuffer.allocate(blockSize);
+        byte[] output = new byte[blockSize];
+        Deflater deflater = new Deflater(settings.level(), true);
+        try {
+            long position = HEADER_SIZE;
+            for (int block = 0; block < index.length - 1; block++) {
+                index[block] = position;
+                input.clear().limit((int) Math.min(blockSize, size - (long) block * blockSize));
+                readFully(source, input, (long) block * blockSize);
+                position = deflateBlock(deflater, input.array(), input.limit(), output, target, position);
+                if (position >= size) {
+                    // No smaller than the content itself
+                    return false;
+                }
+            }
+            index[index.length - 1] = position;
+            finishDeflated(target, header, index, position);
+            return true;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Deflates one block on its own.
+     *
+     * @param position where the block goes in the target
+     * @return the end of the deflated block in the target
+     */
+    static long deflateBlock(Deflater deflater, byte[] input, int length, byte[] output, FileChannel target,
+                             long position) throws IOException {
+        deflater.reset();
+        deflater.setInput(input, 0, length);
+        deflater.finish();
+        while (!deflater.finished()) {
+            int deflated = deflater.deflate(output);
+            ByteBuffer buffer = ByteBuffer.wrap(output, 0, deflated);
+            while (buffer.hasRemaining()) {
+                position += target.write(buffer, position);
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Writes the index after the last deflated block and then the header, which makes the file valid.
+     *
+     * @param header the header, without the offset of the index
+     * @param index  the offsets of the blocks, followed by the end of the last one
+     * @param end    the end of the last block, where the index goes
+     */
+    static void finishDeflated(FileChannel target, Header header, long[] index, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((header.blockCount() + 1) * Long.BYTES);
+        buffer.asLongBuffer().put(index, 0, header.blockCount() + 1);
+        long position = end;
+        while (buffer.hasRemaining()) {
+            position += target.write(buffer, position);
+        }
+        writeHeader(target, new Header(DEFLATED, header.blockSize(), header.size(), end));
+    }
+
+    /**
+     * @return whether a block of content looks compressible, judged by its entropy
+     */
+    static boolean isCompressible(byte[] block, int length, CompressionSettings settings) {
+        long[] counts = new long[256];
+        for (int i = 0; i < length; i++) {
+            counts[block[i] & 0xff]++;
+        }
+        return length > HEADER_SIZE && entropy(counts, length) <= settings.entropyThreshold();
+    }
+
+    /**
+     * @return the Shannon entropy of samples of the content in bits per byte, close to 8 for compressed or
+     * encrypted content
+     */
+    private static double sampleEntropy(FileChannel source, long size) throws IOException {
+        long[] counts = new long[256];
+        long total = 0;
+        ByteBuffer sample = ByteBuffer.allocate((int) Math.min(SAMPLE_SIZE, size));
+        int samples = (int) Math.min(SAMPLES, Math.max(1, size / SAMPLE_SIZE));
+        for (int i = 0; i < samples; i++) {
+            long position = samples == 1 ? 0 : (size - sample.capacity()) * i / (samples - 1);
+            sample.clear();
+            readFully(source, sample, position);
+            for (int j = 0; j < sample.capacity(); j++) {
+                counts[sample.get(j) & 0xff]++;
+            }
+            total += sample.capacity();
+        }
+        return entropy(counts, total);
+    }
+
+    private static double entropy(long[] counts, long total) {
+        double entropy = 0;
+        for (long count : counts) {
+            if (count > 0) {
+                double probability = (double) count / total;
+                entropy -= probability * Math.log(probability) / LOG_2;
+            }
+        }
+        return entropy;
+    }
+
+    static void writeHeader(FileChannel target, Header header) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        buffer.putLong(MAGIC)
+                .putInt(header.method())
+                .putInt(header.blockSize())
+                .putLong(header.size())
+                .putLong(header.indexOffset())
+                .flip();
+        while (buffer.hasRemaining()) {
+            target.write(buffer, buffer.position());
+        }
+    }
+}
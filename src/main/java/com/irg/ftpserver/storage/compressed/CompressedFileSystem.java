@@ -0,0 +1,76 @@
+package com.irg.ftpserver.storage.compressed;
+
+import org.apache.sshd.common.file.util.BaseFileSystem;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A file system of the files under a directory on the local disk, whose contents are compressed at rest.
+ * <p>
+ * Files are compressed when a handle that wrote them is closed and decompressed block by block as they are read, see
+ * {@link CompressedFileFormat}. Sizes are those of the contents, everything else is that of the files on disk.
+ */
+public class CompressedFileSystem extends BaseFileSystem<CompressedPath> {
+
+    private final Path root;
+
+    private final CompressionSettings settings;
+
+    private final CompressionStatistics statistics;
+
+    private volatile boolean open = true;
+
+    /**
+     * @param root       the directory on the local disk
+     * @param settings   how files are compressed
+     * @param statistics where to account for compressing and decompressing files
+     */
+    public CompressedFileSystem(CompressedFileSystemProvider provider, Path root, CompressionSettings settings,
+                                CompressionStatistics statistics) {
+        super(provider);
+        this.root = root.toAbsolutePath().normalize();
+        this.settings = settings;
+        this.statistics = statistics;
+    }
+
+    @Override
+    protected CompressedPath create(String root, List<String> names) {
+        return new CompressedPath(this, root, names);
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public Set<String> supportedFileAttributeViews() {
+        return FileSystems.getDefault().supportedFileAttributeViews();
+    }
+
+    @Override
+    public UserPrincipalLookupService getUserPrincipalLookupService() {
+        return FileSystems.getDefault().getUserPrincipalLookupService();
+    }
+
+    Path getRoot() {
+        return root;
+    }
+
+    CompressionSettings getSettings() {
+        return settings;
+    }
+
+    CompressionStatistics getStatistics() {
+        return statistics;
+    }
+}
@@ -0,0 +1,322 @@
+package com.irg.ftpserver.storage.compressed;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.UserPrincipal;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * File system operations on {@link CompressedFileSystem}s, which are created by the compressed storage backend
+ * rather than by URI.
+ * <p>
+ * Everything but reading and writing files and their sizes is done on the files on disk. Copies and moves take
+ * the compressed files along as they are. Files being written are streamed or spooled to hidden temporary files
+ * next to them, which are left out of directory listings.
+ */
+public class CompressedFileSystemProvider extends FileSystemProvider {
+
+    private static final String TEMPORARY_SUFFIX = ".sftp-tmp";
+
+    @Override
+    public String getScheme() {
+        return "compressed";
+    }
+
+    @Override
+    public FileSystem newFileSystem(URI uri, Map<String, ?> env) {
+        throw new UnsupportedOperationException("Compressed file systems are created by the storage backend");
+    }
+
+    @Override
+    public FileSystem getFileSystem(URI uri) {
+        throw new UnsupportedOperationException("Compressed file systems are created by the storage backend");
+    }
+
+    @Override
+    public Path getPath(URI uri) {
+        throw new UnsupportedOperationException("Compressed file systems are created by the storage backend");
+    }
+
+    @Override
+    public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options,
+                                              FileAttribute<?>... attrs) throws IOException {
+        CompressedPath compressedPath = toCompressedPath(path);
+        CompressedFileSystem fileSystem = compressedPath.getFileSystem();
+        Path local = compressedPath.toLocalPath();
+        if (Files.isDirectory(local)) {
+            throw new FileSystemException(path.toString(), null, "Is a directory");
+        }
+        if (!options.contains(StandardOpenOption.WRITE) && !options.contains(StandardOpenOption.APPEND)) {
+            FileChannel channel = FileChannel.open(local, StandardOpenOption.READ);
+            try {
+                CompressedFileFormat.Header header = CompressedFileFormat.readHeader(channel);
+                return header == null ? channel
+                        : new CompressedReadChannel(channel, header, fileSystem.getStatistics());
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        boolean exists = Files.exists(local);
+        if (exists && options.contains(StandardOpenOption.CREATE_NEW)) {
+            throw new FileAlreadyExistsException(path.toString());
+        }
+        if (!exists && !options.contains(StandardOpenOption.CREATE)
+                && !options.contains(StandardOpenOption.CREATE_NEW)) {
+            throw new NoSuchFileException(path.toString());
+        }
+        if (!exists) {
+            // The file is there while it is written, as on any other disk
+            try (FileChannel channel = FileChannel.open(local, Set.of(StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE), attrs)) {
+                CompressedFileFormat.writeEmpty(channel, fileSystem.getSettings().blockSize());
+            }
+        }
+        boolean streaming = !exists || options.contains(StandardOpenOption.TRUNCATE_EXISTING);
+        Path temporary = temporarySibling(local);
+        FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            if (!streaming) {
+                try (SeekableByteChannel existing = newByteChannel(path, Set.of(StandardOpenOption.READ))) {
+                    long size = existing.size();
+                    long position = 0;
+                    while (position < size) {
+                        position += channel.transferFrom(existing, position, size - position);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        return new CompressedWriteChannel(local, temporary, channel, streaming,
+                options.contains(StandardOpenOption.APPEND), fileSystem.getSettings(), fileSystem.getStatistics());
+    }
+
+    @Override
+    public DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter)
+            throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(toCompressedPath(dir).toLocalPath())) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TEMPORARY_SUFFIX)) {
+                    continue;
+                }
+                Path entry = dir.resolve(name);
+                if (filter == null || filter.accept(entry)) {
+                    entries.add(entry);
+                }
+            }
+        }
+        return new DirectoryStream<>() {
+            @Override
+            public Iterator<Path> iterator() {
+                return entries.iterator();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public void createDirectory(Path dir, FileAttribute<?>... attrs) throws IOException {
+        Files.createDirectory(toCompressedPath(dir).toLocalPath(), attrs);
+    }
+
+    @Override
+    public void delete(Path path) throws IOException {
+        Files.delete(toCompressedPath(path).toLocalPath());
+    }
+
+    @Override
+    public void copy(Path source, Path target, CopyOption... options) throws IOException {
+        Files.copy(toCompressedPath(source).toLocalPath(), toCompressedPath(target).toLocalPath(), options);
+    }
+
+    @Override
+    public void move(Path source, Path target, CopyOption... options) throws IOException {
+        Files.move(toCompressedPath(source).toLocalPath(), toCompressedPath(target).toLocalPath(), options);
+    }
+
+    @Override
+    public boolean isSameFile(Path path, Path path2) throws IOException {
+        return Files.isSameFile(toCompressedPath(path).toLocalPath(), toCompressedPath(path2).toLocalPath());
+    }
+
+    @Override
+    public boolean isHidden(Path path) throws IOException {
+        return Files.isHidden(toCompressedPath(path).toLocalPath());
+    }
+
+    @Override
+    public FileStore getFileStore(Path path) throws IOException {
+        return Files.getFileStore(toCompressedPath(path).toLocalPath());
+    }
+
+    @Override
+    public void checkAccess(Path path, AccessMode... modes) throws IOException {
+        Path local = toCompressedPath(path).toLocalPath();
+        local.getFileSystem().provider().checkAccess(local, modes);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
+        Path local = toCompressedPath(path).toLocalPath();
+        V view = Files.getFileAttributeView(local, type, options);
+        if (view == null || (type != BasicFileAttributeView.class && type != PosixFileAttributeView.class)) {
+            return view;
+        }
+        return (V) new CompressedFileAttributeView(path, view, options);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options)
+            throws IOException {
+        if (!type.isAssignableFrom(CompressedFileAttributes.class)) {
+            throw new UnsupportedOperationException("Compressed files only have basic and posix attributes");
+        }
+        Path local = toCompressedPath(path).toLocalPath();
+        A attributes = Files.readAttributes(local, type, options);
+        long size = attributes.isRegularFile() ? CompressedFileFormat.contentSize(local, attributes.size())
+                : attributes.size();
+        return (A) new CompressedFileAttributes(attributes, size);
+    }
+
+    @Override
+    public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options)
+            throws IOException {
+        Path local = toCompressedPath(path).toLocalPath();
+        Map<String, Object> read = new HashMap<>(Files.readAttributes(local, attributes, options));
+        if (read.get("size") instanceof Long size && Files.isRegularFile(local, options)) {
+            read.put("size", CompressedFileFormat.contentSize(local, size));
+        }
+        return read;
+    }
+
+    @Override
+    public void setAttribute(Path path, String attribute, Object value, LinkOption... options) throws IOException {
+        if (attribute.equals("size") || attribute.endsWith(":size")) {
+            throw new UnsupportedOperationException("Cannot set the size of a compressed file: " + attribute);
+        }
+        Files.setAttribute(toCompressedPath(path).toLocalPath(), attribute, value, options);
+    }
+
+    /**
+     * @return a new hidden temporary file name next to a file on disk
+     */
+    static Path temporarySibling(Path local) {
+        return local.resolveSibling("." + local.getFileName() + "." + UUID.randomUUID() + TEMPORARY_SUFFIX);
+    }
+
+    /**
+     * @return whether a file on disk is a temporary file of a file being written
+     */
+    public static boolean isTemporary(Path local) {
+        return local.getFileName().toString().endsWith(TEMPORARY_SUFFIX);
+    }
+
+    private static CompressedPath toCompressedPath(Path path) {
+        if (path instanceof CompressedPath compressedPath) {
+            return compressedPath;
+        }
+        throw new ProviderMismatchException("Not a compressed path: " + path);
+    }
+
+    /**
+     * Attribute view of a file on disk, reading the size of its content.
+     */
+    private final class CompressedFileAttributeView implements PosixFileAttributeView {
+        private final Path path;
+        private final FileAttributeView view;
+        private final LinkOption[] options;
+
+        CompressedFileAttributeView(Path path, FileAttributeView view, LinkOption... options) {
+            this.path = path;
+            this.view = view;
+            this.options = options;
+        }
+
+        @Override
+        public String name() {
+            return view.name();
+        }
+
+        @Override
+        public PosixFileAttributes readAttributes() throws IOException {
+            return CompressedFileSystemProvider.this.readAttributes(path, CompressedFileAttributes.class, options);
+        }
+
+        @Override
+        public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime)
+                throws IOException {
+            ((BasicFileAttributeView) view).setTimes(lastModifiedTime, lastAccessTime, createTime);
+        }
+
+        @Override
+        public void setPermissions(Set<PosixFilePermission> perms) throws IOException {
+            posix().setPermissions(perms);
+        }
+
+        @Override
+        public void setGroup(GroupPrincipal group) throws IOException {
+            posix().setGroup(group);
+        }
+
+        @Override
+        public UserPrincipal getOwner() throws IOException {
+            return posix().getOwner();
+        }
+
+        @Override
+        public void setOwner(UserPrincipal owner) throws IOException {
+            posix().setOwner(owner);
+        }
+
+        private PosixFileAttributeView posix() {
+            if (view instanceof PosixFileAttributeView posixView) {
+                return posixView;
+            }
+            throw new UnsupportedOperationException("No posix attributes");
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.irg.ftpserver.storage.compressed;
+
+import org.apache.sshd.common.file.util.BasePath;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * A path of a {@link CompressedFileSystem}, naming the file at the same path under the file system's root directory.
+ */
+public class CompressedPath extends BasePath<CompressedPath, CompressedFileSystem> {
+
+    public CompressedPath(CompressedFileSystem fileSystem, String root, List<String> names) {
+        super(fileSystem, root, names);
+    }
+
+    @Override
+    public CompressedPath toRealPath(LinkOption... options) throws IOException {
+        CompressedPath absolute = toAbsolutePath().normalize();
+        getFileSystem().provider().checkAccess(absolute);
+        return absolute;
+    }
+
+    @Override
+    public File toFile() {
+        throw new UnsupportedOperationException("Not a plain file: " + this);
+    }
+
+    /**
+     * @return the file on disk, never outside the root directory of the file system
+     */
+    Path toLocalPath() {
+        Path local = getFileSystem().getRoot();
+        for (String name : toAbsolutePath().normalize().names) {
+            if (!name.equals("..") && !name.equals(".") && !name.isEmpty()) {
+                local = local.resolve(name);
+            }
+        }
+        return local;
+    }
+}
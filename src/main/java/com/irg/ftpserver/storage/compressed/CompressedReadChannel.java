@@ -0,0 +1,182 @@
+package com.irg.ftpserver.storage.compressed;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the content of a file of a {@link CompressedFileSystem} from any position.
+ * <p>
+ * Deflated content is read a block at a time: the block holding the position is looked up in the index, read and
+ * inflated, and kept for the reads that follow, so a sequential download inflates every block once and a read at
+ * an arbitrary offset only inflates one block.
+ */
+class CompressedReadChannel implements SeekableByteChannel {
+
+    private final FileChannel channel;
+
+    private final CompressedFileFormat.Header header;
+
+    private final CompressionStatistics statistics;
+
+    private final long[] index;
+
+    private final Inflater inflater;
+
+    private long position;
+
+    private byte[] compressed = new byte[0];
+
+    private byte[] block;
+
+    private int blockNumber = -1;
+
+    private int blockLength;
+
+    /**
+     * @param channel the file, closed with this channel
+     * @param header  the header of the file
+     */
+    CompressedReadChannel(FileChannel channel, CompressedFileFormat.Header header, CompressionStatistics statistics)
+            throws IOException {
+        this.channel = channel;
+        this.header = header;
+        this.statistics = statistics;
+        if (header.method() == CompressedFileFormat.DEFLATED) {
+            this.index = CompressedFileFormat.readIndex(channel, header);
+            this.inflater = new Inflater(true);
+            this.block = new byte[header.blockSize()];
+        } else {
+            this.index = null;
+            this.inflater = null;
+        }
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= header.size()) {
+            return -1;
+        }
+        int total = 0;
+        while (dst.hasRemaining() && position < header.size()) {
+            int read = index == null ? readStored(dst) : readDeflated(dst);
+            if (read <= 0) {
+                break;
+            }
+            position += read;
+            total += read;
+        }
+        return total;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position: " + newPosition);
+        }
+        ensureOpen();
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return header.size();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (inflater != null && channel.isOpen()) {
+            inflater.end();
+        }
+        channel.close();
+    }
+
+    private int readStored(ByteBuffer dst) throws IOException {
+        int length = (int) Math.min(dst.remaining(), header.size() - position);
+        ByteBuffer slice = dst.slice(dst.position(), length);
+        int read = channel.read(slice, CompressedFileFormat.HEADER_SIZE + position);
+        if (read > 0) {
+            dst.position(dst.position() + read);
+        }
+        return read;
+    }
+
+    private int readDeflated(ByteBuffer dst) throws IOException {
+        int number = (int) (position / header.blockSize());
+        if (number != blockNumber) {
+            inflate(number);
+        }
+        int offset = (int) (position - (long) number * header.blockSize());
+        int length = Math.min(dst.remaining(), blockLength - offset);
+        dst.put(block, offset, length);
+        return length;
+    }
+
+    private void inflate(int number) throws IOException {
+        long start = System.nanoTime();
+        int length = (int) (index[number + 1] - index[number]);
+        if (compressed.length < length) {
+            compressed = new byte[length];
+        }
+        CompressedFileFormat.readFully(channel, ByteBuffer.wrap(compressed, 0, length), index[number]);
+        int expected = (int) Math.min(header.blockSize(), header.size() - (long) number * header.blockSize());
+        inflater.reset();
+        inflater.setInput(compressed, 0, length);
+        int inflated = 0;
+        try {
+            while (inflated < expected) {
+                int count = inflater.inflate(block, inflated, expected - inflated);
+                if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                inflated += count;
+            }
+        } catch (DataFormatException e) {
+            blockNumber = -1;
+            throw new IOException("Corrupt block " + number + " of compressed file", e);
+        }
+        if (inflated != expected) {
+            blockNumber = -1;
+            throw new IOException("Block " + number + " of compressed file has " + inflated + " bytes instead of "
+                    + expected);
+        }
+        blockNumber = number;
+        blockLength = inflated;
+        statistics.recordRead(inflated, System.nanoTime() - start);
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!channel.isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package com.irg.ftpserver.storage.compressed;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a file of a {@link CompressedFileSystem}.
+ * <p>
+ * A file written from its start, as uploads are, is streamed: writes fill a block in memory, and every full block
+ * is deflated straight into a temporary file next to the file, so the content is never on disk uncompressed and
+ * close only has the last block, the index and the header left to write. Whether the file is deflated or stored
+ * as it is gets decided from the entropy of its first block.
+ * <p>
+ * Once a client writes at any other offset, reads, or truncates, and for files opened without truncating them,
+ * the content is spooled uncompressed to a temporary file instead, so clients can write at any offset and read
+ * back what they wrote, and the spool is compressed on close.
+ * <p>
+ * Either way the temporary file atomically replaces the file on close, so readers see either the old or the new
+ * content, never a file in between.
+ */
+class CompressedWriteChannel implements SeekableByteChannel {
+
+    private final Path file;
+
+    private final boolean append;
+
+    private final CompressionSettings settings;
+
+    private final CompressionStatistics statistics;
+
+    // The streamed file while streaming, the spool afterwards
+    private Path temporary;
+
+    private FileChannel channel;
+
+    private boolean streaming;
+
+    private boolean open = true;
+
+    private long position;
+
+    // Streaming state: the block being filled, the content streamed before it and where the next block goes
+    private byte[] block;
+
+    private int blockLength;
+
+    private long streamed;
+
+    private int method = -1;
+
+    private long[] index = new long[16];
+
+    private int blocks;
+
+    private long end = CompressedFileFormat.HEADER_SIZE;
+
+    private Deflater deflater;
+
+    private byte[] output;
+
+    private long compressNanos;
+
+    /**
+     * @param file      the file on disk
+     * @param temporary the file streamed to, or the spool file, deleted on close
+     * @param channel   the temporary file opened for reading and writing, empty when streaming, or else holding the
+     *                  content the file starts with
+     * @param streaming whether the file is written from its start and streamed
+     * @param append    whether every write goes to the end of the file
+     */
+    CompressedWriteChannel(Path file, Path temporary, FileChannel channel, boolean streaming, boolean append,
+                           CompressionSettings settings, CompressionStatistics statistics) {
+        this.file = file;
+        this.temporary = temporary;
+        this.channel = channel;
+        this.streaming = streaming;
+        this.append = append;
+        this.settings = settings;
+        this.statistics = statistics;
+        if (streaming) {
+            this.block = new byte[settings.blockSize()];
+        }
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (streaming) {
+            spool();
+        }
+        int read = channel.read(dst, position);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src) throws IOException {
+        ensureOpen();
+        if (append) {
+            position = size();
+        }
+        if (streaming && position != size()) {
+            spool();
+        }
+        int written = 0;
+        if (streaming) {
+            while (src.hasRemaining()) {
+                int length = Math.min(src.remaining(), block.length - blockLength);
+                src.get(block, blockLength, length);
+                blockLength += length;
+                written += length;
+                if (blockLength == block.length) {
+                    flushBlock();
+                }
+            }
+        } else {
+            while (src.hasRemaining()) {
+                written += channel.write(src, position + written);
+            }
+        }
+        position += written;
+        return written;
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position: " + newPosition);
+        }
+        ensureOpen();
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public synchronized long size() throws IOException {
+        ensureOpen();
+        return streaming ? streamed + blockLength : channel.size();
+    }
+
+    @Override
+    public synchronized SeekableByteChannel truncate(long size) throws IOException {
+        ensureOpen();
+        if (streaming && size < size()) {
+            spool();
+        }
+        if (!streaming) {
+            channel.truncate(size);
+        }
+        position = Math.min(position, size);
+        return this;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+        Path compressed = streaming ? temporary : CompressedFileSystemProvider.temporarySibling(file);
+        try {
+            if (streaming) {
+                finishStream();
+            } else {
+                try (FileChannel target = FileChannel.open(compressed, StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    CompressedFileFormat.write(channel, target, settings, statistics);
+                }
+            }
+            channel.close();
+            if (Files.exists(file)) {
+                Files.setPosixFilePermissions(compressed, Files.getPosixFilePermissions(file));
+            }
+            Files.move(compressed, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            try {
+                channel.close();
+            } finally {
+                endDeflater();
+                Files.deleteIfExists(temporary);
+                Files.deleteIfExists(compressed);
+            }
+        }
+    }
+
+    /**
+     * Stores or deflates the full or last block at the end of the streamed file.
+     */
+    private void flushBlock() throws IOException {
+        long start = System.nanoTime();
+        if (method < 0) {
+            method = CompressedFileFormat.isCompressible(block, blockLength, settings)
+                    ? CompressedFileFormat.DEFLATED : CompressedFileFormat.STORED;
+        }
+        if (method == CompressedFileFormat.STORED) {
+            ByteBuffer buffer = ByteBuffer.wrap(block, 0, blockLength);
+            long offset = CompressedFileFormat.HEADER_SIZE + streamed;
+            while (buffer.hasRemaining()) {
+                offset += channel.write(buffer, offset);
+            }
+        } else {
+            if (deflater == null) {
+                deflater = new Deflater(settings.level(), true);
+                output = new byte[block.length];
+            }
+            if (blocks + 1 >= index.length) {
+                index = Arrays.copyOf(index, index.length * 2);
+            }
+            index[blocks++] = end;
+            end = CompressedFileFormat.deflateBlock(deflater, block, blockLength, output, channel, end);
+        }
+        streamed += blockLength;
+        blockLength = 0;
+        compressNanos += System.nanoTime() - start;
+    }
+
+    private void finishStream() throws IOException {
+        if (blockLength > 0) {
+            flushBlock();
+        }
+        long start = System.nanoTime();
+        if (method == CompressedFileFormat.DEFLATED) {
+            finishIndex();
+        } else {
+            CompressedFileFormat.writeHeader(channel, new CompressedFileFormat.Header(CompressedFileFormat.STORED,
+                    settings.blockSize(), streamed, 0));
+        }
+        compressNanos += System.nanoTime() - start;
+        statistics.recordWrite(streamed, channel.size(), method == CompressedFileFormat.DEFLATED, compressNanos);
+    }
+
+    private void finishIndex() throws IOException {
+        index[blocks] = end;
+        CompressedFileFormat.finishDeflated(channel, new CompressedFileFormat.Header(CompressedFileFormat.DEFLATED,
+                settings.blockSize(), streamed, 0), index, end);
+    }
+
+    /**
+     * Stops streaming, moving the content written so far to a spool file.
+     */
+    private void spool() throws IOException {
+        Path spool = CompressedFileSystemProvider.temporarySibling(file);
+        FileChannel spoolChannel = FileChannel.open(spool, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            if (method == CompressedFileFormat.DEFLATED) {
+                finishIndex();
+                CompressedFileFormat.Header header = CompressedFileFormat.readHeader(channel);
+                try (SeekableByteChannel content = new CompressedReadChannel(channel, header, statistics)) {
+                    long copied = 0;
+                    while (copied < streamed) {
+                        copied += spoolChannel.transferFrom(content, copied, streamed - copied);
+                    }
+                }
+            } else {
+                long copied = 0;
+                while (copied < streamed) {
+                    copied += channel.transferTo(CompressedFileFormat.HEADER_SIZE + copied, streamed - copied,
+                            spoolChannel.position(copied));
+                }
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(block, 0, blockLength);
+            long offset = streamed;
+            while (buffer.hasRemaining()) {
+                offset += spoolChannel.write(buffer, offset);
+            }
+        } catch (IOException | RuntimeException e) {
+            spoolChannel.close();
+            Files.deleteIfExists(spool);
+            throw e;
+        }
+        channel.close();
+        Files.deleteIfExists(temporary);
+        endDeflater();
+        temporary = spool;
+        channel = spoolChannel;
+        streaming = false;
+        block = null;
+    }
+
+    private void endDeflater() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+}
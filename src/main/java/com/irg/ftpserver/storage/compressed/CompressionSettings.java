@@ -0,0 +1,11 @@
+package com.irg.ftpserver.storage.compressed;
+
+/**
+ * How files of a {@link CompressedFileSystem} are compressed.
+ *
+ * @param blockSize        the number of bytes compressed independently of each other, the unit of random reads
+ * @param level            the deflate level, 1 for the fastest
+ * @param entropyThreshold the sampled entropy in bits per byte above which a file is stored uncompressed
+ */
+public record CompressionSettings(int blockSize, int level, double entropyThreshold) {
+}
@@ -0,0 +1,82 @@
+package com.irg.ftpserver.storage.compressed;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What compressing and decompressing the files of a user achieved and cost since startup.
+ */
+public final class CompressionStatistics {
+
+    private final LongAdder compressedFiles = new LongAdder();
+
+    private final LongAdder storedFiles = new LongAdder();
+
+    private final LongAdder rawBytes = new LongAdder();
+
+    private final LongAdder storedBytes = new LongAdder();
+
+    private final LongAdder compressNanos = new LongAdder();
+
+    private final LongAdder decompressedBytes = new LongAdder();
+
+    private final LongAdder decompressNanos = new LongAdder();
+
+    /**
+     * Accounts for a file written.
+     *
+     * @param rawBytes    the size of the file
+     * @param storedBytes the bytes stored for it
+     * @param compressed  whether it was compressed, or stored as it is
+     * @param nanos       the time spent sampling and compressing it
+     */
+    void recordWrite(long rawBytes, long storedBytes, boolean compressed, long nanos) {
+        (compressed ? compressedFiles : storedFiles).increment();
+        this.rawBytes.add(rawBytes);
+        this.storedBytes.add(storedBytes);
+        compressNanos.add(nanos);
+    }
+
+    /**
+     * Accounts for a block decompressed.
+     */
+    void recordRead(int bytes, long nanos) {
+        decompressedBytes.add(bytes);
+        decompressNanos.add(nanos);
+    }
+
+    public long getCompressedFiles() {
+        return compressedFiles.sum();
+    }
+
+    public long getStoredFiles() {
+        return storedFiles.sum();
+    }
+
+    public long getRawBytes() {
+        return rawBytes.sum();
+    }
+
+    public long getStoredBytes() {
+        return storedBytes.sum();
+    }
+
+    /**
+     * @return the size of the files written by the bytes stored for them, 1 before anything was written
+     */
+    public double getRatio() {
+        long stored = storedBytes.sum();
+        return stored == 0 ? 1 : (double) rawBytes.sum() / stored;
+    }
+
+    public double getCompressSeconds() {
+        return compressNanos.sum() / 1e9;
+    }
+
+    public long getDecompressedBytes() {
+        return decompressedBytes.sum();
+    }
+
+    public double getDecompressSeconds() {
+        return decompressNanos.sum() / 1e9;
+    }
+}
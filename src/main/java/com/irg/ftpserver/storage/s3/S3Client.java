@@ -0,0 +1,428 @@
+package com.irg.ftpserver.storage.s3;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Client for the part of the S3 API the S3 file system needs, for AWS and S3-compatible stores such as MinIO.
+ * <p>
+ * Requests are made with the JDK HTTP client and signed with AWS Signature Version 4, leaving payloads unsigned.
+ * Objects are addressed path-style, {@code endpoint/bucket/key}, or virtual-hosted, {@code bucket.endpoint/key}.
+ * Errors returned by the store are thrown as {@link S3Exception}.
+ */
+public class S3Client {
+
+    private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'")
+            .withZone(ZoneOffset.UTC);
+
+    private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(CONNECT_TIMEOUT)
+            .build();
+
+    private final URI endpoint;
+
+    private final String region;
+
+    private final String bucket;
+
+    private final String accessKey;
+
+    private final String secretKey;
+
+    private final boolean pathStyleAccess;
+
+    private final Duration requestTimeout;
+
+    /**
+     * @param requestTimeout how long to wait for the response of a request until its headers arrive, so that a store
+     *                       that stops responding fails the SFTP request instead of holding its thread
+     */
+    public S3Client(URI endpoint, String region, String bucket, String accessKey, String secretKey,
+                    boolean pathStyleAccess, Duration requestTimeout) {
+        this.endpoint = endpoint;
+        this.region = region;
+        this.bucket = bucket;
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.pathStyleAccess = pathStyleAccess;
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * An object of the bucket.
+     *
+     * @param eTag identifies the content of the object, changes whenever it is replaced. Null if not known.
+     */
+    public record ObjectInfo(String key, long size, Instant lastModified, String eTag) {
+    }
+
+    /**
+     * One page of a listing.
+     *
+     * @param objects           the objects directly under the prefix
+     * @param prefixes          the prefixes up to the next delimiter, i.e. subdirectories
+     * @param continuationToken the token of the next page, null on the last one
+     */
+    public record ListResult(List<ObjectInfo> objects, List<String> prefixes, String continuationToken) {
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    /**
+     * @return the object, empty if there is none with the key
+     */
+    public Optional<ObjectInfo> headObject(String key) throws IOException {
+        HttpResponse<InputStream> response = send("HEAD", key, Map.of(), Map.of(), null);
+        try (InputStream ignored = response.body()) {
+            if (response.statusCode() == 404) {
+                return Optional.empty();
+            }
+            check(response);
+            long size = response.headers().firstValueAsLong("Content-Length").orElse(0);
+            Instant lastModified = response.headers().firstValue("Last-Modified")
+                    .map(value -> ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant())
+                    .orElse(Instant.EPOCH);
+            return Optional.of(new ObjectInfo(key, size, lastModified,
+                    response.headers().firstValue("ETag").orElse(null)));
+        }
+    }
+
+    /**
+     * Streams an object from an offset to its end.
+     */
+    public InputStream getObject(String key, long offset) throws IOException {
+        Map<String, String> headers = offset > 0 ? Map.of("range", "bytes=" + offset + "-") : Map.of();
+        HttpResponse<InputStream> response = send("GET", key, Map.of(), headers, null);
+        if (response.statusCode() == 416) {
+            // The offset is at or past the end
+            response.body().close();
+            return InputStream.nullInputStream();
+        }
+        check(response);
+        return response.body();
+    }
+
+    /**
+     * @return the ETag of the object, null if the store did not return one
+     */
+    public String putObject(String key, byte[] data, int offset, int length) throws IOException {
+        HttpResponse<InputStream> response = send("PUT", key, Map.of(), Map.of(),
+                HttpRequest.BodyPublishers.ofByteArray(data, offset, length));
+        response.body().close();
+        check(response);
+        return response.headers().firstValue("ETag").orElse(null);
+    }
+
+    public void deleteObject(String key) throws IOException {
+        HttpResponse<InputStream> response = send("DELETE", key, Map.of(), Map.of(), null);
+        response.body().close();
+        check(response);
+    }
+
+    /**
+     * Copies an object of at most 5 GB within the bucket.
+     */
+    public void copyObject(String sourceKey, String targetKey) throws IOException {
+        HttpResponse<InputStream> response = send("PUT", targetKey, Map.of(),
+                Map.of("x-amz-copy-source", copySource(sourceKey)), HttpRequest.BodyPublishers.noBody());
+        // A copy can fail after the response status was sent
+        parse(check(response));
+    }
+
+    /**
+     * Lists the objects and prefixes under a prefix, up to the next delimiter.
+     */
+    public ListResult listObjects(String prefix, String delimiter, int maxKeys, String continuationToken)
+            throws IOException {
+        Map<String, String> query = new LinkedHashMap<>();
+        query.put("list-type", "2");
+        query.put("prefix", prefix);
+        if (delimiter != null) {
+            query.put("delimiter", delimiter);
+        }
+        query.put("max-keys", Integer.toString(maxKeys));
+        if (continuationToken != null) {
+            query.put("continuation-token", continuationToken);
+        }
+        Document document = parse(check(send("GET", "", query, Map.of(), null)));
+        List<ObjectInfo> objects = new ArrayList<>();
+        NodeList contents = document.getElementsByTagName("Contents");
+        for (int i = 0; i < contents.getLength(); i++) {
+            Element content = (Element) contents.item(i);
+            objects.add(new ObjectInfo(text(content, "Key"), Long.parseLong(text(content, "Size")),
+                    Instant.parse(text(content, "LastModified")), text(content, "ETag")));
+        }
+        List<String> prefixes = new ArrayList<>();
+        NodeList commonPrefixes = document.getElementsByTagName("CommonPrefixes");
+        for (int i = 0; i < commonPrefixes.getLength(); i++) {
+            prefixes.add(text((Element) commonPrefixes.item(i), "Prefix"));
+        }
+        String next = "true".equals(text(document.getDocumentElement(), "IsTruncated"))
+                ? text(document.getDocumentElement(), "NextContinuationToken") : null;
+        return new ListResult(objects, prefixes, next);
+    }
+
+    /**
+     * @return the id of the new upload
+     */
+    public String createMultipartUpload(String key) throws IOException {
+        Document document = parse(check(send("POST", key, Map.of("uploads", ""), Map.of(),
+                HttpRequest.BodyPublishers.noBody())));
+        return text(document.getDocumentElement(), "UploadId");
+    }
+
+    /**
+     * @return the ETag of the part
+     */
+    public String uploadPart(String key, String uploadId, int partNumber, byte[] data, int offset, int length)
+            throws IOException {
+        HttpResponse<InputStream> response = send("PUT", key, partQuery(uploadId, partNumber), Map.of(),
+                HttpRequest.BodyPublishers.ofByteArray(data, offset, length));
+        response.body().close();
+        check(response);
+        return response.headers().firstValue("ETag")
+                .orElseThrow(() -> new S3Exception(response.statusCode(), "MissingETag", "No ETag for part"));
+    }
+
+    /**
+     * Copies the bytes {@code first} to {@code last} of an object as a part of an upload.
+     *
+     * @return the ETag of the part
+     */
+    public String uploadPartCopy(String key, String uploadId, int partNumber, String sourceKey, long first,
+                                 long last) throws IOException {
+        Map<String, String> headers = Map.of("x-amz-copy-source", copySource(sourceKey),
+                "x-amz-copy-source-range", "bytes=" + first + "-" + last);
+        Document document = parse(check(send("PUT", key, partQuery(uploadId, partNumber), headers,
+                HttpRequest.BodyPublishers.noBody())));
+        return text(document.getDocumentElement(), "ETag");
+    }
+
+    /**
+     * @param etags the ETags of the parts in part number order, starting at 1
+     * @return the ETag of the object
+     */
+    public String completeMultipartUpload(String key, String uploadId, List<String> etags) throws IOException {
+        StringBuilder body = new StringBuilder("<CompleteMultipartUpload>");
+        for (int i = 0; i < etags.size(); i++) {
+            body.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>")
+                    .append(etags.get(i).replace("&", "&amp;").replace("<", "&lt;"))
+                    .append("</ETag></Part>");
+        }
+        body.append("</CompleteMultipartUpload>");
+        // Like a copy, completing can fail after the response status was sent
+        Document document = parse(check(send("POST", key, Map.of("uploadId", uploadId), Map.of(),
+                HttpRequest.BodyPublishers.ofString(body.toString()))));
+        return text(document.getDocumentElement(), "ETag");
+    }
+
+    public void abortMultipartUpload(String key, String uploadId) throws IOException {
+        HttpResponse<InputStream> response = send("DELETE", key, Map.of("uploadId", uploadId), Map.of(), null);
+        response.body().close();
+        check(response);
+    }
+
+    private HttpResponse<InputStream> send(String method, String key, Map<String, String> query,
+                                           Map<String, String> headers, HttpRequest.BodyPublisher body)
+            throws IOException {
+        String path;
+        String host;
+        if (pathStyleAccess) {
+            path = basePath() + "/" + encode(bucket, false) + "/" + encode(key, false);
+            host = endpoint.getHost();
+        } else {
+            path = basePath() + "/" + encode(key, false);
+            host = bucket + "." + endpoint.getHost();
+        }
+        String authority = endpoint.getPort() == -1 ? host : host + ":" + endpoint.getPort();
+        StringBuilder queryString = new StringBuilder();
+        for (Map.Entry<String, String> parameter : new TreeMap<>(query).entrySet()) {
+            if (!queryString.isEmpty()) {
+                queryString.append('&');
+            }
+            queryString.append(encode(parameter.getKey(), true)).append('=')
+                    .append(encode(parameter.getValue(), true));
+        }
+        URI uri = URI.create(endpoint.getScheme() + "://" + authority + path
+                + (queryString.isEmpty() ? "" : "?" + queryString));
+
+        Instant now = Instant.now();
+        String amzDate = AMZ_DATE.format(now);
+        TreeMap<String, String> signedHeaders = new TreeMap<>(headers);
+        signedHeaders.put("host", authority);
+        signedHeaders.put("x-amz-content-sha256", UNSIGNED_PAYLOAD);
+        signedHeaders.put("x-amz-date", amzDate);
+
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                .timeout(requestTimeout)
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : body)
+                .header("Authorization", authorization(method, path, queryString.toString(), signedHeaders,
+                        amzDate));
+        signedHeaders.forEach((name, value) -> {
+            if (!name.equals("host")) {
+                request.header(name, value);
+            }
+        });
+        try {
+            return httpClient.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during S3 " + method + " of: " + key);
+        }
+    }
+
+    private String authorization(String method, String path, String query, TreeMap<String, String> headers,
+                                 String amzDate) {
+        StringBuilder canonicalHeaders = new StringBuilder();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            canonicalHeaders.append(header.getKey()).append(':').append(header.getValue().trim()).append('\n');
+        }
+        String signedHeaders = String.join(";", headers.keySet());
+        String canonicalRequest = method + "\n" + path + "\n" + query + "\n" + canonicalHeaders + "\n"
+                + signedHeaders + "\n" + UNSIGNED_PAYLOAD;
+        String date = amzDate.substring(0, 8);
+        String scope = date + "/" + region + "/s3/aws4_request";
+        String stringToSign = "AWS4-HMAC-SHA256\n" + amzDate + "\n" + scope + "\n" + sha256Hex(canonicalRequest);
+        byte[] key = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), date);
+        key = hmac(key, region);
+        key = hmac(key, "s3");
+        key = hmac(key, "aws4_request");
+        String signature = HexFormat.of().formatHex(hmac(key, stringToSign));
+        return "AWS4-HMAC-SHA256 Credential=" + accessKey + "/" + scope + ", SignedHeaders=" + signedHeaders
+                + ", Signature=" + signature;
+    }
+
+    private String basePath() {
+        String path = endpoint.getRawPath();
+        return path == null || path.equals("/") ? "" : path.replaceAll("/+$", "");
+    }
+
+    private String copySource(String sourceKey) {
+        return "/" + encode(bucket, false) + "/" + encode(sourceKey, false);
+    }
+
+    private static Map<String, String> partQuery(String uploadId, int partNumber) {
+        return Map.of("partNumber", Integer.toString(partNumber), "uploadId", uploadId);
+    }
+
+    /**
+     * @return the body of a successful response
+     */
+    private static InputStream check(HttpResponse<InputStream> response) throws IOException {
+        if (response.statusCode() / 100 == 2) {
+            return response.body();
+        }
+        String code = "Http" + response.statusCode();
+        String message = "";
+        try (InputStream body = response.body()) {
+            byte[] error = body.readAllBytes();
+            if (error.length > 0) {
+                Element root = parseDocument(new ByteArrayInputStream(error)).getDocumentElement();
+                code = text(root, "Code");
+                message = text(root, "Message");
+            }
+        } catch (IOException e) {
+            // Not an S3 error document
+        }
+        throw new S3Exception(response.statusCode(), code, message);
+    }
+
+    private static Document parse(InputStream body) throws IOException {
+        Document document = parseDocument(body);
+        Element root = document.getDocumentElement();
+        if (root.getTagName().equals("Error")) {
+            throw new S3Exception(200, text(root, "Code"), text(root, "Message"));
+        }
+        return document;
+    }
+
+    private static Document parseDocument(InputStream body) throws IOException {
+        try (body) {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            return factory.newDocumentBuilder().parse(body);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Invalid S3 response: " + e.getMessage(), e);
+        }
+    }
+
+    private static String text(Element parent, String tagName) {
+        NodeList elements = parent.getElementsByTagName(tagName);
+        return elements.getLength() == 0 ? null : elements.item(0).getTextContent();
+    }
+
+    /**
+     * URI-encodes everything but unreserved characters, and slashes unless encoding a query parameter.
+     */
+    private static String encode(String value, boolean encodeSlash) {
+        StringBuilder encoded = new StringBuilder();
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~' || (c == '/' && !encodeSlash)) {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(HexFormat.of().withUpperCase().toHexDigits(b));
+            }
+        }
+        return encoded.toString();
+    }
+
+    private static String sha256Hex(String value) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+                    .digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String value) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(value.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.irg.ftpserver.storage.s3;
+
+import com.irg.ftpserver.storage.HotTierCache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Reads an object through ranged GETs, streaming it from the position of the first read.
+ * <p>
+ * Sequential reads continue on the same response, a short skip forward reads past the skipped bytes, and any other
+ * change of position starts a new GET from there. An object read from start to end without a change of position is
+ * added to the hot tier as it is read.
+ */
+class S3DownloadChannel implements SeekableByteChannel {
+
+    // Skipping forward this far is cheaper than a new request
+    private static final long MAX_SKIP = 1024 * 1024;
+
+    private final S3Client client;
+
+    private final String key;
+
+    private final long size;
+
+    private InputStream stream;
+
+    private long streamPosition;
+
+    private long position;
+
+    private boolean open = true;
+
+    private HotTierCache.Fill fill;
+
+    private final String eTag;
+
+    /**
+     * @param fill the fill to add the object to the hot tier with, null to not cache it
+     * @param eTag the version of the object to cache
+     */
+    S3DownloadChannel(S3Client client, String key, long size, HotTierCache.Fill fill, String eTag) {
+        this.client = client;
+        this.key = key;
+        this.size = size;
+        this.fill = fill;
+        this.eTag = eTag;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size) {
+            return -1;
+        }
+        if (stream != null && position > streamPosition && position - streamPosition <= MAX_SKIP) {
+            stream.skipNBytes(position - streamPosition);
+            streamPosition = position;
+        }
+        if (stream == null || streamPosition != position) {
+            closeStream();
+            stream = client.getObject(key, position);
+            streamPosition = position;
+        }
+        int length = (int) Math.min(dst.remaining(), size - position);
+        int start = dst.position();
+        int read;
+        if (dst.hasArray()) {
+            read = stream.readNBytes(dst.array(), dst.arrayOffset() + dst.position(), length);
+            dst.position(dst.position() + read);
+        } else {
+            byte[] bytes = stream.readNBytes(length);
+            read = bytes.length;
+            dst.put(bytes);
+        }
+        if (read == 0 && length > 0) {
+            // The object is shorter than when it was opened
+            return -1;
+        }
+        fill(dst.duplicate().position(start).limit(start + read), position);
+        position += read;
+        streamPosition += read;
+        if (fill != null && position == size) {
+            fill.commit(eTag);
+            fill = null;
+        }
+        return read;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public synchronized long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        open = false;
+        if (fill != null) {
+            fill.abort();
+            fill = null;
+        }
+        closeStream();
+    }
+
+    /**
+     * Adds the bytes read at an offset to the hot tier, as long as the object is read in order.
+     */
+    private void fill(ByteBuffer read, long offset) {
+        if (fill == null) {
+            return;
+        }
+        if (offset != fill.size()) {
+            fill.abort();
+            fill = null;
+            return;
+        }
+        fill.write(read);
+    }
+
+    private void closeStream() throws IOException {
+        if (stream != null) {
+            InputStream closing = stream;
+            stream = null;
+            closing.close();
+        }
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+}
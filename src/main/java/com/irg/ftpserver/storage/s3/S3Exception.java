@@ -0,0 +1,30 @@
+package com.irg.ftpserver.storage.s3;
+
+import java.io.IOException;
+
+/**
+ * An error returned by an S3 store.
+ */
+public class S3Exception extends IOException {
+
+    private final int statusCode;
+
+    private final String code;
+
+    public S3Exception(int statusCode, String code, String message) {
+        super(code + " (" + statusCode + "): " + message);
+        this.statusCode = statusCode;
+        this.code = code;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return the S3 error code, e.g. NoSuchKey
+     */
+    public String getCode() {
+        return code;
+    }
+}
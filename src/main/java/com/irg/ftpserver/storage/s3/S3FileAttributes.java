@@ -0,0 +1,67 @@
+package com.irg.ftpserver.storage.s3;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Basic attributes of an object or a directory. S3 keeps only the last modified time, used for all times. The ETag
+ * of an object identifies its content, directories have none.
+ */
+record S3FileAttributes(long size, FileTime lastModifiedTime, boolean isDirectory, String eTag)
+        implements BasicFileAttributes {
+
+    static final Set<String> NAMES = Set.of("size", "lastModifiedTime", "lastAccessTime", "creationTime",
+            "isDirectory", "isRegularFile", "isSymbolicLink", "isOther", "fileKey");
+
+    @Override
+    public FileTime lastAccessTime() {
+        return lastModifiedTime;
+    }
+
+    @Override
+    public FileTime creationTime() {
+        return lastModifiedTime;
+    }
+
+    @Override
+    public boolean isRegularFile() {
+        return !isDirectory;
+    }
+
+    @Override
+    public boolean isSymbolicLink() {
+        return false;
+    }
+
+    @Override
+    public boolean isOther() {
+        return false;
+    }
+
+    @Override
+    public Object fileKey() {
+        return null;
+    }
+
+    Map<String, Object> toMap(Set<String> names) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (String name : names) {
+            switch (name) {
+                case "size" -> map.put(name, size);
+                case "lastModifiedTime" -> map.put(name, lastModifiedTime);
+                case "lastAccessTime" -> map.put(name, lastAccessTime());
+                case "creationTime" -> map.put(name, creationTime());
+                case "isDirectory" -> map.put(name, isDirectory);
+                case "isRegularFile" -> map.put(name, isRegularFile());
+                case "isSymbolicLink" -> map.put(name, false);
+                case "isOther" -> map.put(name, false);
+                case "fileKey" -> map.put(name, null);
+                default -> throw new IllegalArgumentException("Unknown attribute: " + name);
+            }
+        }
+        return map;
+    }
+}
@@ -0,0 +1,90 @@
+package com.irg.ftpserver.storage.s3;
+
+import com.irg.ftpserver.storage.HotTierCache;
+import org.apache.sshd.common.file.util.BaseFileSystem;
+
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A file system of the objects under a key prefix of an S3 bucket.
+ * <p>
+ * Directories are the prefixes up to a slash, made to exist without objects in them by an empty marker object
+ * named like the directory with a trailing slash. Files are written as multipart uploads of {@code partSize} bytes.
+ * Files read or written as a whole are kept in the hot tier, which serves them as long as their ETag is unchanged.
+ */
+public class S3FileSystem extends BaseFileSystem<S3Path> {
+
+    private final S3Client client;
+
+    private final String prefix;
+
+    private final int partSize;
+
+    private final HotTierCache hotTier;
+
+    private volatile boolean open = true;
+
+    /**
+     * @param prefix   the key prefix of the root directory, empty or ending with a slash
+     * @param partSize the size of the parts of uploads
+     * @param hotTier  the cache of recently used files
+     */
+    public S3FileSystem(S3FileSystemProvider provider, S3Client client, String prefix, int partSize,
+                        HotTierCache hotTier) {
+        super(provider);
+        this.client = client;
+        this.prefix = prefix;
+        this.partSize = partSize;
+        this.hotTier = hotTier;
+    }
+
+    @Override
+    protected S3Path create(String root, List<String> names) {
+        return new S3Path(this, root, names);
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public Set<String> supportedFileAttributeViews() {
+        return Set.of("basic");
+    }
+
+    @Override
+    public UserPrincipalLookupService getUserPrincipalLookupService() {
+        throw new UnsupportedOperationException("S3 objects have no owners");
+    }
+
+    S3Client getClient() {
+        return client;
+    }
+
+    String getPrefix() {
+        return prefix;
+    }
+
+    int getPartSize() {
+        return partSize;
+    }
+
+    HotTierCache getHotTier() {
+        return hotTier;
+    }
+
+    /**
+     * @return the key of a file in the hot tier, unique across buckets
+     */
+    String toCacheKey(String key) {
+        return client.getBucket() + "/" + key;
+    }
+}
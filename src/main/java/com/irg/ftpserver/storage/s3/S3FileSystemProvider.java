@@ -0,0 +1,410 @@
+package com.irg.ftpserver.storage.s3;
+
+import com.irg.ftpserver.data.HotTierWritePolicy;
+import com.irg.ftpserver.storage.HotTierCache;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.spi.FileSystemProvider;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * File system operations on {@link S3FileSystem}s, which are created by the S3 storage backend rather than by URI.
+ * <p>
+ * S3 has no rename, so moving copies and then deletes, one object at a time for directories. A move or copy that
+ * fails halfway leaves both the source and the part of the target copied so far. Objects larger than a single copy
+ * allows are copied in parts. Times cannot be set, S3 sets the last modified time of an object when it is written.
+ */
+public class S3FileSystemProvider extends FileSystemProvider {
+
+    // Largest object copied with a single request, and the size of the parts of larger copies
+    private static final long MAX_COPY_SIZE = 5L * 1024 * 1024 * 1024;
+
+    private static final int LIST_PAGE_SIZE = 1000;
+
+    @Override
+    public String getScheme() {
+        return "s3";
+    }
+
+    @Override
+    public FileSystem newFileSystem(URI uri, Map<String, ?> env) {
+        throw new UnsupportedOperationException("S3 file systems are created by the S3 storage backend");
+    }
+
+    @Override
+    public FileSystem getFileSystem(URI uri) {
+        throw new UnsupportedOperationException("S3 file systems are created by the S3 storage backend");
+    }
+
+    @Override
+    public Path getPath(URI uri) {
+        throw new UnsupportedOperationException("S3 file systems are created by the S3 storage backend");
+    }
+
+    @Override
+    public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options,
+                                              FileAttribute<?>... attrs) throws IOException {
+        S3Path s3Path = toS3Path(path);
+        S3Client client = s3Path.getFileSystem().getClient();
+        String key = s3Path.toKey();
+        if (!options.contains(StandardOpenOption.WRITE) && !options.contains(StandardOpenOption.APPEND)) {
+            S3FileAttributes attributes = attributes(s3Path)
+                    .orElseThrow(() -> new NoSuchFileException(path.toString()));
+            if (attributes.isDirectory()) {
+                throw new FileSystemException(path.toString(), null, "Is a directory");
+            }
+            S3FileSystem fileSystem = s3Path.getFileSystem();
+            String cacheKey = fileSystem.toCacheKey(key);
+            SeekableByteChannel cached = fileSystem.getHotTier().open(cacheKey, attributes.eTag());
+            if (cached != null) {
+                return cached;
+            }
+            HotTierCache.Fill fill = attributes.eTag() == null ? null
+                    : fileSystem.getHotTier().fill(cacheKey, attributes.size());
+            return new S3DownloadChannel(client, key, attributes.size(), fill, attributes.eTag());
+        }
+        if (options.contains(StandardOpenOption.READ) || options.contains(StandardOpenOption.APPEND)) {
+            throw new UnsupportedOperationException("S3 objects can only be read or replaced");
+        }
+        Optional<S3FileAttributes> existing = attributes(s3Path);
+        if (existing.isPresent()) {
+            if (existing.get().isDirectory()) {
+                throw new FileSystemException(path.toString(), null, "Is a directory");
+            }
+            if (options.contains(StandardOpenOption.CREATE_NEW)) {
+                throw new FileAlreadyExistsException(path.toString());
+            }
+            if (!options.contains(StandardOpenOption.TRUNCATE_EXISTING) && existing.get().size() > 0) {
+                throw new UnsupportedOperationException("S3 objects can only be replaced, not modified");
+            }
+        } else if (!options.contains(StandardOpenOption.CREATE) && !options.contains(StandardOpenOption.CREATE_NEW)) {
+            throw new NoSuchFileException(path.toString());
+        } else {
+            requireDirectory(s3Path.getParent());
+        }
+        HotTierCache hotTier = s3Path.getFileSystem().getHotTier();
+        String cacheKey = s3Path.getFileSystem().toCacheKey(key);
+        hotTier.invalidate(cacheKey);
+        HotTierCache.Fill fill = hotTier.getWritePolicy() == HotTierWritePolicy.WRITE_THROUGH
+                ? hotTier.fill(cacheKey, -1) : null;
+        return new S3UploadChannel(client, key, s3Path.getFileSystem().getPartSize(), fill);
+    }
+
+    @Override
+    public DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter)
+            throws IOException {
+        S3Path s3Dir = toS3Path(dir);
+        requireDirectory(s3Dir);
+        String prefix = directoryPrefix(s3Dir);
+        S3Client client = s3Dir.getFileSystem().getClient();
+        Set<String> names = new LinkedHashSet<>();
+        String continuationToken = null;
+        do {
+            S3Client.ListResult page = client.listObjects(prefix, "/", LIST_PAGE_SIZE, continuationToken);
+            for (S3Client.ObjectInfo object : page.objects()) {
+                if (!object.key().equals(prefix)) {
+                    names.add(object.key().substring(prefix.length()));
+                }
+            }
+            for (String subdirectory : page.prefixes()) {
+                names.add(subdirectory.substring(prefix.length(), subdirectory.length() - 1));
+            }
+            continuationToken = page.continuationToken();
+        } while (continuationToken != null);
+
+        List<Path> entries = new ArrayList<>(names.size());
+        for (String name : names) {
+            Path entry = dir.resolve(name);
+            if (filter == null || filter.accept(entry)) {
+                entries.add(entry);
+            }
+        }
+        return new DirectoryStream<>() {
+            @Override
+            public Iterator<Path> iterator() {
+                return entries.iterator();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public void createDirectory(Path dir, FileAttribute<?>... attrs) throws IOException {
+        S3Path s3Dir = toS3Path(dir);
+        if (attributes(s3Dir).isPresent()) {
+            throw new FileAlreadyExistsException(dir.toString());
+        }
+        requireDirectory(s3Dir.getParent());
+        s3Dir.getFileSystem().getClient().putObject(directoryPrefix(s3Dir), new byte[0], 0, 0);
+    }
+
+    @Override
+    public void delete(Path path) throws IOException {
+        S3Path s3Path = toS3Path(path);
+        S3FileAttributes attributes = attributes(s3Path).orElseThrow(() -> new NoSuchFileException(path.toString()));
+        S3Client client = s3Path.getFileSystem().getClient();
+        if (!attributes.isDirectory()) {
+            client.deleteObject(s3Path.toKey());
+            s3Path.getFileSystem().getHotTier().invalidate(s3Path.getFileSystem().toCacheKey(s3Path.toKey()));
+            return;
+        }
+        if (isRoot(s3Path)) {
+            throw new FileSystemException(path.toString(), null, "Cannot delete the root directory");
+        }
+        String prefix = directoryPrefix(s3Path);
+        for (S3Client.ObjectInfo object : client.listObjects(prefix, null, 2, null).objects()) {
+            if (!object.key().equals(prefix)) {
+                throw new DirectoryNotEmptyException(path.toString());
+            }
+        }
+        client.deleteObject(prefix);
+    }
+
+    @Override
+    public void copy(Path source, Path target, CopyOption... options) throws IOException {
+        transfer(toS3Path(source), toS3Path(target), false, options);
+    }
+
+    @Override
+    public void move(Path source, Path target, CopyOption... options) throws IOException {
+        transfer(toS3Path(source), toS3Path(target), true, options);
+    }
+
+    @Override
+    public boolean isSameFile(Path path, Path path2) {
+        return path.toAbsolutePath().normalize().equals(path2.toAbsolutePath().normalize());
+    }
+
+    @Override
+    public boolean isHidden(Path path) {
+        return false;
+    }
+
+    @Override
+    public FileStore getFileStore(Path path) {
+        throw new UnsupportedOperationException("S3 file systems have no file stores");
+    }
+
+    @Override
+    public void checkAccess(Path path, AccessMode... modes) throws IOException {
+        if (attributes(toS3Path(path)).isEmpty()) {
+            throw new NoSuchFileException(path.toString());
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
+        if (type != BasicFileAttributeView.class) {
+            return null;
+        }
+        return (V) new BasicFileAttributeView() {
+            @Override
+            public String name() {
+                return "basic";
+            }
+
+            @Override
+            public BasicFileAttributes readAttributes() throws IOException {
+                return S3FileSystemProvider.this.readAttributes(path, BasicFileAttributes.class, options);
+            }
+
+            @Override
+            public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime)
+                    throws IOException {
+                checkAccess(path);
+            }
+        };
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options)
+            throws IOException {
+        if (!type.isAssignableFrom(S3FileAttributes.class)) {
+            throw new UnsupportedOperationException("S3 objects only have basic attributes");
+        }
+        return (A) attributes(toS3Path(path)).orElseThrow(() -> new NoSuchFileException(path.toString()));
+    }
+
+    @Override
+    public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options)
+            throws IOException {
+        int colon = attributes.indexOf(':');
+        if (colon >= 0 && !attributes.substring(0, colon).equals("basic")) {
+            throw new UnsupportedOperationException("S3 objects only have basic attributes: " + attributes);
+        }
+        String names = attributes.substring(colon + 1);
+        S3FileAttributes fileAttributes = readAttributes(path, S3FileAttributes.class, options);
+        return fileAttributes.toMap(names.equals("*") ? S3FileAttributes.NAMES
+                : new LinkedHashSet<>(Arrays.asList(names.split(","))));
+    }
+
+    @Override
+    public void setAttribute(Path path, String attribute, Object value, LinkOption... options) throws IOException {
+        String name = attribute.startsWith("basic:") ? attribute.substring("basic:".length()) : attribute;
+        if (!name.endsWith("Time")) {
+            throw new UnsupportedOperationException("Cannot set attribute of S3 object: " + attribute);
+        }
+        // S3 keeps its own times
+        checkAccess(path);
+    }
+
+    /**
+     * @return the attributes of a file or directory, empty if there is none at the path
+     */
+    Optional<S3FileAttributes> attributes(S3Path path) throws IOException {
+        if (isRoot(path)) {
+            return Optional.of(directoryAttributes(Instant.EPOCH));
+        }
+        S3Client client = path.getFileSystem().getClient();
+        Optional<S3Client.ObjectInfo> object = client.headObject(path.toKey());
+        if (object.isPresent()) {
+            return Optional.of(new S3FileAttributes(object.get().size(),
+                    FileTime.from(object.get().lastModified()), false, object.get().eTag()));
+        }
+        List<S3Client.ObjectInfo> children = client.listObjects(directoryPrefix(path), null, 1, null).objects();
+        if (children.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(directoryAttributes(children.get(0).lastModified()));
+    }
+
+    private void transfer(S3Path source, S3Path target, boolean move, CopyOption... options) throws IOException {
+        S3FileAttributes attributes = attributes(source).orElseThrow(() -> new NoSuchFileException(source.toString()));
+        if (isSameFile(source, target)) {
+            return;
+        }
+        Optional<S3FileAttributes> existing = attributes(target);
+        if (existing.isPresent()) {
+            if (!Arrays.asList(options).contains(StandardCopyOption.REPLACE_EXISTING)) {
+                throw new FileAlreadyExistsException(target.toString());
+            }
+            delete(target);
+        } else {
+            requireDirectory(target.getParent());
+        }
+        S3Client client = source.getFileSystem().getClient();
+        if (!attributes.isDirectory()) {
+            copyObject(client, source.toKey(), target.toKey(), attributes.size());
+            if (move) {
+                client.deleteObject(source.toKey());
+                source.getFileSystem().getHotTier().invalidate(source.getFileSystem().toCacheKey(source.toKey()));
+            }
+            return;
+        }
+        String sourcePrefix = directoryPrefix(source);
+        String targetPrefix = directoryPrefix(target);
+        if (targetPrefix.startsWith(sourcePrefix)) {
+            throw new FileSystemException(source.toString(), target.toString(), "Cannot move a directory into itself");
+        }
+        if (!move) {
+            // Like a local copy, copying a directory does not copy its entries
+            client.putObject(targetPrefix, new byte[0], 0, 0);
+            return;
+        }
+        client.putObject(targetPrefix, new byte[0], 0, 0);
+        String continuationToken = null;
+        do {
+            S3Client.ListResult page = client.listObjects(sourcePrefix, null, LIST_PAGE_SIZE, continuationToken);
+            for (S3Client.ObjectInfo object : page.objects()) {
+                String targetKey = targetPrefix + object.key().substring(sourcePrefix.length());
+                if (!targetKey.equals(targetPrefix)) {
+                    copyObject(client, object.key(), targetKey, object.size());
+                }
+            }
+            for (S3Client.ObjectInfo object : page.objects()) {
+                client.deleteObject(object.key());
+            }
+            continuationToken = page.continuationToken();
+        } while (continuationToken != null);
+    }
+
+    private static void copyObject(S3Client client, String sourceKey, String targetKey, long size)
+            throws IOException {
+        if (size <= MAX_COPY_SIZE) {
+            client.copyObject(sourceKey, targetKey);
+            return;
+        }
+        String uploadId = client.createMultipartUpload(targetKey);
+        try {
+            List<String> etags = new ArrayList<>();
+            for (long first = 0; first < size; first += MAX_COPY_SIZE) {
+                long last = Math.min(first + MAX_COPY_SIZE, size) - 1;
+                etags.add(client.uploadPartCopy(targetKey, uploadId, etags.size() + 1, sourceKey, first, last));
+            }
+            client.completeMultipartUpload(targetKey, uploadId, etags);
+        } catch (IOException | RuntimeException e) {
+            try {
+                client.abortMultipartUpload(targetKey, uploadId);
+            } catch (IOException abortFailure) {
+                e.addSuppressed(abortFailure);
+            }
+            throw e;
+        }
+    }
+
+    private void requireDirectory(S3Path dir) throws IOException {
+        if (dir == null) {
+            return;
+        }
+        S3FileAttributes attributes = attributes(dir).orElseThrow(() -> new NoSuchFileException(dir.toString()));
+        if (!attributes.isDirectory()) {
+            throw new NotDirectoryException(dir.toString());
+        }
+    }
+
+    private static boolean isRoot(S3Path path) {
+        return path.toKey().equals(path.getFileSystem().getPrefix());
+    }
+
+    private static String directoryPrefix(S3Path dir) {
+        String key = dir.toKey();
+        return key.isEmpty() || key.endsWith("/") ? key : key + "/";
+    }
+
+    private static S3FileAttributes directoryAttributes(Instant lastModified) {
+        return new S3FileAttributes(0, FileTime.from(lastModified), true, null);
+    }
+
+    private static S3Path toS3Path(Path path) {
+        if (path instanceof S3Path s3Path) {
+            return s3Path;
+        }
+        throw new ProviderMismatchException("Not an S3 path: " + path);
+    }
+}
@@ -0,0 +1,47 @@
+package com.irg.ftpserver.storage.s3;
+
+import org.apache.sshd.common.file.util.BasePath;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.LinkOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A path of an {@link S3FileSystem}, naming the object at the file system's prefix followed by the path.
+ */
+public class S3Path extends BasePath<S3Path, S3FileSystem> {
+
+    public S3Path(S3FileSystem fileSystem, String root, List<String> names) {
+        super(fileSystem, root, names);
+    }
+
+    @Override
+    public S3Path toRealPath(LinkOption... options) throws IOException {
+        S3Path absolute = toAbsolutePath().normalize();
+        getFileSystem().provider().checkAccess(absolute);
+        return absolute;
+    }
+
+    @Override
+    public File toFile() {
+        throw new UnsupportedOperationException("Not a local file: " + this);
+    }
+
+    /**
+     * @return the key of the object, the file system's prefix for its root. Never outside the prefix.
+     */
+    String toKey() {
+        Deque<String> resolved = new ArrayDeque<>();
+        for (String name : toAbsolutePath().names) {
+            if (name.equals("..")) {
+                resolved.pollLast();
+            } else if (!name.equals(".") && !name.isEmpty()) {
+                resolved.addLast(name);
+            }
+        }
+        return getFileSystem().getPrefix() + String.join("/", resolved);
+    }
+}
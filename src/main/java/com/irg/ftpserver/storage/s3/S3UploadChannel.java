@@ -0,0 +1,194 @@
+package com.irg.ftpserver.storage.s3;
+
+import com.irg.ftpserver.storage.HotTierCache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes an object as a multipart upload, so that no more than one part of it is held in memory.
+ * <p>
+ * Objects cannot be modified, so data must be written in order. A part is uploaded whenever {@code partSize} bytes
+ * are buffered, and the upload is completed on close. Objects smaller than a part are written with a single put
+ * instead. A failed upload is aborted, leaving any object it was to replace as it was, and every later write or
+ * close of the channel fails, as the data of the failed part cannot be told apart from a retry. With a fill, the
+ * object is also written to the hot tier, and cached once it was uploaded.
+ */
+class S3UploadChannel implements SeekableByteChannel {
+
+    private final S3Client client;
+
+    private final String key;
+
+    private final int partSize;
+
+    private final List<String> etags = new ArrayList<>();
+
+    private byte[] part;
+
+    private int partLength;
+
+    private long size;
+
+    private long position;
+
+    private String uploadId;
+
+    private boolean open = true;
+
+    // Why the upload was aborted while writing, null while it goes on
+    private IOException failure;
+
+    private final HotTierCache.Fill fill;
+
+    /**
+     * @param fill the fill to write the object to the hot tier with, null to not cache it
+     */
+    S3UploadChannel(S3Client client, String key, int partSize, HotTierCache.Fill fill) {
+        this.client = client;
+        this.key = key;
+        this.partSize = partSize;
+        this.fill = fill;
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src) throws IOException {
+        ensureOpen();
+        if (position != size) {
+            throw new IOException("S3 objects are written in order, expected offset: " + size + " but got: "
+                    + position);
+        }
+        int length = src.remaining();
+        try {
+            if (fill != null) {
+                fill.write(src);
+            }
+            while (src.hasRemaining()) {
+                if (part == null) {
+                    part = new byte[partSize];
+                }
+                int chunk = Math.min(src.remaining(), part.length - partLength);
+                src.get(part, partLength, chunk);
+                partLength += chunk;
+                if (partLength == part.length) {
+                    uploadPart();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            abort(e);
+            failure = e instanceof IOException ioException ? ioException
+                    : new IOException("Upload of S3 object: " + key + " failed", e);
+            throw e;
+        }
+        size += length;
+        position = size;
+        return length;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) {
+        throw new NonReadableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public synchronized long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel truncate(long newSize) throws IOException {
+        ensureOpen();
+        if (newSize < size) {
+            throw new UnsupportedOperationException("S3 objects cannot be truncated while they are written");
+        }
+        return this;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+        if (failure != null) {
+            throw new IOException("Upload of S3 object: " + key + " was aborted", failure);
+        }
+        String eTag;
+        try {
+            if (uploadId == null) {
+                eTag = client.putObject(key, part == null ? new byte[0] : part, 0, partLength);
+            } else {
+                if (partLength > 0) {
+                    uploadPart();
+                }
+                eTag = client.completeMultipartUpload(key, uploadId, etags);
+            }
+        } catch (IOException | RuntimeException e) {
+            abort(e);
+            throw e;
+        } finally {
+            part = null;
+        }
+        if (fill != null) {
+            fill.commit(eTag);
+        }
+    }
+
+    /**
+     * Drops the fill and the multipart upload after a failure, adding a failure to abort to it.
+     */
+    private void abort(Exception e) {
+        part = null;
+        if (fill != null) {
+            fill.abort();
+        }
+        if (uploadId != null) {
+            try {
+                client.abortMultipartUpload(key, uploadId);
+            } catch (IOException | RuntimeException abortFailure) {
+                e.addSuppressed(abortFailure);
+            }
+        }
+    }
+
+    private void uploadPart() throws IOException {
+        if (uploadId == null) {
+            uploadId = client.createMultipartUpload(key);
+        }
+        etags.add(client.uploadPart(key, uploadId, etags.size() + 1, part, 0, partLength));
+        partLength = 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        if (failure != null) {
+            throw new IOException("Upload of S3 object: " + key + " was aborted", failure);
+        }
+    }
+}
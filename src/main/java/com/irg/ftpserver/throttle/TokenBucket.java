@@ -0,0 +1,89 @@
+package com.irg.ftpserver.throttle;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Lock-free token bucket limiting a byte rate, implemented as a generic cell rate algorithm: instead of counting
+ * tokens it keeps the time at which the bucket will be empty again, so a reservation is a single CAS.
+ * <p>
+ * After being idle the bucket lets {@code burst} worth of the rate through without delay. Reservations never fail;
+ * they return how long the caller has to wait for its bytes to be within the rate. A rate of 0 means unlimited.
+ * The rate can be changed at any time, which forgives any delay owed at the old rate.
+ */
+public class TokenBucket {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final LongSupplier nanoClock;
+    private final AtomicLong emptyAt;
+    private volatile long bytesPerSecond;
+    private volatile long burstNanos;
+
+    /**
+     * @param bytesPerSecond the rate, 0 for unlimited
+     * @param burstMillis    how much of the rate, in ms, may pass without delay after the bucket was idle
+     */
+    public TokenBucket(long bytesPerSecond, long burstMillis) {
+        this(bytesPerSecond, burstMillis, System::nanoTime);
+    }
+
+    TokenBucket(long bytesPerSecond, long burstMillis, LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+        this.emptyAt = new AtomicLong(nanoClock.getAsLong());
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        this.burstNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, burstMillis));
+    }
+
+    /**
+     * Takes tokens for the bytes.
+     *
+     * @param bytes the number of bytes
+     * @return how long to wait, in nanoseconds, before transferring the bytes; 0 if they can go now
+     */
+    public long reserve(int bytes) {
+        long rate = bytesPerSecond;
+        if (rate <= 0 || bytes <= 0) {
+            return 0;
+        }
+        long cost = bytes * NANOS_PER_SECOND / rate;
+        while (true) {
+            long now = nanoClock.getAsLong();
+            long current = emptyAt.get();
+            long next = Math.max(current, now) + cost;
+            if (emptyAt.compareAndSet(current, next)) {
+                return Math.max(0, next - now - burstNanos);
+            }
+        }
+    }
+
+    /**
+     * @return the rate in bytes per second, 0 for unlimited
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Changes the rate. Delay owed at the previous rate is forgiven.
+     *
+     * @param bytesPerSecond the new rate, 0 for unlimited
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        long rate = Math.max(0, bytesPerSecond);
+        if (rate != this.bytesPerSecond) {
+            this.bytesPerSecond = rate;
+            emptyAt.set(nanoClock.getAsLong());
+        }
+    }
+
+    /**
+     * Changes the burst allowance.
+     *
+     * @param burstMillis how much of the rate, in ms, may pass without delay after the bucket was idle
+     */
+    public void setBurstMillis(long burstMillis) {
+        this.burstNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, burstMillis));
+    }
+}
@@ -9,6 +9,10 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+/**
+ * Validates an authorized_keys formatted public key. RSA keys must be at least {@code minKeyLength} bits long,
+ * ECDSA and ed25519 keys are accepted as well.
+ */
 @Target({ ElementType.FIELD, ElementType.METHOD, ElementType.PARAMETER, ElementType.ANNOTATION_TYPE })
 @Retention(RetentionPolicy.RUNTIME)
 @Constraint(validatedBy = RSAPublicKeyValidator.class)
@@ -18,6 +18,8 @@ public class IPaddressValidator implements ConstraintValidator<ValidIpAddress, S
                     "{1,7}|:)|fe80:(:[0-9a-fA-F]{0,4}){0,4}%[0-9a-zA-Z]{1,}|::(ffff(:0{1,4}){0,1}:)" +
                     "{0,1}(([0-9]{1,3}\\.){3}[0-9]{1,3})|([0-9a-fA-F]{1,4}:){1,4}:(([0-9]{1,3}\\.){3}[0-9]{1,3}))";
 
+    private static final Pattern PREFIX_LENGTH_PATTERN = Pattern.compile("^[0-9]{1,3}$");
+
     private final Pattern ipv4Pattern = Pattern.compile(IPV4_PATTERN);
     private final Pattern ipv6Pattern = Pattern.compile(IPV6_PATTERN);
 
@@ -32,7 +34,22 @@ public class IPaddressValidator implements ConstraintValidator<ValidIpAddress, S
         if (ipAddress == null) {
             return false;
         }
-        return ipv4Pattern.matcher(ipAddress).matches() || ipv6Pattern.matcher(ipAddress).matches();
+        int slash = ipAddress.indexOf('/');
+        if (slash < 0) {
+            return ipv4Pattern.matcher(ipAddress).matches() || ipv6Pattern.matcher(ipAddress).matches();
+        }
+
+        // CIDR prefix, e.g. 192.0.2.0/24 or 2001:db8::/64
+        String address = ipAddress.substring(0, slash);
+        String prefixLength = ipAddress.substring(slash + 1);
+        if (!PREFIX_LENGTH_PATTERN.matcher(prefixLength).matches()) {
+            return false;
+        }
+        int length = Integer.parseInt(prefixLength);
+        if (ipv4Pattern.matcher(address).matches()) {
+            return length <= 32;
+        }
+        return ipv6Pattern.matcher(address).matches() && length <= 128;
     }
 
 }
@@ -0,0 +1,5 @@
+-- V10__Add_Upload_Mode_To_SFTP_Users.sql
+-- DIRECT writes every SFTP write request to disk, COALESCED gathers contiguous writes of a handle first
+
+ALTER TABLE sftp_users
+    ADD COLUMN IF NOT EXISTS upload_mode VARCHAR(16) NOT NULL DEFAULT 'DIRECT';
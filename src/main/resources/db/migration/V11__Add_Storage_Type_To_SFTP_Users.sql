@@ -0,0 +1,5 @@
+-- V11__Add_Storage_Type_To_SFTP_Users.sql
+-- LOCAL users are stored in their directory on the local disk, S3 users under their directory as key prefix
+
+ALTER TABLE sftp_users
+    ADD COLUMN IF NOT EXISTS storage_type VARCHAR(16) NOT NULL DEFAULT 'LOCAL';
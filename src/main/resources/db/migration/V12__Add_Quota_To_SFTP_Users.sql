@@ -0,0 +1,7 @@
+-- V12__Add_Quota_To_SFTP_Users.sql
+-- quota_bytes limits the bytes a user may store, 0 means unlimited. used_bytes is the usage found by the last
+-- reconciliation, the in-memory usage of a user starts from it after a restart.
+
+ALTER TABLE sftp_users
+    ADD COLUMN IF NOT EXISTS quota_bytes BIGINT NOT NULL DEFAULT 0,
+    ADD COLUMN IF NOT EXISTS used_bytes BIGINT NOT NULL DEFAULT 0;
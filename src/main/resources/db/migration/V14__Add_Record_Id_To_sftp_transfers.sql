@@ -0,0 +1,8 @@
+-- V14__Add_Record_Id_To_sftp_transfers.sql
+-- record_id is generated when a transfer is recorded, so that records inserted again after a failed batch or an
+-- interrupted replay of spilled records are ignored. Rows inserted before have none.
+
+ALTER TABLE sftp_transfers
+    ADD COLUMN IF NOT EXISTS record_id UUID NULL;
+
+CREATE UNIQUE INDEX IF NOT EXISTS idx_sftp_transfers_record_id ON sftp_transfers (record_id);
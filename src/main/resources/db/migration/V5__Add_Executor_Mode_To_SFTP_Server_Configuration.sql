@@ -0,0 +1,5 @@
+-- V5__Add_Executor_Mode_To_SFTP_Server_Configuration.sql
+
+ALTER TABLE sftp_server_configuration
+    ADD COLUMN IF NOT EXISTS executor_mode VARCHAR(16) NOT NULL DEFAULT 'PLATFORM',
+    ADD COLUMN IF NOT EXISTS max_concurrent_subsystems INT NOT NULL DEFAULT 10000;
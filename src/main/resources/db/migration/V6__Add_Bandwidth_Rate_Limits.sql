@@ -0,0 +1,17 @@
+-- V6__Add_Bandwidth_Rate_Limits.sql
+-- Rate limits are in bytes per second, 0 means unlimited
+
+ALTER TABLE sftp_users
+    ADD COLUMN IF NOT EXISTS read_rate_limit BIGINT NOT NULL DEFAULT 0,
+    ADD COLUMN IF NOT EXISTS write_rate_limit BIGINT NOT NULL DEFAULT 0;
+
+ALTER TABLE sftp_server_configuration
+    ADD COLUMN IF NOT EXISTS global_read_rate_limit BIGINT NOT NULL DEFAULT 0,
+    ADD COLUMN IF NOT EXISTS global_write_rate_limit BIGINT NOT NULL DEFAULT 0;
+
+CREATE TABLE IF NOT EXISTS sftp_company_rate_limits (
+    company_id INT PRIMARY KEY,
+    read_rate_limit BIGINT NOT NULL DEFAULT 0,
+    write_rate_limit BIGINT NOT NULL DEFAULT 0,
+    modified_date TIMESTAMP NOT NULL
+);
@@ -0,0 +1,19 @@
+-- V7__Create_sftp_transfers_Table.sql
+-- One row per direction of every closed file handle that transferred data
+
+CREATE TABLE IF NOT EXISTS sftp_transfers (
+    id BIGSERIAL PRIMARY KEY,
+    username VARCHAR(25) NOT NULL,
+    company_id INT NOT NULL,
+    path VARCHAR(4096) NOT NULL,
+    direction VARCHAR(10) NOT NULL,
+    bytes BIGINT NOT NULL,
+    duration_ms BIGINT NOT NULL,
+    outcome VARCHAR(10) NOT NULL,
+    error VARCHAR(1024) NULL,
+    started_at TIMESTAMP NOT NULL,
+    completed_at TIMESTAMP NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_sftp_transfers_username_completed_at ON sftp_transfers (username, completed_at);
+CREATE INDEX IF NOT EXISTS idx_sftp_transfers_company_id_completed_at ON sftp_transfers (company_id, completed_at);
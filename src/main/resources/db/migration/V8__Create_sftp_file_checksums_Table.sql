@@ -0,0 +1,15 @@
+-- V8__Create_sftp_file_checksums_Table.sql
+-- Digest of every uploaded file, computed while it was written or by re-reading it after the upload
+
+CREATE TABLE IF NOT EXISTS sftp_file_checksums (
+    id UUID PRIMARY KEY,
+    username VARCHAR(25) NOT NULL,
+    path VARCHAR(4096) NOT NULL,
+    size BIGINT NOT NULL,
+    algorithm VARCHAR(20) NOT NULL,
+    checksum VARCHAR(128) NOT NULL,
+    method VARCHAR(10) NOT NULL,
+    computed_at TIMESTAMP NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_sftp_file_checksums_username_path ON sftp_file_checksums (username, path);
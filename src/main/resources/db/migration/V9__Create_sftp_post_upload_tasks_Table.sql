@@ -0,0 +1,19 @@
+-- V9__Create_sftp_post_upload_tasks_Table.sql
+-- Pending work of the post-upload pipeline, one row per completed upload until all stages have run
+
+CREATE TABLE IF NOT EXISTS sftp_post_upload_tasks (
+    id UUID PRIMARY KEY,
+    username VARCHAR(25) NOT NULL,
+    path VARCHAR(4096) NOT NULL,
+    local_path VARCHAR(4096) NOT NULL,
+    size BIGINT NOT NULL,
+    stage VARCHAR(100) NULL,
+    attempts INT NOT NULL,
+    status VARCHAR(10) NOT NULL,
+    last_error VARCHAR(1024) NULL,
+    created_at TIMESTAMP NOT NULL,
+    next_attempt_at TIMESTAMP NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_sftp_post_upload_tasks_status_next_attempt_at
+    ON sftp_post_upload_tasks (status, next_attempt_at);
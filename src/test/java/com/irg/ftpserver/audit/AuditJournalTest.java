@@ -0,0 +1,84 @@
+package com.irg.ftpserver.audit;
+
+import com.irg.ftpserver.data.AuditEventType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+public class AuditJournalTest {
+
+    private static final int SEGMENT_SIZE = 1 << 20;
+
+    private Path directory;
+    private AuditRingBuffer ringBuffer;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("audit");
+        ringBuffer = new AuditRingBuffer(16);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        for (Path segment : AuditJournalReader.listSegments(directory)) {
+            Files.delete(segment);
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    @DisplayName("Test events are written as JSON lines and exported by time range")
+    public void testWriteAndExport() throws IOException {
+        try (AuditJournalWriter writer = new AuditJournalWriter(directory, SEGMENT_SIZE, 10)) {
+            ringBuffer.publish(1000, AuditEventType.SESSION_AUTHENTICATED, "testUser",
+                    new InetSocketAddress("127.0.0.1", 2221), null, 0, "SSH-2.0-\"client\"");
+            ringBuffer.publish(2000, AuditEventType.FILE_UPLOADED, "testUser", null, Path.of("/upload/a.txt"), 42,
+                    null);
+            ringBuffer.publish(3000, AuditEventType.SESSION_CLOSED, "testUser", null, null, 0, null);
+            ringBuffer.drain(writer::append, 10);
+
+            StringWriter all = new StringWriter();
+            Assertions.assertEquals(3, new AuditJournalReader(directory).export(null, null, all));
+            String first = all.toString().lines().findFirst().orElseThrow();
+            Assertions.assertEquals("{\"seq\":0,\"ts\":1000,\"time\":\"1970-01-01T00:00:01Z\","
+                    + "\"type\":\"SESSION_AUTHENTICATED\",\"user\":\"testUser\",\"remote\":\"/127.0.0.1:2221\","
+                    + "\"size\":0,\"detail\":\"SSH-2.0-\\\"client\\\"\"}", first);
+
+            StringWriter range = new StringWriter();
+            Assertions.assertEquals(1, new AuditJournalReader(directory)
+                    .export(Instant.ofEpochMilli(2000), Instant.ofEpochMilli(3000), range));
+            Assertions.assertTrue(range.toString().contains("\"path\":\"/upload/a.txt\",\"size\":42"));
+        }
+    }
+
+    @Test
+    @DisplayName("Test full segments are rotated and old segments deleted")
+    public void testRotation() throws IOException {
+        String detail = "x".repeat(4000);
+        try (AuditJournalWriter writer = new AuditJournalWriter(directory, SEGMENT_SIZE, 2)) {
+            for (int i = 0; i < 700; i++) {
+                ringBuffer.publish(i, AuditEventType.FILE_OPENED, "testUser", null, null, 0, detail);
+                ringBuffer.drain(writer::append, 1);
+            }
+        }
+
+        List<Path> segments = AuditJournalReader.listSegments(directory);
+        Assertions.assertEquals(2, segments.size());
+        Assertions.assertTrue(Files.size(segments.get(0)) < SEGMENT_SIZE);
+        StringWriter out = new StringWriter();
+        long exported = new AuditJournalReader(directory).export(null, null, out);
+        Assertions.assertTrue(exported > 0 && exported < 700);
+        List<String> lines = out.toString().lines().toList();
+        Assertions.assertTrue(lines.get(lines.size() - 1).startsWith("{\"seq\":699,"));
+    }
+}
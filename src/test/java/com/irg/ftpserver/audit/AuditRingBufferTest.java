@@ -0,0 +1,78 @@
+package com.irg.ftpserver.audit;
+
+import com.irg.ftpserver.data.AuditEventType;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class AuditRingBufferTest {
+
+    @Test
+    @DisplayName("Test events are consumed in publication order")
+    public void testOrder() {
+        AuditRingBuffer ringBuffer = new AuditRingBuffer(4);
+        List<String> consumed = new ArrayList<>();
+
+        publish(ringBuffer, "a", "b", "c");
+
+        Assertions.assertEquals(2, ringBuffer.drain(entry -> consumed.add(entry.getUsername()), 2));
+        Assertions.assertEquals(1, ringBuffer.drain(entry -> consumed.add(entry.getUsername()), 10));
+        Assertions.assertEquals(List.of("a", "b", "c"), consumed);
+        Assertions.assertEquals(0, ringBuffer.getBacklog());
+    }
+
+    @Test
+    @DisplayName("Test events are dropped when the ring is full")
+    public void testDropWhenFull() {
+        AuditRingBuffer ringBuffer = new AuditRingBuffer(3);
+        List<String> consumed = new ArrayList<>();
+
+        Assertions.assertEquals(4, ringBuffer.getCapacity());
+        publish(ringBuffer, "a", "b", "c", "d", "e");
+        Assertions.assertEquals(1, ringBuffer.getDroppedCount());
+
+        ringBuffer.drain(entry -> consumed.add(entry.getUsername()), 10);
+        publish(ringBuffer, "f");
+        ringBuffer.drain(entry -> consumed.add(entry.getUsername()), 10);
+        Assertions.assertEquals(List.of("a", "b", "c", "d", "f"), consumed);
+    }
+
+    @Test
+    @DisplayName("Test concurrent producers lose no events while the consumer keeps up")
+    public void testConcurrentProducers() throws InterruptedException {
+        AuditRingBuffer ringBuffer = new AuditRingBuffer(1024);
+        int producers = 4;
+        int perProducer = 10000;
+        CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            Thread producer = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    while (!ringBuffer.publish(i, AuditEventType.FILE_OPENED, "user", null, null, i, null)) {
+                        Thread.onSpinWait();
+                    }
+                }
+                done.countDown();
+            });
+            producer.start();
+        }
+
+        long[] sequences = {0, 0};
+        while (done.getCount() > 0 || ringBuffer.getBacklog() > 0) {
+            ringBuffer.drain(entry -> {
+                Assertions.assertEquals(sequences[0]++, entry.getSequence());
+                sequences[1]++;
+            }, 100);
+        }
+        Assertions.assertEquals((long) producers * perProducer, sequences[1]);
+    }
+
+    private static void publish(AuditRingBuffer ringBuffer, String... usernames) {
+        for (String username : usernames) {
+            ringBuffer.publish(0, AuditEventType.SESSION_CREATED, username, null, null, 0, null);
+        }
+    }
+}
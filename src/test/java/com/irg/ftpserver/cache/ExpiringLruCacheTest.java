@@ -0,0 +1,72 @@
+package com.irg.ftpserver.cache;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ExpiringLruCacheTest {
+
+    @Test
+    @DisplayName("Test cache counts hits and misses")
+    public void testHitsAndMisses() {
+        ExpiringLruCache<String, String> cache = new ExpiringLruCache<>(10, Duration.ofMinutes(1));
+        AtomicInteger loads = new AtomicInteger();
+
+        Assertions.assertEquals("value", cache.get("key", k -> { loads.incrementAndGet(); return "value"; }));
+        Assertions.assertEquals("value", cache.get("key", k -> { loads.incrementAndGet(); return "value"; }));
+
+        Assertions.assertEquals(1, loads.get());
+        Assertions.assertEquals(1, cache.getHitCount());
+        Assertions.assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    @DisplayName("Test cache does not store null values")
+    public void testNullNotCached() {
+        ExpiringLruCache<String, String> cache = new ExpiringLruCache<>(10, Duration.ofMinutes(1));
+        Assertions.assertNull(cache.get("missing", k -> null));
+        Assertions.assertEquals(0, cache.size());
+    }
+
+    @Test
+    @DisplayName("Test cache evicts the least recently used entry")
+    public void testLruEviction() {
+        ExpiringLruCache<String, String> cache = new ExpiringLruCache<>(2, Duration.ofMinutes(1));
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+
+        Assertions.assertEquals("1", cache.get("a"));
+        Assertions.assertNull(cache.get("b"));
+        Assertions.assertEquals("3", cache.get("c"));
+        Assertions.assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    @DisplayName("Test cache expires entries after the ttl")
+    public void testExpiry() throws InterruptedException {
+        ExpiringLruCache<String, String> cache = new ExpiringLruCache<>(10, Duration.ofMillis(20));
+        cache.put("key", "value");
+        Thread.sleep(40);
+        Assertions.assertNull(cache.get("key"));
+    }
+
+    @Test
+    @DisplayName("Test cache invalidation")
+    public void testInvalidation() {
+        ExpiringLruCache<String, String> cache = new ExpiringLruCache<>(10, Duration.ofMinutes(1));
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "2");
+
+        cache.invalidate("a");
+        Assertions.assertNull(cache.get("a"));
+
+        cache.invalidateIf((key, value) -> value.equals("2"));
+        Assertions.assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,99 @@
+package com.irg.ftpserver.controller;
+
+import com.irg.ftpserver.audit.AuditJournalReader;
+import com.irg.ftpserver.config.security.SecurityConfig;
+import com.irg.ftpserver.config.security.UserAccountDetailsService;
+import com.irg.ftpserver.data.Role;
+import com.irg.ftpserver.repository.UserRepository;
+import com.irg.ftpserver.service.SFTPAuditService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.io.Writer;
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.httpBasic;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(controllers = SFTPAuditAdminController.class)
+@ContextConfiguration(classes = {SFTPAuditAdminController.class, SecurityConfig.class,
+        UserAccountDetailsService.class})
+public class SFTPAuditAdminControllerTest {
+
+    private static final String AUDIT_URL = "/api/v1/admin/audit";
+
+    private static final String EVENT = "{\"type\":\"LOGIN\",\"user\":\"testUser\"}\n";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private PasswordEncoder passwordEncoder;
+
+    @MockBean
+    private SFTPAuditService sftpAuditService;
+
+    @MockBean
+    private UserRepository userRepository;
+
+    private AuditJournalReader reader;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        String password = passwordEncoder.encode("secret");
+        when(userRepository.findByUsername("admin")).thenReturn(Optional.of(
+                SFTPExecutorAdminControllerTest.user("admin", password, Role.Admin)));
+        when(userRepository.findByUsername("user")).thenReturn(Optional.of(
+                SFTPExecutorAdminControllerTest.user("user", password, Role.User)));
+
+        reader = Mockito.mock(AuditJournalReader.class);
+        when(reader.export(any(), any(), any(Writer.class))).thenAnswer(invocation -> {
+            invocation.getArgument(2, Writer.class).write(EVENT);
+            return 1L;
+        });
+        when(sftpAuditService.getJournalReader()).thenReturn(reader);
+    }
+
+    @Test
+    @DisplayName("Test admins export the audit journal as JSON lines")
+    public void testExport() throws Exception {
+        MvcResult result = mockMvc.perform(get(AUDIT_URL).with(httpBasic("admin", "secret"))
+                        .param("from", "2026-01-01T00:00:00Z"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andExpect(content().string(EVENT));
+        verify(reader).export(eq(Instant.parse("2026-01-01T00:00:00Z")), isNull(), any(Writer.class));
+    }
+
+    @Test
+    @DisplayName("Test the audit journal requires an admin")
+    public void testRequiresAdmin() throws Exception {
+        mockMvc.perform(get(AUDIT_URL))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(get(AUDIT_URL).with(httpBasic("user", "secret")))
+                .andExpect(status().isForbidden());
+        verify(sftpAuditService, never()).getJournalReader();
+    }
+}
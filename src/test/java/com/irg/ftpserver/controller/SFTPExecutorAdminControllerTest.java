@@ -0,0 +1,120 @@
+package com.irg.ftpserver.controller;
+
+import com.irg.ftpserver.config.security.SecurityConfig;
+import com.irg.ftpserver.config.security.UserAccountDetailsService;
+import com.irg.ftpserver.data.ExecutorPoolSizes;
+import com.irg.ftpserver.data.Role;
+import com.irg.ftpserver.model.User;
+import com.irg.ftpserver.repository.UserRepository;
+import com.irg.ftpserver.service.SFTPExecutorResizeService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.Date;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.httpBasic;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(controllers = SFTPExecutorAdminController.class)
+@ContextConfiguration(classes = {SFTPExecutorAdminController.class, SecurityConfig.class,
+        UserAccountDetailsService.class})
+public class SFTPExecutorAdminControllerTest {
+
+    private static final String EXECUTOR_URL = "/api/v1/admin/executor";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private PasswordEncoder passwordEncoder;
+
+    @MockBean
+    private SFTPExecutorResizeService sftpExecutorResizeService;
+
+    @MockBean
+    private UserRepository userRepository;
+
+    @BeforeEach
+    public void setUp() {
+        String password = passwordEncoder.encode("secret");
+        when(userRepository.findByUsername("admin")).thenReturn(Optional.of(user("admin", password, Role.Admin)));
+        when(userRepository.findByUsername("user")).thenReturn(Optional.of(user("user", password, Role.User)));
+        when(sftpExecutorResizeService.getPoolSizes()).thenReturn(new ExecutorPoolSizes(4, 8, 1000, 16, 100));
+    }
+
+    @Test
+    @DisplayName("Test admins get the executor pool sizes")
+    public void testGetPoolSizes() throws Exception {
+        mockMvc.perform(get(EXECUTOR_URL).with(httpBasic("admin", "secret")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.corePoolSize").value(4))
+                .andExpect(jsonPath("$.maxPoolSize").value(8));
+    }
+
+    @Test
+    @DisplayName("Test admins resize the executor without a CSRF token")
+    public void testUpdatePoolSizes() throws Exception {
+        when(sftpExecutorResizeService.updatePoolSizes(any(ExecutorPoolSizes.class), eq("admin")))
+                .thenReturn(new ExecutorPoolSizes(6, 8, 1000, 16, 100));
+
+        mockMvc.perform(put(EXECUTOR_URL).with(httpBasic("admin", "secret"))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"corePoolSize\": 6}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.corePoolSize").value(6));
+        verify(sftpExecutorResizeService).updatePoolSizes(new ExecutorPoolSizes(6, null, null, null, null), "admin");
+    }
+
+    @Test
+    @DisplayName("Test invalid pool sizes are rejected")
+    public void testUpdateInvalidPoolSizes() throws Exception {
+        mockMvc.perform(put(EXECUTOR_URL).with(httpBasic("admin", "secret"))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"corePoolSize\": 0}"))
+                .andExpect(status().isBadRequest());
+        verify(sftpExecutorResizeService, never()).updatePoolSizes(any(), any());
+    }
+
+    @Test
+    @DisplayName("Test the executor API requires an admin")
+    public void testRequiresAdmin() throws Exception {
+        mockMvc.perform(get(EXECUTOR_URL))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(get(EXECUTOR_URL).with(httpBasic("admin", "wrong")))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(put(EXECUTOR_URL).with(httpBasic("user", "secret"))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"corePoolSize\": 6}"))
+                .andExpect(status().isForbidden());
+        verify(sftpExecutorResizeService, never()).updatePoolSizes(any(), any());
+    }
+
+    static User user(String username, String password, Role role) {
+        User user = new User();
+        user.setId(UUID.randomUUID());
+        user.setUsername(username);
+        user.setPassword(password);
+        user.setRole(role);
+        user.setEnabled(true);
+        user.setCompanyName("irg");
+        user.setCreatedDate(new Date());
+        user.setModifiedDate(new Date());
+        return user;
+    }
+}
@@ -3,9 +3,18 @@ package com.irg.ftpserver.events;
 import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.read.ListAppender;
+import com.irg.ftpserver.data.AuditEventType;
+import com.irg.ftpserver.data.TransferDirection;
+import com.irg.ftpserver.service.SFTPAuditService;
+import com.irg.ftpserver.service.SFTPPostUploadPipeline;
+import com.irg.ftpserver.service.SFTPQuotaService;
+import com.irg.ftpserver.service.SFTPTransferRecorder;
 import org.apache.sshd.server.session.ServerSession;
+import org.apache.sshd.sftp.common.SftpConstants;
+import org.apache.sshd.sftp.common.SftpException;
 import org.apache.sshd.sftp.server.FileHandle;
 import org.apache.sshd.sftp.server.Handle;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -16,13 +25,10 @@ import org.mockito.MockitoAnnotations;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.lang.reflect.Field;
 import java.net.InetSocketAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicLong;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
@@ -31,6 +37,10 @@ public class CustomSFTPEventListenerTest {
 
 
     private CustomSFTPEventListener customSFTPEventListener;
+    private SFTPTransferRecorder sftpTransferRecorder;
+    private SFTPAuditService sftpAuditService;
+    private SFTPPostUploadPipeline sftpPostUploadPipeline;
+    private SFTPQuotaService sftpQuotaService;
     private ServerSession serverSession;
     private FileHandle fileHandle;
     private Handle handle;
@@ -42,7 +52,12 @@ public class CustomSFTPEventListenerTest {
     @BeforeEach
     public void setUp() {
         MockitoAnnotations.openMocks(this);
-        customSFTPEventListener = new CustomSFTPEventListener();
+        sftpTransferRecorder = Mockito.mock(SFTPTransferRecorder.class);
+        sftpAuditService = Mockito.mock(SFTPAuditService.class);
+        sftpPostUploadPipeline = Mockito.mock(SFTPPostUploadPipeline.class);
+        sftpQuotaService = Mockito.mock(SFTPQuotaService.class);
+        customSFTPEventListener = new CustomSFTPEventListener(sftpTransferRecorder, sftpAuditService,
+                sftpPostUploadPipeline, sftpQuotaService);
         serverSession = Mockito.mock(ServerSession.class);
         fileHandle = Mockito.mock(FileHandle.class);
         handle = Mockito.mock(Handle.class);
@@ -61,25 +76,49 @@ public class CustomSFTPEventListenerTest {
     }
 
     @Test
-    @DisplayName("Test writing method log")
+    @DisplayName("Test writing method counts bytes on the handle")
     public void testWriting() throws IOException {
-        when(fileHandle.getFile()).thenReturn(path);
+        CustomSFTPEventListener.TransferCounters counters = new CustomSFTPEventListener.TransferCounters();
+        when(fileHandle.getAttribute(CustomSFTPEventListener.TRANSFER_COUNTERS_KEY)).thenReturn(counters);
 
         customSFTPEventListener.writing(serverSession, "remoteHandle", fileHandle, 0, new byte[0], 0, 100);
+        customSFTPEventListener.writing(serverSession, "remoteHandle", fileHandle, 100, new byte[0], 0, 100);
 
-        // Verify behavior
-        verify(fileHandle, times(1)).getFile();
+        assertThat(counters.written).isEqualTo(200);
+        assertThat(counters.accessed).isTrue();
+        verify(fileHandle, never()).getFile();
     }
 
     @Test
-    @DisplayName("Test read method log")
+    @DisplayName("Test writing beyond the end of the file is rejected once it exceeds the quota")
+    public void testWritingOverQuota() throws IOException {
+        CustomSFTPEventListener.TransferCounters counters = new CustomSFTPEventListener.TransferCounters();
+        counters.usage = new SFTPQuotaService.Usage(150, 0);
+        when(fileHandle.getAttribute(CustomSFTPEventListener.TRANSFER_COUNTERS_KEY)).thenReturn(counters);
+
+        customSFTPEventListener.writing(serverSession, "remoteHandle", fileHandle, 0, new byte[0], 0, 100);
+        customSFTPEventListener.writing(serverSession, "remoteHandle", fileHandle, 0, new byte[0], 0, 100);
+        SftpException exception = Assertions.assertThrows(SftpException.class, () -> customSFTPEventListener
+                .writing(serverSession, "remoteHandle", fileHandle, 100, new byte[0], 0, 100));
+
+        Assertions.assertEquals(SftpConstants.SSH_FX_QUOTA_EXCEEDED, exception.getStatus());
+        assertThat(counters.usage.get()).isEqualTo(100);
+        assertThat(counters.written).isEqualTo(200);
+        verify(sftpQuotaService).recordRejectedWrite();
+    }
+
+    @Test
+    @DisplayName("Test read method counts bytes on the handle")
     public void testRead() throws IOException {
-        when(fileHandle.getFile()).thenReturn(path);
+        CustomSFTPEventListener.TransferCounters counters = new CustomSFTPEventListener.TransferCounters();
+        when(fileHandle.getAttribute(CustomSFTPEventListener.TRANSFER_COUNTERS_KEY)).thenReturn(counters);
 
         customSFTPEventListener.read(serverSession, "remoteHandle", fileHandle, 0, new byte[0], 0, 100, 100, null);
+        customSFTPEventListener.read(serverSession, "remoteHandle", fileHandle, 100, new byte[0], 0, 100, -1, null);
 
-        // Verify behavior
-        verify(fileHandle, times(1)).getFile();
+        assertThat(counters.read).isEqualTo(100);
+        assertThat(counters.accessed).isTrue();
+        verify(fileHandle, never()).getFile();
     }
 
     @Test
@@ -95,45 +134,62 @@ public class CustomSFTPEventListenerTest {
         assertThat(logsList.get(0).getFormattedMessage()).contains("accessed");
     }
 
+    @Test
+    @DisplayName("Test open method leaves logging to the audit journal when it is enabled")
+    public void testOpenAudited() throws IOException {
+        when(handle.getFile()).thenReturn(path);
+        when(sftpAuditService.audit(eq(AuditEventType.FILE_OPENED), eq("testUser"), any(), eq(path), eq(0L),
+                isNull())).thenReturn(true);
+
+        customSFTPEventListener.open(serverSession, "remoteHandle", handle);
+
+        verify(sftpAuditService).audit(eq(AuditEventType.FILE_OPENED), eq("testUser"), any(), eq(path), eq(0L),
+                isNull());
+        assertThat(listAppender.list).isEmpty();
+    }
+
     @Test
     @DisplayName("Test closed method log")
     public void testClosed() throws IOException {
         // Prepare mock conditions
         when(handle.getFile()).thenReturn(path);
-        AtomicLong mockWriteSize = new AtomicLong(1024L);
-        AtomicLong mockReadSize = new AtomicLong(2048L);
+        CustomSFTPEventListener.TransferCounters counters = new CustomSFTPEventListener.TransferCounters();
+        counters.written = 1024L;
+        counters.read = 2048L;
+        counters.accessed = true;
+        when(handle.removeAttribute(CustomSFTPEventListener.TRANSFER_COUNTERS_KEY)).thenReturn(counters);
 
         // Mock static Files.size method
         try (MockedStatic<Files> mockedFiles = mockStatic(Files.class)) {
             mockedFiles.when(() -> Files.size(path)).thenReturn(1024L);
 
-            // Use reflection to set private maps
-            String key = getKeyForTest(serverSession, path);
-            setPrivateField(customSFTPEventListener, "fileWriteSizes", key, mockWriteSize);
-            setPrivateField(customSFTPEventListener, "fileReadSizes", key, mockReadSize);
-            setPrivateField(customSFTPEventListener, "fileAccessed", key, true);
-
             customSFTPEventListener.closed(serverSession, "remoteHandle", handle, null);
 
             // Verify log output
             List<ILoggingEvent> logsList = listAppender.list;
             assertThat(logsList).isNotEmpty();
             assertThat(logsList.get(0).getFormattedMessage()).contains("wrote to file");
-        } catch (NoSuchFieldException | IllegalAccessException e) {
-            throw new RuntimeException(e);
+            verify(sftpAuditService).audit(eq(AuditEventType.FILE_UPLOADED), eq("testUser"), any(), eq(path),
+                    eq(1024L), isNull());
+            verify(sftpTransferRecorder).record(eq("testUser"), anyString(), eq(TransferDirection.UPLOAD),
+                    eq(1024L), any(), any(), isNull());
+            verify(sftpTransferRecorder).record(eq("testUser"), anyString(), eq(TransferDirection.DOWNLOAD),
+                    eq(2048L), any(), any(), isNull());
+            verify(sftpPostUploadPipeline).submit("testUser", path, 1024L);
         }
     }
 
-    private void setPrivateField(Object target, String fieldName, String key, Object value) throws NoSuchFieldException, IllegalAccessException {
-        Field field = target.getClass().getDeclaredField(fieldName);
-        field.setAccessible(true);
-        Map<String, Object> map = (Map<String, Object>) field.get(target);
-        map.put(key, value);
-    }
+    @Test
+    @DisplayName("Test closed method does not log untouched handles")
+    public void testClosedWithoutTransfer() throws IOException {
+        when(handle.removeAttribute(CustomSFTPEventListener.TRANSFER_COUNTERS_KEY))
+                .thenReturn(new CustomSFTPEventListener.TransferCounters());
+
+        customSFTPEventListener.closed(serverSession, "remoteHandle", handle, null);
 
-    // Assuming getKey is something like this; adjust as needed
-    private String getKeyForTest(ServerSession session, Path path) {
-        return session.getUsername() + "-" + path.toString();
+        assertThat(listAppender.list).isEmpty();
+        verify(handle, never()).getFile();
+        verifyNoInteractions(sftpTransferRecorder);
     }
 
     @Test
@@ -0,0 +1,92 @@
+package com.irg.ftpserver.io;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class CoalescingWriteFileChannelTest {
+
+    private Path file;
+    private WriteStatistics statistics;
+    private DirectBufferPool bufferPool;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        file = Files.createTempFile("sftp-upload", ".bin");
+        statistics = new WriteStatistics();
+        bufferPool = new DirectBufferPool(1024, 1);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Test
+    @DisplayName("Test contiguous writes are written to the file together and others flush the buffer")
+    public void testCoalescing() throws IOException {
+        byte[] content = new byte[2000];
+        Arrays.fill(content, (byte) 7);
+        try (FileChannel channel = open(bufferPool)) {
+            // Sent like SFTP writes, in packets at increasing offsets
+            for (int offset = 0; offset < 900; offset += 300) {
+                channel.position(offset).write(ByteBuffer.wrap(content, offset, 300));
+            }
+            Assertions.assertEquals(0, statistics.getWrites());
+            Assertions.assertEquals(900, channel.size());
+
+            // Does not continue the buffered writes
+            channel.write(ByteBuffer.wrap(content, 1500, 500), 1500);
+            Assertions.assertEquals(1, statistics.getWrites());
+            channel.write(ByteBuffer.wrap(content, 900, 600), 900);
+            Assertions.assertEquals(2, statistics.getWrites());
+        }
+        Assertions.assertEquals(3, statistics.getWrites());
+        Assertions.assertEquals(5, statistics.getRequests());
+        Assertions.assertEquals(2000, statistics.getBytes());
+        Assertions.assertArrayEquals(content, Files.readAllBytes(file));
+        Assertions.assertEquals(1, bufferPool.getPooledCount());
+    }
+
+    @Test
+    @DisplayName("Test a failed write of the buffer fails every later call")
+    public void testFailedFlush() throws IOException {
+        FileChannel target = FileChannel.open(file, StandardOpenOption.WRITE);
+        CoalescingWriteFileChannel channel = new CoalescingWriteFileChannel(target, bufferPool, statistics);
+        channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3}), 0);
+        target.close();
+
+        Assertions.assertThrows(IOException.class, () -> channel.force(true));
+        Assertions.assertThrows(IOException.class, () -> channel.write(ByteBuffer.wrap(new byte[]{4}), 3));
+        Assertions.assertThrows(IOException.class, () -> channel.read(ByteBuffer.allocate(1), 0));
+        Assertions.assertThrows(IOException.class, channel::close);
+        Assertions.assertFalse(channel.isOpen());
+        Assertions.assertEquals(0, Files.size(file));
+    }
+
+    @Test
+    @DisplayName("Test every write goes to the file without a buffer pool")
+    public void testWriteThrough() throws IOException {
+        try (FileChannel channel = open(null)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2}));
+            channel.write(ByteBuffer.wrap(new byte[]{3}));
+            Assertions.assertEquals(2, statistics.getWrites());
+            Assertions.assertEquals(3, Files.size(file));
+        }
+        Assertions.assertEquals(2, statistics.getRequests());
+    }
+
+    private CoalescingWriteFileChannel open(DirectBufferPool pool) throws IOException {
+        return new CoalescingWriteFileChannel(FileChannel.open(file, StandardOpenOption.WRITE), pool, statistics);
+    }
+}
@@ -0,0 +1,75 @@
+package com.irg.ftpserver.io;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+
+public class MappedReadFileChannelTest {
+
+    private Path file;
+    private byte[] content;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        file = Files.createTempFile("sftp-mapped", ".bin");
+        content = new byte[10_000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        Files.write(file, content);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Test
+    @DisplayName("Test a file is read sequentially across windows like the underlying channel")
+    public void testSequentialRead() throws IOException {
+        LongAdder mappedBytes = new LongAdder();
+        byte[] read = new byte[content.length];
+        try (FileChannel channel = new MappedReadFileChannel(FileChannel.open(file), 4096, mappedBytes)) {
+            // Reads of SFTP packets straddle the windows
+            int offset = 0;
+            while (offset < read.length) {
+                ByteBuffer buffer = ByteBuffer.wrap(read, offset, Math.min(3000, read.length - offset));
+                offset += channel.position(offset).read(buffer);
+            }
+            Assertions.assertEquals(-1, channel.read(ByteBuffer.allocate(10)));
+            Assertions.assertEquals(content.length, channel.position());
+        }
+        Assertions.assertArrayEquals(content, read);
+        Assertions.assertEquals(content.length, mappedBytes.sum());
+    }
+
+    @Test
+    @DisplayName("Test data appended or truncated after a window was mapped is read from the file")
+    public void testFileChanged() throws IOException {
+        try (FileChannel channel = new MappedReadFileChannel(FileChannel.open(file), 16384, new LongAdder())) {
+            ByteBuffer buffer = ByteBuffer.allocate(100);
+            Assertions.assertEquals(100, channel.read(buffer, 0));
+
+            Files.write(file, new byte[]{1, 2, 3}, StandardOpenOption.APPEND);
+            buffer.clear();
+            Assertions.assertEquals(3, channel.read(buffer, content.length));
+            Assertions.assertEquals(3, buffer.get(2));
+
+            try (FileChannel writer = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                writer.truncate(50);
+            }
+            buffer.clear();
+            Assertions.assertEquals(-1, channel.read(buffer, 8192));
+        }
+    }
+}
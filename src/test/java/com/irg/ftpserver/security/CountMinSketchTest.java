@@ -0,0 +1,45 @@
+package com.irg.ftpserver.security;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class CountMinSketchTest {
+
+    private CountMinSketch sketch;
+
+    @BeforeEach
+    public void setUp() {
+        sketch = new CountMinSketch(4, 1024);
+    }
+
+    @Test
+    @DisplayName("Test counts are estimated, decayed and removed")
+    public void testCounts() {
+        for (int i = 1; i <= 10; i++) {
+            Assertions.assertEquals(i, sketch.increment("198.51.100.7"));
+        }
+        Assertions.assertEquals(10, sketch.estimate("198.51.100.7"));
+        Assertions.assertEquals(0, sketch.estimate("198.51.100.8"));
+
+        sketch.decay();
+        Assertions.assertEquals(5, sketch.estimate("198.51.100.7"));
+
+        sketch.remove("198.51.100.7");
+        Assertions.assertEquals(0, sketch.estimate("198.51.100.7"));
+    }
+
+    @Test
+    @DisplayName("Test keys with equal hash codes are counted apart")
+    public void testEqualHashCodes() {
+        Assertions.assertEquals("Aa".hashCode(), "BB".hashCode());
+        for (int i = 0; i < 100; i++) {
+            sketch.increment("AaAaAa");
+        }
+
+        Assertions.assertEquals("AaAaAa".hashCode(), "BBBBBB".hashCode());
+        Assertions.assertEquals(0, sketch.estimate("BBBBBB"));
+        Assertions.assertEquals(100, sketch.estimate("AaAaAa"));
+    }
+}
@@ -0,0 +1,83 @@
+package com.irg.ftpserver.security;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class IpPrefixTrieTest {
+
+    private IpPrefixTrie<Boolean> trie;
+
+    @BeforeEach
+    public void setUp() {
+        trie = new IpPrefixTrie<>();
+    }
+
+    @Test
+    @DisplayName("Test exact addresses are matched")
+    public void testExactAddress() {
+        trie.put("192.0.2.7", false);
+        trie.put("2001:db8::1", false);
+
+        Assertions.assertEquals(Boolean.FALSE, trie.longestMatch("192.0.2.7"));
+        Assertions.assertEquals(Boolean.FALSE, trie.longestMatch("2001:db8:0:0:0:0:0:1"));
+        Assertions.assertNull(trie.longestMatch("192.0.2.8"));
+        Assertions.assertNull(trie.longestMatch("2001:db8::2"));
+        Assertions.assertEquals(2, trie.size());
+    }
+
+    @Test
+    @DisplayName("Test IPv4 CIDR ranges are matched")
+    public void testIpv4Cidr() {
+        trie.put("10.0.0.0/8", false);
+
+        Assertions.assertEquals(Boolean.FALSE, trie.longestMatch("10.1.2.3"));
+        Assertions.assertEquals(Boolean.FALSE, trie.longestMatch("::ffff:10.1.2.3"));
+        Assertions.assertNull(trie.longestMatch("11.0.0.1"));
+    }
+
+    @Test
+    @DisplayName("Test IPv6 /64 prefixes are matched")
+    public void testIpv6Prefix() {
+        trie.put("2001:db8:0:1::/64", false);
+
+        Assertions.assertEquals(Boolean.FALSE, trie.longestMatch("2001:db8:0:1:abcd::42"));
+        Assertions.assertNull(trie.longestMatch("2001:db8:0:2::42"));
+        Assertions.assertNull(trie.longestMatch("10.0.0.1"));
+    }
+
+    @Test
+    @DisplayName("Test the most specific entry wins")
+    public void testLongestMatch() {
+        trie.put("192.0.2.0/24", false);
+        trie.put("192.0.2.128/25", true);
+        trie.put("192.0.2.200", false);
+
+        Assertions.assertEquals(Boolean.FALSE, trie.longestMatch("192.0.2.1"));
+        Assertions.assertEquals(Boolean.TRUE, trie.longestMatch("192.0.2.129"));
+        Assertions.assertEquals(Boolean.FALSE, trie.longestMatch("192.0.2.200"));
+    }
+
+    @Test
+    @DisplayName("Test removing an entry keeps the other prefixes")
+    public void testRemove() {
+        trie.put("192.0.2.0/24", false);
+        trie.put("192.0.2.0/25", true);
+
+        Assertions.assertEquals(Boolean.TRUE, trie.remove("192.0.2.0/25"));
+        Assertions.assertEquals(Boolean.FALSE, trie.longestMatch("192.0.2.1"));
+        Assertions.assertNull(trie.remove("192.0.2.0/25"));
+        Assertions.assertEquals(1, trie.size());
+    }
+
+    @Test
+    @DisplayName("Test invalid addresses and prefixes are rejected")
+    public void testInvalidInput() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> trie.put("example.com", false));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> trie.put("300.0.0.1", false));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> trie.put("10.0.0.0/33", false));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> trie.put("2001:db8::/abc", false));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> trie.longestMatch("not-an-ip"));
+    }
+}
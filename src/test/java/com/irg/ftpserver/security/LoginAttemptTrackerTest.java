@@ -0,0 +1,95 @@
+package com.irg.ftpserver.security;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LoginAttemptTrackerTest {
+
+    private static final Duration WINDOW = Duration.ofMinutes(1);
+
+    private AtomicLong clock;
+    private LoginAttemptTracker tracker;
+
+    @BeforeEach
+    public void setUp() {
+        clock = new AtomicLong();
+        tracker = new LoginAttemptTracker("test", WINDOW, 2, clock::get);
+    }
+
+    @Test
+    @DisplayName("Test attempts are counted per key")
+    public void testRecordFailure() {
+        Assertions.assertEquals(1, tracker.recordFailure("10.0.0.1"));
+        Assertions.assertEquals(2, tracker.recordFailure("10.0.0.1"));
+        Assertions.assertEquals(1, tracker.recordFailure("10.0.0.2"));
+        Assertions.assertTrue(tracker.hasAttempts("10.0.0.1"));
+        Assertions.assertEquals(2, tracker.getAttempts("10.0.0.1"));
+    }
+
+    @Test
+    @DisplayName("Test previous window attempts decay over the sliding window")
+    public void testSlidingWindow() {
+        tracker.recordFailure("10.0.0.1");
+        tracker.recordFailure("10.0.0.1");
+        tracker.recordFailure("10.0.0.1");
+        tracker.recordFailure("10.0.0.1");
+
+        // Half way through the next window half of the previous attempts still count
+        clock.addAndGet(WINDOW.toNanos() + WINDOW.toNanos() / 2);
+        Assertions.assertEquals(2, tracker.getAttempts("10.0.0.1"));
+        Assertions.assertEquals(3, tracker.recordFailure("10.0.0.1"));
+
+        // Two windows later nothing counts anymore
+        clock.addAndGet(2 * WINDOW.toNanos());
+        Assertions.assertEquals(0, tracker.getAttempts("10.0.0.1"));
+    }
+
+    @Test
+    @DisplayName("Test expired keys are evicted")
+    public void testEvictExpired() {
+        tracker.recordFailure("10.0.0.1");
+        clock.addAndGet(2 * WINDOW.toNanos());
+        tracker.evictExpired();
+        Assertions.assertFalse(tracker.hasAttempts("10.0.0.1"));
+        Assertions.assertEquals(0, tracker.size());
+    }
+
+    @Test
+    @DisplayName("Test keys beyond the limit are counted approximately")
+    public void testOverflow() {
+        tracker.recordFailure("10.0.0.1");
+        tracker.recordFailure("10.0.0.2");
+
+        Assertions.assertEquals(1, tracker.recordFailure("10.0.0.3"));
+        Assertions.assertEquals(2, tracker.recordFailure("10.0.0.3"));
+        Assertions.assertEquals(2, tracker.size());
+        Assertions.assertFalse(tracker.hasAttempts("10.0.0.3"));
+    }
+
+    @Test
+    @DisplayName("Test clearing the attempts of a key")
+    public void testClear() {
+        tracker.recordFailure("10.0.0.1");
+        tracker.clear("10.0.0.1");
+        Assertions.assertFalse(tracker.hasAttempts("10.0.0.1"));
+        Assertions.assertEquals(1, tracker.recordFailure("10.0.0.1"));
+    }
+
+    @Test
+    @DisplayName("Test clearing a key counted approximately resets its estimate")
+    public void testClearOverflow() {
+        tracker.recordFailure("10.0.0.1");
+        tracker.recordFailure("10.0.0.2");
+        tracker.recordFailure("10.0.0.3");
+        tracker.recordFailure("10.0.0.3");
+
+        tracker.clear("10.0.0.3");
+        Assertions.assertEquals(1, tracker.recordFailure("10.0.0.3"));
+        Assertions.assertFalse(tracker.hasAttempts("10.0.0.3"));
+    }
+}
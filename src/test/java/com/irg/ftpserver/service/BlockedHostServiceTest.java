@@ -0,0 +1,95 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.config.SFTPServerProperties;
+import com.irg.ftpserver.data.SFTPServerConfigurationSnapshot;
+import com.irg.ftpserver.events.HostBlockedEvent;
+import com.irg.ftpserver.events.SFTPConfigurationReloadedEvent;
+import com.irg.ftpserver.model.SFTPBlockedHost;
+import com.irg.ftpserver.repository.SFTPBlockedHostsRepository;
+import org.apache.sshd.server.session.ServerSession;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+
+public class BlockedHostServiceTest {
+
+    private SFTPBlockedHostsRepository sftpBlockedHostsRepository;
+    private ApplicationEventPublisher eventPublisher;
+    private ServerSession session;
+    private BlockedHostService blockedHostService;
+
+    @BeforeEach
+    public void setUp() {
+        sftpBlockedHostsRepository = Mockito.mock(SFTPBlockedHostsRepository.class);
+        eventPublisher = Mockito.mock(ApplicationEventPublisher.class);
+        session = Mockito.mock(ServerSession.class);
+
+        SFTPServerProperties sftpServerProperties = new SFTPServerProperties();
+        sftpServerProperties.setMaxTrackedHosts(1);
+        blockedHostService = new BlockedHostService(sftpBlockedHostsRepository,
+                Mockito.mock(SFTPConfigurationService.class), sftpServerProperties);
+        blockedHostService.setApplicationEventPublisher(eventPublisher);
+
+        SFTPServerConfigurationSnapshot configuration = Mockito.mock(SFTPServerConfigurationSnapshot.class);
+        when(configuration.getMaxLoginAttemptThreshold()).thenReturn(3);
+        blockedHostService.handleSFTPConfigurationReloadedEvent(
+                new SFTPConfigurationReloadedEvent(configuration, configuration));
+    }
+
+    @Test
+    @DisplayName("Test hosts counted exactly are blocked after the maximum login attempts")
+    public void testBlockHost() {
+        for (int i = 0; i < 3; i++) {
+            blockedHostService.recordFailedPasswordAttempt("10.0.0.1", "Invalid password", "test", session);
+        }
+
+        verify(sftpBlockedHostsRepository).save(any(SFTPBlockedHost.class));
+        verify(eventPublisher).publishEvent(new HostBlockedEvent(session, "10.0.0.1"));
+        Assertions.assertTrue(blockedHostService.isBlocked("10.0.0.1"));
+    }
+
+    @Test
+    @DisplayName("Test hosts counted approximately are rejected but never blocked")
+    public void testRejectEstimatedHost() {
+        blockedHostService.recordFailedPasswordAttempt("10.0.0.1", "Invalid password", "test", session);
+        for (int i = 0; i < 3; i++) {
+            blockedHostService.recordFailedPasswordAttempt("10.0.0.2", "Invalid password", "test", session);
+        }
+
+        verify(sftpBlockedHostsRepository, never()).save(any(SFTPBlockedHost.class));
+        verify(eventPublisher).publishEvent(new HostBlockedEvent(session, "10.0.0.2"));
+        Assertions.assertFalse(blockedHostService.isBlocked("10.0.0.2"));
+
+        // A successful login forgets the estimated attempts too
+        blockedHostService.clearAttempts("10.0.0.2", "test");
+        blockedHostService.recordFailedPasswordAttempt("10.0.0.2", "Invalid password", "test", session);
+        verify(eventPublisher).publishEvent(new HostBlockedEvent(session, "10.0.0.2"));
+    }
+
+    @Test
+    @DisplayName("Test rows changed in the database apply once the blocklist is reloaded")
+    public void testReload() {
+        when(sftpBlockedHostsRepository.findAll()).thenReturn(List.of(
+                new SFTPBlockedHost(null, "10.0.0.0/24", "Blocked range", new Date(), false),
+                new SFTPBlockedHost(null, "10.0.0.7", "Allowed host", new Date(), true)));
+
+        blockedHostService.reloadBlockedHosts();
+
+        Assertions.assertTrue(blockedHostService.isBlocked("10.0.0.1"));
+        Assertions.assertFalse(blockedHostService.isBlocked("10.0.0.7"));
+
+        when(sftpBlockedHostsRepository.findAll()).thenReturn(List.of());
+
+        blockedHostService.reloadBlockedHosts();
+
+        Assertions.assertFalse(blockedHostService.isBlocked("10.0.0.1"));
+    }
+}
@@ -0,0 +1,98 @@
+package com.irg.ftpserver.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ResizableBlockingQueueTest {
+
+    @Test
+    @DisplayName("Test offers are refused once the capacity is reached")
+    public void testCapacity() {
+        ResizableBlockingQueue<String> queue = new ResizableBlockingQueue<>(2);
+
+        Assertions.assertTrue(queue.offer("a"));
+        Assertions.assertTrue(queue.offer("b"));
+        Assertions.assertFalse(queue.offer("c"));
+        Assertions.assertEquals(0, queue.remainingCapacity());
+        Assertions.assertEquals("a", queue.poll());
+        Assertions.assertTrue(queue.offer("c"));
+    }
+
+    @Test
+    @DisplayName("Test growing the capacity accepts more elements")
+    public void testGrow() {
+        ResizableBlockingQueue<String> queue = new ResizableBlockingQueue<>(1);
+        queue.offer("a");
+
+        queue.setCapacity(3);
+
+        Assertions.assertTrue(queue.offer("b"));
+        Assertions.assertTrue(queue.offer("c"));
+        Assertions.assertFalse(queue.offer("d"));
+        Assertions.assertEquals(3, queue.size());
+    }
+
+    @Test
+    @DisplayName("Test shrinking the capacity keeps queued elements")
+    public void testShrink() {
+        ResizableBlockingQueue<String> queue = new ResizableBlockingQueue<>(3);
+        queue.offer("a");
+        queue.offer("b");
+        queue.offer("c");
+
+        queue.setCapacity(1);
+
+        Assertions.assertEquals(3, queue.size());
+        Assertions.assertFalse(queue.offer("d"));
+        queue.poll();
+        queue.poll();
+        Assertions.assertFalse(queue.offer("d"));
+        queue.poll();
+        Assertions.assertTrue(queue.offer("d"));
+    }
+
+    @Test
+    @DisplayName("Test growing the capacity wakes up a blocked producer")
+    public void testGrowWakesProducer() throws InterruptedException {
+        ResizableBlockingQueue<String> queue = new ResizableBlockingQueue<>(1);
+        queue.offer("a");
+        CountDownLatch added = new CountDownLatch(1);
+
+        Thread producer = new Thread(() -> {
+            try {
+                queue.put("b");
+                added.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+
+        Assertions.assertFalse(added.await(100, TimeUnit.MILLISECONDS));
+        queue.setCapacity(2);
+        Assertions.assertTrue(added.await(5, TimeUnit.SECONDS));
+        producer.join();
+    }
+
+    @Test
+    @DisplayName("Test elements are taken in order and can be removed")
+    public void testOrderAndRemove() throws InterruptedException {
+        ResizableBlockingQueue<String> queue = new ResizableBlockingQueue<>(5);
+        queue.offer("a");
+        queue.offer("b");
+        queue.offer("c");
+
+        Assertions.assertTrue(queue.remove("b"));
+        Assertions.assertEquals("a", queue.take());
+        List<String> drained = new ArrayList<>();
+        Assertions.assertEquals(1, queue.drainTo(drained));
+        Assertions.assertEquals(List.of("c"), drained);
+        Assertions.assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    }
+}
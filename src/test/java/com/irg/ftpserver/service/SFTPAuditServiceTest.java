@@ -0,0 +1,72 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.config.SFTPServerProperties;
+import com.irg.ftpserver.data.AuditEventType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class SFTPAuditServiceTest {
+
+    private Path directory;
+    private SFTPAuditService auditService;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("sftp-audit");
+        SFTPServerProperties properties = new SFTPServerProperties();
+        properties.setAuditDirectory(directory.toString());
+        // Long enough that only an unpark can wake the journal thread during the test
+        properties.setAuditFlushInterval(3_600_000);
+        auditService = new SFTPAuditService(properties);
+        auditService.init();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        auditService.destroy();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test the idle journal thread parks until an event is published and then writes it")
+    public void testIdleJournal() {
+        Thread journalThread = Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().equals("SFTP-Audit-Journal-Thread"))
+                .findFirst().orElseThrow();
+        TestConditions.awaitTrue(() -> journalThread.getState() == Thread.State.WAITING);
+
+        auditService.audit(AuditEventType.SESSION_CREATED, null, null, null, 0, null);
+        TestConditions.awaitTrue(() -> export().contains("\"type\":\"SESSION_CREATED\""));
+        // Written but not yet forced, so the thread waits for the flush interval at most
+        TestConditions.awaitTrue(() -> journalThread.getState() == Thread.State.TIMED_WAITING);
+
+        auditService.audit(AuditEventType.SESSION_CLOSED, null, null, null, 0, null);
+        TestConditions.awaitTrue(() -> export().contains("\"type\":\"SESSION_CLOSED\""));
+        Assertions.assertEquals(2, export().lines().count());
+    }
+
+    private String export() {
+        StringWriter out = new StringWriter();
+        try {
+            auditService.getJournalReader().export(null, null, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+}
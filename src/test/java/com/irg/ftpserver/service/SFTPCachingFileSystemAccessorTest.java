@@ -0,0 +1,121 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.config.SFTPServerProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static com.irg.ftpserver.service.TestConditions.awaitTrue;
+
+public class SFTPCachingFileSystemAccessorTest {
+
+    private Path directory;
+    private SFTPCachingFileSystemAccessor accessor;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("sftp-cache");
+        Files.writeString(directory.resolve("a.txt"), "a");
+        SFTPServerProperties sftpServerProperties = new SFTPServerProperties();
+        accessor = createAccessor(sftpServerProperties);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        accessor.destroy();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test a listing is served from the cache until an SFTP mutation in the directory")
+    public void testListingInvalidatedByMutation() throws IOException {
+        Assertions.assertEquals(List.of("a.txt"), list());
+
+        Files.writeString(directory.resolve("b.txt"), "b");
+        Assertions.assertEquals(List.of("a.txt"), list());
+
+        accessor.createDirectory(null, directory.resolve("c"));
+        Assertions.assertEquals(List.of("a.txt", "b.txt", "c"), list());
+    }
+
+    @Test
+    @DisplayName("Test attributes are served from the cache until the file is removed through SFTP")
+    public void testAttributesInvalidatedByMutation() throws IOException {
+        Path file = directory.resolve("a.txt");
+        Assertions.assertEquals(1L, accessor.readFileAttributes(null, file, "basic:*").get("size"));
+
+        Files.writeString(file, "abc");
+        Assertions.assertEquals(1L, accessor.readFileAttributes(null, file, "basic:*").get("size"));
+
+        accessor.removeFile(null, file, false);
+        Files.writeString(file, "abcd");
+        Assertions.assertEquals(4L, accessor.readFileAttributes(null, file, "basic:*").get("size"));
+    }
+
+    @Test
+    @DisplayName("Test changes made outside of SFTP invalidate a cached listing")
+    public void testListingInvalidatedByWatch() throws IOException {
+        accessor.init();
+        Assertions.assertEquals(List.of("a.txt"), list());
+
+        Files.writeString(directory.resolve("b.txt"), "b");
+
+        awaitTrue(() -> list().size() == 2);
+    }
+
+    @Test
+    @DisplayName("Test nothing is cached when the cache is disabled")
+    public void testDisabled() throws IOException {
+        accessor.destroy();
+        SFTPServerProperties sftpServerProperties = new SFTPServerProperties();
+        sftpServerProperties.setDirectoryCacheEnabled(false);
+        accessor = createAccessor(sftpServerProperties);
+        accessor.init();
+        Path file = directory.resolve("a.txt");
+        Assertions.assertEquals(List.of("a.txt"), list());
+        Assertions.assertEquals(1L, accessor.readFileAttributes(null, file, "basic:*").get("size"));
+
+        Files.writeString(directory.resolve("b.txt"), "b");
+        Files.writeString(file, "abc");
+
+        Assertions.assertEquals(List.of("a.txt", "b.txt"), list());
+        Assertions.assertEquals(3L, accessor.readFileAttributes(null, file, "basic:*").get("size"));
+    }
+
+    private static SFTPCachingFileSystemAccessor createAccessor(SFTPServerProperties sftpServerProperties) {
+        SFTPUserService sftpUserService = Mockito.mock(SFTPUserService.class);
+        return new SFTPCachingFileSystemAccessor(sftpServerProperties,
+                new SFTPDeduplicationService(sftpServerProperties, sftpUserService),
+                new SFTPMappedReadService(sftpServerProperties),
+                new SFTPWriteCoalescingService(sftpServerProperties, sftpUserService));
+    }
+
+    private List<String> list() {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> entries = accessor.openDirectory(null, null, directory, "handle")) {
+            for (Path entry : entries) {
+                names.add(entry.getFileName().toString());
+            }
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        names.sort(null);
+        return names;
+    }
+}
@@ -0,0 +1,98 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.config.SFTPServerProperties;
+import com.irg.ftpserver.data.ChecksumMethod;
+import com.irg.ftpserver.model.SFTPFileChecksum;
+import com.irg.ftpserver.repository.SFTPFileChecksumRepository;
+import org.apache.sshd.common.file.root.RootedFileSystemProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.Map;
+
+import static org.mockito.Mockito.*;
+
+public class SFTPChecksumServiceTest {
+
+    // SHA-256 of "hello world"
+    private static final String HELLO_WORLD_SHA256 =
+            "b94d27b9934d3e08a52e52d7da7dabfac484efe37a5380ee9088f7ace2efcde9";
+
+    private Path directory;
+    private SFTPFileChecksumRepository repository;
+    private SFTPChecksumService checksumService;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("sftp-checksums");
+        repository = Mockito.mock(SFTPFileChecksumRepository.class);
+        SFTPServerProperties sftpServerProperties = new SFTPServerProperties();
+        checksumService = new SFTPChecksumService(repository, sftpServerProperties,
+                new SFTPDeduplicationService(sftpServerProperties, Mockito.mock(SFTPUserService.class)));
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    @DisplayName("Test a streamed digest is stored as the checksum")
+    public void testCompleteStreaming() throws InterruptedException {
+        MessageDigest digest = checksumService.newDigest();
+        digest.update("hello ".getBytes(StandardCharsets.UTF_8));
+        digest.update("world".getBytes(StandardCharsets.UTF_8));
+
+        checksumService.completeStreaming("user", directory.resolve("upload.txt"), 11, FileTime.fromMillis(0),
+                digest);
+        checksumService.destroy();
+
+        SFTPFileChecksum saved = savedChecksum();
+        Assertions.assertEquals(HELLO_WORLD_SHA256, saved.getChecksum());
+        Assertions.assertEquals(ChecksumMethod.STREAMING, saved.getMethod());
+    }
+
+    @Test
+    @DisplayName("Test a rehash reads the file from a user's rooted file system")
+    public void testRehash() throws IOException, InterruptedException {
+        Files.writeString(directory.resolve("upload.txt"), "hello world");
+        Path path;
+        try (FileSystem fileSystem = new RootedFileSystemProvider().newFileSystem(directory, Map.of())) {
+            path = fileSystem.getPath("/upload.txt");
+            Assertions.assertEquals(directory.resolve("upload.txt"), SFTPFileSystemService.toLocalPath(path));
+        }
+
+        // The session's file system is closed by the time the file is read
+        checksumService.rehash("user", path);
+        checksumService.destroy();
+
+        SFTPFileChecksum saved = savedChecksum();
+        Assertions.assertEquals(HELLO_WORLD_SHA256, saved.getChecksum());
+        Assertions.assertEquals(ChecksumMethod.REHASH, saved.getMethod());
+        Assertions.assertEquals("/upload.txt", saved.getPath());
+        Assertions.assertEquals(11, saved.getSize());
+    }
+
+    private SFTPFileChecksum savedChecksum() {
+        ArgumentCaptor<SFTPFileChecksum> captor = ArgumentCaptor.forClass(SFTPFileChecksum.class);
+        verify(repository).save(captor.capture());
+        return captor.getValue();
+    }
+}
@@ -0,0 +1,120 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.data.ExecutorMode;
+import com.irg.ftpserver.data.SFTPServerConfigurationSnapshot;
+import com.irg.ftpserver.events.SFTPConfigurationReloadedEvent;
+import com.irg.ftpserver.model.SFTPServerConfiguration;
+import com.irg.ftpserver.repository.SFTPServerConfigurationRepository;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Pageable;
+
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import static org.mockito.Mockito.*;
+
+public class SFTPConfigurationServiceTest {
+
+    private static final UUID ID = UUID.randomUUID();
+
+    private SFTPServerConfigurationRepository repository;
+    private ApplicationEventPublisher eventPublisher;
+    private SFTPConfigurationService configurationService;
+
+    @BeforeEach
+    public void setUp() {
+        repository = Mockito.mock(SFTPServerConfigurationRepository.class);
+        eventPublisher = Mockito.mock(ApplicationEventPublisher.class);
+        configurationService = new SFTPConfigurationService(repository, eventPublisher);
+    }
+
+    @Test
+    @DisplayName("Test the snapshot is built from the latest configuration row without publishing an event")
+    public void testInitialLoad() {
+        SFTPServerConfiguration configuration = configuration(2221, 1000);
+        when(repository.findLatest(any(Pageable.class))).thenReturn(List.of(configuration));
+
+        configurationService.init();
+
+        SFTPServerConfigurationSnapshot snapshot = configurationService.getLatestConfiguration();
+        Assertions.assertEquals(ID, snapshot.getId());
+        Assertions.assertEquals(2221, snapshot.getPort());
+        Assertions.assertEquals(ExecutorMode.VIRTUAL, snapshot.getExecutorMode());
+        Assertions.assertEquals(64, snapshot.getMaxConcurrentSubsystems());
+        Assertions.assertEquals(1000, snapshot.getModifiedDate().toEpochMilli());
+
+        // The snapshot is a copy, later changes to the row do not leak into it
+        configuration.setPort(2222);
+        Assertions.assertEquals(2221, configurationService.getLatestConfiguration().getPort());
+        verify(eventPublisher, never()).publishEvent(any());
+    }
+
+    @Test
+    @DisplayName("Test a new version of the configuration is swapped in and announced, the same version is not")
+    public void testReload() {
+        when(repository.findLatest(any(Pageable.class))).thenReturn(List.of(configuration(2221, 1000)));
+        configurationService.init();
+        SFTPServerConfigurationSnapshot first = configurationService.getLatestConfiguration();
+
+        when(repository.findLatest(any(Pageable.class))).thenReturn(List.of(configuration(2221, 1000)));
+        Assertions.assertSame(first, configurationService.refresh());
+        verify(eventPublisher, never()).publishEvent(any());
+
+        when(repository.findLatest(any(Pageable.class))).thenReturn(List.of(configuration(2222, 2000)));
+        configurationService.pollConfiguration();
+
+        SFTPServerConfigurationSnapshot second = configurationService.getLatestConfiguration();
+        Assertions.assertEquals(2222, second.getPort());
+        ArgumentCaptor<SFTPConfigurationReloadedEvent> event =
+                ArgumentCaptor.forClass(SFTPConfigurationReloadedEvent.class);
+        verify(eventPublisher).publishEvent(event.capture());
+        Assertions.assertSame(first, event.getValue().getPrevious());
+        Assertions.assertSame(second, event.getValue().getCurrent());
+    }
+
+    @Test
+    @DisplayName("Test the current snapshot is kept when the configuration cannot be reloaded")
+    public void testReloadFailure() {
+        when(repository.findLatest(any(Pageable.class))).thenReturn(List.of(configuration(2221, 1000)));
+        configurationService.init();
+        SFTPServerConfigurationSnapshot snapshot = configurationService.getLatestConfiguration();
+
+        when(repository.findLatest(any(Pageable.class))).thenThrow(new IllegalStateException("Database down"));
+        configurationService.pollConfiguration();
+        Assertions.assertSame(snapshot, configurationService.getLatestConfiguration());
+
+        Mockito.reset(repository);
+        when(repository.findLatest(any(Pageable.class))).thenReturn(List.of());
+        Assertions.assertSame(snapshot, configurationService.refresh());
+        verify(eventPublisher, never()).publishEvent(any());
+    }
+
+    @Test
+    @DisplayName("Test reading the configuration fails while none was loaded")
+    public void testNoConfiguration() {
+        when(repository.findLatest(any(Pageable.class))).thenReturn(List.of());
+
+        Assertions.assertThrows(RuntimeException.class, () -> configurationService.init());
+        Assertions.assertThrows(RuntimeException.class, () -> configurationService.getLatestConfiguration());
+    }
+
+    private static SFTPServerConfiguration configuration(int port, long modifiedAt) {
+        SFTPServerConfiguration configuration = new SFTPServerConfiguration();
+        configuration.setId(ID);
+        configuration.setPort(port);
+        configuration.setKeyPath("hostkey.ser");
+        configuration.setHostKeyAlgorithm("RSA");
+        configuration.setExecutorMode(ExecutorMode.VIRTUAL);
+        configuration.setMaxConcurrentSubsystems(64);
+        configuration.setCreatedAt(new Date(0));
+        configuration.setModifiedDate(new Date(modifiedAt));
+        return configuration;
+    }
+}
@@ -0,0 +1,150 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.config.SFTPServerProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class SFTPDeduplicationServiceTest {
+
+    private static final String CONTENT = "daily reference data";
+
+    private Path directory;
+    private Path store;
+    private SFTPDeduplicationService deduplicationService;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("sftp-dedup");
+        store = directory.resolve("store");
+        Files.createDirectories(directory.resolve("a"));
+        Files.createDirectories(directory.resolve("b"));
+        SFTPServerProperties sftpServerProperties = new SFTPServerProperties();
+        sftpServerProperties.setDedupEnabled(true);
+        sftpServerProperties.setDedupDirectory(store.toString());
+        sftpServerProperties.setDedupMinFileSize(1);
+        deduplicationService = new SFTPDeduplicationService(sftpServerProperties,
+                Mockito.mock(SFTPUserService.class));
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test identical uploads share their content until one of them is written")
+    public void testDeduplicate() throws IOException {
+        Path first = upload(directory.resolve("a").resolve("data.csv"));
+        Path second = upload(directory.resolve("b").resolve("data.csv"));
+
+        Assertions.assertEquals(fileKey(first), fileKey(second));
+        Assertions.assertEquals(CONTENT, Files.readString(second));
+
+        deduplicationService.openingForWrite("b", second, false);
+        deduplicationService.closedForWrite(second);
+
+        Assertions.assertNotEquals(fileKey(first), fileKey(second));
+        Assertions.assertEquals(CONTENT, Files.readString(second));
+        Assertions.assertEquals(List.of("data.csv"), list(directory.resolve("b")));
+    }
+
+    @Test
+    @DisplayName("Test identical uploads with different permissions do not share their content")
+    public void testDifferentPermissions() throws IOException {
+        Path first = directory.resolve("a").resolve("data.csv");
+        Files.writeString(first, CONTENT);
+        Files.setPosixFilePermissions(first, PosixFilePermissions.fromString("rw-r--r--"));
+        upload(first);
+        Path second = directory.resolve("b").resolve("data.csv");
+        Files.writeString(second, CONTENT);
+        Files.setPosixFilePermissions(second, PosixFilePermissions.fromString("rw-------"));
+        BasicFileAttributes attributes = Files.readAttributes(second, BasicFileAttributes.class);
+
+        deduplicationService.deduplicate("b", second, attributes.size(), attributes.lastModifiedTime(),
+                checksum(CONTENT));
+
+        Assertions.assertNotEquals(fileKey(first), fileKey(second));
+        Assertions.assertEquals(PosixFilePermissions.fromString("rw-r--r--"), Files.getPosixFilePermissions(first));
+        Assertions.assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(second));
+    }
+
+    @Test
+    @DisplayName("Test an upload that changed after its checksum was computed is not deduplicated")
+    public void testStaleUpload() throws IOException {
+        Path first = upload(directory.resolve("a").resolve("data.csv"));
+        Path second = directory.resolve("b").resolve("data.csv");
+        Files.writeString(second, CONTENT);
+        BasicFileAttributes attributes = Files.readAttributes(second, BasicFileAttributes.class);
+
+        deduplicationService.openingForWrite("b", second, false);
+        deduplicationService.deduplicate("b", second, attributes.size(), attributes.lastModifiedTime(),
+                checksum(CONTENT));
+        deduplicationService.closedForWrite(second);
+
+        Assertions.assertNotEquals(fileKey(first), fileKey(second));
+    }
+
+    @Test
+    @DisplayName("Test a copy becomes a reference and unreferenced content is swept")
+    public void testCopyAndSweep() throws IOException {
+        Path first = upload(directory.resolve("a").resolve("data.csv"));
+        Path copy = directory.resolve("b").resolve("copy.csv");
+
+        Assertions.assertTrue(deduplicationService.copy("b", first, copy, List.of()));
+        Assertions.assertEquals(fileKey(first), fileKey(copy));
+
+        Files.delete(first);
+        Files.delete(copy);
+        deduplicationService.sweep();
+
+        try (Stream<Path> files = Files.walk(store)) {
+            Assertions.assertTrue(files.noneMatch(Files::isRegularFile));
+        }
+    }
+
+    private Path upload(Path file) throws IOException {
+        Files.writeString(file, CONTENT);
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        deduplicationService.deduplicate("user", file, attributes.size(), attributes.lastModifiedTime(),
+                checksum(CONTENT));
+        return file;
+    }
+
+    private static Object fileKey(Path file) throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+    }
+
+    private static List<String> list(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).toList();
+        }
+    }
+
+    private static String checksum(String content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content.getBytes()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.data.ExecutorMode;
+import com.irg.ftpserver.data.ExecutorStatistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SFTPExecutorServiceTest {
+
+    private SFTPExecutorService sftpExecutorService;
+    private CountDownLatch release;
+
+    @BeforeEach
+    public void setUp() {
+        sftpExecutorService = new SFTPExecutorService(1, 1, 60, 1);
+        release = new CountDownLatch(1);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        release.countDown();
+        sftpExecutorService.shutdown();
+    }
+
+    @Test
+    @DisplayName("Test statistics of an idle executor")
+    public void testIdleStatistics() {
+        ExecutorStatistics statistics = sftpExecutorService.getStatistics();
+
+        Assertions.assertEquals(ExecutorMode.PLATFORM, statistics.getExecutorMode());
+        Assertions.assertEquals(0, statistics.getActiveCount());
+        Assertions.assertEquals(1, statistics.getCorePoolSize());
+        Assertions.assertEquals(1, statistics.getMaximumPoolSize());
+        Assertions.assertEquals(1, statistics.getQueueRemainingCapacity());
+        Assertions.assertEquals(0, statistics.getRejectedCount());
+    }
+
+    @Test
+    @DisplayName("Test subsystems run on the caller thread are counted as rejected")
+    public void testRejectionCounted() throws InterruptedException {
+        ExecutorService executorService = sftpExecutorService.getExecutorService();
+        CountDownLatch started = new CountDownLatch(1);
+        executorService.execute(() -> {
+            started.countDown();
+            awaitRelease();
+        });
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+        executorService.execute(this::awaitRelease);
+
+        AtomicReference<Thread> ranOn = new AtomicReference<>();
+        executorService.execute(() -> ranOn.set(Thread.currentThread()));
+
+        Assertions.assertEquals(Thread.currentThread(), ranOn.get());
+        ExecutorStatistics statistics = sftpExecutorService.getStatistics();
+        Assertions.assertEquals(1, statistics.getActiveCount());
+        Assertions.assertEquals(1, statistics.getQueuedCount());
+        Assertions.assertEquals(0, statistics.getQueueRemainingCapacity());
+        Assertions.assertEquals(1, statistics.getRejectedCount());
+    }
+
+    private void awaitRelease() {
+        try {
+            release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
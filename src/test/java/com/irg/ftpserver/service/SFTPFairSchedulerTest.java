@@ -0,0 +1,232 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.data.ExecutorMode;
+import com.irg.ftpserver.data.ExecutorStatistics;
+import com.irg.ftpserver.data.SFTPServerConfigurationSnapshot;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class SFTPFairSchedulerTest {
+
+    private final List<String> started = new ArrayList<>();
+
+    @Test
+    @DisplayName("Test tenants are admitted round-robin")
+    public void testRoundRobin() {
+        ManualExecutor executor = new ManualExecutor(1);
+        SFTPFairScheduler scheduler = new SFTPFairScheduler(executor, tenant -> 1, 0, 0);
+
+        submit(scheduler, "a", 4);
+        submit(scheduler, "b", 2);
+        executor.runAll();
+
+        Assertions.assertEquals(List.of("a1", "a2", "b1", "a3", "b2", "a4"), started);
+    }
+
+    @Test
+    @DisplayName("Test a tenant is admitted as many subsystems per turn as its weight")
+    public void testWeights() {
+        ManualExecutor executor = new ManualExecutor(1);
+        SFTPFairScheduler scheduler = new SFTPFairScheduler(executor,
+                tenant -> Map.of("a", 2).getOrDefault(tenant, 1), 0, 0);
+
+        submit(scheduler, "a", 5);
+        submit(scheduler, "b", 2);
+        executor.runAll();
+
+        Assertions.assertEquals(List.of("a1", "a2", "a3", "b1", "a4", "a5", "b2"), started);
+    }
+
+    @Test
+    @DisplayName("Test a tenant never exceeds the maximum workers per tenant")
+    public void testMaxWorkersPerTenant() {
+        ManualExecutor executor = new ManualExecutor(3);
+        SFTPFairScheduler scheduler = new SFTPFairScheduler(executor, tenant -> 1, 1, 0);
+
+        submit(scheduler, "a", 2);
+        submit(scheduler, "b", 1);
+
+        Assertions.assertEquals(2, executor.queued.size());
+        Assertions.assertEquals(1, scheduler.getWaitingCount());
+        executor.runAll();
+        Assertions.assertEquals(List.of("a1", "b1", "a2"), started);
+        Assertions.assertEquals(0, scheduler.getTenantCount());
+    }
+
+    @Test
+    @DisplayName("Test waiting subsystems are returned when drained")
+    public void testDrainWaiting() {
+        ManualExecutor executor = new ManualExecutor(1);
+        SFTPFairScheduler scheduler = new SFTPFairScheduler(executor, tenant -> 1, 0, 0);
+
+        submit(scheduler, "a", 3);
+
+        Assertions.assertEquals(2, scheduler.drainWaiting().size());
+        Assertions.assertEquals(0, scheduler.getWaitingCount());
+        executor.runAll();
+        Assertions.assertEquals(List.of("a1"), started);
+    }
+
+    @Test
+    @DisplayName("Test a tenant with the maximum subsystems waiting has further ones rejected")
+    public void testMaxWaitingPerTenant() {
+        ManualExecutor executor = new ManualExecutor(1);
+        SFTPFairScheduler scheduler = new SFTPFairScheduler(executor, tenant -> 1, 0, 2);
+
+        submit(scheduler, "a", 3);
+
+        Assertions.assertThrows(RejectedExecutionException.class, () -> submit(scheduler, "a", 1));
+        submit(scheduler, "b", 1);
+        executor.runAll();
+        Assertions.assertEquals(List.of("a1", "a2", "b1", "a3"), started);
+    }
+
+    @Test
+    @DisplayName("Test a removed subsystem is never admitted")
+    public void testRemove() {
+        ManualExecutor executor = new ManualExecutor(1);
+        SFTPFairScheduler scheduler = new SFTPFairScheduler(executor, tenant -> 1, 0, 0);
+        Runnable cancelled = () -> started.add("cancelled");
+
+        submit(scheduler, "a", 1);
+        scheduler.execute("b", cancelled);
+
+        Assertions.assertTrue(scheduler.remove("b", cancelled));
+        Assertions.assertFalse(scheduler.remove("b", cancelled));
+        Assertions.assertEquals(0, scheduler.getWaitingCount());
+        Assertions.assertEquals(1, scheduler.getTenantCount());
+        executor.runAll();
+        Assertions.assertEquals(List.of("a1"), started);
+    }
+
+    @Test
+    @DisplayName("Test subsystems beyond the core pool size wait for their turn instead of in the pool's queue")
+    public void testCorePoolSize() throws InterruptedException {
+        SFTPExecutorService executor = new SFTPExecutorService(1, 2, 60, 4);
+        SFTPFairScheduler scheduler = new SFTPFairScheduler(executor, tenant -> 1, 0, 0);
+        List<String> ran = new CopyOnWriteArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(4);
+        try {
+            scheduler.execute("a", () -> {
+                awaitQuietly(release);
+                ran.add("a1");
+                done.countDown();
+            });
+            for (String name : List.of("a2", "a3", "b1")) {
+                scheduler.execute(name.substring(0, 1), () -> {
+                    ran.add(name);
+                    done.countDown();
+                });
+            }
+
+            Assertions.assertEquals(3, scheduler.getWaitingCount());
+            Assertions.assertEquals(0, executor.getStatistics().getQueuedCount());
+            release.countDown();
+            Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(List.of("a1", "a2", "b1", "a3"), ran);
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void submit(SFTPFairScheduler scheduler, String tenant, int count) {
+        for (int i = 1; i <= count; i++) {
+            String name = tenant + i;
+            scheduler.execute(tenant, () -> started.add(name));
+        }
+    }
+
+    /**
+     * Subsystem executor that only runs tasks when told to, one at a time in submission order.
+     */
+    private static class ManualExecutor extends AbstractExecutorService implements SFTPSubsystemExecutor {
+        private final int maxConcurrency;
+        private final ArrayDeque<Runnable> queued = new ArrayDeque<>();
+
+        ManualExecutor(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+        }
+
+        void runAll() {
+            while (!queued.isEmpty()) {
+                queued.pollFirst().run();
+            }
+        }
+
+        @Override
+        public void execute(@NotNull Runnable command) {
+            queued.addLast(command);
+        }
+
+        @Override
+        public ExecutorService getExecutorService() {
+            return this;
+        }
+
+        @Override
+        public ExecutorMode getExecutorMode() {
+            return ExecutorMode.PLATFORM;
+        }
+
+        @Override
+        public int getMaxConcurrency() {
+            return maxConcurrency;
+        }
+
+        @Override
+        public void resize(SFTPServerConfigurationSnapshot configuration) {
+        }
+
+        @Override
+        public ExecutorStatistics getStatistics() {
+            return null;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public @NotNull List<Runnable> shutdownNow() {
+            return List.of();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, @NotNull TimeUnit unit) {
+            return true;
+        }
+    }
+}
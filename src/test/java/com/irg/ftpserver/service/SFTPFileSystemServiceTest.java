@@ -0,0 +1,115 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.config.SFTPServerProperties;
+import com.irg.ftpserver.events.SFTPUserChangedEvent;
+import com.irg.ftpserver.model.SFTPUser;
+import com.irg.ftpserver.repository.SFTPUserRepository;
+import com.irg.ftpserver.storage.LocalStorageBackend;
+import org.apache.sshd.common.session.SessionContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.mockito.Mockito.*;
+
+public class SFTPFileSystemServiceTest {
+
+    private Path directory;
+    private SFTPUser sftpUser;
+    private SFTPUserRepository repository;
+    private SFTPFileSystemService fileSystemService;
+    private SessionContext session;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("sftp-home");
+        sftpUser = new SFTPUser();
+        sftpUser.setUsername("user");
+        sftpUser.setDirectory(directory.resolve("user").toString());
+        repository = Mockito.mock(SFTPUserRepository.class);
+        when(repository.findByUsername("user")).thenReturn(Optional.of(sftpUser));
+        SFTPServerProperties properties = new SFTPServerProperties();
+        properties.setFileSystemIdleTimeout(0);
+        fileSystemService = new SFTPFileSystemService(repository, properties, List.of(new LocalStorageBackend()));
+        session = Mockito.mock(SessionContext.class);
+        when(session.getUsername()).thenReturn("user");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test sessions of a user share a file system that is kept until the last session closes")
+    public void testSharedFileSystem() throws IOException {
+        FileSystem first = fileSystemService.createFileSystem(session);
+        FileSystem second = fileSystemService.createFileSystem(session);
+        Path path = first.getPath("/upload.txt");
+        Assertions.assertSame(path.getFileSystem(), second.getPath("/upload.txt").getFileSystem());
+        Assertions.assertTrue(Files.isDirectory(directory.resolve("user")));
+
+        first.close();
+        fileSystemService.evictIdleFileSystems();
+        Assertions.assertFalse(first.isOpen());
+        Assertions.assertTrue(second.isOpen());
+        Assertions.assertEquals(1, fileSystemService.getCachedFileSystemCount());
+
+        second.close();
+        fileSystemService.evictIdleFileSystems();
+        Assertions.assertEquals(0, fileSystemService.getCachedFileSystemCount());
+    }
+
+    @Test
+    @DisplayName("Test a changed home directory is used by new sessions and created when the user is saved")
+    public void testDirectoryChanged() throws IOException {
+        FileSystem before = fileSystemService.createFileSystem(session);
+
+        sftpUser.setDirectory(directory.resolve("moved").toString());
+        fileSystemService.handleSFTPUserChangedEvent(new SFTPUserChangedEvent("user"));
+
+        Assertions.assertTrue(Files.isDirectory(directory.resolve("moved")));
+        try (FileSystem after = fileSystemService.createFileSystem(session)) {
+            Assertions.assertNotSame(before.getPath("/").getFileSystem(), after.getPath("/").getFileSystem());
+            Assertions.assertTrue(before.isOpen());
+            Assertions.assertEquals(1, fileSystemService.getCachedFileSystemCount());
+        }
+        before.close();
+    }
+
+    @Test
+    @DisplayName("Test a home changed without an event is picked up once the cached home has expired")
+    public void testHomeExpired() throws IOException {
+        SFTPServerProperties properties = new SFTPServerProperties();
+        properties.setFileSystemIdleTimeout(0);
+        properties.setUserCacheTtl(0);
+        fileSystemService = new SFTPFileSystemService(repository, properties, List.of(new LocalStorageBackend()));
+        FileSystem before = fileSystemService.createFileSystem(session);
+
+        sftpUser.setDirectory(directory.resolve("moved").toString());
+
+        try (FileSystem after = fileSystemService.createFileSystem(session)) {
+            Assertions.assertTrue(Files.isDirectory(directory.resolve("moved")));
+            Assertions.assertNotSame(before.getPath("/").getFileSystem(), after.getPath("/").getFileSystem());
+            Assertions.assertTrue(before.isOpen());
+            Assertions.assertEquals(1, fileSystemService.getCachedFileSystemCount());
+        }
+        before.close();
+    }
+}
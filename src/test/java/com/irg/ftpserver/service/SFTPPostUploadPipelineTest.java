@@ -0,0 +1,238 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.config.SFTPServerProperties;
+import com.irg.ftpserver.data.PostUploadTaskStatus;
+import com.irg.ftpserver.model.SFTPPostUploadTask;
+import com.irg.ftpserver.pipeline.PostUpload;
+import com.irg.ftpserver.pipeline.PostUploadStage;
+import com.irg.ftpserver.repository.SFTPPostUploadTaskRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static com.irg.ftpserver.service.TestConditions.awaitTrue;
+import static org.mockito.Mockito.*;
+
+public class SFTPPostUploadPipelineTest {
+
+    private final Map<UUID, SFTPPostUploadTask> tasks = new ConcurrentHashMap<>();
+    private final List<String> calls = new CopyOnWriteArrayList<>();
+    private final List<Thread> savedOn = new CopyOnWriteArrayList<>();
+    private final Set<String> savedPaths = ConcurrentHashMap.newKeySet();
+    private SFTPServerProperties properties;
+    private SFTPDeduplicationService deduplicationService;
+    private SFTPPostUploadPipeline pipeline;
+
+    @BeforeEach
+    public void setUp() {
+        properties = new SFTPServerProperties();
+        properties.setPostUploadRetryBackoff(0);
+        properties.setPostUploadMaxAttempts(3);
+        properties.setPostUploadStageTimeout(5000);
+        deduplicationService = Mockito.mock(SFTPDeduplicationService.class);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        pipeline.destroy();
+    }
+
+    @Test
+    @DisplayName("Test an upload runs through the stages in order and is removed")
+    public void testStagesInOrder() {
+        start(new RecordingStage("move", 0), new RecordingStage("notify", 0));
+
+        pipeline.submit("user", Paths.get("/tmp/upload.txt"), 42);
+
+        awaitTrue(() -> calls.size() == 2 && tasks.isEmpty());
+        Assertions.assertEquals(List.of("move:1", "notify:1"), calls);
+    }
+
+    @Test
+    @DisplayName("Test an upload is stored off the submitting thread")
+    public void testStoredOffSubmittingThread() {
+        start(new RecordingStage("move", 0));
+
+        pipeline.submit("user", Paths.get("/tmp/upload.txt"), 42);
+
+        awaitTrue(() -> calls.size() == 1 && tasks.isEmpty());
+        Assertions.assertFalse(savedOn.isEmpty());
+        Assertions.assertFalse(savedOn.contains(Thread.currentThread()));
+    }
+
+    @Test
+    @DisplayName("Test a failed stage is retried without running the earlier stages again")
+    public void testRetry() {
+        start(new RecordingStage("move", 0), new RecordingStage("unzip", 1));
+
+        pipeline.submit("user", Paths.get("/tmp/upload.zip"), 42);
+        awaitTrue(() -> calls.size() == 2);
+        pipeline.pollPending();
+
+        awaitTrue(() -> calls.size() == 3 && tasks.isEmpty());
+        Assertions.assertEquals(List.of("move:1", "unzip:1", "unzip:2"), calls);
+    }
+
+    @Test
+    @DisplayName("Test a stage is interrupted after its timeout and the upload fails after the last attempt")
+    public void testTimeout() {
+        properties.setPostUploadMaxAttempts(1);
+        properties.setPostUploadStageTimeouts(Map.of("slow", 50L));
+        start(new PostUploadStage() {
+            @Override
+            public String getName() {
+                return "slow";
+            }
+
+            @Override
+            public void process(PostUpload upload) throws Exception {
+                Thread.sleep(10000);
+            }
+        });
+
+        pipeline.submit("user", Paths.get("/tmp/upload.txt"), 42);
+
+        awaitTrue(() -> tasks.values().stream().anyMatch(task -> task.getStatus() == PostUploadTaskStatus.FAILED));
+        SFTPPostUploadTask task = tasks.values().iterator().next();
+        Assertions.assertEquals("slow", task.getStage());
+        Assertions.assertTrue(task.getLastError().contains("timed out"));
+    }
+
+    @Test
+    @DisplayName("Test an upload outside the local disk is not submitted")
+    public void testSkipNonLocal() throws IOException {
+        start(new RecordingStage("move", 0));
+        Path zip = Files.createTempDirectory("pipeline").resolve("home.zip");
+
+        try (FileSystem fileSystem = FileSystems.newFileSystem(zip, Map.of("create", "true"))) {
+            pipeline.submit("user", fileSystem.getPath("/upload.txt"), 42);
+            pipeline.submit("user", Paths.get("/tmp/upload.txt"), 42);
+
+            awaitTrue(() -> calls.size() == 1 && tasks.isEmpty());
+            Assertions.assertEquals(Set.of("/tmp/upload.txt"), savedPaths);
+            Assertions.assertEquals(List.of("move:1"), calls);
+        }
+    }
+
+    @Test
+    @DisplayName("Test a stage that may write to a deduplicated upload gets a private copy, a read-only one does not")
+    public void testUnshareDeduplicated() throws IOException {
+        Path directory = Files.createTempDirectory("pipeline");
+        Path upload = directory.resolve("upload.txt");
+        Path reference = directory.resolve("reference.txt");
+        Files.writeString(upload, "shared content");
+        Files.createLink(reference, upload);
+        properties.setDedupEnabled(true);
+        properties.setDedupDirectory(directory.resolve("store").toString());
+        deduplicationService = new SFTPDeduplicationService(properties, Mockito.mock(SFTPUserService.class));
+        List<Object> fileKeys = new CopyOnWriteArrayList<>();
+        start(new FileKeyStage("notify", true, fileKeys), new FileKeyStage("stamp", false, fileKeys));
+
+        pipeline.submit("user", upload, 14);
+
+        awaitTrue(() -> fileKeys.size() == 2 && tasks.isEmpty());
+        Object shared = Files.readAttributes(reference, BasicFileAttributes.class).fileKey();
+        Assertions.assertEquals(shared, fileKeys.get(0));
+        Assertions.assertNotEquals(shared, fileKeys.get(1));
+        Assertions.assertEquals("shared content", Files.readString(upload));
+        Files.delete(upload);
+        Files.delete(reference);
+        Files.delete(directory);
+    }
+
+    private void start(PostUploadStage... stages) {
+        pipeline = new SFTPPostUploadPipeline(repository(), deduplicationService, List.of(stages), properties);
+        pipeline.init();
+    }
+
+    private SFTPPostUploadTaskRepository repository() {
+        SFTPPostUploadTaskRepository repository = Mockito.mock(SFTPPostUploadTaskRepository.class);
+        when(repository.save(any(SFTPPostUploadTask.class))).thenAnswer(invocation -> {
+            SFTPPostUploadTask task = invocation.getArgument(0);
+            savedOn.add(Thread.currentThread());
+            savedPaths.add(task.getPath());
+            if (task.getId() == null) {
+                task.setId(UUID.randomUUID());
+            }
+            tasks.put(task.getId(), task);
+            return task;
+        });
+        when(repository.findById(any(UUID.class)))
+                .thenAnswer(invocation -> Optional.ofNullable(tasks.get(invocation.<UUID>getArgument(0))));
+        doAnswer(invocation -> tasks.remove(invocation.<SFTPPostUploadTask>getArgument(0).getId()))
+                .when(repository).delete(any(SFTPPostUploadTask.class));
+        when(repository.findByStatusAndNextAttemptAtLessThanEqualOrderByNextAttemptAt(any(), any(), any()))
+                .thenAnswer(invocation -> tasks.values().stream()
+                        .filter(task -> task.getStatus() == invocation.getArgument(0))
+                        .toList());
+        return repository;
+    }
+
+    private static class FileKeyStage implements PostUploadStage {
+        private final String name;
+        private final boolean readOnly;
+        private final List<Object> fileKeys;
+
+        FileKeyStage(String name, boolean readOnly, List<Object> fileKeys) {
+            this.name = name;
+            this.readOnly = readOnly;
+            this.fileKeys = fileKeys;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public boolean isReadOnly() {
+            return readOnly;
+        }
+
+        @Override
+        public void process(PostUpload upload) throws Exception {
+            fileKeys.add(Files.readAttributes(upload.getLocalPath(), BasicFileAttributes.class).fileKey());
+        }
+    }
+
+    private class RecordingStage implements PostUploadStage {
+        private final String name;
+        private int failures;
+
+        RecordingStage(String name, int failures) {
+            this.name = name;
+            this.failures = failures;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void process(PostUpload upload) throws Exception {
+            calls.add(name + ":" + upload.getAttempt());
+            if (failures-- > 0) {
+                throw new IllegalStateException("Failing " + name);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.config.SFTPServerProperties;
+import com.irg.ftpserver.events.SFTPUserChangedEvent;
+import com.irg.ftpserver.model.SFTPPublicKey;
+import com.irg.ftpserver.model.SFTPUser;
+import com.irg.ftpserver.repository.PublicKeyRepository;
+import com.irg.ftpserver.repository.SFTPUserRepository;
+import org.apache.sshd.common.config.keys.PublicKeyEntry;
+import org.apache.sshd.common.io.IoSession;
+import org.apache.sshd.server.auth.AsyncAuthException;
+import org.apache.sshd.server.session.ServerSession;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.net.InetSocketAddress;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.mockito.Mockito.*;
+
+public class SFTPPublicKeyLoginServiceTest {
+
+    private SFTPUserRepository sftpUserRepository;
+    private SFTPPublicKeyIndexService indexService;
+    private SFTPPublicKeyLoginService loginService;
+    private PublicKey publicKey;
+
+    @BeforeEach
+    public void setUp() throws NoSuchAlgorithmException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        publicKey = generator.generateKeyPair().getPublic();
+        sftpUserRepository = Mockito.mock(SFTPUserRepository.class);
+        SFTPUser sftpUser = user(true);
+        when(sftpUserRepository.findAll()).thenReturn(List.of(sftpUser));
+        when(sftpUserRepository.findByUsername("user")).thenReturn(Optional.of(sftpUser));
+
+        indexService = new SFTPPublicKeyIndexService(sftpUserRepository);
+        indexService.loadKeys();
+        BlockedHostService blockedHostService = Mockito.mock(BlockedHostService.class);
+        when(blockedHostService.delayedRejection()).thenReturn(new AsyncAuthException());
+        SFTPUserService sftpUserService = new SFTPUserService(sftpUserRepository,
+                Mockito.mock(PublicKeyRepository.class), Mockito.mock(ApplicationEventPublisher.class),
+                new SFTPServerProperties());
+        loginService = new SFTPPublicKeyLoginService(sftpUserService, indexService, blockedHostService);
+    }
+
+    @Test
+    @DisplayName("Test key logins are answered from the index without querying the database")
+    public void testLoginFromIndex() throws AsyncAuthException {
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertTrue(loginService.authenticate("user", publicKey, session()));
+        }
+
+        // Only the user cache loads the user, once
+        verify(sftpUserRepository, times(1)).findByUsername("user");
+    }
+
+    @Test
+    @DisplayName("Test a key revoked in the database fails logins once the change of its user is announced")
+    public void testRevokedKey() throws AsyncAuthException {
+        Assertions.assertTrue(loginService.authenticate("user", publicKey, session()));
+
+        when(sftpUserRepository.findByUsername("user")).thenReturn(Optional.of(user(false)));
+        indexService.handleSFTPUserChangedEvent(new SFTPUserChangedEvent("user"));
+
+        Assertions.assertThrows(AsyncAuthException.class,
+                () -> loginService.authenticate("user", publicKey, session()));
+    }
+
+    private SFTPUser user(boolean keyEnabled) {
+        SFTPUser sftpUser = new SFTPUser();
+        sftpUser.setId(UUID.randomUUID());
+        sftpUser.setUsername("user");
+        SFTPPublicKey key = new SFTPPublicKey();
+        key.setPublicKey(PublicKeyEntry.toString(publicKey));
+        key.setEnabled(keyEnabled);
+        key.setSftpUser(sftpUser);
+        sftpUser.getSFTPPublicKeys().add(key);
+        return sftpUser;
+    }
+
+    private static ServerSession session() {
+        IoSession ioSession = Mockito.mock(IoSession.class);
+        when(ioSession.getRemoteAddress()).thenReturn(new InetSocketAddress("127.0.0.1", 2222));
+        ServerSession session = Mockito.mock(ServerSession.class);
+        when(session.getIoSession()).thenReturn(ioSession);
+        return session;
+    }
+}
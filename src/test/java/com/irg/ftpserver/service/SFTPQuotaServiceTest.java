@@ -0,0 +1,109 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.config.SFTPServerProperties;
+import com.irg.ftpserver.model.SFTPUser;
+import com.irg.ftpserver.repository.SFTPUserRepository;
+import com.irg.ftpserver.storage.LocalStorageBackend;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.mockito.Mockito.*;
+
+public class SFTPQuotaServiceTest {
+
+    private Path directory;
+    private SFTPUser sftpUser;
+    private SFTPUserRepository repository;
+    private SFTPUserService userService;
+    private SFTPQuotaService quotaService;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("sftp-quota");
+        Files.createDirectories(directory.resolve("sub"));
+        Files.write(directory.resolve("a.bin"), new byte[10]);
+        Files.write(directory.resolve("sub").resolve("b.bin"), new byte[20]);
+        sftpUser = new SFTPUser();
+        sftpUser.setUsername("user");
+        sftpUser.setDirectory(directory.toString());
+        repository = Mockito.mock(SFTPUserRepository.class);
+        when(repository.findByUsername("user")).thenReturn(Optional.of(sftpUser));
+        SFTPFileSystemService fileSystemService = new SFTPFileSystemService(repository, new SFTPServerProperties(),
+                List.of(new LocalStorageBackend()));
+        userService = Mockito.mock(SFTPUserService.class);
+        quotaService = new SFTPQuotaService(userService, repository, fileSystemService);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test growing the usage beyond the quota is refused while freed bytes can be used again")
+    public void testQuota() {
+        SFTPQuotaService.Usage usage = new SFTPQuotaService.Usage(100, 40);
+
+        Assertions.assertTrue(usage.tryGrow(60));
+        Assertions.assertFalse(usage.tryGrow(1));
+        usage.adjust(-50);
+        Assertions.assertTrue(usage.tryGrow(10));
+        Assertions.assertEquals(60, usage.get());
+
+        Assertions.assertTrue(new SFTPQuotaService.Usage(0, 40).tryGrow(Long.MAX_VALUE / 2));
+    }
+
+    @Test
+    @DisplayName("Test the usage of a user with a quota is computed from storage when first loaded")
+    public void testLoadWithQuota() {
+        sftpUser.setQuotaBytes(100L);
+        when(userService.getUserByUserName("user")).thenReturn(Optional.of(sftpUser));
+
+        SFTPQuotaService.Usage usage = quotaService.getUsage("user");
+
+        Assertions.assertEquals(30, usage.get());
+        Assertions.assertEquals(100, usage.getQuota());
+        Assertions.assertFalse(usage.tryGrow(71));
+        Assertions.assertSame(usage, quotaService.getUsage("user"));
+    }
+
+    @Test
+    @DisplayName("Test reconciliation replaces the usage with the size of the home directory and stores it")
+    public void testReconcile() {
+        SFTPQuotaService.Usage usage = quotaService.getUsage("user");
+        usage.adjust(1000);
+
+        quotaService.reconcile("user", usage);
+
+        Assertions.assertEquals(30, usage.get());
+        verify(repository).updateUsedBytes("user", 30L);
+    }
+
+    @Test
+    @DisplayName("Test reconciliation reloads a quota changed without a change event")
+    public void testReconcileQuota() {
+        SFTPQuotaService.Usage usage = quotaService.getUsage("user");
+        sftpUser.setQuotaBytes(25L);
+
+        quotaService.reconcile("user", usage);
+
+        Assertions.assertEquals(25, usage.getQuota());
+        Assertions.assertFalse(usage.tryGrow(1));
+    }
+}
@@ -0,0 +1,162 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.config.SFTPServerProperties;
+import com.irg.ftpserver.data.SFTPTransferRecord;
+import com.irg.ftpserver.data.TransferDirection;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.irg.ftpserver.service.TestConditions.awaitTrue;
+
+public class SFTPTransferRecorderTest {
+
+    private final FakeJdbcTemplate jdbcTemplate = new FakeJdbcTemplate();
+    private Path spillDirectory;
+    private SFTPTransferRecorder recorder;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        spillDirectory = Files.createTempDirectory("sftp-transfers");
+        SFTPServerProperties properties = new SFTPServerProperties();
+        properties.setTransferQueueCapacity(100);
+        properties.setTransferBatchSize(2);
+        properties.setTransferFlushInterval(50);
+        properties.setTransferReplayInterval(100);
+        properties.setTransferSpillDirectory(spillDirectory.toString());
+        recorder = new SFTPTransferRecorder(jdbcTemplate, Mockito.mock(SFTPUserService.class), properties);
+        recorder.init();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        recorder.destroy();
+        try (var files = Files.list(spillDirectory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(spillDirectory);
+    }
+
+    @Test
+    @DisplayName("Test transfers are inserted in batches of the batch size")
+    public void testBatches() {
+        record(3);
+
+        awaitTrue(() -> jdbcTemplate.inserted.size() == 3);
+        Assertions.assertEquals(List.of(2, 1), jdbcTemplate.batchSizes);
+    }
+
+    @Test
+    @DisplayName("Test transfers are spilled while the database fails and inserted once it is back")
+    public void testSpillAndReplay() {
+        jdbcTemplate.failing = true;
+        record(2);
+        awaitTrue(() -> Files.exists(spillDirectory.resolve("sftp-transfers.spill")));
+
+        jdbcTemplate.failing = false;
+        record(1);
+
+        awaitTrue(() -> jdbcTemplate.inserted.size() == 3);
+        Assertions.assertEquals(List.of("/upload/file0", "/upload/file0", "/upload/file1"), insertedPaths());
+        Assertions.assertEquals(TransferDirection.UPLOAD, jdbcTemplate.inserted.get(1).getDirection());
+        Assertions.assertFalse(Files.exists(spillDirectory.resolve("sftp-transfers.spill")));
+        Assertions.assertFalse(Files.exists(spillDirectory.resolve("sftp-transfers.replay")));
+    }
+
+    @Test
+    @DisplayName("Test spilled transfers are replayed once the database is back without new transfers")
+    public void testReplayOnTimer() {
+        jdbcTemplate.failing = true;
+        record(2);
+        awaitTrue(() -> Files.exists(spillDirectory.resolve("sftp-transfers.spill")));
+
+        jdbcTemplate.failing = false;
+
+        awaitTrue(() -> jdbcTemplate.inserted.size() == 2);
+        Assertions.assertFalse(Files.exists(spillDirectory.resolve("sftp-transfers.spill")));
+    }
+
+    @Test
+    @DisplayName("Test transfers of a partly inserted batch are not inserted twice on replay")
+    public void testReplayIdempotent() {
+        jdbcTemplate.partialFailures = 1;
+        record(2);
+
+        awaitTrue(() -> jdbcTemplate.inserted.size() == 2 && jdbcTemplate.duplicates.get() == 1);
+        Assertions.assertEquals(List.of("/upload/file0", "/upload/file1"), insertedPaths());
+        Assertions.assertFalse(Files.exists(spillDirectory.resolve("sftp-transfers.spill")));
+    }
+
+    private void record(int count) {
+        for (int i = 0; i < count; i++) {
+            recorder.record("testUser", "/upload/file" + i, TransferDirection.UPLOAD, 1024, Instant.now(),
+                    Duration.ofMillis(10), null);
+        }
+    }
+
+    private List<String> insertedPaths() {
+        return jdbcTemplate.inserted.stream().map(SFTPTransferRecord::getPath).sorted().toList();
+    }
+
+    /**
+     * Stores inserted records like sftp_transfers, where a record id can only be inserted once.
+     */
+    private static class FakeJdbcTemplate extends JdbcTemplate {
+        private final List<SFTPTransferRecord> inserted = new CopyOnWriteArrayList<>();
+        private final Set<UUID> ids = ConcurrentHashMap.newKeySet();
+        private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        private final AtomicInteger duplicates = new AtomicInteger();
+        private volatile boolean failing;
+        // Batches that fail after inserting their first record
+        private volatile int partialFailures;
+
+        @Override
+        public <T> int[][] batchUpdate(@NotNull String sql, @NotNull Collection<T> batchArgs, int batchSize,
+                                       @NotNull ParameterizedPreparedStatementSetter<T> pss) {
+            if (failing) {
+                throw new DataAccessResourceFailureException("Database is down");
+            }
+            boolean partialFailure = partialFailures > 0;
+            for (T arg : batchArgs) {
+                SFTPTransferRecord record = (SFTPTransferRecord) arg;
+                if (!ids.add(record.getId())) {
+                    if (!sql.contains("ON CONFLICT (record_id) DO NOTHING")) {
+                        throw new DuplicateKeyException("Duplicate record id: " + record.getId());
+                    }
+                    duplicates.incrementAndGet();
+                    continue;
+                }
+                inserted.add(record);
+                if (partialFailure) {
+                    partialFailures--;
+                    throw new DataAccessResourceFailureException("Connection lost");
+                }
+            }
+            batchSizes.add(batchArgs.size());
+            return new int[][]{};
+        }
+    }
+}
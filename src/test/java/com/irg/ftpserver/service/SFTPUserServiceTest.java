@@ -0,0 +1,139 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.config.SFTPServerProperties;
+import com.irg.ftpserver.data.SFTPUserVersion;
+import com.irg.ftpserver.events.SFTPUserChangedEvent;
+import com.irg.ftpserver.model.SFTPPublicKey;
+import com.irg.ftpserver.model.SFTPUser;
+import com.irg.ftpserver.repository.PublicKeyRepository;
+import com.irg.ftpserver.repository.SFTPUserRepository;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.mockito.Mockito.*;
+
+public class SFTPUserServiceTest {
+
+    private SFTPUserRepository sftpUserRepository;
+    private ApplicationEventPublisher eventPublisher;
+    private SFTPUserService sftpUserService;
+    private SFTPUser alice;
+    private SFTPUser bob;
+
+    @BeforeEach
+    public void setUp() {
+        sftpUserRepository = Mockito.mock(SFTPUserRepository.class);
+        eventPublisher = Mockito.mock(ApplicationEventPublisher.class);
+        alice = user("alice");
+        bob = user("bob");
+        when(sftpUserRepository.findVersions()).thenReturn(List.of(version(alice), version(bob)));
+        sftpUserService = new SFTPUserService(sftpUserRepository, Mockito.mock(PublicKeyRepository.class),
+                eventPublisher, new SFTPServerProperties());
+        sftpUserService.init();
+    }
+
+    @Test
+    @DisplayName("Test users changed in the database are found and announced")
+    public void testRefreshUsers() {
+        Assertions.assertEquals(0, sftpUserService.refreshUsers());
+        verify(eventPublisher, never()).publishEvent(any(SFTPUserChangedEvent.class));
+
+        alice.setModifiedDate(new Date(2000));
+        SFTPUser carol = user("carol");
+        when(sftpUserRepository.findVersions()).thenReturn(List.of(version(alice), version(carol)));
+
+        Assertions.assertEquals(3, sftpUserService.refreshUsers());
+        verify(eventPublisher).publishEvent(new SFTPUserChangedEvent("alice"));
+        verify(eventPublisher).publishEvent(new SFTPUserChangedEvent("bob"));
+        verify(eventPublisher).publishEvent(new SFTPUserChangedEvent("carol"));
+        Assertions.assertEquals(0, sftpUserService.refreshUsers());
+    }
+
+    @Test
+    @DisplayName("Test a modified or deleted public key is a change of its user")
+    public void testRefreshKeys() {
+        alice.getSFTPPublicKeys().getFirst().setModifiedDate(new Date(2000));
+        when(sftpUserRepository.findVersions()).thenReturn(List.of(version(alice), version(bob)));
+
+        Assertions.assertEquals(1, sftpUserService.refreshUsers());
+        verify(eventPublisher).publishEvent(new SFTPUserChangedEvent("alice"));
+
+        bob.getSFTPPublicKeys().clear();
+        when(sftpUserRepository.findVersions()).thenReturn(List.of(version(alice), version(bob)));
+
+        Assertions.assertEquals(1, sftpUserService.refreshUsers());
+        verify(eventPublisher).publishEvent(new SFTPUserChangedEvent("bob"));
+    }
+
+    @Test
+    @DisplayName("Test every lookup gets its own copy of the cached user")
+    public void testLookupCopy() {
+        when(sftpUserRepository.findByUsername("alice")).thenReturn(Optional.of(alice));
+
+        SFTPUser first = sftpUserService.getUserByUserName("alice").orElseThrow();
+        first.setDirectory("/elsewhere");
+        first.getSFTPPublicKeys().getFirst().setEnabled(false);
+        SFTPUser second = sftpUserService.getUserByUserName("alice").orElseThrow();
+
+        Assertions.assertNotSame(first, second);
+        Assertions.assertEquals("/alice", second.getDirectory());
+        Assertions.assertTrue(second.getSFTPPublicKeys().getFirst().isEnabled());
+        Assertions.assertSame(second, second.getSFTPPublicKeys().getFirst().getSftpUser());
+        verify(sftpUserRepository, times(1)).findByUsername("alice");
+    }
+
+    @Test
+    @DisplayName("Test a saved user is cached and announced only once the transaction has committed")
+    public void testSaveAfterCommit() {
+        when(sftpUserRepository.save(alice)).thenReturn(alice);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            sftpUserService.saveUser(alice);
+            verify(eventPublisher, never()).publishEvent(any(SFTPUserChangedEvent.class));
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        verify(eventPublisher).publishEvent(new SFTPUserChangedEvent("alice"));
+        Assertions.assertEquals("/alice", sftpUserService.getUserByUserName("alice").orElseThrow().getDirectory());
+        verify(sftpUserRepository, never()).findByUsername("alice");
+    }
+
+    private static SFTPUser user(String username) {
+        SFTPUser sftpUser = new SFTPUser();
+        sftpUser.setId(UUID.randomUUID());
+        sftpUser.setUsername(username);
+        sftpUser.setDirectory("/" + username);
+        sftpUser.setModifiedDate(new Date(1000));
+        SFTPPublicKey key = new SFTPPublicKey();
+        key.setId(UUID.randomUUID());
+        key.setPublicKey("ssh-ed25519 AAAA " + username);
+        key.setEnabled(true);
+        key.setModifiedDate(new Date(1000));
+        key.setSftpUser(sftpUser);
+        sftpUser.getSFTPPublicKeys().add(key);
+        return sftpUser;
+    }
+
+    private static SFTPUserVersion version(SFTPUser sftpUser) {
+        Date keysModified = sftpUser.getSFTPPublicKeys().stream()
+                .map(SFTPPublicKey::getModifiedDate)
+                .max(Date::compareTo)
+                .orElse(null);
+        return new SFTPUserVersion(sftpUser.getUsername(), sftpUser.getModifiedDate(), keysModified,
+                sftpUser.getSFTPPublicKeys().size());
+    }
+}
@@ -0,0 +1,160 @@
+package com.irg.ftpserver.service;
+
+import com.irg.ftpserver.config.SFTPServerConfig;
+import com.irg.ftpserver.config.SFTPServerProperties;
+import com.irg.ftpserver.data.ExecutorMode;
+import com.irg.ftpserver.data.ExecutorStatistics;
+import com.irg.ftpserver.data.SFTPServerConfigurationSnapshot;
+import com.irg.ftpserver.model.SFTPServerConfiguration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.irg.ftpserver.service.TestConditions.awaitTrue;
+import static org.mockito.Mockito.*;
+
+public class SFTPVirtualThreadExecutorServiceTest {
+
+    private SFTPVirtualThreadExecutorService sftpVirtualThreadExecutorService;
+    private CountDownLatch release;
+
+    @BeforeEach
+    public void setUp() {
+        sftpVirtualThreadExecutorService = new SFTPVirtualThreadExecutorService(1);
+        release = new CountDownLatch(1);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        release.countDown();
+        sftpVirtualThreadExecutorService.shutdown();
+    }
+
+    @Test
+    @DisplayName("Test subsystems run on their own virtual thread")
+    public void testVirtualThread() throws InterruptedException {
+        AtomicReference<Thread> ranOn = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+
+        sftpVirtualThreadExecutorService.getExecutorService().execute(() -> {
+            ranOn.set(Thread.currentThread());
+            done.countDown();
+        });
+
+        Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(ranOn.get().isVirtual());
+        Assertions.assertTrue(ranOn.get().getName().startsWith("SFTP-Virtual-Thread-"));
+        awaitTrue(() -> sftpVirtualThreadExecutorService.getStatistics().getCompletedCount() == 1);
+    }
+
+    @Test
+    @DisplayName("Test subsystems over the cap wait for a permit instead of running on the caller thread")
+    public void testConcurrencyCap() throws InterruptedException {
+        ExecutorService executorService = sftpVirtualThreadExecutorService.getExecutorService();
+        CountDownLatch started = new CountDownLatch(1);
+        executorService.execute(() -> {
+            started.countDown();
+            awaitRelease();
+        });
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        AtomicReference<Thread> ranOn = new AtomicReference<>();
+        executorService.execute(() -> ranOn.set(Thread.currentThread()));
+
+        awaitTrue(() -> sftpVirtualThreadExecutorService.getStatistics().getQueuedCount() == 1);
+        ExecutorStatistics statistics = sftpVirtualThreadExecutorService.getStatistics();
+        Assertions.assertEquals(ExecutorMode.VIRTUAL, statistics.getExecutorMode());
+        Assertions.assertEquals(1, statistics.getActiveCount());
+        Assertions.assertEquals(0, statistics.getQueueRemainingCapacity());
+        Assertions.assertEquals(0, statistics.getRejectedCount());
+        Assertions.assertNull(ranOn.get());
+
+        release.countDown();
+        awaitTrue(() -> ranOn.get() != null);
+        Assertions.assertNotEquals(Thread.currentThread(), ranOn.get());
+        Assertions.assertTrue(ranOn.get().isVirtual());
+    }
+
+    @Test
+    @DisplayName("Test raising the cap starts waiting subsystems and lowering it holds new ones back")
+    public void testResize() throws InterruptedException {
+        ExecutorService executorService = sftpVirtualThreadExecutorService.getExecutorService();
+        AtomicInteger running = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            executorService.execute(() -> {
+                running.incrementAndGet();
+                awaitRelease();
+            });
+        }
+        awaitTrue(() -> running.get() == 1
+                && sftpVirtualThreadExecutorService.getStatistics().getQueuedCount() == 2);
+
+        sftpVirtualThreadExecutorService.resize(configuration(ExecutorMode.VIRTUAL, 3));
+        awaitTrue(() -> running.get() == 3);
+        Assertions.assertEquals(3, sftpVirtualThreadExecutorService.getMaxConcurrency());
+
+        sftpVirtualThreadExecutorService.resize(configuration(ExecutorMode.VIRTUAL, 1));
+        release.countDown();
+        awaitTrue(() -> sftpVirtualThreadExecutorService.getStatistics().getCompletedCount() == 3);
+        Assertions.assertEquals(1, sftpVirtualThreadExecutorService.getStatistics().getQueueRemainingCapacity());
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> sftpVirtualThreadExecutorService.resize(configuration(ExecutorMode.VIRTUAL, 0)));
+    }
+
+    @Test
+    @DisplayName("Test the executor mode of the configuration selects the subsystem executor")
+    public void testExecutorWiring() {
+        SFTPConfigurationService configurationService = Mockito.mock(SFTPConfigurationService.class);
+        SFTPServerConfig sftpServerConfig = new SFTPServerConfig(configurationService, new SFTPServerProperties(),
+                Mockito.mock(SFTPUserService.class));
+
+        when(configurationService.getLatestConfiguration()).thenReturn(configuration(ExecutorMode.VIRTUAL, 7));
+        SFTPSubsystemExecutor virtualExecutor = sftpServerConfig.sftpSubsystemExecutor(new SimpleMeterRegistry());
+        try {
+            Assertions.assertInstanceOf(SFTPVirtualThreadExecutorService.class, virtualExecutor);
+            Assertions.assertEquals(ExecutorMode.VIRTUAL, virtualExecutor.getExecutorMode());
+            Assertions.assertEquals(7, virtualExecutor.getMaxConcurrency());
+        } finally {
+            virtualExecutor.shutdown();
+        }
+
+        when(configurationService.getLatestConfiguration()).thenReturn(configuration(ExecutorMode.PLATFORM, 7));
+        SFTPSubsystemExecutor platformExecutor = sftpServerConfig.sftpSubsystemExecutor(new SimpleMeterRegistry());
+        try {
+            Assertions.assertInstanceOf(SFTPExecutorService.class, platformExecutor);
+            Assertions.assertEquals(ExecutorMode.PLATFORM, platformExecutor.getExecutorMode());
+        } finally {
+            platformExecutor.shutdown();
+        }
+    }
+
+    private static SFTPServerConfigurationSnapshot configuration(ExecutorMode executorMode,
+                                                                 int maxConcurrentSubsystems) {
+        SFTPServerConfiguration configuration = new SFTPServerConfiguration();
+        configuration.setCorePoolSize(1);
+        configuration.setMaxPoolSize(2);
+        configuration.setKeepAliveTime(60);
+        configuration.setQueueCapacity(1);
+        configuration.setExecutorMode(executorMode);
+        configuration.setMaxConcurrentSubsystems(maxConcurrentSubsystems);
+        return new SFTPServerConfigurationSnapshot(configuration);
+    }
+
+    private void awaitRelease() {
+        try {
+            release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
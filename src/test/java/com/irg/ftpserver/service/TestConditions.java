@@ -0,0 +1,34 @@
+package com.irg.ftpserver.service;
+
+import org.junit.jupiter.api.Assertions;
+
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Waits for work done by background threads of the services under test.
+ */
+final class TestConditions {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private TestConditions() {
+    }
+
+    /**
+     * Polls the condition until it holds, failing the test if it does not within 10 seconds.
+     *
+     * @param condition the condition
+     */
+    static void awaitTrue(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.nanoTime() < deadline, "Timed out waiting for condition");
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.irg.ftpserver.storage;
+
+import com.irg.ftpserver.config.SFTPServerProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class HotTierCacheTest {
+
+    private Path directory;
+    private SFTPServerProperties properties;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("hot-tier");
+        properties = new SFTPServerProperties();
+        properties.setHotTierEnabled(true);
+        properties.setHotTierDirectory(directory.toString());
+        properties.setHotTierMaxSize(300);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test the least recently used file is evicted once the cache is full")
+    public void testEviction() throws IOException {
+        HotTierCache cache = new HotTierCache(properties);
+        add(cache, "a", "v1", 100);
+        add(cache, "b", "v1", 100);
+        add(cache, "c", "v1", 100);
+        assertCached(cache, "a", "v1", 100);
+
+        add(cache, "d", "v1", 100);
+
+        Assertions.assertNull(cache.open("b", "v1"));
+        assertCached(cache, "a", "v1", 100);
+        Assertions.assertNull(cache.open("c", "v2"));
+        Assertions.assertEquals(300L, cache.size());
+    }
+
+    @Test
+    @DisplayName("Test the cached files and their order survive a restart")
+    public void testRestart() throws IOException {
+        HotTierCache cache = new HotTierCache(properties);
+        add(cache, "a", "v1", 100);
+        add(cache, "b", "v1", 100);
+        assertCached(cache, "a", "v1", 100);
+        cache.destroy();
+
+        HotTierCache restarted = new HotTierCache(properties);
+        Assertions.assertEquals(200L, restarted.size());
+        add(restarted, "c", "v1", 100);
+        add(restarted, "d", "v1", 100);
+
+        Assertions.assertNull(restarted.open("b", "v1"));
+        assertCached(restarted, "a", "v1", 100);
+    }
+
+    @Test
+    @DisplayName("Test a file not read or written to its end is not cached")
+    public void testAbortedFill() throws IOException {
+        HotTierCache cache = new HotTierCache(properties);
+        HotTierCache.Fill fill = cache.fill("a", 100);
+        fill.write(ByteBuffer.allocate(50));
+        fill.abort();
+
+        Assertions.assertNull(cache.open("a", "v1"));
+        Assertions.assertNull(cache.fill("b", 400));
+        try (Stream<Path> files = Files.list(directory.resolve("fill"))) {
+            Assertions.assertEquals(0, files.count());
+        }
+    }
+
+    private static void add(HotTierCache cache, String key, String version, int size) {
+        HotTierCache.Fill fill = cache.fill(key, size);
+        fill.write(ByteBuffer.wrap(new byte[size]));
+        fill.commit(version);
+    }
+
+    private static void assertCached(HotTierCache cache, String key, String version, int size) throws IOException {
+        try (SeekableByteChannel channel = cache.open(key, version)) {
+            Assertions.assertNotNull(channel);
+            Assertions.assertEquals(size, channel.size());
+        }
+    }
+}
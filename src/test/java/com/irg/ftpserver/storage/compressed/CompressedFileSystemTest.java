@@ -0,0 +1,175 @@
+package com.irg.ftpserver.storage.compressed;
+
+import com.irg.ftpserver.config.SFTPServerProperties;
+import com.irg.ftpserver.storage.CompressedStorageBackend;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+public class CompressedFileSystemTest {
+
+    private Path home;
+    private CompressedStorageBackend storageBackend;
+    private FileSystem fileSystem;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        home = Files.createTempDirectory("compressed");
+        SFTPServerProperties properties = new SFTPServerProperties();
+        properties.setCompressionBlockSize(4096);
+        storageBackend = new CompressedStorageBackend(properties);
+        storageBackend.createHome(home.toString());
+        fileSystem = storageBackend.createFileSystem("user", home.toString());
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        fileSystem.close();
+        try (Stream<Path> files = Files.walk(home)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test a compressible file is stored smaller and read from any offset at its own size")
+    public void testCompressible() throws IOException {
+        byte[] content = csv(2000);
+        Files.write(fileSystem.getPath("/data.csv"), content);
+
+        Assertions.assertTrue(Files.size(home.resolve("data.csv")) < content.length / 2);
+        Assertions.assertEquals(content.length, Files.size(fileSystem.getPath("/data.csv")));
+        Assertions.assertEquals(content.length, storageBackend.computeUsage(home.toString()));
+        Assertions.assertArrayEquals(content, Files.readAllBytes(fileSystem.getPath("/data.csv")));
+        try (SeekableByteChannel channel = Files.newByteChannel(fileSystem.getPath("/data.csv"))) {
+            ByteBuffer buffer = ByteBuffer.allocate(5000);
+            channel.position(10000);
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+            }
+            Assertions.assertArrayEquals(Arrays.copyOfRange(content, 10000, 15000), buffer.array());
+        }
+    }
+
+    @Test
+    @DisplayName("Test an incompressible file is stored as it is")
+    public void testIncompressible() throws IOException {
+        byte[] content = new byte[20000];
+        new Random(1).nextBytes(content);
+        Files.write(fileSystem.getPath("/random.bin"), content);
+
+        Assertions.assertEquals(content.length + CompressedFileFormat.HEADER_SIZE,
+                Files.size(home.resolve("random.bin")));
+        Assertions.assertArrayEquals(content, Files.readAllBytes(fileSystem.getPath("/random.bin")));
+    }
+
+    @Test
+    @DisplayName("Test a file is modified and appended to without truncating it")
+    public void testModify() throws IOException {
+        byte[] content = csv(500);
+        Path file = fileSystem.getPath("/data.csv");
+        Files.write(file, content);
+
+        try (SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.WRITE)) {
+            channel.position(5000);
+            channel.write(ByteBuffer.wrap("changed".getBytes(StandardCharsets.UTF_8)));
+        }
+        Files.write(file, "appended".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        byte[] expected = Arrays.copyOf(content, content.length + 8);
+        System.arraycopy("changed".getBytes(StandardCharsets.UTF_8), 0, expected, 5000, 7);
+        System.arraycopy("appended".getBytes(StandardCharsets.UTF_8), 0, expected, content.length, 8);
+        Assertions.assertArrayEquals(expected, Files.readAllBytes(file));
+    }
+
+    @Test
+    @DisplayName("Test an upload is compressed while it is written, without an uncompressed copy on disk")
+    public void testStreaming() throws IOException {
+        byte[] content = csv(2000);
+        Path file = fileSystem.getPath("/data.csv");
+
+        try (SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int offset = 0; offset < content.length; offset += 1000) {
+                channel.write(ByteBuffer.wrap(content, offset, Math.min(1000, content.length - offset)));
+            }
+            Assertions.assertEquals(content.length, channel.size());
+            try (Stream<Path> files = Files.list(home)) {
+                long onDisk = files.mapToLong(path -> path.toFile().length()).sum();
+                Assertions.assertTrue(onDisk < content.length / 2);
+            }
+        }
+
+        Assertions.assertTrue(Files.size(home.resolve("data.csv")) < content.length / 2);
+        Assertions.assertArrayEquals(content, Files.readAllBytes(file));
+    }
+
+    @Test
+    @DisplayName("Test a write at another offset while streaming keeps what was written")
+    public void testNonSequentialWrite() throws IOException {
+        byte[] content = csv(2000);
+        Path file = fileSystem.getPath("/data.csv");
+
+        try (SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(content, 0, 10000));
+            channel.position(12000);
+            channel.write(ByteBuffer.wrap(content, 12000, content.length - 12000));
+            channel.position(10000);
+            channel.write(ByteBuffer.wrap(content, 10000, 2000));
+        }
+
+        Assertions.assertArrayEquals(content, Files.readAllBytes(file));
+        Assertions.assertTrue(Files.size(home.resolve("data.csv")) < content.length / 2);
+        try (Stream<Path> files = Files.list(home)) {
+            Assertions.assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    @DisplayName("Test listings leave out files being written and plain files are read as they are")
+    public void testListing() throws IOException {
+        byte[] plain = "written before compression".getBytes(StandardCharsets.UTF_8);
+        Files.write(home.resolve("plain.txt"), plain);
+
+        try (SeekableByteChannel channel = Files.newByteChannel(fileSystem.getPath("/new.csv"),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(csv(10)));
+            try (Stream<Path> files = Files.list(fileSystem.getPath("/"))) {
+                Assertions.assertEquals(List.of("new.csv", "plain.txt"),
+                        files.map(path -> path.getFileName().toString()).sorted().toList());
+            }
+        }
+
+        Assertions.assertArrayEquals(plain, Files.readAllBytes(fileSystem.getPath("/plain.txt")));
+        Assertions.assertEquals(plain.length, Files.size(fileSystem.getPath("/plain.txt")));
+        try (Stream<Path> files = Files.list(home)) {
+            Assertions.assertEquals(2, files.count());
+        }
+    }
+
+    private static byte[] csv(int rows) {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < rows; i++) {
+            csv.append(i).append(",customer-").append(i % 50).append(",2024-01-").append(i % 28 + 1)
+                    .append(",").append(i * 7 % 1000).append(".00\n");
+        }
+        return csv.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,326 @@
+package com.irg.ftpserver.storage.s3;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-memory S3 endpoint for one bucket with path-style addressing, implementing just what {@link S3Client} uses.
+ */
+class FakeS3Server implements AutoCloseable {
+
+    private final HttpServer server;
+
+    private final String bucket;
+
+    private final NavigableMap<String, byte[]> objects = new ConcurrentSkipListMap<>();
+
+    private final Map<String, NavigableMap<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+
+    private final AtomicInteger completedUploads = new AtomicInteger();
+
+    private final AtomicInteger objectReads = new AtomicInteger();
+
+    private volatile long responseDelay;
+
+    private volatile boolean failPartUploads;
+
+    FakeS3Server(String bucket) throws IOException {
+        this.bucket = bucket;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    URI getEndpoint() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    NavigableMap<String, byte[]> getObjects() {
+        return objects;
+    }
+
+    int getCompletedUploads() {
+        return completedUploads.get();
+    }
+
+    int getPendingUploads() {
+        return uploads.size();
+    }
+
+    int getObjectReads() {
+        return objectReads.get();
+    }
+
+    /**
+     * Makes every request wait before it is answered, to simulate a store that stopped responding.
+     */
+    void setResponseDelay(long millis) {
+        responseDelay = millis;
+    }
+
+    /**
+     * Makes every part upload fail with an internal error.
+     */
+    void setFailPartUploads(boolean fail) {
+        failPartUploads = fail;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (responseDelay > 0) {
+                try {
+                    Thread.sleep(responseDelay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (exchange.getRequestHeaders().getFirst("Authorization") == null) {
+                error(exchange, 403, "AccessDenied");
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            String bucketPath = "/" + bucket + "/";
+            if (!path.startsWith(bucketPath) && !path.equals("/" + bucket)) {
+                error(exchange, 404, "NoSuchBucket");
+                return;
+            }
+            String key = path.length() > bucketPath.length() ? path.substring(bucketPath.length()) : "";
+            Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+            String copySource = exchange.getRequestHeaders().getFirst("x-amz-copy-source");
+            switch (exchange.getRequestMethod()) {
+                case "HEAD" -> head(exchange, key);
+                case "GET" -> {
+                    if (query.containsKey("list-type")) {
+                        list(exchange, query);
+                    } else {
+                        get(exchange, key);
+                    }
+                }
+                case "PUT" -> {
+                    if (query.containsKey("uploadId") && failPartUploads) {
+                        exchange.getRequestBody().readAllBytes();
+                        error(exchange, 500, "InternalError");
+                    } else if (query.containsKey("uploadId")) {
+                        uploadPart(exchange, query, copySource);
+                    } else if (copySource != null) {
+                        byte[] source = objects.get(sourceKey(copySource));
+                        if (source == null) {
+                            error(exchange, 404, "NoSuchKey");
+                            return;
+                        }
+                        objects.put(key, source);
+                        xml(exchange, "<CopyObjectResult><ETag>\"copy\"</ETag></CopyObjectResult>");
+                    } else {
+                        byte[] data = exchange.getRequestBody().readAllBytes();
+                        objects.put(key, data);
+                        exchange.getResponseHeaders().set("ETag", eTag(data));
+                        exchange.sendResponseHeaders(200, -1);
+                    }
+                }
+                case "POST" -> {
+                    if (query.containsKey("uploads")) {
+                        String uploadId = UUID.randomUUID().toString();
+                        uploads.put(uploadId, new TreeMap<>());
+                        xml(exchange, "<InitiateMultipartUploadResult><UploadId>" + uploadId
+                                + "</UploadId></InitiateMultipartUploadResult>");
+                    } else {
+                        complete(exchange, key, query.get("uploadId"));
+                    }
+                }
+                case "DELETE" -> {
+                    if (query.containsKey("uploadId")) {
+                        uploads.remove(query.get("uploadId"));
+                    } else {
+                        objects.remove(key);
+                    }
+                    exchange.sendResponseHeaders(204, -1);
+                }
+                default -> error(exchange, 405, "MethodNotAllowed");
+            }
+        }
+    }
+
+    private void head(HttpExchange exchange, String key) throws IOException {
+        byte[] data = objects.get(key);
+        if (data == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Length", Integer.toString(data.length));
+        exchange.getResponseHeaders().set("ETag", eTag(data));
+        exchange.getResponseHeaders().set("Last-Modified",
+                DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.EPOCH.atZone(ZoneOffset.UTC)));
+        exchange.sendResponseHeaders(200, -1);
+    }
+
+    private void get(HttpExchange exchange, String key) throws IOException {
+        byte[] data = objects.get(key);
+        if (data == null) {
+            error(exchange, 404, "NoSuchKey");
+            return;
+        }
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        int offset = range == null ? 0 : Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+        if (offset >= data.length && offset > 0) {
+            error(exchange, 416, "InvalidRange");
+            return;
+        }
+        objectReads.incrementAndGet();
+        send(exchange, range == null ? 200 : 206, Arrays.copyOfRange(data, offset, data.length));
+    }
+
+    private void list(HttpExchange exchange, Map<String, String> query) throws IOException {
+        String prefix = query.getOrDefault("prefix", "");
+        String delimiter = query.get("delimiter");
+        int maxKeys = Integer.parseInt(query.getOrDefault("max-keys", "1000"));
+        String after = query.get("continuation-token");
+        StringBuilder contents = new StringBuilder();
+        TreeSet<String> prefixes = new TreeSet<>();
+        int count = 0;
+        String last = null;
+        boolean truncated = false;
+        for (Map.Entry<String, byte[]> entry : objects.tailMap(prefix, true).entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(prefix)) {
+                break;
+            }
+            if (after != null && key.compareTo(after) <= 0) {
+                continue;
+            }
+            if (count == maxKeys) {
+                truncated = true;
+                break;
+            }
+            int index = delimiter == null ? -1 : key.indexOf(delimiter, prefix.length());
+            if (index >= 0) {
+                if (!prefixes.add(key.substring(0, index + delimiter.length()))) {
+                    last = key;
+                    continue;
+                }
+            } else {
+                contents.append("<Contents><Key>").append(key).append("</Key><LastModified>")
+                        .append(Instant.EPOCH).append("</LastModified><Size>").append(entry.getValue().length)
+                        .append("</Size></Contents>");
+            }
+            count++;
+            last = key;
+        }
+        StringBuilder body = new StringBuilder("<ListBucketResult><IsTruncated>").append(truncated)
+                .append("</IsTruncated>");
+        if (truncated) {
+            body.append("<NextContinuationToken>").append(last).append("</NextContinuationToken>");
+        }
+        body.append(contents);
+        for (String commonPrefix : prefixes) {
+            body.append("<CommonPrefixes><Prefix>").append(commonPrefix).append("</Prefix></CommonPrefixes>");
+        }
+        xml(exchange, body.append("</ListBucketResult>").toString());
+    }
+
+    private void uploadPart(HttpExchange exchange, Map<String, String> query, String copySource)
+            throws IOException {
+        NavigableMap<Integer, byte[]> parts = uploads.get(query.get("uploadId"));
+        if (parts == null) {
+            error(exchange, 404, "NoSuchUpload");
+            return;
+        }
+        int partNumber = Integer.parseInt(query.get("partNumber"));
+        if (copySource == null) {
+            parts.put(partNumber, exchange.getRequestBody().readAllBytes());
+            exchange.getResponseHeaders().set("ETag", "\"" + partNumber + "\"");
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        String[] range = exchange.getRequestHeaders().getFirst("x-amz-copy-source-range")
+                .substring("bytes=".length()).split("-");
+        byte[] source = objects.get(sourceKey(copySource));
+        parts.put(partNumber, Arrays.copyOfRange(source, Integer.parseInt(range[0]),
+                Integer.parseInt(range[1]) + 1));
+        xml(exchange, "<CopyPartResult><ETag>\"" + partNumber + "\"</ETag></CopyPartResult>");
+    }
+
+    private void complete(HttpExchange exchange, String key, String uploadId) throws IOException {
+        NavigableMap<Integer, byte[]> parts = uploads.remove(uploadId);
+        if (parts == null) {
+            error(exchange, 404, "NoSuchUpload");
+            return;
+        }
+        exchange.getRequestBody().readAllBytes();
+        int size = parts.values().stream().mapToInt(part -> part.length).sum();
+        byte[] data = new byte[size];
+        int offset = 0;
+        for (byte[] part : parts.values()) {
+            System.arraycopy(part, 0, data, offset, part.length);
+            offset += part.length;
+        }
+        objects.put(key, data);
+        completedUploads.incrementAndGet();
+        xml(exchange, "<CompleteMultipartUploadResult><Key>" + key + "</Key><ETag>" + eTag(data)
+                + "</ETag></CompleteMultipartUploadResult>");
+    }
+
+    private static String eTag(byte[] data) {
+        return "\"" + Integer.toHexString(Arrays.hashCode(data)) + "\"";
+    }
+
+    private String sourceKey(String copySource) {
+        String source = URLDecoder.decode(copySource, StandardCharsets.UTF_8);
+        return source.substring(("/" + bucket + "/").length());
+    }
+
+    private static Map<String, String> query(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            int index = parameter.indexOf('=');
+            String name = index < 0 ? parameter : parameter.substring(0, index);
+            String value = index < 0 ? "" : parameter.substring(index + 1);
+            query.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private static void error(HttpExchange exchange, int status, String code) throws IOException {
+        send(exchange, status, ("<Error><Code>" + code + "</Code><Message>" + code + "</Message></Error>")
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void xml(HttpExchange exchange, String body) throws IOException {
+        send(exchange, 200, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
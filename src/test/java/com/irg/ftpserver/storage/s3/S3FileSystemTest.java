@@ -0,0 +1,236 @@
+package com.irg.ftpserver.storage.s3;
+
+import com.irg.ftpserver.config.SFTPServerProperties;
+import com.irg.ftpserver.service.SFTPCachingFileSystemAccessor;
+import com.irg.ftpserver.service.SFTPDeduplicationService;
+import com.irg.ftpserver.service.SFTPMappedReadService;
+import com.irg.ftpserver.service.SFTPUserService;
+import com.irg.ftpserver.service.SFTPWriteCoalescingService;
+import com.irg.ftpserver.storage.HotTierCache;
+import com.irg.ftpserver.storage.S3StorageBackend;
+import org.apache.sshd.server.session.ServerSession;
+import org.apache.sshd.sftp.server.SftpSubsystemProxy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.mockito.Mockito.*;
+
+public class S3FileSystemTest {
+
+    private FakeS3Server server;
+    private Path hotTierDirectory;
+    private SFTPServerProperties properties;
+    private FileSystem fileSystem;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new FakeS3Server("bucket");
+        hotTierDirectory = Files.createTempDirectory("hot-tier");
+        properties = new SFTPServerProperties();
+        properties.setS3Endpoint(server.getEndpoint().toString());
+        properties.setS3Bucket("bucket");
+        properties.setS3AccessKey("access");
+        properties.setS3SecretKey("secret");
+        properties.setS3PartSize(1024);
+        properties.setHotTierEnabled(true);
+        properties.setHotTierDirectory(hotTierDirectory.toString());
+        S3StorageBackend storageBackend = new S3StorageBackend(properties, new HotTierCache(properties));
+        storageBackend.createHome("/user/");
+        fileSystem = storageBackend.createFileSystem("user", "/user/");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        fileSystem.close();
+        server.close();
+        try (Stream<Path> files = Files.walk(hotTierDirectory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test a file larger than a part is uploaded in parts and a small one in a single request")
+    public void testUpload() throws IOException {
+        byte[] content = content(2500);
+        Files.write(fileSystem.getPath("/large.bin"), content);
+        Files.write(fileSystem.getPath("/small.bin"), content(10));
+
+        Assertions.assertArrayEquals(content, server.getObjects().get("user/large.bin"));
+        Assertions.assertEquals(10, server.getObjects().get("user/small.bin").length);
+        Assertions.assertEquals(1, server.getCompletedUploads());
+        Assertions.assertEquals(0, server.getPendingUploads());
+        Assertions.assertEquals(2500L, Files.size(fileSystem.getPath("/large.bin")));
+    }
+
+    @Test
+    @DisplayName("Test an upload whose part failed is aborted and fails every later write and close")
+    public void testFailedPart() throws IOException {
+        server.setFailPartUploads(true);
+        SeekableByteChannel channel = Files.newByteChannel(fileSystem.getPath("/failed.bin"),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+
+        Assertions.assertThrows(IOException.class, () -> channel.write(ByteBuffer.wrap(content(1500))));
+        server.setFailPartUploads(false);
+        // A client retrying the same offset must not append the data again
+        Assertions.assertThrows(IOException.class, () -> channel.write(ByteBuffer.wrap(content(1500))));
+        Assertions.assertThrows(IOException.class, channel::close);
+
+        Assertions.assertFalse(channel.isOpen());
+        Assertions.assertNull(server.getObjects().get("user/failed.bin"));
+        Assertions.assertEquals(0, server.getPendingUploads());
+        Assertions.assertEquals(0, server.getCompletedUploads());
+    }
+
+    @Test
+    @DisplayName("Test a file is read from the position a client seeks to")
+    public void testRangedRead() throws IOException {
+        byte[] content = content(3000);
+        server.getObjects().put("user/file.bin", content);
+
+        try (SeekableByteChannel channel = Files.newByteChannel(fileSystem.getPath("/file.bin"))) {
+            Assertions.assertEquals(3000L, channel.size());
+            channel.position(2000);
+            ByteBuffer buffer = ByteBuffer.allocate(1000);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Read until full
+            }
+            Assertions.assertArrayEquals(Arrays.copyOfRange(content, 2000, 3000), buffer.array());
+            Assertions.assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+        }
+    }
+
+    @Test
+    @DisplayName("Test a file read whole is served from the hot tier until it changes")
+    public void testHotTier() throws IOException {
+        server.getObjects().put("user/daily.csv", content(3000));
+        Path file = fileSystem.getPath("/daily.csv");
+
+        Assertions.assertArrayEquals(content(3000), Files.readAllBytes(file));
+        Assertions.assertArrayEquals(content(3000), Files.readAllBytes(file));
+        Assertions.assertEquals(1, server.getObjectReads());
+
+        server.getObjects().put("user/daily.csv", content(2000));
+        Assertions.assertArrayEquals(content(2000), Files.readAllBytes(file));
+        Assertions.assertEquals(2, server.getObjectReads());
+
+        Files.write(fileSystem.getPath("/upload.bin"), content(2500));
+        Assertions.assertArrayEquals(content(2500), Files.readAllBytes(fileSystem.getPath("/upload.bin")));
+        Assertions.assertEquals(2, server.getObjectReads());
+    }
+
+    @Test
+    @DisplayName("Test directories are listed, moved and only deleted when empty")
+    public void testDirectories() throws IOException {
+        Path directory = fileSystem.getPath("/dir");
+        Files.createDirectory(directory);
+        Files.write(directory.resolve("a.txt"), content(5));
+        Files.write(fileSystem.getPath("/b.txt"), content(5));
+
+        Assertions.assertTrue(Files.isDirectory(directory));
+        Assertions.assertEquals(List.of("b.txt", "dir"), list(fileSystem.getPath("/")));
+        Assertions.assertThrows(DirectoryNotEmptyException.class, () -> Files.delete(directory));
+
+        Files.move(directory, fileSystem.getPath("/moved"));
+        Assertions.assertFalse(Files.exists(directory));
+        Assertions.assertEquals(List.of("a.txt"), list(fileSystem.getPath("/moved")));
+
+        Files.delete(fileSystem.getPath("/moved/a.txt"));
+        Files.delete(fileSystem.getPath("/moved"));
+        Assertions.assertEquals(List.of("user/", "user/b.txt"), new ArrayList<>(server.getObjects().keySet()));
+    }
+
+    @Test
+    @DisplayName("Test a file is written and read back through the SFTP file system accessor")
+    public void testSftpAccessor() throws IOException {
+        SFTPUserService sftpUserService = Mockito.mock(SFTPUserService.class);
+        SFTPCachingFileSystemAccessor accessor = new SFTPCachingFileSystemAccessor(properties,
+                new SFTPDeduplicationService(properties, sftpUserService), new SFTPMappedReadService(properties),
+                new SFTPWriteCoalescingService(properties, sftpUserService));
+        ServerSession session = Mockito.mock(ServerSession.class);
+        when(session.getUsername()).thenReturn("user");
+        SftpSubsystemProxy subsystem = Mockito.mock(SftpSubsystemProxy.class);
+        when(subsystem.getServerSession()).thenReturn(session);
+        Path file = fileSystem.getPath("/sftp.bin");
+        byte[] content = content(2500);
+
+        Set<OpenOption> write = Set.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        SeekableByteChannel out = accessor.openFile(subsystem, null, file, "handle", write);
+        ByteBuffer source = ByteBuffer.wrap(content);
+        while (source.hasRemaining()) {
+            out.write(source);
+        }
+        accessor.closeFile(subsystem, null, file, "handle", out, write);
+        Assertions.assertArrayEquals(content, server.getObjects().get("user/sftp.bin"));
+        Assertions.assertEquals(2500L, accessor.readFileAttributes(subsystem, file, "basic:*").get("size"));
+
+        Set<OpenOption> read = Set.of(StandardOpenOption.READ);
+        SeekableByteChannel in = accessor.openFile(subsystem, null, file, "handle", read);
+        ByteBuffer target = ByteBuffer.allocate(content.length);
+        while (target.hasRemaining() && in.read(target) >= 0) {
+            // Read until full
+        }
+        accessor.closeFile(subsystem, null, file, "handle", in, read);
+        Assertions.assertArrayEquals(content, target.array());
+        accessor.destroy();
+    }
+
+    @Test
+    @DisplayName("Test a request fails once the store has not responded within the request timeout")
+    public void testRequestTimeout() throws IOException {
+        properties.setS3RequestTimeout(100);
+        properties.setHotTierEnabled(false);
+        S3StorageBackend storageBackend = new S3StorageBackend(properties, new HotTierCache(properties));
+        server.getObjects().put("user/file.bin", content(10));
+        server.setResponseDelay(1000);
+
+        try (FileSystem slowFileSystem = storageBackend.createFileSystem("user", "/user/")) {
+            Assertions.assertThrows(HttpTimeoutException.class,
+                    () -> Files.readAllBytes(slowFileSystem.getPath("/file.bin")));
+        }
+        server.setResponseDelay(0);
+    }
+
+    private static List<String> list(Path directory) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                names.add(entry.getFileName().toString());
+            }
+        }
+        names.sort(null);
+        return names;
+    }
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) i;
+        }
+        return content;
+    }
+}
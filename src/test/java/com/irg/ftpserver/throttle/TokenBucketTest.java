@@ -0,0 +1,56 @@
+package com.irg.ftpserver.throttle;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TokenBucketTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    @DisplayName("Test a rate of 0 never delays")
+    public void testUnlimited() {
+        TokenBucket bucket = new TokenBucket(0, 0, clock::get);
+
+        Assertions.assertEquals(0, bucket.reserve(Integer.MAX_VALUE));
+        Assertions.assertEquals(0, bucket.reserve(Integer.MAX_VALUE));
+    }
+
+    @Test
+    @DisplayName("Test bytes beyond the burst are delayed to stay within the rate")
+    public void testDelayBeyondBurst() {
+        TokenBucket bucket = new TokenBucket(1000, 500, clock::get);
+
+        Assertions.assertEquals(0, bucket.reserve(500));
+        Assertions.assertEquals(TimeUnit.MILLISECONDS.toNanos(500), bucket.reserve(500));
+        Assertions.assertEquals(TimeUnit.SECONDS.toNanos(1), bucket.reserve(500));
+    }
+
+    @Test
+    @DisplayName("Test an idle bucket refills up to the burst")
+    public void testRefill() {
+        TokenBucket bucket = new TokenBucket(1000, 500, clock::get);
+
+        bucket.reserve(1000);
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+        Assertions.assertEquals(0, bucket.reserve(500));
+        Assertions.assertEquals(TimeUnit.MILLISECONDS.toNanos(500), bucket.reserve(500));
+    }
+
+    @Test
+    @DisplayName("Test changing the rate forgives the delay owed at the previous rate")
+    public void testSetBytesPerSecond() {
+        TokenBucket bucket = new TokenBucket(1000, 0, clock::get);
+
+        Assertions.assertEquals(TimeUnit.SECONDS.toNanos(10), bucket.reserve(10_000));
+        bucket.setBytesPerSecond(2000);
+
+        Assertions.assertEquals(2000, bucket.getBytesPerSecond());
+        Assertions.assertEquals(TimeUnit.MILLISECONDS.toNanos(500), bucket.reserve(1000));
+    }
+}